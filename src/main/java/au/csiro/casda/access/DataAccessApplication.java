@@ -27,6 +27,7 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -48,6 +49,7 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import au.csiro.casda.Utils;
 import au.csiro.casda.access.jpa.CachedFileRepository;
@@ -257,6 +259,23 @@ public class DataAccessApplication extends SpringBootServletInitializer
         return filterRegistrationBean;
     }
 
+    /**
+     * Runs the scheduled tasks. Spring would otherwise run them all on a single thread, so a slow task such as a full
+     * rebuild of the image footprint index would delay every other task.
+     * 
+     * @param poolSize
+     *            the number of threads running the scheduled tasks
+     * @return the TaskScheduler
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${scheduling.pool.size}") int poolSize)
+    {
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(poolSize);
+        taskScheduler.setThreadNamePrefix("scheduled-");
+        return taskScheduler;
+    }
+
     /**
      * Return the factory which will create ProcessJob instance for us to run commands.
      * 
@@ -311,13 +330,15 @@ public class DataAccessApplication extends SpringBootServletInitializer
      * @param safeAddress the emailaddress which will override the 'to address' in non-prod environments
      * @param host the smtp server
      * @param port the port for accessing the smtp server
+     * @param smtpTimeoutMillis the time to wait to connect to, or for a reply from, the smtp server
      * @return the MailService
      */
     @Bean
     public MailService getMailService(@Value("${freemarker.template.path}") String templates, 
     								  @Value("${email.safe.address}") String safeAddress,
     								  @Value("${email.host}") String host,
-    								  @Value("${email.port}") int port)
+    								  @Value("${email.port}") int port,
+    								  @Value("${email.smtp.timeout.millis:30000}") int smtpTimeoutMillis)
     {
     	//freemarker configuration
     	freemarker.template.Configuration config = new freemarker.template.Configuration();
@@ -325,11 +346,18 @@ public class DataAccessApplication extends SpringBootServletInitializer
     	config.setDefaultEncoding("UTF-8");
     	config.setLocale(Locale.ENGLISH);
     	config.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+    	// the templates are packaged with the application, so once compiled they never need checking for changes
+    	config.setTemplateUpdateDelay(Integer.MAX_VALUE);
     	
     	//Mail sender configuration
     	JavaMailSenderImpl sender = new JavaMailSenderImpl();
     	sender.setHost(host);
     	sender.setPort(port);
+    	Properties mailProperties = new Properties();
+    	mailProperties.setProperty("mail.smtp.connectiontimeout", String.valueOf(smtpTimeoutMillis));
+    	mailProperties.setProperty("mail.smtp.timeout", String.valueOf(smtpTimeoutMillis));
+    	mailProperties.setProperty("mail.smtp.writetimeout", String.valueOf(smtpTimeoutMillis));
+    	sender.setJavaMailProperties(mailProperties);
     	
     	return new MailService(sender, config, safeAddress);
     }
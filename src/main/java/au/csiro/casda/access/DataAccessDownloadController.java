@@ -8,6 +8,7 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
@@ -28,6 +29,7 @@ import au.csiro.casda.access.jpa.DataAccessJobRepository;
 import au.csiro.casda.access.services.DataAccessService;
 import au.csiro.casda.access.soda.AccessDataController;
 import au.csiro.casda.access.soda.RequestToken;
+import au.csiro.casda.access.util.ArchiveFormat;
 import au.csiro.casda.access.util.Utils;
 import au.csiro.casda.access.uws.AccessJobManager;
 import au.csiro.casda.access.uws.AccessJobManager.ScheduleJobException;
@@ -122,6 +124,8 @@ public class DataAccessDownloadController
      *            the data access request id
      * @param filename
      *            the filename
+     * @param request
+     *            the request, which may ask for a byte range of the file
      * @param response
      *            the response
      * 
@@ -135,9 +139,10 @@ public class DataAccessDownloadController
     @RequestMapping(value = "/requests/{requestId}/{filename:.+}", method = RequestMethod.GET, produces = {
             MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.TEXT_PLAIN_VALUE, "text/csv", "application/x-tar" })
     public void downloadFileWeb(@PathVariable() String requestId, @PathVariable() String filename,
-            HttpServletResponse response) throws IOException, BadRequestException, ResourceNotFoundException
+            HttpServletRequest request, HttpServletResponse response)
+            throws IOException, BadRequestException, ResourceNotFoundException
     {
-        downloadFile(requestId, filename, response, Utils.WEB_DOWNLOADS);
+        downloadFile(requestId, filename, request, response, Utils.WEB_DOWNLOADS);
     }
 
     /**
@@ -147,6 +152,8 @@ public class DataAccessDownloadController
      *            the data access request id
      * @param filename
      *            the filename
+     * @param request
+     *            the request, which may ask for a byte range of the file
      * @param response
      *            the response
      * 
@@ -160,9 +167,10 @@ public class DataAccessDownloadController
     @RequestMapping(value = "/pawsey/requests/{requestId}/{filename:.+}", method = RequestMethod.GET, produces = {
             MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.TEXT_PLAIN_VALUE, "text/csv", "application/x-tar" })
     public void downloadFilePawsey(@PathVariable() String requestId, @PathVariable() String filename,
-            HttpServletResponse response) throws IOException, BadRequestException, ResourceNotFoundException
+            HttpServletRequest request, HttpServletResponse response)
+            throws IOException, BadRequestException, ResourceNotFoundException
     {
-        downloadFile(requestId, filename, response, Utils.PAWSEY_DOWNLOADS);
+        downloadFile(requestId, filename, request, response, Utils.PAWSEY_DOWNLOADS);
     }
     
     /**
@@ -170,6 +178,8 @@ public class DataAccessDownloadController
      * 
      * @param fileId
      *            the NGAS file id of the thumbnail
+     * @param request
+     *            the request, which may include conditional headers
      * @param response
      *            the response
      * @throws IOException
@@ -180,7 +190,7 @@ public class DataAccessDownloadController
      *             if the requested file could not be found
      */
     @RequestMapping(value = "/pawsey/thumbnail/{fileId:.+}", method = RequestMethod.GET)
-    public void downloadThumbnailPawsey(@PathVariable() String fileId, 
+    public void downloadThumbnailPawsey(@PathVariable() String fileId, HttpServletRequest request,
             HttpServletResponse response) throws IOException, BadRequestException, ResourceNotFoundException
     {
         if (StringUtils.isBlank(fileId))
@@ -191,7 +201,7 @@ public class DataAccessDownloadController
         {
             response.sendError(HttpStatus.SC_FORBIDDEN);
         }
-        dataAccessService.downloadThumbnailFromNgas(fileId, response);
+        dataAccessService.downloadThumbnailFromNgas(fileId, request, response);
     }
 
     /**
@@ -212,13 +222,106 @@ public class DataAccessDownloadController
     }
     
     
-    private void downloadFile(String requestId, String filename, HttpServletResponse response,
-            EnumSet<CasdaDownloadMode> permittedDownloadModes) throws ResourceNotFoundException, IOException
+    /**
+     * Download all of the files of a job as a single archive - this will redirect to view the job if the job has
+     * expired.
+     * 
+     * @param requestId
+     *            the data access request id
+     * @param format
+     *            the archive format, either tar or zip
+     * @param response
+     *            the response
+     * 
+     * @throws IOException
+     *             if it can't redirect to the expired page
+     * @throws ResourceNotFoundException
+     *             if the job or archive format could not be found
+     * @throws ResourceIllegalStateException
+     *             if the job's files are not ready for download
+     */
+    @RequestMapping(value = "/requests/{requestId}/archive/{format}", method = RequestMethod.GET)
+    public void downloadArchiveWeb(@PathVariable() String requestId, @PathVariable() String format,
+            HttpServletResponse response)
+            throws IOException, ResourceNotFoundException, ResourceIllegalStateException
     {
-        DataAccessJob dataAccessJob = dataAccessJobRepository.findByRequestId(requestId);
+        downloadArchive(requestId, format, response, Utils.WEB_DOWNLOADS);
+    }
 
+    /**
+     * Download all of the files of a Pawsey job as a single archive - this will redirect to view the job if the job
+     * has expired.
+     * 
+     * @param requestId
+     *            the data access request id
+     * @param format
+     *            the archive format, either tar or zip
+     * @param response
+     *            the response
+     * 
+     * @throws IOException
+     *             if it can't redirect to the expired page
+     * @throws ResourceNotFoundException
+     *             if the job or archive format could not be found
+     * @throws ResourceIllegalStateException
+     *             if the job's files are not ready for download
+     */
+    @RequestMapping(value = "/pawsey/requests/{requestId}/archive/{format}", method = RequestMethod.GET)
+    public void downloadArchivePawsey(@PathVariable() String requestId, @PathVariable() String format,
+            HttpServletResponse response)
+            throws IOException, ResourceNotFoundException, ResourceIllegalStateException
+    {
+        downloadArchive(requestId, format, response, Utils.PAWSEY_DOWNLOADS);
+    }
+
+    private void downloadArchive(String requestId, String format, HttpServletResponse response,
+            EnumSet<CasdaDownloadMode> permittedDownloadModes)
+            throws ResourceNotFoundException, ResourceIllegalStateException, IOException
+    {
+        ArchiveFormat archiveFormat = ArchiveFormat.fromExtension(format);
+        if (archiveFormat == null)
+        {
+            throw new ResourceNotFoundException("Unsupported archive format " + format);
+        }
+
+        String archiveName = requestId + "." + archiveFormat.getExtension();
+        logger.info("{}", CasdaDataAccessEvents.E040.messageBuilder().add(requestId).add(archiveName));
+
+        DataAccessJob dataAccessJob = findDownloadableJob(requestId, response, permittedDownloadModes);
+        if (dataAccessJob == null)
+        {
+            return;
+        }
+        if (!dataAccessJob.isReady())
+        {
+            throw new ResourceIllegalStateException("Request " + requestId + " is not ready for download");
+        }
+
+        this.dataAccessService.downloadJobArchive(dataAccessJob, archiveFormat, response);
+    }
+
+    private void downloadFile(String requestId, String filename, HttpServletRequest request,
+            HttpServletResponse response, EnumSet<CasdaDownloadMode> permittedDownloadModes) throws ResourceNotFoundException, IOException
+    {
         logger.info("{}", CasdaDataAccessEvents.E040.messageBuilder().add(requestId).add(filename));
 
+        DataAccessJob dataAccessJob = findDownloadableJob(requestId, response, permittedDownloadModes);
+        if (dataAccessJob != null)
+        {
+            this.dataAccessService.downloadFile(dataAccessJob, filename, request, response, false, false);
+        }
+    }
+
+    /**
+     * Looks up a job for download, redirecting to the job's status page if it has expired.
+     * 
+     * @return the job, or null if the job has expired and the response has been redirected
+     */
+    private DataAccessJob findDownloadableJob(String requestId, HttpServletResponse response,
+            EnumSet<CasdaDownloadMode> permittedDownloadModes) throws ResourceNotFoundException, IOException
+    {
+        DataAccessJob dataAccessJob = dataAccessJobRepository.findByRequestId(requestId);
+
         if (dataAccessJob == null || !permittedDownloadModes.contains(dataAccessJob.getDownloadMode()))
         {
             throw new ResourceNotFoundException("No valid request found with request id " + requestId);
@@ -242,10 +345,9 @@ public class DataAccessDownloadController
             default:
                 throw new BadRequestException("Unsupported download mode " + dataAccessJob.getDownloadMode());
             }
-            return;
+            return null;
         }
-
-        this.dataAccessService.downloadFile(dataAccessJob, filename, response, false, false);
+        return dataAccessJob;
     }
     
     /**
@@ -325,6 +427,8 @@ public class DataAccessDownloadController
      *            The declination of the central point of the preview.
      * @param radius
      *            The distance from centre to either edge of the preview cutout
+     * @param request
+     *            The http request object, which may include conditional headers.
      * @param response
      *            The http response object, used to send back the response code and data.
      * @throws IOException
@@ -332,12 +436,12 @@ public class DataAccessDownloadController
      */
     @RequestMapping(value = "preview/image/{id}", method = RequestMethod.GET)
     public void downloadCatalogueObjectPreview(@PathVariable("id") long imageCubeId, @RequestParam("ra") double ra,
-            @RequestParam("dec") double dec, @RequestParam("radius") String radius, HttpServletResponse response)
-            throws IOException
+            @RequestParam("dec") double dec, @RequestParam("radius") String radius, HttpServletRequest request,
+            HttpServletResponse response) throws IOException
     {
         double radiusDbl = Double.parseDouble(radius);
         // Get existing preview 
-        if (!dataAccessService.downloadCutoutPreview(imageCubeId, ra, dec, radiusDbl, response))
+        if (!dataAccessService.downloadCutoutPreview(imageCubeId, ra, dec, radiusDbl, request, response))
         {
             // No existing preview, so build and start a job to produce it
             RequestToken idToken =
@@ -354,6 +458,7 @@ public class DataAccessDownloadController
             jobDetails.setDownloadFormat("png");
             jobDetails.setParams(params);
             jobDetails.setJobType(RequestToken.CUTOUT);
+            // not rate limited, as previews are anonymous and would all share one allowance across every user
             DataAccessJob dataAccessJob = accessJobManager.createDataAccessJob(jobDetails, null, true);
             if (dataAccessJob.getImageCutouts().isEmpty())
             {
@@ -33,6 +33,7 @@ import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import com.wordnik.swagger.annotations.Api;
 
+import au.csiro.casda.access.services.JobAdmissionGovernor;
 import au.csiro.casda.access.uws.AccessJobManager;
 import au.csiro.casda.access.uws.AccessJobManager.ScheduleJobException;
 import au.csiro.casda.entity.dataaccess.DataAccessJob;
@@ -55,16 +56,21 @@ public class DataAccessJobController
 
     private final AccessJobManager accessJobManager;
 
+    private final JobAdmissionGovernor jobAdmissionGovernor;
+
     /**
      * Create a new DataAccessJobController instance.
      * 
      * @param accessJobManager
      *            the access job manager for interacting with the UWS job queue
+     * @param jobAdmissionGovernor
+     *            the governor deciding whether a user may create another job
      */
     @Autowired
-    public DataAccessJobController(AccessJobManager accessJobManager)
+    public DataAccessJobController(AccessJobManager accessJobManager, JobAdmissionGovernor jobAdmissionGovernor)
     {
         this.accessJobManager = accessJobManager;
+        this.jobAdmissionGovernor = jobAdmissionGovernor;
     }
 
     /**
@@ -74,6 +80,8 @@ public class DataAccessJobController
      * @param job
      *            The details of the data to be retrieved, the delivery method and the user requesting the data.
      * @return A response with code 201 and the UUID issued for the request.
+     * @throws TooManyRequestsException
+     *             if the user already has too many jobs being prepared, or is creating jobs too quickly
      */
     @RequestMapping(//
             method = RequestMethod.POST, //
@@ -88,7 +96,18 @@ public class DataAccessJobController
         logger.info("Hit the controller for the '/requests with ids={}' url mapping - servicing request",
                 String.join(",", job.getIds()));
 
-        DataAccessJob newJob = accessJobManager.createDataAccessJob(job);
+        jobAdmissionGovernor.admit(job);
+        DataAccessJob newJob;
+        try
+        {
+            newJob = accessJobManager.createDataAccessJob(job);
+        }
+        catch (RuntimeException e)
+        {
+            jobAdmissionGovernor.jobNotCreated(job);
+            throw e;
+        }
+        jobAdmissionGovernor.jobCreated(newJob);
 
         try
         {
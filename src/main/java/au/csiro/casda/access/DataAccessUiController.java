@@ -43,6 +43,7 @@ import org.springframework.web.servlet.view.RedirectView;
 
 import au.csiro.casda.access.cache.CacheException;
 import au.csiro.casda.access.services.DataAccessService;
+import au.csiro.casda.access.util.ArchiveFormat;
 import au.csiro.casda.access.util.Utils;
 import au.csiro.casda.access.uws.AccessJobManager;
 import au.csiro.casda.access.uws.AccessJobManager.ScheduleJobException;
@@ -158,6 +159,8 @@ public class DataAccessUiController
             //the download link is made using the current link and replacing request with download, Paging means
             //that the page info must also be removed for link to work
             model.addAttribute("downloadLink", url.replace("requests", "download").replaceAll("/page/[0-9]*", ""));
+            model.addAttribute("archiveLink", baseUrl + DataAccessUtil
+                    .getRelativeLinkForJobArchive(dataAccessJob.getDownloadMode(), requestId, ArchiveFormat.TAR));
         }
 
         model.addAttribute("dataAccessJob", dataAccessJob);
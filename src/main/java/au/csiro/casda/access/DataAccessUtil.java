@@ -36,6 +36,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import au.csiro.casda.access.soda.RequestToken;
+import au.csiro.casda.access.util.ArchiveFormat;
 import au.csiro.casda.access.util.Utils;
 import au.csiro.casda.entity.dataaccess.CachedFile.FileType;
 import au.csiro.casda.entity.dataaccess.CasdaDownloadMode;
@@ -62,6 +63,8 @@ public class DataAccessUtil
     public static final String IMAGE_CUBE_ID = "imagecubeid";
     /** Constant for the imagecubesize param */
     public static final String IMAGE_CUBE_SIZE = "imagecubesize";
+    /** Constant for the canonicalid param */
+    public static final String CANONICAL_ID = "canonicalid";
     /** Constant for the filename param */
     public static final String FILENAME = "filename";
     /** Constant for the obsid param */
@@ -102,6 +105,24 @@ public class DataAccessUtil
         return relativeLink.toString();
     }
 
+    /**
+     * Generate the relative url to download all of a job's files as a single archive.
+     * 
+     * @param downloadMode
+     *            the data access job download mode
+     * @param requestId
+     *            the request id
+     * @param format
+     *            the archive format
+     * @return job/{requestId}/archive/{format} this maps to the {@link DataAccessDownloadController} download archive
+     *         method
+     */
+    public static String getRelativeLinkForJobArchive(CasdaDownloadMode downloadMode, String requestId,
+            ArchiveFormat format)
+    {
+        return getRelativeLinkForFile(downloadMode, requestId, "archive/" + format.getExtension());
+    }
+
     /**
      * Generate the relative url to download a file's checksum file.
      * 
@@ -491,8 +512,11 @@ public class DataAccessUtil
     	{
     	    String format = (String) singleArtefact.get("format");
     	    String fileExt = "png".equals(format) ?  "png" : "fits";
+    	    // Identical files requested by different jobs share the id of the first one so they are only generated once
+    	    Long generatedId = singleArtefact.get(CANONICAL_ID) != null ? (Long) singleArtefact.get(CANONICAL_ID)
+    	            : (Long) singleArtefact.get(ID);
     		String fileId = (fileType == FileType.IMAGE_CUTOUT ? "cutout-" : "spectrum-") + 
-    				(Long)singleArtefact.get(ID)+ "-imagecube-"+ (Long)singleArtefact.get(IMAGE_CUBE_ID) + "." + fileExt;
+    				generatedId + "-imagecube-"+ (Long)singleArtefact.get(IMAGE_CUBE_ID) + "." + fileExt;
     		
     		GeneratedFileDescriptor fileDesc = new GeneratedFileDescriptor((Long)singleArtefact.get(ID),
     				fileId, (Long)singleArtefact.get(FILE_SIZE), compileUniqueFileId(singleArtefact.get(OBSERVATION_ID), 
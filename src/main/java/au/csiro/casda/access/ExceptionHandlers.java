@@ -172,7 +172,19 @@ class ExceptionHandlers
     @ExceptionHandler({ Exception.class, RuntimeException.class })
     public Object handleRemainingExceptions(Throwable ex, NativeWebRequest request, HttpServletResponse response)
     {
-        if (ex instanceof RuntimeException)
+        if (ex instanceof TooManyRequestsException)
+        {
+            // An expected consequence of heavy use, so just tell the client when to come back
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(((TooManyRequestsException) ex).getRetryAfterSeconds()));
+        }
+        else if (ex instanceof ServiceUnavailableException)
+        {
+            // An expected, temporary state of the service, so just tell the client when to come back
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(((ServiceUnavailableException) ex).getRetryAfterSeconds()));
+        }
+        else if (ex instanceof RuntimeException)
         {
             CasdaMessageBuilder<?> builder =
                     CasdaLogMessageBuilderFactory.getCasdaMessageBuilder(LogEvent.UNKNOWN_EVENT);
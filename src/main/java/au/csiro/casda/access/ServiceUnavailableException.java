@@ -0,0 +1,45 @@
+package au.csiro.casda.access;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * An exception for when the service is temporarily unable to handle a request, such as while it is starting up, and
+ * the client should try again later.
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterSeconds;
+
+    /**
+     * Create a new ServiceUnavailableException with a plain message
+     * @param message The description of the cause of the exception.
+     * @param retryAfterSeconds The number of seconds the client should wait before trying again.
+     */
+    public ServiceUnavailableException(String message, int retryAfterSeconds)
+    {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds()
+    {
+        return retryAfterSeconds;
+    }
+}
@@ -154,11 +154,10 @@ public class CacheManager implements CacheManagerInterface
     @Override
     public boolean allFilesAvailableInCache(Collection<DownloadFile> files)
     {
+        Set<String> availableFileIds = getAvailableFileIds(files);
         for (DownloadFile file : files)
         {
-            CachedFile cfo = cachedFileRepository.findByFileId(file.getFileId());
-
-            if (cfo == null || !cfo.isFileAvailableFlag())
+            if (!availableFileIds.contains(file.getFileId()))
             {
                 return false;
             }
@@ -166,6 +165,50 @@ public class CacheManager implements CacheManagerInterface
         return true;
     }
 
+    @Override
+    public long getAvailableSizeKb(Collection<DownloadFile> files)
+    {
+        Set<String> availableFileIds = getAvailableFileIds(files);
+        long availableSizeKb = 0;
+        for (DownloadFile file : files)
+        {
+            if (availableFileIds.contains(file.getFileId()))
+            {
+                availableSizeKb += file.getSizeKb();
+            }
+        }
+        return availableSizeKb;
+    }
+
+    /**
+     * Looks up which of the files are available in the cache, using a single query.
+     * 
+     * @param files
+     *            the files to check
+     * @return the file ids of the files which are available
+     */
+    private Set<String> getAvailableFileIds(Collection<DownloadFile> files)
+    {
+        Set<String> availableFileIds = new HashSet<>();
+        if (files.isEmpty())
+        {
+            return availableFileIds;
+        }
+        Set<String> fileIds = new HashSet<>();
+        for (DownloadFile file : files)
+        {
+            fileIds.add(file.getFileId());
+        }
+        for (CachedFile cachedFile : cachedFileRepository.findByFileIdIn(fileIds))
+        {
+            if (cachedFile.isFileAvailableFlag())
+            {
+                availableFileIds.add(cachedFile.getFileId());
+            }
+        }
+        return availableFileIds;
+    }
+
     @Override
     public synchronized Object[] reserveSpaceAndRegisterFilesForDownload(Collection<DownloadFile> files,
             DataAccessJob dataAccessJob) throws CacheException
@@ -336,8 +379,8 @@ public class CacheManager implements CacheManagerInterface
         newFile.setFileAvailableFlag(false);
         newFile.setFileType(file.getFileType());
         newFile.setOriginalFilePath(file.getOriginalFilePath());
-        EnumSet<FileType> generatedFileTypes = EnumSet.of(
-        		FileType.CATALOGUE, FileType.IMAGE_CUTOUT, FileType.ERROR, FileType.GENERATED_SPECTRUM);
+        // Cutouts and spectra can be shared between jobs so, like downloaded files, they live in the date directory
+        EnumSet<FileType> generatedFileTypes = EnumSet.of(FileType.CATALOGUE, FileType.ERROR);
 
         if (generatedFileTypes.contains(file.getFileType()))
         {
@@ -673,8 +716,7 @@ public class CacheManager implements CacheManagerInterface
     public void createDataAccessJobDirectory(DataAccessJob job, Collection<DownloadFile> files)
             throws CacheException
     {
-        EnumSet<FileType> generatedFileTypes = EnumSet.of(
-        		FileType.CATALOGUE, FileType.IMAGE_CUTOUT, FileType.ERROR, FileType.GENERATED_SPECTRUM);
+        EnumSet<FileType> generatedFileTypes = EnumSet.of(FileType.CATALOGUE, FileType.ERROR);
 
         for (DownloadFile requiredFile : files)
         {
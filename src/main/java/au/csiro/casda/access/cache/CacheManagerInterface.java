@@ -39,6 +39,15 @@ public interface CacheManagerInterface
      */
     public boolean allFilesAvailableInCache(Collection<DownloadFile> files);
 
+    /**
+     * Totals the size of the files which are already available in the cache.
+     * 
+     * @param files
+     *            the list of files to check for availability in the cache
+     * @return the total size of the available files, in KB
+     */
+    public long getAvailableSizeKb(Collection<DownloadFile> files);
+
     /**
      * Checks if there is enough space available for the given data access job. If required, removes unlocked files from
      * the cache until it has enough space for this job. If there is not enough space and there are no files that can be
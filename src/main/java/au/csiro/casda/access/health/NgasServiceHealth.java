@@ -21,6 +21,10 @@ import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 
+import au.csiro.casda.access.security.BackendResilience;
+import au.csiro.casda.access.security.BackendResilience.Guard;
+import au.csiro.casda.access.security.BackendResilience.State;
+import au.csiro.casda.access.security.HttpConnectionPools;
 import au.csiro.casda.access.security.SecuredRestTemplate;
 
 /**
@@ -40,6 +44,8 @@ public class NgasServiceHealth implements HealthIndicator
     private final String baseUrl;
     private final String serviceName;
     private final SecuredRestTemplate restTemplate;
+    private final Guard ngasGuard;
+    private final Guard voToolsGuard;
 
     private final static String NGAS_STATE_ONLINE = "State=\"ONLINE\"";
     private final static String NGAS_STATUS_SUCCESS = "Status=\"SUCCESS\"";
@@ -48,11 +54,14 @@ public class NgasServiceHealth implements HealthIndicator
      * Create a new NgasServiceHealth instance.
      * 
      * @param baseUrl The base URL of the NGAS service we are using. 
+     * @param connectionPools The shared HTTP connection pools.
+     * @param backendResilience The circuit breakers for the backend services, whose state is reported.
      */
     @Autowired
-    public NgasServiceHealth(@Value("${ngas.baseurl}") String baseUrl)
+    public NgasServiceHealth(@Value("${ngas.baseurl}") String baseUrl, HttpConnectionPools connectionPools,
+            BackendResilience backendResilience)
     {
-        this(baseUrl, "NGAS_ARCHIVE");
+        this(baseUrl, "NGAS_ARCHIVE", connectionPools, backendResilience);
     }
 
     /**
@@ -60,8 +69,9 @@ public class NgasServiceHealth implements HealthIndicator
      * 
      * @param restTemplate The template for communicating with NGAS.
      * @param baseUrl The base URL of the NGAS service we are using. 
+     * @param backendResilience The circuit breakers for the backend services, whose state is reported.
      */
-    NgasServiceHealth(SecuredRestTemplate restTemplate, String baseUrl)
+    NgasServiceHealth(SecuredRestTemplate restTemplate, String baseUrl, BackendResilience backendResilience)
     {
         if (StringUtils.isEmpty(baseUrl))
         {
@@ -70,9 +80,12 @@ public class NgasServiceHealth implements HealthIndicator
         this.baseUrl = baseUrl;
         this.serviceName = "NGAS_ARCHIVE";
         this.restTemplate = restTemplate;
+        this.ngasGuard = backendResilience.getGuard(HttpConnectionPools.NGAS);
+        this.voToolsGuard = backendResilience.getGuard(HttpConnectionPools.VO_TOOLS);
     }
 
-    private NgasServiceHealth(String baseUrl, String serviceName)
+    private NgasServiceHealth(String baseUrl, String serviceName, HttpConnectionPools connectionPools,
+            BackendResilience backendResilience)
     {
         if (StringUtils.isEmpty(baseUrl))
         {
@@ -80,8 +93,10 @@ public class NgasServiceHealth implements HealthIndicator
         }
         this.baseUrl = baseUrl;
         this.serviceName = serviceName;
-        restTemplate = new SecuredRestTemplate("", "", false);
+        restTemplate = new SecuredRestTemplate("", "", false, connectionPools, HttpConnectionPools.NGAS);
         restTemplate.setConnectionAndReadTimeout(RESTTEMPLATE_CONNECTION_TIMEOUT, RESTTEMPLATE_READ_TIMEOUT);
+        this.ngasGuard = backendResilience.getGuard(HttpConnectionPools.NGAS);
+        this.voToolsGuard = backendResilience.getGuard(HttpConnectionPools.VO_TOOLS);
     }
 
     @Override
@@ -90,13 +105,22 @@ public class NgasServiceHealth implements HealthIndicator
         String uri = baseUrl + "/STATUS";
         Health.Builder healthDown = new Health.Builder().withDetail(serviceName, "not available at " + baseUrl);
         healthDown.status("WARN");
+        addResilienceDetails(healthDown);
         try
         {
+            // the check goes straight to NGAS, rather than through the circuit breaker, so that it shows recovery
             ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
             String xmlBody = response.getBody();
             if (StringUtils.contains(xmlBody, NGAS_STATE_ONLINE) && StringUtils.contains(xmlBody, NGAS_STATUS_SUCCESS))
             {
-                return new Health.Builder().withDetail(serviceName, "found at " + baseUrl).up().build();
+                Health.Builder healthUp = new Health.Builder().withDetail(serviceName, "found at " + baseUrl);
+                addResilienceDetails(healthUp);
+                if (ngasGuard.getState() == State.OPEN)
+                {
+                    // NGAS answers us but recent calls have been failing, so requests are still being refused
+                    return healthUp.status("WARN").build();
+                }
+                return healthUp.up().build();
             }
             else
             {
@@ -110,4 +134,10 @@ public class NgasServiceHealth implements HealthIndicator
 
     }
 
+    private void addResilienceDetails(Health.Builder builder)
+    {
+        builder.withDetail(HttpConnectionPools.NGAS + "_circuit", ngasGuard.getDetails());
+        builder.withDetail(HttpConnectionPools.VO_TOOLS + "_circuit", voToolsGuard.getDetails());
+    }
+
 }
\ No newline at end of file
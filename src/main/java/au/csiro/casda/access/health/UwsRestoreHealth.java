@@ -0,0 +1,69 @@
+package au.csiro.casda.access.health;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import au.csiro.casda.access.uws.AccessJobManager;
+import au.csiro.casda.access.uws.UwsRestoreProgress;
+
+/**
+ * Health check reporting the progress of restoring the UWS job queues on start up. Requests which use the queues
+ * wait until the restore has finished, so the service is reported out of service until then.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class UwsRestoreHealth implements HealthIndicator
+{
+    private final AccessJobManager accessJobManager;
+
+    /**
+     * Create a new health check instance.
+     *
+     * @param accessJobManager
+     *            the manager of the UWS job queues
+     */
+    @Autowired
+    public UwsRestoreHealth(AccessJobManager accessJobManager)
+    {
+        this.accessJobManager = accessJobManager;
+    }
+
+    @Override
+    public Health health()
+    {
+        UwsRestoreProgress progress = accessJobManager.getRestoreProgress();
+        if (progress == null)
+        {
+            return new Health.Builder().outOfService().withDetail("restore", "not started").build();
+        }
+        Health.Builder health = new Health.Builder().withDetail("jobsRead", progress.getJobsRead())
+                .withDetail("jobsRestored", progress.getJobsRestored())
+                .withDetail("jobsFailed", progress.getJobsFailed())
+                .withDetail("elapsedMillis", progress.getElapsedMillis());
+        if (!accessJobManager.isRestored())
+        {
+            return health.outOfService().withDetail("restore", "in progress").build();
+        }
+        if (progress.getJobsFailed() > 0)
+        {
+            health.status("WARN");
+            return health.withDetail("Warning", "Some jobs could not be restored").build();
+        }
+        return health.up().withDetail("restore", "complete").build();
+    }
+}
@@ -1,5 +1,6 @@
 package au.csiro.casda.access.jdbc;
 
+import java.sql.Timestamp;
 import java.util.HashMap;
 
 /*
@@ -20,6 +21,7 @@ import java.util.Map;
 
 import javax.sql.DataSource;
 
+import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
@@ -81,6 +83,15 @@ public class DataAccessJdbcRepository
     
     
     /**
+     * Returns a page of the generated files (cutouts or spectra) for a request. Each row also includes a canonicalId,
+     * the lowest id of any generated file of the same type, from the same image cube, with the same bounds and in the
+     * same download format. Identical generated files requested by different jobs can then share one cached copy. If a
+     * job asks for the same file more than once only the first copy is shared, the others keep their own id so that
+     * each file in the job is still cached under a different name.
+     * <p>
+     * The canonical ids are found with one grouped query over the image cubes on the page, rather than a lookup for
+     * each row.
+     * 
      * @param requestId the dta access job request id
      * @param fileType the type of file to search for ( used to identify table)
      * @param page the paging details
@@ -88,21 +99,35 @@ public class DataAccessJdbcRepository
      */
     public List<Map<String, Object>> getPageOfGeneratedFiles(String requestId, String fileType, Integer[] page)
     {
-    	String query = "SELECT gen.id as id, ic.id as imageCubeId, gen.filesize as fileSize, ic.filesize as " +
+    	String query = "WITH job_files AS (" +
+    					"SELECT gen.id, gen.image_cube_id, gen.bounds, gen.filesize, daj.download_format, " +
+    					"ROW_NUMBER() OVER (PARTITION BY gen.image_cube_id, gen.bounds ORDER BY gen.id) AS copy " +
+    					"FROM casda.data_access_job daj " +
+    					"JOIN casda.generated_image gen ON daj.id = gen.data_access_job_id " +
+    					"WHERE daj.request_id = ? " +
+    					"AND gen.generated_file_type = ?), " +
+    					"page AS (SELECT * FROM job_files ORDER BY id LIMIT ? OFFSET ?), " +
+    					"canonical AS (" +
+    					"SELECT other.image_cube_id, other.bounds, odaj.download_format, MIN(other.id) AS id " +
+    					"FROM casda.generated_image other " +
+    					"JOIN casda.data_access_job odaj ON other.data_access_job_id = odaj.id " +
+    					"WHERE other.generated_file_type = ? " +
+    					"AND other.image_cube_id IN (SELECT image_cube_id FROM page) " +
+    					"GROUP BY other.image_cube_id, other.bounds, odaj.download_format) " +
+    					"SELECT page.id as id, ic.id as imageCubeId, page.filesize as fileSize, ic.filesize as " +
     					"imageCubeSize, obs.sbid AS obsId, l7.dap_collection_id AS l7Id, ic.filename as filename," +
-    					"daj.download_format as format " +
-						"FROM casda.data_access_job daj " +
-						"LEFT JOIN casda.generated_image gen ON daj.id = gen.data_access_job_id " +
-						"LEFT JOIN casda.image_cube ic ON gen.image_cube_id = ic.id " +
+    					"page.download_format as format, " +
+    					"CASE WHEN page.copy = 1 THEN canonical.id ELSE page.id END as canonicalId " +
+						"FROM page " +
+						"LEFT JOIN canonical ON canonical.image_cube_id = page.image_cube_id " +
+						"AND canonical.bounds = page.bounds " +
+						"AND canonical.download_format IS NOT DISTINCT FROM page.download_format " +
+						"LEFT JOIN casda.image_cube ic ON page.image_cube_id = ic.id " +
 						"LEFT JOIN casda.observation obs ON ic.observation_id = obs.id " +
 						"LEFT JOIN casda.level7_collection l7 ON ic.level7_collection_id = l7.id " +
-						"WHERE request_id = ? " +
-						"AND gen.generated_file_type = ? " +
-						"ORDER BY gen.id " +
-						" LIMIT ? " +
-						" OFFSET ?";
+						"ORDER BY page.id";
     	
-    	return jdbcTemplate.queryForList(query ,requestId, fileType, (page[1]-page[0]+1), (page[0]-1));
+    	return jdbcTemplate.queryForList(query, requestId, fileType, (page[1]-page[0]+1), (page[0]-1), fileType);
     }
     
     /**
@@ -307,4 +332,47 @@ public class DataAccessJdbcRepository
 		String query = "select EXISTS(select id from casda.project where opal_code = ?)";
 		return jdbcTemplate.queryForObject(query, new Object[]{projectCode}, Boolean.class);
 	}
+
+	/**
+	 * Marks all ready jobs whose expiry time has passed as expired, in one statement.
+	 * 
+	 * @return the request id, user name, user email and expiry time of each job expired
+	 */
+	public List<Map<String, Object>> expireReadyJobs()
+	{
+		String query = "UPDATE casda.data_access_job SET status = 'EXPIRED' " +
+						"WHERE status = 'READY' AND expired_timestamp <= current_date " +
+						"RETURNING request_id, user_name, user_email, expired_timestamp";
+		return jdbcTemplate.queryForList(query);
+	}
+
+	/**
+	 * Marks all jobs which are still preparing but were created before the given time as expired, in one statement.
+	 * 
+	 * @param createdBefore the newest creation time of a job to expire
+	 * @return the request ids of the jobs expired
+	 */
+	public List<String> expirePreparingJobsCreatedBefore(DateTime createdBefore)
+	{
+		String query = "UPDATE casda.data_access_job SET status = 'EXPIRED', expired_timestamp = current_timestamp " +
+						"WHERE status = 'PREPARING' AND created_timestamp <= ? " +
+						"RETURNING request_id";
+		return jdbcTemplate.queryForList(query, String.class, new Timestamp(createdBefore.getMillis()));
+	}
+
+	/**
+	 * Finds the ready jobs which will expire in the given time range, without loading the jobs themselves.
+	 * 
+	 * @param maxTime the latest expiry time
+	 * @param minTime the expiry time the jobs must expire after, so each job is only notified once
+	 * @return the request id, user name, user email and expiry time of each job
+	 */
+	public List<Map<String, Object>> findJobsForExpiryNotification(DateTime maxTime, DateTime minTime)
+	{
+		String query = "SELECT request_id, user_name, user_email, expired_timestamp " +
+						"FROM casda.data_access_job " +
+						"WHERE status = 'READY' AND expired_timestamp <= ? AND expired_timestamp > ?";
+		return jdbcTemplate.queryForList(query, new Timestamp(maxTime.getMillis()),
+				new Timestamp(minTime.getMillis()));
+	}
 }
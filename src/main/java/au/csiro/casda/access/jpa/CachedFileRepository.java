@@ -15,6 +15,7 @@ import java.util.List;
  */
 
 
+import java.util.Collection;
 import java.util.Optional;
 
 import org.joda.time.DateTime;
@@ -65,6 +66,15 @@ public interface CachedFileRepository extends CrudRepository<CachedFile, Long>
      */
     public CachedFile findByFileId(String fileId);
 
+    /**
+     * Retrieve the cached files with any of the given fileids.
+     * 
+     * @param fileIds
+     *            The ids of the CachedFiles.
+     * @return The matching CachedFiles.
+     */
+    public List<CachedFile> findByFileIdIn(Collection<String> fileIds);
+
     /**
      * Retrieve the cached files that are ready to unlock (ie unlock time is earlier than the given time), ordered by
      * unlock time from earliest to latest.
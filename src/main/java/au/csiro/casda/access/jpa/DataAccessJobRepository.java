@@ -80,16 +80,6 @@ public interface DataAccessJobRepository extends CrudRepository<DataAccessJob, L
     @Query("SELECT daj FROM DataAccessJob daj WHERE daj.status = 'PREPARING' ORDER BY daj.createdTimestamp")
     public List<DataAccessJob> findPreparingJobs();
 
-    /**
-     * Finds requests that have been in the prepared since before a specified time. 
-     * 
-     * @param time
-     *            the given date/time
-     * @return the list of old preparing jobs
-     */
-    @Query("SELECT daj FROM DataAccessJob daj WHERE daj.status = 'PREPARING' AND daj.createdTimestamp <= :time")
-    public List<DataAccessJob> findPreparingJobsOlderThanTime(@Param(value = "time") DateTime time);
-    
     /**
      * Finds requests that are currently paused
      * 
@@ -97,7 +87,18 @@ public interface DataAccessJobRepository extends CrudRepository<DataAccessJob, L
      */
     @Query("SELECT daj FROM DataAccessJob daj WHERE daj.status = 'PAUSED' ORDER BY daj.createdTimestamp")
     public List<DataAccessJob> findPausedJobs();
-    
+
+    /**
+     * Finds the number and total size of a user's jobs which are being prepared or are paused.
+     *
+     * @param userIdent
+     *            the user's ident
+     * @return a single row holding the number of jobs and their total size in kilobytes
+     */
+    @Query("SELECT count(daj), coalesce(sum(daj.sizeKb), 0) FROM DataAccessJob daj "
+            + "WHERE daj.userIdent = :userIdent AND daj.status IN ('PREPARING', 'PAUSED')")
+    public List<Object[]> findActiveJobTotalsForUser(@Param(value = "userIdent") String userIdent);
+
     /**
      * Expire all jobs
      */
@@ -108,25 +109,4 @@ public interface DataAccessJobRepository extends CrudRepository<DataAccessJob, L
             + "daj.errorMessage = 'Cache deleted by the administrator.' "
             + "where daj.expiredTimestamp >= current_timestamp")
     public void expireAllJobs();
-    
-    /**
-     * Finds jobs which will expire in the given time limit
-     * 
-     * @param maxTime
-     *            the given date/time
-     * @param minTime
-     *            the given date/time minus one day, so notification is only sned out once
-     * @return the list of jobs expiring in the given time limit
-     */
-    @Query("select daj from DataAccessJob daj where daj.status = 'READY' and "
-    		+ "daj.expiredTimestamp <= :maxTime and daj.expiredTimestamp > :minTime")
-    public List<DataAccessJob> findAllJobsForExpiryNotification(@Param(value = "maxTime") DateTime maxTime, 
-    		@Param(value = "minTime") DateTime minTime);
-    
-    /**
-     * find all jobs which have passed the expiredTimestamp date, but have not yet been set to expired
-     * @return the list of expired jobs
-     */
-    @Query("select daj from DataAccessJob daj where daj.status = 'READY' and daj.expiredTimestamp <= current_date()")
-    public List<DataAccessJob> findExpiredJobs();
 }
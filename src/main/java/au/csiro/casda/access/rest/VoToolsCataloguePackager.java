@@ -16,6 +16,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.URI;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
@@ -34,6 +35,7 @@ import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.ResponseExtractor;
 
 import au.csiro.casda.access.CatalogueDownloadFile;
@@ -41,6 +43,11 @@ import au.csiro.casda.access.CatalogueDownloadFormat;
 import au.csiro.casda.access.DataAccessApplication;
 import au.csiro.casda.access.InlineScriptException;
 import au.csiro.casda.access.jpa.TapTableRepository;
+import au.csiro.casda.access.security.BackendResilience;
+import au.csiro.casda.access.security.BackendResilience.CallType;
+import au.csiro.casda.access.security.BackendResilience.Guard;
+import au.csiro.casda.access.security.BackendUnavailableException;
+import au.csiro.casda.access.security.HttpConnectionPools;
 import au.csiro.casda.access.security.SecuredRestTemplate;
 import au.csiro.casda.access.services.InlineScriptService;
 import au.csiro.casda.entity.TapTableExtract;
@@ -98,6 +105,8 @@ public class VoToolsCataloguePackager
 
     private TapTableRepository tapTableRepository;
 
+    private final Guard guard;
+
     /**
      * Constructor
      * 
@@ -109,17 +118,23 @@ public class VoToolsCataloguePackager
      *            VO Tools url property
      * @param calculateChecksumScript
      *            the path to the calculate checksum script
+     * @param connectionPools
+     *            the shared HTTP connection pools
+     * @param backendResilience
+     *            provides the circuit breaker and retry policy for calls to VO Tools
      */
     @Autowired
     public VoToolsCataloguePackager(InlineScriptService inlineScriptService, TapTableRepository tapTableRepository,
             @Value("${casda_vo_tools.url}") String voToolsUrl,
-            @Value("${calculate.checksum.script}") String calculateChecksumScript)
+            @Value("${calculate.checksum.script}") String calculateChecksumScript,
+            HttpConnectionPools connectionPools, BackendResilience backendResilience)
     {
         this.inlineScriptService = inlineScriptService;
         this.tapTableRepository = tapTableRepository;
         this.voToolsUrl = voToolsUrl;
         this.calculateChecksumScript = calculateChecksumScript;
-        this.restTemplate = new SecuredRestTemplate("", "", false);
+        this.restTemplate = new SecuredRestTemplate("", "", false, connectionPools, HttpConnectionPools.VO_TOOLS);
+        this.guard = backendResilience.getGuard(HttpConnectionPools.VO_TOOLS);
     }
 
     /**
@@ -178,7 +193,7 @@ public class VoToolsCataloguePackager
             createChecksumFile(file);
 
         }
-        catch (HttpClientErrorException | IOException e)
+        catch (HttpClientErrorException | BackendUnavailableException | IOException e)
         {
             throw new CatalogueRetrievalException(e);
         }
@@ -241,11 +256,12 @@ public class VoToolsCataloguePackager
             queryUri = voToolsUrl + TAP_ASYNC_CSV_PARAMS + query;
         }
 
-        ResponseEntity<String> response = restTemplate.postForEntity(queryUri, null, String.class);
+        ResponseEntity<String> response = guard.execute(CallType.NON_IDEMPOTENT,
+                () -> restTemplate.postForEntity(queryUri, null, String.class));
         String location = response.getHeaders().get("Location").get(0);
 
         String phaseRunUri = location + "/phase" + "?phase=RUN";
-        restTemplate.postForEntity(phaseRunUri, null, String.class);
+        guard.execute(CallType.NON_IDEMPOTENT, () -> restTemplate.postForEntity(phaseRunUri, null, String.class));
 
         String phaseUri = location + "/phase";
         String phase;
@@ -253,7 +269,8 @@ public class VoToolsCataloguePackager
         do
         {
             Thread.sleep(POLLING_INTERVAL);
-            phase = restTemplate.getForEntity(phaseUri, String.class).getBody();
+            phase = guard.execute(CallType.IDEMPOTENT, () -> restTemplate.getForEntity(phaseUri, String.class))
+                    .getBody();
         }
         while ("QUEUED".equals(phase) || "EXECUTING".equals(phase));
 
@@ -282,7 +299,7 @@ public class VoToolsCataloguePackager
                 }
             };
 
-            return restTemplate.execute(resultUri, HttpMethod.GET, requestCallback, extractor);
+            return streamResponse(restTemplate.getUriTemplateHandler().expand(resultUri), requestCallback, extractor);
         }
         else
         {
@@ -290,6 +307,62 @@ public class VoToolsCataloguePackager
         }
     }
 
+    /**
+     * Requests the given URI and passes the response to the extractor. Only opening the response is guarded by the
+     * backend resilience checks, so that the transfer of the response doesn't hold a place in the bulkhead.
+     * 
+     * @param uri
+     *            the URI to request
+     * @param requestCallback
+     *            the callback used to prepare the request
+     * @param extractor
+     *            the extractor which reads the response
+     * @return the result of the extractor
+     */
+    private HttpStatus streamResponse(URI uri, RequestCallback requestCallback, ResponseExtractor<HttpStatus> extractor)
+    {
+        try (ClientHttpResponse response = guard.execute(CallType.STREAMING, () -> openResponse(uri, requestCallback)))
+        {
+            return extractor.extractData(response);
+        }
+        catch (IOException e)
+        {
+            throw new ResourceAccessException("I/O error on GET request for \"" + uri + "\":" + e.getMessage(), e);
+        }
+    }
+
+    private ClientHttpResponse openResponse(URI uri, RequestCallback requestCallback)
+    {
+        ClientHttpResponse response = null;
+        try
+        {
+            ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(uri, HttpMethod.GET);
+            requestCallback.doWithRequest(request);
+            response = request.execute();
+            if (restTemplate.getErrorHandler().hasError(response))
+            {
+                restTemplate.getErrorHandler().handleError(response);
+            }
+            return response;
+        }
+        catch (IOException e)
+        {
+            if (response != null)
+            {
+                response.close();
+            }
+            throw new ResourceAccessException("I/O error on GET request for \"" + uri + "\":" + e.getMessage(), e);
+        }
+        catch (RuntimeException e)
+        {
+            if (response != null)
+            {
+                response.close();
+            }
+            throw e;
+        }
+    }
+
     /**
      * Creates a checksum file for a given file. The destination will be file.checksum
      * 
@@ -374,7 +447,7 @@ public class VoToolsCataloguePackager
             }
         };
 
-        return restTemplate.execute(uri, HttpMethod.GET, requestCallback, extractor);
+        return streamResponse(restTemplate.getUriTemplateHandler().expand(uri), requestCallback, extractor);
     }
 
     /**
@@ -395,7 +468,8 @@ public class VoToolsCataloguePackager
 
         String uri = voToolsUrl + TAP_SYNC_CSV_PARAMS + query;
 
-        ResponseEntity<String> response = restTemplate.getForEntity(uri, String.class);
+        ResponseEntity<String> response =
+                guard.execute(CallType.IDEMPOTENT, () -> restTemplate.getForEntity(uri, String.class));
 
         if (response.getStatusCode() == HttpStatus.OK)
         {
@@ -0,0 +1,456 @@
+package au.csiro.casda.access.security;
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Protects the application from slow or failing backend services (e.g. NGAS or VO Tools). Each backend has a guard
+ * which all calls to it pass through. The guard provides:
+ * <ul>
+ * <li>a circuit breaker, which refuses calls for a while once a number of calls in a row have failed, then lets a
+ * single trial call through to see whether the backend has recovered;</li>
+ * <li>retries with jittered exponential back off for idempotent calls;</li>
+ * <li>a bulkhead limiting the number of concurrent calls, so callers wait only a short time for a turn rather than
+ * piling up on a backend that isn't keeping up;</li>
+ * <li>load shedding, which lowers the concurrency limit in proportion to how far the backend's average response time
+ * is above its target.</li>
+ * </ul>
+ * Only I/O problems, timeouts and 5xx responses count as failures of the backend. Settings are read from the
+ * resilience.* properties and may be overridden for a backend by including its name, e.g.
+ * resilience.ngas.max.concurrent overrides resilience.max.concurrent for NGAS.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class BackendResilience implements PublicMetrics
+{
+    /**
+     * The kinds of call that can be made through a guard.
+     */
+    public enum CallType
+    {
+        /** A call that can safely be repeated, it will be retried if the backend fails */
+        IDEMPOTENT,
+
+        /** A call that changes the backend's state, it is never retried */
+        NON_IDEMPOTENT,
+
+        /**
+         * A call which opens a stream of data for the caller. It is never retried as the data may have been partly
+         * consumed, and its duration is not used to judge the backend's response time. The call should only open the
+         * stream, the data should be read after the call has returned so that the transfer doesn't hold a place in
+         * the bulkhead.
+         */
+        STREAMING
+    }
+
+    /**
+     * The states of a circuit breaker.
+     */
+    public enum State
+    {
+        /** Calls are allowed */
+        CLOSED,
+
+        /** Calls are refused until the open period ends */
+        OPEN,
+
+        /** A single trial call is allowed to test whether the backend has recovered */
+        HALF_OPEN
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(BackendResilience.class);
+
+    private final Environment environment;
+
+    private final Map<String, Guard> guards = new TreeMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param environment
+     *            the environment providing the guard settings
+     */
+    @Autowired
+    public BackendResilience(Environment environment)
+    {
+        this.environment = environment;
+    }
+
+    /**
+     * Gets the guard for a backend, creating it on first use.
+     *
+     * @param backend
+     *            the name of the backend service
+     * @return the guard
+     */
+    public synchronized Guard getGuard(String backend)
+    {
+        Guard guard = guards.get(backend);
+        if (guard == null)
+        {
+            guard = new Guard(backend, getSetting(backend, "failure.threshold", Integer.class, 5),
+                    getSetting(backend, "open.millis", Long.class, 30000L),
+                    getSetting(backend, "max.concurrent", Integer.class, 20),
+                    getSetting(backend, "bulkhead.wait.millis", Long.class, 5000L),
+                    getSetting(backend, "target.latency.millis", Long.class, 10000L),
+                    getSetting(backend, "retry.max.attempts", Integer.class, 3),
+                    getSetting(backend, "retry.base.millis", Long.class, 200L),
+                    getSetting(backend, "retry.max.millis", Long.class, 5000L));
+            guards.put(backend, guard);
+        }
+        return guard;
+    }
+
+    private <T> T getSetting(String backend, String setting, Class<T> type, T defaultValue)
+    {
+        return environment.getProperty("resilience." + backend + "." + setting, type,
+                environment.getProperty("resilience." + setting, type, defaultValue));
+    }
+
+    @Override
+    public synchronized Collection<Metric<?>> metrics()
+    {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        for (Entry<String, Guard> entry : guards.entrySet())
+        {
+            String prefix = "resilience." + entry.getKey();
+            Guard guard = entry.getValue();
+            synchronized (guard)
+            {
+                metrics.add(new Metric<Integer>(prefix + ".state", guard.getState().ordinal()));
+                metrics.add(new Metric<Integer>(prefix + ".inflight", guard.inFlight));
+                metrics.add(new Metric<Integer>(prefix + ".limit", guard.getConcurrencyLimit()));
+                metrics.add(new Metric<Long>(prefix + ".latency.millis", Math.round(guard.averageLatencyMillis)));
+                metrics.add(new Metric<Long>(prefix + ".failures", guard.totalFailures));
+                metrics.add(new Metric<Long>(prefix + ".rejected", guard.totalRejected));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * The circuit breaker, bulkhead and retry policy for one backend.
+     */
+    public static class Guard
+    {
+        /** The weight given to each new response time in the average */
+        private static final double LATENCY_SMOOTHING = 0.2;
+
+        private final String backend;
+
+        private final int failureThreshold;
+
+        private final long openMillis;
+
+        private final int maxConcurrent;
+
+        private final long bulkheadWaitMillis;
+
+        private final long targetLatencyMillis;
+
+        private final int maxAttempts;
+
+        private final long retryBaseMillis;
+
+        private final long retryMaxMillis;
+
+        private State state = State.CLOSED;
+
+        private long openUntil;
+
+        private boolean trialInProgress = false;
+
+        private int consecutiveFailures = 0;
+
+        private int inFlight = 0;
+
+        private double averageLatencyMillis = 0;
+
+        private long totalFailures = 0;
+
+        private long totalRejected = 0;
+
+        /**
+         * Constructor
+         *
+         * @param backend
+         *            the name of the backend service
+         * @param failureThreshold
+         *            the number of failed calls in a row which opens the circuit
+         * @param openMillis
+         *            how long the circuit stays open before a trial call is allowed
+         * @param maxConcurrent
+         *            the maximum number of concurrent calls when the backend is responding within its target time
+         * @param bulkheadWaitMillis
+         *            how long a call may wait for a turn before it is refused
+         * @param targetLatencyMillis
+         *            the average response time above which the concurrency limit is reduced
+         * @param maxAttempts
+         *            the maximum number of attempts for an idempotent call
+         * @param retryBaseMillis
+         *            the back off before the first retry, it doubles for each later retry
+         * @param retryMaxMillis
+         *            the longest back off between retries
+         */
+        Guard(String backend, int failureThreshold, long openMillis, int maxConcurrent, long bulkheadWaitMillis,
+                long targetLatencyMillis, int maxAttempts, long retryBaseMillis, long retryMaxMillis)
+        {
+            this.backend = backend;
+            this.failureThreshold = Math.max(1, failureThreshold);
+            this.openMillis = openMillis;
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+            this.bulkheadWaitMillis = bulkheadWaitMillis;
+            this.targetLatencyMillis = targetLatencyMillis;
+            this.maxAttempts = Math.max(1, maxAttempts);
+            this.retryBaseMillis = retryBaseMillis;
+            this.retryMaxMillis = retryMaxMillis;
+        }
+
+        /**
+         * Makes a call to the backend through the guard.
+         *
+         * @param callType
+         *            the kind of call being made
+         * @param action
+         *            the call
+         * @param <T>
+         *            the type of the call's result
+         * @return the result of the call
+         * @throws BackendUnavailableException
+         *             if the call was refused because the circuit is open or the backend is too busy
+         */
+        public <T> T execute(CallType callType, Supplier<T> action) throws BackendUnavailableException
+        {
+            int attempts = callType == CallType.IDEMPOTENT ? maxAttempts : 1;
+            for (int attempt = 1;; attempt++)
+            {
+                RuntimeException failure;
+                acquire();
+                long start = System.nanoTime();
+                try
+                {
+                    T result = action.get();
+                    onCompletion(true, callType, start);
+                    return result;
+                }
+                catch (RuntimeException e)
+                {
+                    boolean backendFailed = isBackendFailure(e);
+                    onCompletion(!backendFailed, callType, start);
+                    if (!backendFailed || attempt >= attempts || getState() == State.OPEN)
+                    {
+                        throw e;
+                    }
+                    failure = e;
+                }
+                finally
+                {
+                    release();
+                }
+                // the place in the bulkhead has been given up, so waiting to retry doesn't stop other calls
+                logger.info("Call to {} failed on attempt {} of {}, will retry: {}", backend, attempt, attempts,
+                        failure.getMessage());
+                backOff(attempt, failure);
+            }
+        }
+
+        private static boolean isBackendFailure(RuntimeException e)
+        {
+            if (e instanceof ResourceAccessException)
+            {
+                // a user abandoning a streamed download is not a problem with the backend
+                return e.getCause() == null || !e.getCause().getClass().getSimpleName().equals("ClientAbortException");
+            }
+            return e instanceof HttpServerErrorException;
+        }
+
+        private void backOff(int attempt, RuntimeException failure)
+        {
+            long ceiling = Math.min(retryMaxMillis, retryBaseMillis << Math.min(attempt - 1, 20));
+            try
+            {
+                // full jitter spreads out the retries of callers which failed at the same time
+                TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+        }
+
+        private synchronized void acquire()
+        {
+            if (state == State.OPEN)
+            {
+                if (System.currentTimeMillis() < openUntil)
+                {
+                    reject("its circuit breaker is open");
+                }
+                state = State.HALF_OPEN;
+                trialInProgress = false;
+                logger.info("Circuit breaker for {} is half open, allowing a trial call", backend);
+            }
+            if (state == State.HALF_OPEN)
+            {
+                if (trialInProgress)
+                {
+                    reject("its circuit breaker is waiting on a trial call");
+                }
+                trialInProgress = true;
+            }
+
+            long deadline = System.currentTimeMillis() + bulkheadWaitMillis;
+            while (inFlight >= getConcurrencyLimit())
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    abandonTrial();
+                    reject("it already has " + inFlight + " calls in progress");
+                }
+                try
+                {
+                    wait(remaining);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    abandonTrial();
+                    reject("the caller was interrupted while waiting");
+                }
+            }
+            inFlight++;
+        }
+
+        private void abandonTrial()
+        {
+            if (state == State.HALF_OPEN)
+            {
+                trialInProgress = false;
+            }
+        }
+
+        private void reject(String reason)
+        {
+            totalRejected++;
+            throw new BackendUnavailableException("Call to " + backend + " refused as " + reason);
+        }
+
+        private synchronized void release()
+        {
+            inFlight--;
+            notifyAll();
+        }
+
+        private synchronized void onCompletion(boolean success, CallType callType, long startNanos)
+        {
+            if (callType != CallType.STREAMING)
+            {
+                double latencyMillis = (System.nanoTime() - startNanos) / 1e6;
+                averageLatencyMillis = averageLatencyMillis == 0 ? latencyMillis
+                        : LATENCY_SMOOTHING * latencyMillis + (1 - LATENCY_SMOOTHING) * averageLatencyMillis;
+            }
+
+            if (success)
+            {
+                consecutiveFailures = 0;
+                if (state != State.CLOSED)
+                {
+                    logger.info("Circuit breaker for {} is closed", backend);
+                    state = State.CLOSED;
+                }
+                return;
+            }
+
+            totalFailures++;
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold))
+            {
+                logger.warn("Circuit breaker for {} is open for {} ms after {} failed calls in a row", backend,
+                        openMillis, consecutiveFailures);
+                state = State.OPEN;
+                openUntil = System.currentTimeMillis() + openMillis;
+            }
+        }
+
+        /**
+         * @return the current number of calls allowed at once, reduced from the maximum when the backend's average
+         *         response time is above its target
+         */
+        synchronized int getConcurrencyLimit()
+        {
+            if (targetLatencyMillis <= 0 || averageLatencyMillis <= targetLatencyMillis)
+            {
+                return maxConcurrent;
+            }
+            return Math.max(1, (int) (maxConcurrent * targetLatencyMillis / averageLatencyMillis));
+        }
+
+        /**
+         * @return the backend's average response time as a fraction of its target, so above 1 when it is slower than
+         *         its target, or 0 if it has no target
+         */
+        public synchronized double getLatencyRatio()
+        {
+            return targetLatencyMillis <= 0 ? 0 : averageLatencyMillis / targetLatencyMillis;
+        }
+
+        /**
+         * @return the state of the circuit breaker
+         */
+        public synchronized State getState()
+        {
+            if (state == State.OPEN && System.currentTimeMillis() >= openUntil)
+            {
+                return State.HALF_OPEN;
+            }
+            return state;
+        }
+
+        /**
+         * @return a summary of the guard's state for reporting
+         */
+        public synchronized Map<String, Object> getDetails()
+        {
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("circuit", getState().name());
+            details.put("consecutiveFailures", consecutiveFailures);
+            details.put("inFlight", inFlight);
+            details.put("concurrencyLimit", getConcurrencyLimit());
+            details.put("averageLatencyMillis", Math.round(averageLatencyMillis));
+            details.put("rejected", totalRejected);
+            return details;
+        }
+    }
+}
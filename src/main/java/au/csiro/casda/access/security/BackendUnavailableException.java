@@ -0,0 +1,38 @@
+package au.csiro.casda.access.security;
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Thrown when a call to a backend service is refused without being attempted, because the backend's circuit breaker
+ * is open or the backend is already handling as many calls as it is allowed. It is a RestClientException so callers
+ * treat it in the same way as the backend failing to respond.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class BackendUnavailableException extends RestClientException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     *
+     * @param message
+     *            the reason the call was refused
+     */
+    public BackendUnavailableException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,222 @@
+package au.csiro.casda.access.security;
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContexts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the shared pools of HTTP connections used by the SecuredRestTemplates. Each backend service (e.g. NGAS or VO
+ * Tools) has its own pool so that a busy service can't starve the others of connections. Connections are kept alive
+ * between requests and closed once they have been idle for too long.
+ * <p>
+ * Pool settings are read from the http.pool.* properties and may be overridden for a backend by including the
+ * backend's name, e.g. http.pool.ngas.max.per.route overrides http.pool.max.per.route for NGAS.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class HttpConnectionPools implements PublicMetrics, DisposableBean
+{
+    /** The name of the NGAS backend */
+    public static final String NGAS = "ngas";
+
+    /** The name of the VO Tools backend */
+    public static final String VO_TOOLS = "votools";
+
+    private static Logger logger = LoggerFactory.getLogger(HttpConnectionPools.class);
+
+    private static final int DEFAULT_MAX_TOTAL = 100;
+
+    private static final int DEFAULT_MAX_PER_ROUTE = 50;
+
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+
+    private static final int DEFAULT_LEASE_TIMEOUT_MILLIS = 30000;
+
+    private static final int DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+    private static final long DEFAULT_EVICTION_INTERVAL_MILLIS = 10000;
+
+    private final Environment environment;
+
+    private final Map<String, PoolingHttpClientConnectionManager> pools = new TreeMap<>();
+
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * Constructor
+     *
+     * @param environment
+     *            the environment providing the pool settings
+     */
+    @Autowired
+    public HttpConnectionPools(Environment environment)
+    {
+        this.environment = environment;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "http-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionInterval = environment.getProperty("http.pool.eviction.interval.millis", Long.class,
+                DEFAULT_EVICTION_INTERVAL_MILLIS);
+        evictor.scheduleWithFixedDelay(this::evictConnections, evictionInterval, evictionInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the connection pool for a backend, creating it on first use.
+     *
+     * @param backend
+     *            the name of the backend service
+     * @return the connection manager for the backend's pool
+     */
+    public synchronized PoolingHttpClientConnectionManager getConnectionManager(String backend)
+    {
+        PoolingHttpClientConnectionManager pool = pools.get(backend);
+        if (pool == null)
+        {
+            // Hostname verification is turned off in NoopHostnameVerifier so this can work on all our environments
+            Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory> create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https",
+                            new SSLConnectionSocketFactory(SSLContexts.createDefault(), NoopHostnameVerifier.INSTANCE))
+                    .build();
+            pool = new PoolingHttpClientConnectionManager(socketFactories);
+            pool.setMaxTotal(getSetting(backend, "max.total", Integer.class, DEFAULT_MAX_TOTAL));
+            pool.setDefaultMaxPerRoute(getSetting(backend, "max.per.route", Integer.class, DEFAULT_MAX_PER_ROUTE));
+            pool.setValidateAfterInactivity(getSetting(backend, "validate.after.inactivity.millis", Integer.class,
+                    DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS));
+            pools.put(backend, pool);
+            logger.info("Created HTTP connection pool for {} with max total {} and max per route {}", backend,
+                    pool.getMaxTotal(), pool.getDefaultMaxPerRoute());
+        }
+        return pool;
+    }
+
+    /**
+     * Gets the keep alive strategy for a backend. The server's Keep-Alive timeout is used if it sends one, but
+     * connections are never kept for longer than the backend's configured keep alive time.
+     *
+     * @param backend
+     *            the name of the backend service
+     * @return the keep alive strategy
+     */
+    public ConnectionKeepAliveStrategy getKeepAliveStrategy(String backend)
+    {
+        long keepAliveMillis = getSetting(backend, "keep.alive.millis", Long.class, DEFAULT_KEEP_ALIVE_MILLIS);
+        return (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMillis) : keepAliveMillis;
+        };
+    }
+
+    /**
+     * @param backend
+     *            the name of the backend service
+     * @return the maximum time in milliseconds to wait for a connection from the backend's pool
+     */
+    public int getLeaseTimeoutMillis(String backend)
+    {
+        return getSetting(backend, "lease.timeout.millis", Integer.class, DEFAULT_LEASE_TIMEOUT_MILLIS);
+    }
+
+    private <T> T getSetting(String backend, String setting, Class<T> type, T defaultValue)
+    {
+        return environment.getProperty("http.pool." + backend + "." + setting, type,
+                environment.getProperty("http.pool." + setting, type, defaultValue));
+    }
+
+    /**
+     * Closes connections which the server has expired or which have been idle for longer than the backend's idle
+     * timeout.
+     */
+    void evictConnections()
+    {
+        Map<String, PoolingHttpClientConnectionManager> currentPools;
+        synchronized (this)
+        {
+            currentPools = new TreeMap<>(pools);
+        }
+        for (Entry<String, PoolingHttpClientConnectionManager> entry : currentPools.entrySet())
+        {
+            try
+            {
+                entry.getValue().closeExpiredConnections();
+                entry.getValue().closeIdleConnections(
+                        getSetting(entry.getKey(), "idle.timeout.millis", Long.class, DEFAULT_IDLE_TIMEOUT_MILLIS),
+                        TimeUnit.MILLISECONDS);
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("Unable to close idle connections for {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Collection<Metric<?>> metrics()
+    {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        for (Entry<String, PoolingHttpClientConnectionManager> entry : pools.entrySet())
+        {
+            String prefix = "http.pool." + entry.getKey();
+            PoolStats stats = entry.getValue().getTotalStats();
+            metrics.add(new Metric<Integer>(prefix + ".leased", stats.getLeased()));
+            metrics.add(new Metric<Integer>(prefix + ".pending", stats.getPending()));
+            metrics.add(new Metric<Integer>(prefix + ".available", stats.getAvailable()));
+            metrics.add(new Metric<Integer>(prefix + ".max", stats.getMax()));
+        }
+        return metrics;
+    }
+
+    @Override
+    public synchronized void destroy()
+    {
+        evictor.shutdownNow();
+        for (PoolingHttpClientConnectionManager pool : pools.values())
+        {
+            pool.shutdown();
+        }
+        pools.clear();
+    }
+}
@@ -18,14 +18,10 @@ import java.util.List;
 
 import org.apache.commons.io.Charsets;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.beans.factory.config.ConfigurableBeanFactory;
-import org.springframework.context.annotation.Scope;
-import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.http.HttpRequest;
 import org.springframework.http.client.ClientHttpRequestExecution;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
@@ -39,13 +35,13 @@ import org.springframework.web.client.RestTemplate;
 
 /**
  * 
- * RestTemplate to access secured rest services (SSL enabled)
+ * RestTemplate to access secured rest services (SSL enabled). Connections are taken from the shared pool for the
+ * backend service being called, and are kept alive for reuse by later requests.
  * 
  * Copyright 2015, CSIRO Australia All rights reserved.
  *
  */
 @Component
-@Scope(value = ConfigurableBeanFactory.SCOPE_PROTOTYPE, proxyMode = ScopedProxyMode.TARGET_CLASS)
 public class SecuredRestTemplate extends RestTemplate
 {
     /**
@@ -56,14 +52,16 @@ public class SecuredRestTemplate extends RestTemplate
     private HttpComponentsClientHttpRequestFactory requestFactory;
     
     /**
-     * Default Constructor
+     * Default Constructor, creates a template for calling NGAS
      * @param connectionTimeout the time limit for rest connections
+     * @param connectionPools the shared HTTP connection pools
      */
     @Autowired
     public SecuredRestTemplate(@Value("${connection.timeout.limit: " 
-    		+ DEFAULT_RESTTEMPLATE_CONNECT_TIMEOUT + "}") Integer connectionTimeout)
+    		+ DEFAULT_RESTTEMPLATE_CONNECT_TIMEOUT + "}") Integer connectionTimeout, 
+    		HttpConnectionPools connectionPools)
     {
-        this("", "", true);
+        this("", "", true, connectionPools, HttpConnectionPools.NGAS);
         int restConnectionTimeout;
         try
         {
@@ -87,17 +85,25 @@ public class SecuredRestTemplate extends RestTemplate
      *            The password to be used for basic authentication.
      * @param buffer
      *            The BufferRequestBody switch to turn on/off.
+     * @param connectionPools
+     *            The shared HTTP connection pools.
+     * @param backend
+     *            The name of the backend service this template calls, which selects the connection pool to use.
      * 
      */
-    public SecuredRestTemplate(String userName, String password, boolean buffer)
+    public SecuredRestTemplate(String userName, String password, boolean buffer, HttpConnectionPools connectionPools,
+            String backend)
     {
         requestFactory = new HttpComponentsClientHttpRequestFactory();
         requestFactory.setBufferRequestBody(buffer);
+        requestFactory.setConnectionRequestTimeout(connectionPools.getLeaseTimeoutMillis(backend));
 
-        // Create https capable custom HttpClient
+        // Create https capable custom HttpClient using the backend's shared connection pool
         CloseableHttpClient httpClient = HttpClients.custom()
-                // Hostname verification is turned off in NoopHostnameVerifier so this can work on all our environments
-                .setSSLHostnameVerifier(new NoopHostnameVerifier())
+                .setConnectionManager(connectionPools.getConnectionManager(backend))
+                // The pool outlives this client, so closing the client must not shut it down
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy(connectionPools.getKeepAliveStrategy(backend))
                 // Disable auto redirect handling as we rely on redirect 'location' in various places
                 .disableRedirectHandling().build();
         
@@ -0,0 +1,348 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Streams large downloads to the client using Servlet 3.1 asynchronous, non-blocking I/O. Once a stream has been
+ * started the request thread is returned to the container, and data is only written from a container thread when the
+ * client's connection is able to accept more. This means that slow clients no longer each hold a request thread for
+ * the whole of their download.
+ * <p>
+ * Downloads limited by a {@link DownloadGovernor.Permit} are throttled without blocking: when the permit asks for a
+ * pause, writing stops and is resumed on a container thread once the pause has passed.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class AsyncDownloadStreamer implements DisposableBean
+{
+    private static Logger logger = LoggerFactory.getLogger(AsyncDownloadStreamer.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long minimumSize;
+
+    private final long timeoutMillis;
+
+    private final ScheduledExecutorService resumeExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "download-throttle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Callback notified once an asynchronous stream has finished, whether successfully or not.
+     */
+    public interface CompletionHandler
+    {
+        /**
+         * Called once the stream has finished and the source has been closed.
+         *
+         * @param bytesSent
+         *            the number of bytes written to the client
+         * @param error
+         *            the reason the stream failed, or null if all of the data was sent
+         */
+        void completed(long bytesSent, Throwable error);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param minimumSize
+     *            the smallest download, in bytes, that will be streamed asynchronously. Smaller downloads are quicker
+     *            to send using a normal blocking copy.
+     * @param timeoutMillis
+     *            the maximum time in milliseconds that an asynchronous stream may run for, or 0 to rely on the
+     *            connector's socket timeouts only
+     */
+    @Autowired
+    public AsyncDownloadStreamer(@Value("${download.async.min.size.bytes}") long minimumSize,
+            @Value("${download.async.timeout.millis}") long timeoutMillis)
+    {
+        this.minimumSize = minimumSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Checks whether a download should be streamed asynchronously.
+     *
+     * @param request
+     *            the request for the download
+     * @param length
+     *            the number of bytes to be sent, or -1 if not known
+     * @return true if the request supports asynchronous processing and the download is large enough to benefit
+     */
+    public boolean canStream(HttpServletRequest request, long length)
+    {
+        return request.isAsyncSupported() && !request.isAsyncStarted() && (length < 0 || length >= minimumSize);
+    }
+
+    /**
+     * Starts asynchronous processing of the request and streams the source to the response. This method returns as
+     * soon as the stream has been set up; the caller must not write to or close the response afterwards. The source
+     * is always closed, and the handler called, once the stream finishes.
+     *
+     * @param request
+     *            the request for the download
+     * @param response
+     *            the response, with all headers already set
+     * @param source
+     *            the data to send
+     * @param length
+     *            the number of bytes to send, or -1 to send until the end of the source
+     * @param handler
+     *            the handler to be notified when the stream finishes
+     * @throws IOException
+     *             if the response's output stream could not be obtained
+     */
+    public void stream(HttpServletRequest request, HttpServletResponse response, InputStream source, long length,
+            CompletionHandler handler) throws IOException
+    {
+        stream(request, response, source, length, null, handler);
+    }
+
+    /**
+     * Starts asynchronous processing of the request and streams the source to the response, keeping to the bandwidth
+     * limits of the permit. This method returns as soon as the stream has been set up; the caller must not write to or
+     * close the response afterwards. The source is always closed, and the handler called, once the stream finishes.
+     *
+     * @param request
+     *            the request for the download
+     * @param response
+     *            the response, with all headers already set
+     * @param source
+     *            the data to send
+     * @param length
+     *            the number of bytes to send, or -1 to send until the end of the source
+     * @param permit
+     *            the permit the data is counted against, or null to send it unthrottled
+     * @param handler
+     *            the handler to be notified when the stream finishes
+     * @throws IOException
+     *             if the response's output stream could not be obtained
+     */
+    public void stream(HttpServletRequest request, HttpServletResponse response, InputStream source, long length,
+            DownloadGovernor.Permit permit, CompletionHandler handler) throws IOException
+    {
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(timeoutMillis);
+
+        StreamingWriteListener writeListener = new StreamingWriteListener(asyncContext, response.getOutputStream(),
+                source, length, permit, handler);
+        asyncContext.addListener(writeListener);
+        response.getOutputStream().setWriteListener(writeListener);
+    }
+
+    @Override
+    public void destroy()
+    {
+        resumeExecutor.shutdownNow();
+    }
+
+    /**
+     * Copies data from the source to the client whenever the client's connection is ready for it, and the permit
+     * allows it.
+     */
+    private class StreamingWriteListener implements WriteListener, AsyncListener
+    {
+        private final AsyncContext asyncContext;
+
+        private final ServletOutputStream output;
+
+        private final InputStream source;
+
+        private final CompletionHandler handler;
+
+        private final DownloadGovernor.Permit permit;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        private final boolean lengthKnown;
+
+        private long remaining;
+
+        private long bytesSent = 0;
+
+        private boolean paused = false;
+
+        StreamingWriteListener(AsyncContext asyncContext, ServletOutputStream output, InputStream source, long length,
+                DownloadGovernor.Permit permit, CompletionHandler handler)
+        {
+            this.permit = permit;
+            this.asyncContext = asyncContext;
+            this.output = output;
+            this.source = source;
+            this.lengthKnown = length >= 0;
+            this.remaining = lengthKnown ? length : Long.MAX_VALUE;
+            this.handler = handler;
+        }
+
+        @Override
+        public synchronized void onWritePossible() throws IOException
+        {
+            if (paused)
+            {
+                // writing carries on when the scheduled resume runs
+                return;
+            }
+            while (output.isReady())
+            {
+                if (remaining == 0)
+                {
+                    finish(null);
+                    return;
+                }
+                int read = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0)
+                {
+                    // if the length was not known in advance then the end of the source is the end of the download
+                    finish(lengthKnown ? new EOFException("Source ended with " + remaining + " bytes still to be sent")
+                            : null);
+                    return;
+                }
+                output.write(buffer, 0, read);
+                bytesSent += read;
+                remaining -= read;
+                long waitNanos = permit == null ? 0 : permit.reserve(read);
+                if (waitNanos > 0)
+                {
+                    pause(waitNanos);
+                    return;
+                }
+            }
+        }
+
+        private void pause(long waitNanos)
+        {
+            paused = true;
+            try
+            {
+                resumeExecutor.schedule(() -> {
+                    try
+                    {
+                        asyncContext.start(this::resume);
+                    }
+                    catch (IllegalStateException e)
+                    {
+                        // the request has already been completed, e.g. it timed out
+                        finish(e);
+                    }
+                }, waitNanos, TimeUnit.NANOSECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                finish(e);
+            }
+        }
+
+        private synchronized void resume()
+        {
+            paused = false;
+            if (finished.get())
+            {
+                return;
+            }
+            try
+            {
+                // if the client isn't ready the container calls onWritePossible once it is
+                onWritePossible();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                finish(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t)
+        {
+            finish(t);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException
+        {
+            finish(new TimeoutException("Download timed out after sending " + bytesSent + " bytes"));
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException
+        {
+            finish(event.getThrowable());
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException
+        {
+            // Covers the container completing the request without telling the write listener, e.g. on shutdown
+            if (finished.compareAndSet(false, true))
+            {
+                IOUtils.closeQuietly(source);
+                handler.completed(bytesSent, new EOFException("Download was not completed"));
+            }
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException
+        {
+            // Nothing to do
+        }
+
+        private void finish(Throwable error)
+        {
+            if (!finished.compareAndSet(false, true))
+            {
+                return;
+            }
+            IOUtils.closeQuietly(source);
+            try
+            {
+                handler.completed(bytesSent, error);
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("Download completion handler failed", e);
+            }
+            asyncContext.complete();
+        }
+    }
+}
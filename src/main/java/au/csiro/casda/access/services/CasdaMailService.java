@@ -2,12 +2,16 @@ package au.csiro.casda.access.services;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.Days;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -29,10 +33,14 @@ import au.csiro.spring.notification.MailService;
 /**
  * Mail service for notifying users of events which may affect them, e.g. files ready for download, or link expiration
  * <p>
+ * Emails can either be sent straight away, or queued to be sent in the background. Queued emails are sent one at a
+ * time by a single mail thread and retried if they fail. The queue is bounded, and once it is full the caller sends
+ * the email itself, which slows the caller down rather than dropping emails.
+ * <p>
  * Copyright 2017, CSIRO Australia. All rights reserved.
  */
 @Service
-public class CasdaMailService
+public class CasdaMailService implements DisposableBean
 {
     private static Logger logger = LoggerFactory.getLogger(CasdaMailService.class);
     
@@ -58,23 +66,114 @@ public class CasdaMailService
 	/** Constant for the job expired email subject line */
 	public static final String EXPIRED_EMAIL_SUBJECT = "Data Access Job <ID> has expired";
 	
+    private static final long SHUTDOWN_WAIT_SECONDS = 30;
+
     private final MailService mailService;
     private final String emailSender;
     private String link;
+    private final int sendAttempts;
+    private final long retryDelayMillis;
+    private final ThreadPoolExecutor mailExecutor;
     
     /**
      * Constructor
      * @param mailService the mail service for sending this email
      * @param emailSender the from address for email from this service
      * @param link the link to be used in the email, this points to the job details page
+     * @param queueCapacity the number of emails which can be waiting to be sent in the background
+     * @param sendAttempts the number of times a queued email is tried before it is given up on
+     * @param retryDelayMillis the time to wait before trying a queued email again, doubled after each failure
      */
     @Autowired
     public CasdaMailService(MailService mailService, @Value("${email.sender.address}") String emailSender, 
-    		@Value("${email.link.url}") String link)
+    		@Value("${email.link.url}") String link, @Value("${email.queue.capacity:10000}") int queueCapacity,
+            @Value("${email.send.attempts:3}") int sendAttempts,
+            @Value("${email.retry.delay.millis:5000}") long retryDelayMillis)
     {
         this.mailService = mailService;
         this.emailSender = emailSender;
         this.link = link;
+        this.sendAttempts = Math.max(1, sendAttempts);
+        this.retryDelayMillis = retryDelayMillis;
+        this.mailExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                    Thread thread = new Thread(runnable, "casda-mail");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    
+    /**
+     * Queues an email based on the named freemarker template to be sent in the background, if possible (user details
+     * exist). The email is retried if it can't be sent.
+     * @param dataAccessJob the data access job in question, which must not change once queued
+     * @param template the name of the template to use for this email
+     * @param subject the subject of the email
+     */
+    public void queueEmail(DataAccessJob dataAccessJob, String template, String subject)
+    {
+        if (StringUtils.isBlank(dataAccessJob.getUserEmail()))
+        {
+            logNoAddress(dataAccessJob, subject);
+            return;
+        }
+        mailExecutor.execute(() -> deliverEmail(dataAccessJob, template, subject));
+    }
+
+    /**
+     * @return the number of emails waiting to be sent in the background
+     */
+    public int getQueuedEmailCount()
+    {
+        return mailExecutor.getQueue().size();
+    }
+
+    private void deliverEmail(DataAccessJob dataAccessJob, String template, String subject)
+    {
+        long delayMillis = retryDelayMillis;
+        for (int attempt = 1; attempt <= sendAttempts; attempt++)
+        {
+            try
+            {
+                send(dataAccessJob, template, subject);
+                return;
+            }
+            catch (Exception e)
+            {
+                if (attempt == sendAttempts)
+                {
+                    logger.warn("Data Access Job {} notification failed to send after {} attempts",
+                            dataAccessJob.getRequestId(), attempt, e);
+                    return;
+                }
+                logger.info("Data Access Job {} notification failed to send, will retry", dataAccessJob.getRequestId(),
+                        e);
+            }
+            try
+            {
+                Thread.sleep(delayMillis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                logger.warn("Data Access Job {} notification abandoned on shutdown", dataAccessJob.getRequestId());
+                return;
+            }
+            delayMillis *= 2;
+        }
+    }
+
+    /**
+     * Stops the mail thread once the queued emails have been sent, or after waiting a while for them.
+     */
+    @Override
+    public void destroy() throws InterruptedException
+    {
+        mailExecutor.shutdown();
+        if (!mailExecutor.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS))
+        {
+            logger.warn("{} queued emails were not sent before shutdown", mailExecutor.shutdownNow().size());
+        }
     }
     
     /**
@@ -89,25 +188,11 @@ public class CasdaMailService
     	{
         	if(StringUtils.isNotBlank(dataAccessJob.getUserEmail()))
             {
-        		Map<String, Object> values = new HashMap<String, Object>();
-        		values.put("userName", dataAccessJob.getUserName() != null ? dataAccessJob.getUserName() : "Sir/Madam");
-        		values.put("jobID", dataAccessJob.getRequestId());
-        		values.put("jobLink", link.replace("<ID>", dataAccessJob.getRequestId()));
-        		if(dataAccessJob.getExpiredTimestamp() != null)
-        		{
-        			Days diffInDays = Days.daysBetween(new DateTime(), dataAccessJob.getExpiredTimestamp());
-            		values.put("daysToExpire", diffInDays.getDays());
-        		}
-        		
-            	this.mailService.sendMail(emailSender, dataAccessJob.getUserEmail(), 
-            			subject.replace("<ID>", dataAccessJob.getRequestId()), values, template);
-                logger.info("Sent email {} for request {}", subject, dataAccessJob.getRequestId());
+        		send(dataAccessJob, template, subject);
             }
         	else
         	{
-                logger.info("No address so no email sent {} for request {} user i:{} e:{} n:{} l:{}", subject,
-                        dataAccessJob.getRequestId(), dataAccessJob.getUserIdent(), dataAccessJob.getUserEmail(),
-                        dataAccessJob.getUserName(), dataAccessJob.getUserLoginSystem());
+        		logNoAddress(dataAccessJob, subject);
         	}
     	}
     	catch(Exception e)
@@ -115,4 +200,28 @@ public class CasdaMailService
             logger.warn("Data Access Job {} notification failed to send", dataAccessJob.getRequestId(), e);
     	}
     }
+
+    private void send(DataAccessJob dataAccessJob, String template, String subject) throws Exception
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("userName", dataAccessJob.getUserName() != null ? dataAccessJob.getUserName() : "Sir/Madam");
+        values.put("jobID", dataAccessJob.getRequestId());
+        values.put("jobLink", link.replace("<ID>", dataAccessJob.getRequestId()));
+        if(dataAccessJob.getExpiredTimestamp() != null)
+        {
+            Days diffInDays = Days.daysBetween(new DateTime(), dataAccessJob.getExpiredTimestamp());
+            values.put("daysToExpire", diffInDays.getDays());
+        }
+
+        this.mailService.sendMail(emailSender, dataAccessJob.getUserEmail(), 
+                subject.replace("<ID>", dataAccessJob.getRequestId()), values, template);
+        logger.info("Sent email {} for request {}", subject, dataAccessJob.getRequestId());
+    }
+
+    private void logNoAddress(DataAccessJob dataAccessJob, String subject)
+    {
+        logger.info("No address so no email sent {} for request {} user i:{} e:{} n:{} l:{}", subject,
+                dataAccessJob.getRequestId(), dataAccessJob.getUserIdent(), dataAccessJob.getUserEmail(),
+                dataAccessJob.getUserName(), dataAccessJob.getUserLoginSystem());
+    }
 }
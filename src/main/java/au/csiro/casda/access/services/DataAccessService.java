@@ -18,8 +18,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -33,13 +35,16 @@ import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -49,6 +54,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
@@ -63,6 +69,7 @@ import au.csiro.casda.access.DownloadFile;
 import au.csiro.casda.access.EncapsulatedFileDescriptor;
 import au.csiro.casda.access.FileDescriptor;
 import au.csiro.casda.access.ResourceNotFoundException;
+import au.csiro.casda.access.TooManyRequestsException;
 import au.csiro.casda.access.cache.CacheException;
 import au.csiro.casda.access.cache.CacheManagerInterface;
 import au.csiro.casda.access.cache.DownloadManager;
@@ -81,6 +88,10 @@ import au.csiro.casda.access.jpa.SpectrumRepository;
 import au.csiro.casda.access.jpa.ThumbnailRepository;
 import au.csiro.casda.access.services.NgasService.ServiceCallException;
 import au.csiro.casda.access.services.NgasService.Status;
+import au.csiro.casda.access.util.ArchiveFormat;
+import au.csiro.casda.access.util.ArchiveStreamWriter;
+import au.csiro.casda.access.util.ByteRange;
+import au.csiro.casda.access.util.HttpValidators;
 import au.csiro.casda.entity.CasdaDepositableArtefactEntity;
 import au.csiro.casda.entity.dataaccess.CachedFile;
 import au.csiro.casda.entity.dataaccess.CachedFile.FileType;
@@ -167,6 +178,14 @@ public class DataAccessService
 
     private DownloadManager downloadManager;
 
+    private final AsyncDownloadStreamer asyncDownloadStreamer;
+
+    private final DownloadGovernor downloadGovernor;
+
+    private final NgasLocationCache ngasLocationCache;
+
+    private final boolean cacheNgasPassthrough;
+
     /**
      * Create a new DataAccessJobService instance.
      * 
@@ -218,6 +237,14 @@ public class DataAccessService
      * 			  the email service for sending user notifications
      * @param downloadManager
      *            The downloadManager instance which will be doing the work.
+     * @param asyncDownloadStreamer
+     *            the streamer used to send large downloads using non-blocking I/O
+     * @param downloadGovernor
+     *            the governor limiting the concurrent downloads and bandwidth of each user
+     * @param ngasLocationCache
+     *            the cache of where files are in NGAS and whether they are on disk
+     * @param cacheNgasPassthrough
+     *            true if files streamed directly from NGAS should also be kept in the cache
      */
     @Autowired
     public DataAccessService(DataAccessJobRepository dataAccessJobRepository, 
@@ -236,7 +263,9 @@ public class DataAccessService
             DataAccessJdbcRepository dataAccessJdbcRepository, ImageCutoutRepository imageCutoutRepository, 
             GeneratedSpectrumRepository generatedSpectrumRepository,
             CasdaMailService casdaMailService,
-            DownloadManager downloadManager)
+            DownloadManager downloadManager, AsyncDownloadStreamer asyncDownloadStreamer,
+            DownloadGovernor downloadGovernor, NgasLocationCache ngasLocationCache,
+            @Value("${ngas.passthrough.cache.enabled}") boolean cacheNgasPassthrough)
     {
     	this.cacheManager = cacheManager;
         this.dataAccessJobRepository = dataAccessJobRepository;
@@ -262,6 +291,10 @@ public class DataAccessService
         this.evaluationFileRepository = evaluationFileRepository;
         this.casdaMailService = casdaMailService;
         this.downloadManager = downloadManager;
+        this.asyncDownloadStreamer = asyncDownloadStreamer;
+        this.downloadGovernor = downloadGovernor;
+        this.ngasLocationCache = ngasLocationCache;
+        this.cacheNgasPassthrough = cacheNgasPassthrough;
     }
 
 	/**
@@ -360,6 +393,62 @@ public class DataAccessService
         return new File(jobRequestDir.toString());
     }
 
+    /**
+     * Marks all ready jobs whose files have expired as expired, in one statement.
+     * 
+     * @return the jobs expired, holding only the details needed to notify their users
+     */
+    public List<DataAccessJob> expireReadyJobs()
+    {
+        return toNotificationJobs(dataAccessJdbcRepository.expireReadyJobs());
+    }
+
+    /**
+     * Marks all jobs which have been preparing since before the given time as expired, in one statement.
+     * 
+     * @param createdBefore
+     *            the newest creation time of a job to expire
+     * @return the request ids of the jobs expired
+     */
+    public List<String> expirePreparingJobsCreatedBefore(DateTime createdBefore)
+    {
+        return dataAccessJdbcRepository.expirePreparingJobsCreatedBefore(createdBefore);
+    }
+
+    /**
+     * Finds the ready jobs which will expire in the given time range.
+     * 
+     * @param maxTime
+     *            the latest expiry time
+     * @param minTime
+     *            the time the jobs must expire after, so that users are only notified once
+     * @return the jobs, holding only the details needed to notify their users
+     */
+    public List<DataAccessJob> findJobsForExpiryNotification(DateTime maxTime, DateTime minTime)
+    {
+        return toNotificationJobs(dataAccessJdbcRepository.findJobsForExpiryNotification(maxTime, minTime));
+    }
+
+    private List<DataAccessJob> toNotificationJobs(List<Map<String, Object>> rows)
+    {
+        List<DataAccessJob> jobs = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows)
+        {
+            // not saved, these just carry the job details to the mail service
+            DataAccessJob job = new DataAccessJob();
+            job.setRequestId((String) row.get("request_id"));
+            job.setUserName((String) row.get("user_name"));
+            job.setUserEmail((String) row.get("user_email"));
+            Date expiredTimestamp = (Date) row.get("expired_timestamp");
+            if (expiredTimestamp != null)
+            {
+                job.setExpiredTimestamp(new DateTime(expiredTimestamp.getTime()));
+            }
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
     /**
      * Updates job as completed.
      * 
@@ -477,7 +566,40 @@ public class DataAccessService
     }
 
     /**
-     * Finds the file path in NGAS corresponding with the given file id.
+     * Finds the file for the given data product if it is already on disk, either in the cache or in NGAS, so that it
+     * can be streamed without running a job to retrieve it.
+     * 
+     * @param dataAccessProduct
+     *            the requested data product
+     * @return the file path if it is available on disk, null otherwise.
+     * @throws ResourceNotFoundException
+     *             if there is no corresponding database record for this data product type and id
+     * @throws ServiceCallException
+     *             if there is a problem calling NGAS about the status or location of the file.
+     */
+    @Transactional
+    public Path findFileOnDisk(DataAccessDataProduct dataAccessProduct)
+            throws ResourceNotFoundException, ServiceCallException
+    {
+        CasdaDepositableArtefactEntity artefact = findDataProduct(dataAccessProduct);
+        if (artefact == null)
+        {
+            throw new ResourceNotFoundException(dataAccessProduct.getDataAccessProductType() + " with id "
+                    + dataAccessProduct.getId() + " does not exist");
+        }
+
+        String fileId = artefact.getFileId();
+        CachedFile cachedFile = cacheManager.getCachedFile(fileId);
+        if (cachedFile != null && cachedFile.isFileAvailableFlag() && new File(cachedFile.getPath()).exists())
+        {
+            return Paths.get(cachedFile.getPath());
+        }
+        return findFileInNgasIfOnDisk(fileId);
+    }
+
+    /**
+     * Finds the file path in NGAS corresponding with the given file id. Whether the file is on disk is remembered for a
+     * while, see NgasLocationCache.
      * 
      * @param fileId
      *            the data product's file id in ngas
@@ -490,7 +612,13 @@ public class DataAccessService
     public Path findFileInNgasIfOnDisk(String fileId) throws ResourceNotFoundException, ServiceCallException
     {
         Path filepath = findFileInNgas(fileId);
-        if (isAvailableOnDiskInNgas(filepath, fileId))
+        Boolean onDisk = ngasLocationCache.isOnDisk(fileId);
+        if (onDisk == null)
+        {
+            onDisk = isAvailableOnDiskInNgas(filepath, fileId);
+            ngasLocationCache.putOnDisk(fileId, onDisk);
+        }
+        if (onDisk)
         {
             return filepath;
         }
@@ -503,7 +631,8 @@ public class DataAccessService
 
 
     /**
-     * Finds the file path in NGAS corresponding with the given file id.
+     * Finds the file path in NGAS corresponding with the given file id. The path is remembered for a while, and is
+     * looked up again if the remembered path no longer exists.
      * 
      * @param fileId
      *            the data product's file id in ngas
@@ -515,6 +644,17 @@ public class DataAccessService
      */
     public Path findFileInNgas(String fileId) throws ServiceCallException, ResourceNotFoundException
     {
+        Path cachedPath = ngasLocationCache.getLocation(fileId);
+        if (cachedPath != null)
+        {
+            if (Files.exists(cachedPath))
+            {
+                return cachedPath;
+            }
+            // NGAS has moved or removed the file since we looked it up
+            ngasLocationCache.invalidate(fileId);
+        }
+
         Status ngasStatus = ngasService.getStatus(fileId);
         if (!ngasStatus.wasSuccess())
         {
@@ -525,6 +665,7 @@ public class DataAccessService
             throw new ResourceNotFoundException(fileId + " does not exist in NGAS");
         }
         Path filepath = Paths.get(ngasStatus.getMountPoint(), ngasStatus.getFileName());
+        ngasLocationCache.putLocation(fileId, filepath);
         return filepath;
     }
 
@@ -603,12 +744,16 @@ public class DataAccessService
     }
 
     /**
-     * Downloads the file from the given job.
+     * Downloads the file from the given job. Byte range requests (as per RFC 7233) are supported so that clients can
+     * resume interrupted transfers or fetch a file in parallel segments, as are conditional requests using the file's
+     * ETag or Last-Modified validators (as per RFC 7232).
      * 
      * @param dataAccessJob
      *            a DataAccessJob
      * @param filename
      *            the name of the file
+     * @param request
+     *            the request, used to check for Range and conditional headers
      * @param response
      *            the response to stream the file data to
      * @param skipCacheCheck
@@ -617,9 +762,11 @@ public class DataAccessService
      *            True if the file content should not be sent such as in response to a HEAD request.
      * @throws ResourceNotFoundException
      *             if the file could not be found
+     * @throws TooManyRequestsException
+     *             if the job's user already has as many downloads running as they are allowed
      */
-    public void downloadFile(DataAccessJob dataAccessJob, String filename, HttpServletResponse response,
-            boolean skipCacheCheck, boolean headersOnly) throws ResourceNotFoundException
+    public void downloadFile(DataAccessJob dataAccessJob, String filename, HttpServletRequest request,
+            HttpServletResponse response, boolean skipCacheCheck, boolean headersOnly) throws ResourceNotFoundException
     {
         long start = System.currentTimeMillis();
 
@@ -666,6 +813,38 @@ public class DataAccessService
             }
         }
 
+        sendFile(dataAccessJob, filename, filepath, request, response, headersOnly, start);
+    }
+
+    /**
+     * Downloads a file which has already been found on disk for the given job, e.g. by
+     * {@link #findFileOnDisk(DataAccessDataProduct)}. Range and conditional requests are supported as for
+     * {@link #downloadFile(DataAccessJob, String, HttpServletRequest, HttpServletResponse, boolean, boolean)}.
+     * 
+     * @param dataAccessJob
+     *            a DataAccessJob
+     * @param filename
+     *            the name the file will be downloaded as
+     * @param filepath
+     *            the file
+     * @param request
+     *            the request, used to check for Range and conditional headers
+     * @param response
+     *            the response to stream the file data to
+     * @param headersOnly
+     *            True if the file content should not be sent such as in response to a HEAD request.
+     * @throws TooManyRequestsException
+     *             if the job's user already has as many downloads running as they are allowed
+     */
+    public void downloadFile(DataAccessJob dataAccessJob, String filename, File filepath, HttpServletRequest request,
+            HttpServletResponse response, boolean headersOnly)
+    {
+        sendFile(dataAccessJob, filename, filepath, request, response, headersOnly, System.currentTimeMillis());
+    }
+
+    private void sendFile(DataAccessJob dataAccessJob, String filename, File filepath, HttpServletRequest request,
+            HttpServletResponse response, boolean headersOnly, long start)
+    {
         MediaType contentType;
         switch (FilenameUtils.getExtension(filepath.getName()))
         {
@@ -680,16 +859,71 @@ public class DataAccessService
             break;
         }
 
-        try (ServletOutputStream servletOutput = response.getOutputStream();
-                FileInputStream file = new FileInputStream(filepath))
+        String entityTag = HttpValidators.createEntityTag(filepath);
+        long lastModified = filepath.lastModified();
+        if (HttpValidators.checkNotModified(request, response, entityTag, lastModified))
+        {
+            logger.debug("File {} for request {} has not been modified", filename, dataAccessJob.getRequestId());
+            return;
+        }
+
+        long fileLength = filepath.length();
+        List<ByteRange> ranges = null;
+        if (HttpValidators.isIfRangeSatisfied(request, entityTag, lastModified))
         {
+            ranges = ByteRange.parse(request.getHeader(HttpHeaders.RANGE), fileLength);
+        }
+
+        // Only transfers of file content count towards the user's download limits
+        DownloadGovernor.Permit permit = headersOnly ? null : downloadGovernor.acquire(dataAccessJob);
+
+        // Large single part downloads are sent without tying up a request thread for the whole transfer
+        ByteRange asyncRange = ranges == null ? new ByteRange(0, Math.max(0, fileLength - 1))
+                : (ranges.size() == 1 ? ranges.get(0) : null);
+        if (!headersOnly && fileLength > 0 && asyncRange != null
+                && asyncDownloadStreamer.canStream(request, asyncRange.getLength()))
+        {
+            streamFileAsync(dataAccessJob, filename, filepath, contentType, ranges == null ? null : asyncRange,
+                    request, response, start, permit);
+            return;
+        }
+
+        long bytesSent = 0;
+        try (ServletOutputStream servletOutput = response.getOutputStream())
+        {
+            OutputStream output = permit == null ? servletOutput : permit.throttle(servletOutput);
             response.addHeader("Content-Disposition", "attachment; filename=" + filename);
-            response.addHeader("Content-Length", Long.toString(filepath.length()));
-            response.addHeader("Content-Type", contentType.toString());
+            response.addHeader(HttpHeaders.ACCEPT_RANGES, ByteRange.BYTES_UNIT);
 
-            if (!headersOnly)
+            if (ranges == null)
             {
-                IOUtils.copyLarge(file, servletOutput);
+                response.addHeader("Content-Length", Long.toString(fileLength));
+                response.addHeader("Content-Type", contentType.toString());
+                if (!headersOnly)
+                {
+                    bytesSent = copyRange(filepath, new ByteRange(0, Math.max(0, fileLength - 1)), output);
+                }
+            }
+            else if (ranges.isEmpty())
+            {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.addHeader(HttpHeaders.CONTENT_RANGE, ByteRange.toUnsatisfiedContentRange(fileLength));
+            }
+            else if (ranges.size() == 1)
+            {
+                ByteRange range = ranges.get(0);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.addHeader(HttpHeaders.CONTENT_RANGE, range.toContentRange(fileLength));
+                response.addHeader("Content-Length", Long.toString(range.getLength()));
+                response.addHeader("Content-Type", contentType.toString());
+                if (!headersOnly)
+                {
+                    bytesSent = copyRange(filepath, range, output);
+                }
+            }
+            else
+            {
+                bytesSent = writeMultipleRanges(filepath, ranges, contentType, response, output, headersOnly);
             }
             response.flushBuffer();
         }
@@ -708,28 +942,249 @@ public class DataAccessService
             logger.error(builder.toString(), e);
             throw new BadRequestException(e);
         }
+        finally
+        {
+            if (permit != null)
+            {
+                permit.close();
+            }
+        }
+
+        logDownloadComplete(dataAccessJob, filename, start, ranges == null ? fileLength : bytesSent);
+    }
+
+    /**
+     * Streams the whole file, or a single range of it, using non-blocking I/O. The request thread is released once
+     * the stream has been set up and the completion of the download is logged from the container thread that sends
+     * the last of the data.
+     * 
+     * @param range
+     *            the range to be sent as a partial response, or null to send the whole file
+     * @param permit
+     *            the download permit, which is released when the stream finishes
+     */
+    private void streamFileAsync(DataAccessJob dataAccessJob, String filename, File filepath, MediaType contentType,
+            ByteRange range, HttpServletRequest request, HttpServletResponse response, long start,
+            DownloadGovernor.Permit permit)
+    {
+        long fileLength = filepath.length();
+        ByteRange sendRange = range == null ? new ByteRange(0, fileLength - 1) : range;
+        FileInputStream input = null;
+        boolean handedOff = false;
+        try
+        {
+            response.addHeader("Content-Disposition", "attachment; filename=" + filename);
+            response.addHeader(HttpHeaders.ACCEPT_RANGES, ByteRange.BYTES_UNIT);
+            if (range != null)
+            {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.addHeader(HttpHeaders.CONTENT_RANGE, range.toContentRange(fileLength));
+            }
+            response.addHeader("Content-Length", Long.toString(sendRange.getLength()));
+            response.addHeader("Content-Type", contentType.toString());
+
+            input = new FileInputStream(filepath);
+            IOUtils.skipFully(input, sendRange.getStart());
+
+            asyncDownloadStreamer.stream(request, response, input, sendRange.getLength(), permit,
+                    (bytesSent, error) -> {
+                permit.close();
+                if (error == null)
+                {
+                    logDownloadComplete(dataAccessJob, filename, start, range == null ? fileLength : bytesSent);
+                }
+                else if (error.getClass().getSimpleName().equals("ClientAbortException"))
+                {
+                    logger.info("Client cancelled download for file {} for request {} ", filepath,
+                            dataAccessJob.getRequestId());
+                }
+                else
+                {
+                    CasdaMessageBuilder<?> builder =
+                            CasdaLogMessageBuilderFactory.getCasdaMessageBuilder(LogEvent.UNKNOWN_EVENT);
+                    builder.add("Could not stream the file " + dataAccessJob.getRequestId() + " filepath " + filepath
+                            + " after sending " + bytesSent + " bytes");
+                    logger.error(builder.toString(), error);
+                }
+            });
+            handedOff = true;
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            CasdaMessageBuilder<?> builder =
+                    CasdaLogMessageBuilderFactory.getCasdaMessageBuilder(LogEvent.UNKNOWN_EVENT);
+            builder.add("Could not stream the file " + dataAccessJob.getRequestId() + " filepath " + filepath);
+            logger.error(builder.toString(), e);
+            throw new BadRequestException(e);
+        }
+        finally
+        {
+            // until the streamer has taken the file it is ours to close, whatever went wrong
+            if (!handedOff)
+            {
+                IOUtils.closeQuietly(input);
+                permit.close();
+            }
+        }
+    }
 
+    private void logDownloadComplete(DataAccessJob dataAccessJob, String filename, long start, long bytesSent)
+    {
         long duration = System.currentTimeMillis() - start;
 
         FileType downloadFileType = findRecordType(filename);
         String fileType = downloadFileType == null ? "unknown" : downloadFileType.name();
 
         logger.info(CasdaDataAccessEvents.E041.messageBuilder().addTimeTaken(duration).add(dataAccessJob.getRequestId())
-                .add(filename).add(DataAccessUtil.convertBytesToKb(filepath.length())).add(fileType)
+                .add(filename).add(DataAccessUtil.convertBytesToKb(bytesSent)).add(fileType)
                 .add(dataAccessJob.getDownloadMode().name()).toString());
     }
-    
+
     /**
-     * Downloads the file from the given NGAS fileId.
+     * Sends the ranges of the file as a multipart/byteranges response.
+     * 
+     * @return the number of bytes of file content sent
+     */
+    private long writeMultipleRanges(File file, List<ByteRange> ranges, MediaType contentType,
+            HttpServletResponse response, OutputStream output, boolean headersOnly) throws IOException
+    {
+        String boundary = "CASDA_" + UUID.randomUUID().toString().replace("-", "");
+        long fileLength = file.length();
+
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (ByteRange range : ranges)
+        {
+            String partHeader = "\r\n--" + boundary + "\r\n" + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + range.toContentRange(fileLength) + "\r\n\r\n";
+            byte[] partHeaderBytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeaderBytes);
+            contentLength += partHeaderBytes.length + range.getLength();
+        }
+        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += trailer.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.addHeader("Content-Length", Long.toString(contentLength));
+        response.addHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+        if (headersOnly)
+        {
+            return 0;
+        }
+
+        long bytesSent = 0;
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            output.write(partHeaders.get(i));
+            bytesSent += copyRange(file, ranges.get(i), output);
+        }
+        output.write(trailer);
+        return bytesSent;
+    }
+
+    private long copyRange(File file, ByteRange range, OutputStream output) throws IOException
+    {
+        if (file.length() == 0)
+        {
+            return 0;
+        }
+        try (FileInputStream input = new FileInputStream(file))
+        {
+            return IOUtils.copyLarge(input, output, range.getStart(), range.getLength());
+        }
+    }
+
+    /**
+     * Streams all of the files of a data access job, along with their checksum files, to the response as a single
+     * archive. The archive is built on the fly from the job directory one page of files at a time, so nothing is
+     * staged on disk and the memory used does not grow with the number of files in the job.
+     *
+     * @param dataAccessJob
+     *            the data access job whose files are to be downloaded
+     * @param format
+     *            the format of the archive
+     * @param response
+     *            the response to stream the archive to
+     * @throws TooManyRequestsException
+     *             if the job's user already has as many downloads running as they are allowed
+     */
+    public void downloadJobArchive(DataAccessJob dataAccessJob, ArchiveFormat format, HttpServletResponse response)
+    {
+        long start = System.currentTimeMillis();
+        String requestId = dataAccessJob.getRequestId();
+        String archiveName = requestId + "." + format.getExtension();
+
+        DownloadGovernor.Permit permit = downloadGovernor.acquire(dataAccessJob);
+        long bytesSent = 0;
+        try (ServletOutputStream servletOutput = response.getOutputStream())
+        {
+            response.addHeader("Content-Disposition", "attachment; filename=" + archiveName);
+            response.addHeader("Content-Type", format.getContentType());
+
+            ArchiveStreamWriter archiveWriter = ArchiveStreamWriter.create(format, permit.throttle(servletOutput));
+            for (Map<FileType, Integer[]> page : getPaging(requestId, false))
+            {
+                for (DownloadFile downloadFile : getPageOfFiles(page, dataAccessJob))
+                {
+                    File file = getFileLocation(requestId, downloadFile.getFilename());
+                    if (!file.exists())
+                    {
+                        logger.warn("File {} for request {} is not available and will be left out of the archive",
+                                downloadFile.getFilename(), requestId);
+                        continue;
+                    }
+                    bytesSent += archiveWriter.addFile(requestId + "/" + file.getName(), file);
+
+                    File checksumFile = new File(file.getPath() + ".checksum");
+                    if (checksumFile.exists())
+                    {
+                        bytesSent += archiveWriter.addFile(requestId + "/" + checksumFile.getName(), checksumFile);
+                    }
+                }
+            }
+            archiveWriter.finish();
+            response.flushBuffer();
+        }
+        catch (Exception e)
+        {
+            if (e.getClass().getSimpleName().equals("ClientAbortException"))
+            {
+                logger.info("Client cancelled download of archive for request {} ", requestId);
+                return;
+            }
+
+            CasdaMessageBuilder<?> builder =
+                    CasdaLogMessageBuilderFactory.getCasdaMessageBuilder(LogEvent.UNKNOWN_EVENT);
+            builder.add("Could not stream the archive for request " + requestId);
+            logger.error(builder.toString(), e);
+            throw new BadRequestException(e);
+        }
+        finally
+        {
+            permit.close();
+        }
+
+        long duration = System.currentTimeMillis() - start;
+        logger.info(CasdaDataAccessEvents.E041.messageBuilder().addTimeTaken(duration).add(requestId)
+                .add(archiveName).add(DataAccessUtil.convertBytesToKb(bytesSent)).add(format.name())
+                .add(dataAccessJob.getDownloadMode().name()).toString());
+    }
+
+    /**
+     * Downloads the file from the given NGAS fileId. A 304 (Not Modified) response will be sent if the request's
+     * conditional headers show that the client already has the current version of the thumbnail.
      * 
      * @param fileId
      *            the NGAS fileId
+     * @param request
+     *            the request, used to check for conditional headers
      * @param response
      *            the response to stream the file data to
      * @throws ResourceNotFoundException
      *             if the file could not be found
      */
-    public void downloadThumbnailFromNgas(String fileId, HttpServletResponse response) throws ResourceNotFoundException
+    public void downloadThumbnailFromNgas(String fileId, HttpServletRequest request, HttpServletResponse response)
+            throws ResourceNotFoundException
     {
         Thumbnail thumb = getThumbnailRecord(fileId);
 
@@ -752,7 +1207,7 @@ public class DataAccessService
         			//if file is available return it to user
                     logger.debug("Returning available thumbnail " + downloadFile.getFileId());
             		CachedFile cachedFile = cacheManager.getCachedFile(downloadFile.getFileId());
-        			returnFile(cachedFile, response);
+        			returnFile(cachedFile, request, response);
         			return;
         		}
                 else if (existingCachedFile == null)
@@ -817,7 +1272,40 @@ public class DataAccessService
         	else
         	{
         		//for thumbnails which pre-exist the encapsulation of small files.
-        		ngasService.retrieveFile(fileId, response);
+                CachedFile cachedFile = cacheManager.getCachedFile(fileId);
+                if (cachedFile != null && cachedFile.isFileAvailableFlag() && new File(cachedFile.getPath()).exists())
+                {
+                    logger.debug("Returning thumbnail {} kept from an earlier NGAS retrieval", fileId);
+                    returnFile(cachedFile, request, response);
+                    return;
+                }
+
+                // the checksum is remembered so that repeat requests don't need an NGAS status call for the entity tag
+                Status ngasStatus = null;
+                String checksum = ngasLocationCache.getChecksum(fileId);
+                if (checksum == null)
+                {
+                    ngasStatus = ngasService.getStatus(fileId);
+                    checksum = ngasStatus.getChecksum();
+                    if (StringUtils.isNotBlank(checksum))
+                    {
+                        ngasLocationCache.putChecksum(fileId, checksum);
+                    }
+                }
+                String entityTag = HttpValidators.createEntityTag(checksum);
+                if (!HttpValidators.checkNotModified(request, response, entityTag, -1))
+                {
+                    NgasCacheTee cacheTee = null;
+                    if (cachedFile == null && cacheNgasPassthrough)
+                    {
+                        if (ngasStatus == null)
+                        {
+                            ngasStatus = ngasService.getStatus(fileId);
+                        }
+                        cacheTee = createNgasCacheTee(fileId, ngasStatus, FileType.THUMBNAIL);
+                    }
+                    ngasService.retrieveFile(fileId, request, response, cacheTee);
+                }
         	} 
         }
         catch (ServiceCallException e)
@@ -898,6 +1386,48 @@ public class DataAccessService
         return thumbnailRepository.findOne(id);
     }
 
+    /**
+     * Creates a tee to keep a copy of a file that is being streamed from NGAS, so that later requests for the file can
+     * be served from the cache. The copy is registered as an available cached file once it has been verified.
+     * 
+     * @return the tee, or null if the file should not be kept
+     */
+    private NgasCacheTee createNgasCacheTee(String fileId, Status ngasStatus, FileType fileType)
+    {
+        if (!cacheNgasPassthrough || !NgasCacheTee.canVerify(ngasStatus))
+        {
+            return null;
+        }
+        long sizeKb = DataAccessUtil.convertBytesToKb(ngasStatus.getUncompressedFileSizeBytes());
+        if (cacheManager.getUsedCacheSizeKb() + sizeKb > cacheManager.getMaxCacheSizeKb())
+        {
+            logger.debug("Not keeping a copy of {} from NGAS as the cache is full", fileId);
+            return null;
+        }
+
+        File destination = new File(cacheDir + File.separatorChar + "data" + File.separatorChar
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")), fileId);
+        return new NgasCacheTee(fileId, ngasStatus, destination, file -> {
+            try
+            {
+                CachedFile cachedFile = new CachedFile(fileId, file.getAbsolutePath(), sizeKb,
+                        DateTime.now(DateTimeZone.UTC).plusWeeks(1));
+                cachedFile.setLastModified(DateTime.now());
+                cachedFile.setDownloadJobRetryCount(0);
+                cachedFile.setFileAvailableFlag(true);
+                cachedFile.setFileType(fileType);
+                cachedFileRepository.save(cachedFile);
+                logger.info("Kept copy of {} from NGAS in the cache at {}", fileId, file);
+            }
+            catch (RuntimeException e)
+            {
+                // most likely another request has already kept a copy of the same file
+                logger.warn("Unable to register copy of {} from NGAS in the cache", fileId, e);
+                FileUtils.deleteQuietly(file);
+            }
+        });
+    }
+
     private CachedFile createCachedFile(FileDescriptor downloadFile, String cacheDestination,
             String originalPath)
     {
@@ -911,14 +1441,17 @@ public class DataAccessService
         return cachedFile;
     }
     
-    private void returnFile(CachedFile cachedFile, HttpServletResponse response)
+    private void returnFile(CachedFile cachedFile, HttpServletRequest request, HttpServletResponse response)
     {
-    	try
-    	{
-    		File file = new File(cachedFile.getPath());
+        File file = new File(cachedFile.getPath());
+        if (file.exists() && HttpValidators.checkNotModified(request, response,
+                HttpValidators.createEntityTag(file), file.lastModified()))
+        {
+            return;
+        }
 
-        	FileInputStream fis = new FileInputStream(file);
-        	
+    	try (FileInputStream fis = new FileInputStream(file))
+    	{
         	response.addHeader("Content-disposition", "attachment;filename=" + file.getName());
         	response.setContentType("image/png");
         	
@@ -1223,12 +1756,14 @@ public class DataAccessService
      * @param ra The right ascension of the central point of the cutout in decimal degrees.
      * @param dec The declination of the central point of the cutout in decimal degrees.
      * @param radius The size of the cutout, measured as a radius in decimal degrees. 
+     * @param request
+     *            the request, used to check for conditional headers
      * @param response
      *            the response to stream the file data to
      * @return true if an exiting cutout is available or being prepared, false if none exists yet 
      */
     public boolean downloadCutoutPreview(long imageCubeId, double ra, double dec, double radius,
-            HttpServletResponse response)
+            HttpServletRequest request, HttpServletResponse response)
     {
         // Calculate bounds 
         double len = radius *  2d;
@@ -1250,7 +1785,7 @@ public class DataAccessService
             {
                 // If finished, return the result
                 CachedFile cachedFile = cacheManager.getCachedFile(cutout.getFileId());
-                returnFile(cachedFile, response);
+                returnFile(cachedFile, request, response);
             }
             else
             {
@@ -0,0 +1,414 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import au.csiro.casda.access.TooManyRequestsException;
+import au.csiro.casda.entity.dataaccess.DataAccessJob;
+
+/**
+ * Limits the share of the download capacity that any one user can take. Each download must hold a permit, and permits
+ * are refused once a user, or a single data access job, has reached its limit of concurrent downloads. The data sent
+ * under each permit is also shaped by token buckets, one per user and one shared by all downloads.
+ * <p>
+ * Downloads are attributed to the user who owns the data access job. Jobs without a user identity (e.g. anonymous
+ * SODA requests) are treated as belonging to a user of their own. A user's bandwidth allowance is kept after their last
+ * download finishes, so reconnecting doesn't reset it, and is only forgotten once it has been fully restored.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class DownloadGovernor implements PublicMetrics
+{
+    private static Logger logger = LoggerFactory.getLogger(DownloadGovernor.class);
+
+    private final int maxStreamsPerUser;
+
+    private final int maxStreamsPerRequest;
+
+    private final long userBytesPerSecond;
+
+    private final int retryAfterSeconds;
+
+    private final TokenBucket globalBucket;
+
+    private final Map<String, UserState> users = new HashMap<>();
+
+    private final Map<String, Integer> requestStreams = new HashMap<>();
+
+    private int activeStreams = 0;
+
+    private final AtomicLong rejectedForUser = new AtomicLong();
+
+    private final AtomicLong rejectedForRequest = new AtomicLong();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final AtomicLong throttledMillis = new AtomicLong();
+
+    /**
+     * Constructor. A limit of zero or less means that limit is not applied.
+     *
+     * @param maxStreamsPerUser
+     *            the maximum number of concurrent downloads for each user
+     * @param maxStreamsPerRequest
+     *            the maximum number of concurrent downloads for each data access job
+     * @param userBytesPerSecond
+     *            the maximum download rate for each user
+     * @param globalBytesPerSecond
+     *            the maximum download rate for all users combined
+     * @param retryAfterSeconds
+     *            the number of seconds a client is asked to wait when a download is refused
+     */
+    @Autowired
+    public DownloadGovernor(@Value("${download.max.streams.per.user}") int maxStreamsPerUser,
+            @Value("${download.max.streams.per.request}") int maxStreamsPerRequest,
+            @Value("${download.max.bytes.per.second.per.user}") long userBytesPerSecond,
+            @Value("${download.max.bytes.per.second}") long globalBytesPerSecond,
+            @Value("${download.retry.after.seconds}") int retryAfterSeconds)
+    {
+        this.maxStreamsPerUser = maxStreamsPerUser;
+        this.maxStreamsPerRequest = maxStreamsPerRequest;
+        this.userBytesPerSecond = userBytesPerSecond;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.globalBucket = globalBytesPerSecond > 0 ? new TokenBucket(globalBytesPerSecond) : null;
+    }
+
+    /**
+     * Obtains a permit to download a file of a data access job. The permit must be closed once the download finishes.
+     *
+     * @param dataAccessJob
+     *            the job the download belongs to
+     * @return the permit
+     * @throws TooManyRequestsException
+     *             if the user or job already has as many downloads running as they are allowed
+     */
+    public synchronized Permit acquire(DataAccessJob dataAccessJob) throws TooManyRequestsException
+    {
+        String userKey = getUserKey(dataAccessJob);
+        String requestId = dataAccessJob.getRequestId();
+
+        UserState user = users.get(userKey);
+        if (maxStreamsPerUser > 0 && user != null && user.streams >= maxStreamsPerUser)
+        {
+            rejectedForUser.incrementAndGet();
+            logger.info("Refusing download for request {} as user {} already has {} downloads running", requestId,
+                    userKey, user.streams);
+            throw new TooManyRequestsException(
+                    "You already have " + user.streams + " downloads running, please try again later",
+                    retryAfterSeconds);
+        }
+        int streamsForRequest = requestStreams.getOrDefault(requestId, 0);
+        if (maxStreamsPerRequest > 0 && streamsForRequest >= maxStreamsPerRequest)
+        {
+            rejectedForRequest.incrementAndGet();
+            logger.info("Refusing download for request {} as it already has {} downloads running", requestId,
+                    streamsForRequest);
+            throw new TooManyRequestsException("Request " + requestId + " already has " + streamsForRequest
+                    + " downloads running, please try again later", retryAfterSeconds);
+        }
+
+        if (user == null)
+        {
+            user = new UserState(userBytesPerSecond > 0 ? new TokenBucket(userBytesPerSecond) : null);
+            users.put(userKey, user);
+        }
+        user.streams++;
+        requestStreams.put(requestId, streamsForRequest + 1);
+        activeStreams++;
+        return new Permit(userKey, requestId, user.bucket);
+    }
+
+    private synchronized void release(String userKey, String requestId)
+    {
+        UserState user = users.get(userKey);
+        if (user != null)
+        {
+            user.streams--;
+        }
+        Integer streams = requestStreams.get(requestId);
+        if (streams != null && streams <= 1)
+        {
+            requestStreams.remove(requestId);
+        }
+        else if (streams != null)
+        {
+            requestStreams.put(requestId, streams - 1);
+        }
+        activeStreams--;
+    }
+
+    /**
+     * Forgets users who have no downloads running and whose bandwidth allowance has been fully restored, so that
+     * forgetting them makes no difference to the rate they can download at.
+     */
+    @Scheduled(fixedDelayString = "${download.governor.evict.millis}")
+    public synchronized void evictIdleUsers()
+    {
+        for (Iterator<UserState> it = users.values().iterator(); it.hasNext();)
+        {
+            UserState user = it.next();
+            if (user.streams <= 0 && (user.bucket == null || user.bucket.isFull()))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    private static String getUserKey(DataAccessJob dataAccessJob)
+    {
+        if (StringUtils.isBlank(dataAccessJob.getUserIdent()))
+        {
+            return "request:" + dataAccessJob.getRequestId();
+        }
+        return StringUtils.defaultString(dataAccessJob.getUserLoginSystem()) + ":" + dataAccessJob.getUserIdent();
+    }
+
+    /**
+     * @return the number of downloads currently holding a permit
+     */
+    public synchronized int getActiveStreams()
+    {
+        return activeStreams;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics()
+    {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        synchronized (this)
+        {
+            metrics.add(new Metric<Integer>("downloads.streams.active", activeStreams));
+            metrics.add(new Metric<Long>("downloads.users.active",
+                    users.values().stream().filter(user -> user.streams > 0).count()));
+            metrics.add(new Metric<Integer>("downloads.users.tracked", users.size()));
+        }
+        metrics.add(new Metric<Long>("downloads.rejected.user", rejectedForUser.get()));
+        metrics.add(new Metric<Long>("downloads.rejected.request", rejectedForRequest.get()));
+        metrics.add(new Metric<Long>("downloads.bytes", bytesSent.get()));
+        metrics.add(new Metric<Long>("downloads.throttled.millis", throttledMillis.get()));
+        return metrics;
+    }
+
+    /**
+     * Permission to run one download. Data sent for the download should pass through one of the throttle methods, or
+     * be counted with {@link #reserve(long)}, so that it is counted against the bandwidth limits.
+     */
+    public class Permit implements Closeable
+    {
+        private final String userKey;
+
+        private final String requestId;
+
+        private final TokenBucket userBucket;
+
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit(String userKey, String requestId, TokenBucket userBucket)
+        {
+            this.userKey = userKey;
+            this.requestId = requestId;
+            this.userBucket = userBucket;
+        }
+
+        /**
+         * @param output
+         *            the stream the download is written to
+         * @return a stream which passes writes on at no more than the permitted rate
+         */
+        public OutputStream throttle(OutputStream output)
+        {
+            return new FilterOutputStream(output)
+            {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException
+                {
+                    pause(len);
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void write(int b) throws IOException
+                {
+                    pause(1);
+                    out.write(b);
+                }
+            };
+        }
+
+        /**
+         * @param input
+         *            the source of the download's data
+         * @return a stream which provides data at no more than the permitted rate
+         */
+        public InputStream throttle(InputStream input)
+        {
+            return new FilterInputStream(input)
+            {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    int read = in.read(b, off, len);
+                    if (read > 0)
+                    {
+                        pause(read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public int read() throws IOException
+                {
+                    int read = in.read();
+                    if (read >= 0)
+                    {
+                        pause(1);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        /**
+         * Counts data about to be sent against the bandwidth limits, without waiting. This is for callers which must
+         * not block, such as asynchronous downloads, which should instead hold back further data until the returned
+         * time has passed.
+         *
+         * @param bytes
+         *            the number of bytes about to be sent
+         * @return the number of nanoseconds to wait before sending more data
+         */
+        public long reserve(long bytes)
+        {
+            bytesSent.addAndGet(bytes);
+            long waitNanos = Math.max(userBucket == null ? 0 : userBucket.take(bytes),
+                    globalBucket == null ? 0 : globalBucket.take(bytes));
+            if (waitNanos > 0)
+            {
+                throttledMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            }
+            return waitNanos;
+        }
+
+        private void pause(long bytes) throws IOException
+        {
+            long waitNanos = reserve(bytes);
+            if (waitNanos > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttling download for " + requestId);
+                }
+            }
+        }
+
+        /**
+         * Releases the permit. Closing a permit more than once has no further effect.
+         */
+        @Override
+        public void close()
+        {
+            if (released.compareAndSet(false, true))
+            {
+                release(userKey, requestId);
+            }
+        }
+    }
+
+    /**
+     * A token bucket holding up to one second's worth of bytes. Taking more bytes than are available puts the bucket
+     * into debt, and the caller is told how long to wait for the debt to be repaid.
+     */
+    static class TokenBucket
+    {
+        private final long bytesPerSecond;
+
+        private double tokens;
+
+        private long lastRefillNanos;
+
+        TokenBucket(long bytesPerSecond)
+        {
+            this.bytesPerSecond = bytesPerSecond;
+            this.tokens = bytesPerSecond;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        /**
+         * @param bytes
+         *            the number of bytes about to be sent
+         * @return the number of nanoseconds the caller should wait before sending them
+         */
+        synchronized long take(long bytes)
+        {
+            long now = System.nanoTime();
+            tokens = Math.min(bytesPerSecond, tokens + (now - lastRefillNanos) * bytesPerSecond / 1e9);
+            lastRefillNanos = now;
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / bytesPerSecond);
+        }
+
+        /**
+         * @return true if the bucket has refilled to its full second's worth of bytes
+         */
+        synchronized boolean isFull()
+        {
+            return take(0) == 0 && tokens >= bytesPerSecond;
+        }
+    }
+
+    /**
+     * The downloads a user currently has running.
+     */
+    private static class UserState
+    {
+        private final TokenBucket bucket;
+
+        private int streams = 0;
+
+        UserState(TokenBucket bucket)
+        {
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import au.csiro.casda.access.JobDto;
+import au.csiro.casda.access.TooManyRequestsException;
+import au.csiro.casda.access.jpa.DataAccessJobRepository;
+import au.csiro.casda.entity.dataaccess.DataAccessJob;
+
+/**
+ * Decides whether a user may create another data access job, before any of the work of creating the job is done.
+ * Each user may have a limited number of active (preparing or paused) jobs, a limited total size of active jobs, and
+ * may only create jobs at a limited rate, enforced by a token bucket per user.
+ * <p>
+ * The active job counts and sizes are held in memory and brought up to date from the database once they are older
+ * than the reconcile interval, so that jobs which have since completed, failed or been cancelled are no longer
+ * counted. Jobs created in between are added to the in memory totals as they are created. Jobs which have been
+ * admitted but not yet created are counted separately as reservations, which reconciling leaves alone, so that
+ * concurrent requests can't all pass the check before any of their jobs exist. Only one request at a time reconciles
+ * a user's totals, the others use the totals as they stand.
+ * <p>
+ * Users are identified by their user ident. Requests without a user ident all share one allowance for the rate limit,
+ * and as their jobs can't be attributed to them the active job limits don't apply.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class JobAdmissionGovernor implements PublicMetrics
+{
+    private static final String ANONYMOUS_USER = "anonymous";
+
+    private static final long MILLIS_PER_MINUTE = 60000L;
+
+    private static Logger logger = LoggerFactory.getLogger(JobAdmissionGovernor.class);
+
+    private final DataAccessJobRepository dataAccessJobRepository;
+
+    private final int maxActiveJobsPerUser;
+
+    private final long maxActiveSizeKbPerUser;
+
+    private final double jobsPerMinutePerUser;
+
+    private final int jobBurstPerUser;
+
+    private final long reconcileMillis;
+
+    private final int retryAfterSeconds;
+
+    private final Map<String, UserState> users = new HashMap<>();
+
+    private final AtomicLong rejectedForRate = new AtomicLong();
+
+    private final AtomicLong rejectedForActiveJobs = new AtomicLong();
+
+    private final AtomicLong rejectedForActiveSize = new AtomicLong();
+
+    /**
+     * Constructor. A limit of zero or less means that limit is not applied.
+     *
+     * @param dataAccessJobRepository
+     *            the repository used to find each user's active jobs
+     * @param maxActiveJobsPerUser
+     *            the maximum number of active jobs for each user
+     * @param maxActiveSizeKbPerUser
+     *            the maximum total size of the active jobs for each user, in kilobytes
+     * @param jobsPerMinutePerUser
+     *            the rate at which each user may create jobs
+     * @param jobBurstPerUser
+     *            the number of jobs a user may create at once, before the rate limit applies
+     * @param reconcileMillis
+     *            how long the in memory active job totals are used before they are read again from the database
+     * @param retryAfterSeconds
+     *            the number of seconds a client is asked to wait when a job is refused for having too many active
+     *            jobs
+     */
+    @Autowired
+    public JobAdmissionGovernor(DataAccessJobRepository dataAccessJobRepository,
+            @Value("${job.admission.max.active.jobs.per.user}") int maxActiveJobsPerUser,
+            @Value("${job.admission.max.active.size.kb.per.user}") long maxActiveSizeKbPerUser,
+            @Value("${job.admission.jobs.per.minute.per.user}") double jobsPerMinutePerUser,
+            @Value("${job.admission.job.burst.per.user}") int jobBurstPerUser,
+            @Value("${job.admission.reconcile.millis}") long reconcileMillis,
+            @Value("${job.admission.retry.after.seconds}") int retryAfterSeconds)
+    {
+        this.dataAccessJobRepository = dataAccessJobRepository;
+        this.maxActiveJobsPerUser = maxActiveJobsPerUser;
+        this.maxActiveSizeKbPerUser = maxActiveSizeKbPerUser;
+        this.jobsPerMinutePerUser = jobsPerMinutePerUser;
+        this.jobBurstPerUser = Math.max(1, jobBurstPerUser);
+        this.reconcileMillis = reconcileMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Checks that the user may create a new data access job, and reserves a place for it in the user's active jobs.
+     * This must be called before the job is created, and then either {@link #jobCreated(DataAccessJob)} called once it
+     * has been, or {@link #jobNotCreated(JobDto)} if creating it failed.
+     *
+     * @param job
+     *            the details of the job to be created
+     * @throws TooManyRequestsException
+     *             if the user already has too many active jobs, or is creating jobs too quickly
+     */
+    public void admit(JobDto job) throws TooManyRequestsException
+    {
+        boolean identified = StringUtils.isNotBlank(job.getUserIdent());
+        String userKey = identified ? job.getUserIdent() : ANONYMOUS_USER;
+        long now = System.currentTimeMillis();
+        UserState user = getUser(userKey);
+
+        if (identified && (maxActiveJobsPerUser > 0 || maxActiveSizeKbPerUser > 0))
+        {
+            reconcileIfStale(user, now);
+        }
+
+        synchronized (user)
+        {
+            user.lastSeenMillis = now;
+            long activeJobs = user.activeJobs + user.reservedJobs;
+            if (identified && maxActiveJobsPerUser > 0 && activeJobs >= maxActiveJobsPerUser)
+            {
+                rejectedForActiveJobs.incrementAndGet();
+                logger.info("Refusing new job for user {} who already has {} active jobs", userKey, activeJobs);
+                throw new TooManyRequestsException("You already have " + activeJobs
+                        + " jobs being prepared, please wait for some of them to finish", retryAfterSeconds);
+            }
+            if (identified && maxActiveSizeKbPerUser > 0 && user.activeSizeKb >= maxActiveSizeKbPerUser)
+            {
+                rejectedForActiveSize.incrementAndGet();
+                logger.info("Refusing new job for user {} who already has {} KB of active jobs", userKey,
+                        user.activeSizeKb);
+                throw new TooManyRequestsException("You already have " + user.activeSizeKb
+                        + " KB of data being prepared, please wait for some of your jobs to finish",
+                        retryAfterSeconds);
+            }
+            checkRate(user, now);
+            if (identified)
+            {
+                user.reservedJobs++;
+            }
+        }
+    }
+
+    /**
+     * Checks that the user is not creating jobs too quickly, for jobs which are completed within the request that
+     * creates them and so never count towards the user's active jobs.
+     *
+     * @param job
+     *            the details of the job to be created
+     * @throws TooManyRequestsException
+     *             if the user is creating jobs too quickly
+     */
+    public void admitSync(JobDto job) throws TooManyRequestsException
+    {
+        String userKey = StringUtils.isNotBlank(job.getUserIdent()) ? job.getUserIdent() : ANONYMOUS_USER;
+        long now = System.currentTimeMillis();
+        UserState user = getUser(userKey);
+        synchronized (user)
+        {
+            user.lastSeenMillis = now;
+            checkRate(user, now);
+        }
+    }
+
+    private void checkRate(UserState user, long now) throws TooManyRequestsException
+    {
+        if (jobsPerMinutePerUser > 0 && !user.takeToken(now))
+        {
+            rejectedForRate.incrementAndGet();
+            int waitSeconds = user.secondsUntilToken();
+            logger.info("Refusing new job for user {} who is creating jobs too quickly", user.userKey);
+            throw new TooManyRequestsException(
+                    "You are creating jobs too quickly, please try again in " + waitSeconds + " seconds",
+                    waitSeconds);
+        }
+    }
+
+    /**
+     * Moves a newly created job from its user's reservations into their active job totals.
+     *
+     * @param dataAccessJob
+     *            the job which was admitted and has now been created
+     */
+    public void jobCreated(DataAccessJob dataAccessJob)
+    {
+        if (StringUtils.isBlank(dataAccessJob.getUserIdent()))
+        {
+            return;
+        }
+        UserState user = getUser(dataAccessJob.getUserIdent());
+        synchronized (user)
+        {
+            user.reservedJobs = Math.max(0, user.reservedJobs - 1);
+            user.activeJobs++;
+            user.activeSizeKb += ObjectUtils.defaultIfNull(dataAccessJob.getSizeKb(), 0L);
+            user.createdJobs++;
+            user.createdSizeKb += ObjectUtils.defaultIfNull(dataAccessJob.getSizeKb(), 0L);
+        }
+    }
+
+    /**
+     * Gives back the place reserved for a job which was admitted but could not be created.
+     *
+     * @param job
+     *            the details of the job which was admitted
+     */
+    public void jobNotCreated(JobDto job)
+    {
+        if (StringUtils.isBlank(job.getUserIdent()))
+        {
+            return;
+        }
+        UserState user = getUser(job.getUserIdent());
+        synchronized (user)
+        {
+            user.reservedJobs = Math.max(0, user.reservedJobs - 1);
+        }
+    }
+
+    private synchronized UserState getUser(String userKey)
+    {
+        UserState user = users.get(userKey);
+        if (user == null)
+        {
+            user = new UserState(userKey);
+            users.put(userKey, user);
+        }
+        return user;
+    }
+
+    private void reconcileIfStale(UserState user, long now)
+    {
+        long createdJobs;
+        long createdSizeKb;
+        synchronized (user)
+        {
+            if (user.reconciling || !user.isStale(now))
+            {
+                return;
+            }
+            user.reconciling = true;
+            createdJobs = user.createdJobs;
+            createdSizeKb = user.createdSizeKb;
+        }
+        try
+        {
+            // read outside the lock so the user's other requests aren't held up by the query
+            List<Object[]> totals = dataAccessJobRepository.findActiveJobTotalsForUser(user.userKey);
+            long activeJobs = 0;
+            long activeSizeKb = 0;
+            if (!totals.isEmpty() && totals.get(0) != null)
+            {
+                activeJobs = totals.get(0)[0] == null ? 0 : ((Number) totals.get(0)[0]).longValue();
+                activeSizeKb = totals.get(0)[1] == null ? 0 : ((Number) totals.get(0)[1]).longValue();
+            }
+            synchronized (user)
+            {
+                // jobs created while the query ran may not be in its totals, so they are added on top
+                user.activeJobs = activeJobs + user.createdJobs - createdJobs;
+                user.activeSizeKb = activeSizeKb + user.createdSizeKb - createdSizeKb;
+                user.reconciledMillis = now;
+            }
+        }
+        finally
+        {
+            synchronized (user)
+            {
+                user.reconciling = false;
+            }
+        }
+    }
+
+    /**
+     * Forgets users who haven't created a job for a while and whose rate allowance has been fully restored. Their
+     * active job totals will be read from the database again if they return.
+     */
+    @Scheduled(fixedDelayString = "${job.admission.reconcile.millis}")
+    public synchronized void evictIdleUsers()
+    {
+        long now = System.currentTimeMillis();
+        for (Iterator<UserState> it = users.values().iterator(); it.hasNext();)
+        {
+            UserState user = it.next();
+            synchronized (user)
+            {
+                if (user.isStale(now) && now - user.lastSeenMillis >= reconcileMillis && user.isRateIdle(now)
+                        && user.reservedJobs == 0 && !user.reconciling)
+                {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics()
+    {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        synchronized (this)
+        {
+            metrics.add(new Metric<Integer>("jobs.admission.users", users.size()));
+        }
+        metrics.add(new Metric<Long>("jobs.admission.rejected.rate", rejectedForRate.get()));
+        metrics.add(new Metric<Long>("jobs.admission.rejected.active", rejectedForActiveJobs.get()));
+        metrics.add(new Metric<Long>("jobs.admission.rejected.size", rejectedForActiveSize.get()));
+        return metrics;
+    }
+
+    /**
+     * A user's active jobs, as last known, and their allowance for creating new jobs.
+     */
+    private class UserState
+    {
+        private final String userKey;
+
+        /** The jobs in the database when last reconciled, plus those created since */
+        private long activeJobs = 0;
+
+        private long activeSizeKb = 0;
+
+        /** The jobs which have been admitted but not yet created */
+        private long reservedJobs = 0;
+
+        /** The running totals of the jobs created, used to tell which were created while reconciling */
+        private long createdJobs = 0;
+
+        private long createdSizeKb = 0;
+
+        private long reconciledMillis = 0;
+
+        private boolean reconciling = false;
+
+        private long lastSeenMillis = 0;
+
+        private double tokens = jobBurstPerUser;
+
+        private long lastRefillMillis = System.currentTimeMillis();
+
+        UserState(String userKey)
+        {
+            this.userKey = userKey;
+        }
+
+        boolean isStale(long now)
+        {
+            return now - reconciledMillis >= reconcileMillis;
+        }
+
+        boolean takeToken(long now)
+        {
+            refill(now);
+            if (tokens < 1)
+            {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        int secondsUntilToken()
+        {
+            return (int) Math.ceil((1 - tokens) * MILLIS_PER_MINUTE / jobsPerMinutePerUser / 1000);
+        }
+
+        boolean isRateIdle(long now)
+        {
+            if (jobsPerMinutePerUser <= 0)
+            {
+                return true;
+            }
+            refill(now);
+            return tokens >= jobBurstPerUser;
+        }
+
+        private void refill(long now)
+        {
+            tokens = Math.min(jobBurstPerUser,
+                    tokens + (now - lastRefillMillis) * jobsPerMinutePerUser / MILLIS_PER_MINUTE);
+            lastRefillMillis = now;
+        }
+    }
+}
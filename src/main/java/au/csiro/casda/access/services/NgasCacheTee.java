@@ -0,0 +1,296 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.csiro.casda.access.services.NgasService.Status;
+
+/**
+ * Keeps a copy of a file while it is being passed through from NGAS to a user. The copy is written to a partial file
+ * of its own next to the destination, so concurrent retrievals of the same file don't share one. Once the whole file
+ * has been received the partial file is read back and only put in place if its size and checksum match those NGAS
+ * holds for it. The first verified copy to reach the destination is kept, later ones are discarded. Any problem
+ * writing the copy abandons it without affecting the user's download.
+ * <p>
+ * Only NGAS's CRC32 checksum plug-in is understood; files stored with any other plug-in are never kept as they can't
+ * be verified.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class NgasCacheTee
+{
+    private static Logger logger = LoggerFactory.getLogger(NgasCacheTee.class);
+
+    private static final String CRC32_PLUGIN = "ngamsGenCrc32";
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final String fileId;
+
+    private final File destination;
+
+    private File partFile;
+
+    private final String expectedChecksum;
+
+    private final long expectedSize;
+
+    private final Consumer<File> onVerified;
+
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+
+    private OutputStream partOutput;
+
+    private long bytesWritten = 0;
+
+    /**
+     * Constructor
+     *
+     * @param fileId
+     *            the NGAS identifier of the file being retrieved
+     * @param ngasStatus
+     *            the NGAS status of the file, which provides the size and checksum to verify the copy against
+     * @param destination
+     *            where the verified copy should be placed
+     * @param onVerified
+     *            called with the destination file once the copy has been verified and moved into place
+     */
+    public NgasCacheTee(String fileId, Status ngasStatus, File destination, Consumer<File> onVerified)
+    {
+        this.fileId = fileId;
+        this.destination = destination;
+        this.expectedChecksum = ngasStatus.getChecksum();
+        long size;
+        try
+        {
+            size = ngasStatus.getUncompressedFileSizeBytes();
+        }
+        catch (NumberFormatException e)
+        {
+            size = -1;
+        }
+        this.expectedSize = size;
+        this.onVerified = onVerified;
+    }
+
+    /**
+     * Checks whether a copy of a file could be verified against its NGAS status.
+     *
+     * @param ngasStatus
+     *            the NGAS status of the file
+     * @return true if the checksum was created by a plug-in that the tee understands
+     */
+    public static boolean canVerify(Status ngasStatus)
+    {
+        return CRC32_PLUGIN.equals(ngasStatus.getChecksumPlugIn())
+                && StringUtils.isNotBlank(ngasStatus.getChecksum());
+    }
+
+    /**
+     * Wraps the data coming from NGAS so that everything read from it is also written to the partial file. If the
+     * partial file can't be created the source is returned unchanged and nothing will be kept.
+     *
+     * @param source
+     *            the body of the NGAS response
+     * @return the stream to send to the user
+     */
+    public InputStream wrap(InputStream source)
+    {
+        try
+        {
+            Files.createDirectories(destination.toPath().getParent());
+            partFile = Files.createTempFile(destination.toPath().getParent(), destination.getName() + ".", ".part")
+                    .toFile();
+            partOutput = new FileOutputStream(partFile);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to keep a copy of file {} from NGAS in {}", fileId, destination.getParent(), e);
+            abandon();
+            return source;
+        }
+
+        return new FilterInputStream(source)
+        {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                int read = in.read(b, off, len);
+                if (read > 0)
+                {
+                    tee(b, off, read);
+                }
+                return read;
+            }
+
+            @Override
+            public int read() throws IOException
+            {
+                int read = in.read();
+                if (read >= 0)
+                {
+                    tee(new byte[] { (byte) read }, 0, 1);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException
+            {
+                // skipped data would leave a hole in the copy
+                abandon();
+                return in.skip(n);
+            }
+        };
+    }
+
+    private void tee(byte[] b, int off, int len)
+    {
+        if (partOutput == null)
+        {
+            return;
+        }
+        try
+        {
+            partOutput.write(b, off, len);
+            bytesWritten += len;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to keep a copy of file {} from NGAS at {}", fileId, partFile, e);
+            abandon();
+        }
+    }
+
+    /**
+     * Finishes the copy. If the transfer was successful and the copy on disk matches the NGAS size and checksum it is
+     * linked in at its destination and the verified callback is called, unless another copy is already there. The
+     * partial file is always removed. Only the first call has any effect.
+     *
+     * @param transferSucceeded
+     *            true if all of the data was read from NGAS and sent to the user
+     */
+    public void complete(boolean transferSucceeded)
+    {
+        if (!completed.compareAndSet(false, true))
+        {
+            return;
+        }
+        if (!transferSucceeded || partOutput == null)
+        {
+            abandon();
+            return;
+        }
+
+        try
+        {
+            partOutput.close();
+            partOutput = null;
+            if (!isVerified())
+            {
+                abandon();
+                return;
+            }
+            // linking, unlike a move, won't replace a copy that another retrieval has already put in place
+            Files.createLink(destination.toPath(), partFile.toPath());
+        }
+        catch (FileAlreadyExistsException e)
+        {
+            logger.debug("A copy of file {} from NGAS is already kept at {}", fileId, destination);
+            abandon();
+            return;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to keep copy of file {} from NGAS at {}", fileId, destination, e);
+            abandon();
+            return;
+        }
+        abandon();
+        logger.debug("Kept verified copy of file {} from NGAS at {}", fileId, destination);
+        onVerified.accept(destination);
+    }
+
+    private boolean isVerified() throws IOException
+    {
+        long fileSize = partFile.length();
+        if (expectedSize >= 0 && fileSize != expectedSize)
+        {
+            logger.warn("Copy of file {} from NGAS is {} bytes, expected {}", fileId, fileSize, expectedSize);
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream input = new FileInputStream(partFile))
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) >= 0)
+            {
+                crc.update(buffer, 0, read);
+            }
+        }
+        // NGAS records the CRC32 as either a signed or an unsigned 32 bit integer depending on its version
+        long checksum = crc.getValue();
+        String trimmedChecksum = expectedChecksum.trim();
+        if (trimmedChecksum.equals(Long.toString(checksum))
+                || trimmedChecksum.equals(Integer.toString((int) checksum)))
+        {
+            return true;
+        }
+        logger.warn("Copy of file {} from NGAS has checksum {}, expected {}", fileId, checksum, expectedChecksum);
+        return false;
+    }
+
+    private void abandon()
+    {
+        IOUtils.closeQuietly(partOutput);
+        partOutput = null;
+        if (partFile == null)
+        {
+            return;
+        }
+        try
+        {
+            Files.deleteIfExists(partFile.toPath());
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to remove partial copy of file {} at {}", fileId, partFile, e);
+        }
+    }
+
+    /**
+     * @return the number of bytes written to the copy so far
+     */
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+}
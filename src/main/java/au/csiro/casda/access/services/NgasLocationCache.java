@@ -0,0 +1,203 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Remembers where NGAS keeps files, and whether they are on disk, so that popular files don't need an NGAS status call
+ * and an archive status check every time they are requested.
+ * <p>
+ * The NGAS path and checksum of a file rarely change so they are kept for a long time. Whether the file is on disk
+ * changes as the archive migrates files, so a file found on disk is remembered for a shorter time, and a file found
+ * not to be on disk for a shorter time again so that it is picked up soon after it has been staged. All of the caches
+ * are bounded in size, with the least recently used entries evicted first. A value of zero for any setting turns that
+ * cache off.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class NgasLocationCache implements PublicMetrics
+{
+    private final Cache<String, Path> locations;
+
+    private final Cache<String, String> checksums;
+
+    private final Cache<String, Boolean> onDisk;
+
+    private final Cache<String, Boolean> notOnDisk;
+
+    /**
+     * Constructor
+     *
+     * @param locationTtlMillis
+     *            how long the NGAS path and checksum of a file are remembered
+     * @param onDiskTtlMillis
+     *            how long a file is remembered as being on disk
+     * @param notOnDiskTtlMillis
+     *            how long a file is remembered as not being on disk
+     * @param maxEntries
+     *            the maximum number of files remembered by each cache
+     */
+    @Autowired
+    public NgasLocationCache(@Value("${ngas.location.cache.ttl.millis}") long locationTtlMillis,
+            @Value("${ngas.location.cache.on.disk.ttl.millis}") long onDiskTtlMillis,
+            @Value("${ngas.location.cache.not.on.disk.ttl.millis}") long notOnDiskTtlMillis,
+            @Value("${ngas.location.cache.max.entries}") long maxEntries)
+    {
+        this.locations = buildCache(locationTtlMillis, maxEntries);
+        this.checksums = buildCache(locationTtlMillis, maxEntries);
+        this.onDisk = buildCache(onDiskTtlMillis, maxEntries);
+        this.notOnDisk = buildCache(notOnDiskTtlMillis, maxEntries);
+    }
+
+    private static <V> Cache<String, V> buildCache(long ttlMillis, long maxEntries)
+    {
+        return CacheBuilder.newBuilder().expireAfterWrite(Math.max(0, ttlMillis), TimeUnit.MILLISECONDS)
+                .maximumSize(Math.max(0, maxEntries)).recordStats().build();
+    }
+
+    /**
+     * @param fileId
+     *            the NGAS file id
+     * @return the remembered NGAS path of the file, or null if it is not known
+     */
+    public Path getLocation(String fileId)
+    {
+        return locations.getIfPresent(fileId);
+    }
+
+    /**
+     * Remembers the NGAS path of a file.
+     *
+     * @param fileId
+     *            the NGAS file id
+     * @param path
+     *            the path of the file in NGAS
+     */
+    public void putLocation(String fileId, Path path)
+    {
+        locations.put(fileId, path);
+    }
+
+    /**
+     * @param fileId
+     *            the NGAS file id
+     * @return the remembered NGAS checksum of the file, or null if it is not known
+     */
+    public String getChecksum(String fileId)
+    {
+        return checksums.getIfPresent(fileId);
+    }
+
+    /**
+     * Remembers the NGAS checksum of a file.
+     *
+     * @param fileId
+     *            the NGAS file id
+     * @param checksum
+     *            the checksum NGAS holds for the file
+     */
+    public void putChecksum(String fileId, String checksum)
+    {
+        checksums.put(fileId, checksum);
+    }
+
+    /**
+     * @param fileId
+     *            the NGAS file id
+     * @return true if the file is remembered as being on disk, false if it is remembered as not being on disk, or null
+     *         if it is not known
+     */
+    public Boolean isOnDisk(String fileId)
+    {
+        if (onDisk.getIfPresent(fileId) != null)
+        {
+            return Boolean.TRUE;
+        }
+        if (notOnDisk.getIfPresent(fileId) != null)
+        {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Remembers whether a file is on disk.
+     *
+     * @param fileId
+     *            the NGAS file id
+     * @param availableOnDisk
+     *            whether the file is on disk
+     */
+    public void putOnDisk(String fileId, boolean availableOnDisk)
+    {
+        if (availableOnDisk)
+        {
+            notOnDisk.invalidate(fileId);
+            onDisk.put(fileId, Boolean.TRUE);
+        }
+        else
+        {
+            onDisk.invalidate(fileId);
+            notOnDisk.put(fileId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Forgets everything known about a file, e.g. because its remembered path turned out to be stale.
+     *
+     * @param fileId
+     *            the NGAS file id
+     */
+    public void invalidate(String fileId)
+    {
+        locations.invalidate(fileId);
+        checksums.invalidate(fileId);
+        onDisk.invalidate(fileId);
+        notOnDisk.invalidate(fileId);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics()
+    {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        addMetrics(metrics, "ngas.location.cache", locations);
+        addMetrics(metrics, "ngas.location.cache.checksum", checksums);
+        addMetrics(metrics, "ngas.location.cache.on.disk", onDisk);
+        addMetrics(metrics, "ngas.location.cache.not.on.disk", notOnDisk);
+        return metrics;
+    }
+
+    private static void addMetrics(Collection<Metric<?>> metrics, String prefix, Cache<String, ?> cache)
+    {
+        CacheStats stats = cache.stats();
+        metrics.add(new Metric<Long>(prefix + ".size", cache.size()));
+        metrics.add(new Metric<Long>(prefix + ".hits", stats.hitCount()));
+        metrics.add(new Metric<Long>(prefix + ".misses", stats.missCount()));
+        metrics.add(new Metric<Long>(prefix + ".evictions", stats.evictionCount()));
+    }
+}
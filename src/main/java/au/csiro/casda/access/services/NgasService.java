@@ -16,6 +16,7 @@ package au.csiro.casda.access.services;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URI;
@@ -23,6 +24,7 @@ import java.net.URISyntaxException;
 import java.util.List;
 import java.util.Map.Entry;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -50,11 +52,16 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestClientException;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
+import au.csiro.casda.access.security.BackendResilience;
+import au.csiro.casda.access.security.BackendResilience.CallType;
+import au.csiro.casda.access.security.BackendResilience.Guard;
+import au.csiro.casda.access.security.HttpConnectionPools;
 import au.csiro.casda.access.security.SecuredRestTemplate;
 
 /**
@@ -173,6 +180,7 @@ public class NgasService
 
         private static final String STATUS_XPATH = "/NgamsStatus/Status/@Status";
         private static final String CHECKSUM_XPATH = "/NgamsStatus/DiskStatus/FileStatus/@Checksum";
+        private static final String CHECKSUM_PLUGIN_XPATH = "/NgamsStatus/DiskStatus/FileStatus/@ChecksumPlugIn";
         private static final String FILENAME_XPATH = "/NgamsStatus/DiskStatus/FileStatus/@FileName";
         private static final String UNCOMPRESSED_FILESIZE_XPATH =
                 "/NgamsStatus/DiskStatus/FileStatus/@UncompressedFileSize";
@@ -237,6 +245,14 @@ public class NgasService
             return evaluateXpathExpression(CHECKSUM_XPATH);
         }
 
+        /**
+         * @return the name of the NGAS plug-in that calculated the checksum for a file in NGAS
+         */
+        public String getChecksumPlugIn()
+        {
+            return evaluateXpathExpression(CHECKSUM_PLUGIN_XPATH);
+        }
+
         /**
          * @return the fileName for a file in NGAS
          */
@@ -328,6 +344,8 @@ public class NgasService
 
     private final String ngasUrl;
     private final SecuredRestTemplate restTemplate;
+    private final AsyncDownloadStreamer asyncDownloadStreamer;
+    private final Guard guard;
 
     /**
      * Constructor
@@ -336,13 +354,20 @@ public class NgasService
      *            the rest template for calls to ngas
      * @param ngasBaseUrl
      *            the NGAS server url
+     * @param asyncDownloadStreamer
+     *            the streamer used to pass large files on to the end user using non-blocking I/O
+     * @param backendResilience
+     *            provides the circuit breaker and retry policy for calls to ngas
      */
     @Autowired
-    public NgasService(SecuredRestTemplate restTemplate, @Value("${ngas.baseurl}") String ngasBaseUrl)
+    public NgasService(SecuredRestTemplate restTemplate, @Value("${ngas.baseurl}") String ngasBaseUrl,
+            AsyncDownloadStreamer asyncDownloadStreamer, BackendResilience backendResilience)
     {
         super();
         this.restTemplate = restTemplate;
         this.ngasUrl = ngasBaseUrl;
+        this.asyncDownloadStreamer = asyncDownloadStreamer;
+        this.guard = backendResilience.getGuard(HttpConnectionPools.NGAS);
     }
 
     /**
@@ -359,7 +384,8 @@ public class NgasService
         ResponseEntity<String> responseEntity = null;
         try
         {
-            responseEntity = restTemplate.getForEntity(ngasUrl + "/STATUS?file_id={file_id}", String.class, fileId);
+            responseEntity = guard.execute(CallType.IDEMPOTENT,
+                    () -> restTemplate.getForEntity(ngasUrl + "/STATUS?file_id={file_id}", String.class, fileId));
             /*
              * Assume NGAS always responds with an XML response. Regardless, any error will be raised as an exception
              * with the response.
@@ -384,21 +410,180 @@ public class NgasService
      *             if the service call could not complete due to an internal error
      */
     public void retrieveFile(String fileId, final HttpServletResponse userResponse) throws ServiceCallException
+    {
+        retrieveFile(fileId, userResponse, null);
+    }
+
+    private void retrieveFile(String fileId, final HttpServletResponse userResponse, NgasCacheTee cacheTee)
+            throws ServiceCallException
     {
         ResponseEntity<String> responseEntity = null;
         try
         {
             URI ngasRequest = new URI(String.format(ngasUrl + "/RETRIEVE?file_id=%s", fileId));
-            final ResponseExtractor<Long> responseExtractor = new DownloadStreamingResponseExtractor(userResponse);
-            restTemplate.execute(ngasRequest, HttpMethod.GET, null, responseExtractor);
+            final ResponseExtractor<Long> responseExtractor =
+                    new DownloadStreamingResponseExtractor(userResponse, cacheTee);
+            // only opening the response is guarded, so a slow client doesn't hold a place in the bulkhead
+            try (ClientHttpResponse ngasResponse =
+                    guard.execute(CallType.STREAMING, () -> openRetrieveResponse(ngasRequest)))
+            {
+                responseExtractor.extractData(ngasResponse);
+            }
+            catch (IOException e)
+            {
+                throw new ResourceAccessException(
+                        "I/O error on GET request for \"" + ngasRequest + "\":" + e.getMessage(), e);
+            }
         }
         catch (RestClientException | URISyntaxException e)
         {
             throw new ServiceCallException(responseEntity,
                     String.format("Could not complete request to retrieve file, fileId: '%s'.", fileId), e);
         }
+        finally
+        {
+            if (cacheTee != null)
+            {
+                // does nothing if the extractor has already completed the copy
+                cacheTee.complete(false);
+            }
+        }
     }
     
+    /**
+     * Retrieve an NGAS file and stream bytes to the end user (requester). Large files are passed on using non-blocking
+     * I/O where the request allows it, so that the request thread is not held while waiting on a slow client.
+     * 
+     * @param fileId
+     *            the NGAS identifier for the file
+     * @param userRequest
+     *            Http Request object of the end user
+     * @param userResponse
+     *            Http Response object of the end user
+     * @throws ServiceCallException
+     *             if the service call could not complete due to an internal error
+     */
+    public void retrieveFile(String fileId, HttpServletRequest userRequest, final HttpServletResponse userResponse)
+            throws ServiceCallException
+    {
+        retrieveFile(fileId, userRequest, userResponse, null);
+    }
+
+    /**
+     * Retrieve an NGAS file and stream bytes to the end user (requester), optionally keeping a copy of the file as it
+     * passes through. The copy is only kept if the whole file is sent and it matches the NGAS checksum.
+     * 
+     * @param fileId
+     *            the NGAS identifier for the file
+     * @param userRequest
+     *            Http Request object of the end user
+     * @param userResponse
+     *            Http Response object of the end user
+     * @param cacheTee
+     *            the tee used to keep a copy of the file, or null if no copy is wanted
+     * @throws ServiceCallException
+     *             if the service call could not complete due to an internal error
+     */
+    public void retrieveFile(String fileId, HttpServletRequest userRequest, final HttpServletResponse userResponse,
+            NgasCacheTee cacheTee) throws ServiceCallException
+    {
+        if (!asyncDownloadStreamer.canStream(userRequest, -1))
+        {
+            retrieveFile(fileId, userResponse, cacheTee);
+            return;
+        }
+
+        ClientHttpResponse ngasResponse = null;
+        boolean handedOff = false;
+        try
+        {
+            URI ngasRequest = new URI(String.format(ngasUrl + "/RETRIEVE?file_id=%s", fileId));
+            ngasResponse = guard.execute(CallType.STREAMING, () -> openRetrieveResponse(ngasRequest));
+
+            DownloadStreamingResponseExtractor.copyStatusAndHeaders(ngasResponse, userResponse);
+            long contentLength = ngasResponse.getHeaders().getContentLength();
+            InputStream body = cacheTee == null ? ngasResponse.getBody() : cacheTee.wrap(ngasResponse.getBody());
+            if (contentLength >= 0 && !asyncDownloadStreamer.canStream(userRequest, contentLength))
+            {
+                IOUtils.copyLarge(body, userResponse.getOutputStream());
+                if (cacheTee != null)
+                {
+                    cacheTee.complete(true);
+                }
+                return;
+            }
+
+            /*
+             * The NGAS connection stays open until the last of the data has been sent to the user, it is released
+             * when the stream completes.
+             */
+            final ClientHttpResponse openResponse = ngasResponse;
+            asyncDownloadStreamer.stream(userRequest, userResponse, body, contentLength, (bytesSent, error) -> {
+                if (cacheTee != null)
+                {
+                    cacheTee.complete(error == null);
+                }
+                openResponse.close();
+            });
+            handedOff = true;
+        }
+        catch (IOException | RestClientException | URISyntaxException e)
+        {
+            throw new ServiceCallException(null,
+                    String.format("Could not complete request to retrieve file, fileId: '%s'.", fileId), e);
+        }
+        finally
+        {
+            if (ngasResponse != null && !handedOff)
+            {
+                ngasResponse.close();
+            }
+            if (cacheTee != null && !handedOff)
+            {
+                cacheTee.complete(false);
+            }
+        }
+    }
+
+    /**
+     * Sends a retrieve request to NGAS and checks the response status. I/O errors are reported as
+     * ResourceAccessExceptions, as they are by the RestTemplate, so that they count as NGAS failures.
+     * 
+     * @param ngasRequest
+     *            the retrieve request
+     * @return the open NGAS response, which the caller must close
+     */
+    private ClientHttpResponse openRetrieveResponse(URI ngasRequest)
+    {
+        ClientHttpResponse ngasResponse = null;
+        try
+        {
+            ngasResponse = restTemplate.getRequestFactory().createRequest(ngasRequest, HttpMethod.GET).execute();
+            if (restTemplate.getErrorHandler().hasError(ngasResponse))
+            {
+                restTemplate.getErrorHandler().handleError(ngasResponse);
+            }
+            return ngasResponse;
+        }
+        catch (IOException e)
+        {
+            if (ngasResponse != null)
+            {
+                ngasResponse.close();
+            }
+            throw new ResourceAccessException("I/O error on GET request for \"" + ngasRequest + "\":" + e.getMessage(),
+                    e);
+        }
+        catch (RuntimeException e)
+        {
+            if (ngasResponse != null)
+            {
+                ngasResponse.close();
+            }
+            throw e;
+        }
+    }
+
     /**
      * Response extractor for Ngas requests, streams data from the Ngas response to the user response output
      * stream.
@@ -409,6 +594,8 @@ public class NgasService
     {
         private final HttpServletResponse userResponse;
 
+        private final NgasCacheTee cacheTee;
+
         /**
          * Constructor
          * 
@@ -416,14 +603,51 @@ public class NgasService
          *            the user response to write to
          */
         public DownloadStreamingResponseExtractor(HttpServletResponse userResponse)
+        {
+            this(userResponse, null);
+        }
+
+        /**
+         * Constructor
+         * 
+         * @param userResponse
+         *            the user response to write to
+         * @param cacheTee
+         *            the tee used to keep a copy of the data, or null if no copy is wanted
+         */
+        public DownloadStreamingResponseExtractor(HttpServletResponse userResponse, NgasCacheTee cacheTee)
         {
             super();
             this.userResponse = userResponse;
+            this.cacheTee = cacheTee;
         }
 
         // copies the response from VO Tools to the user response output stream
         @Override
         public Long extractData(ClientHttpResponse nagsResponse) throws IOException
+        {
+            copyStatusAndHeaders(nagsResponse, userResponse);
+            if (cacheTee == null)
+            {
+                return IOUtils.copyLarge(nagsResponse.getBody(), userResponse.getOutputStream());
+            }
+            long bytesCopied = IOUtils.copyLarge(cacheTee.wrap(nagsResponse.getBody()), userResponse.getOutputStream());
+            cacheTee.complete(true);
+            return bytesCopied;
+        }
+
+        /**
+         * Copies the status and the relevant headers of the Ngas response to the user response.
+         * 
+         * @param nagsResponse
+         *            the response from Ngas
+         * @param userResponse
+         *            the user response to write to
+         * @throws IOException
+         *             if the Ngas response status could not be read
+         */
+        static void copyStatusAndHeaders(ClientHttpResponse nagsResponse, HttpServletResponse userResponse)
+                throws IOException
         {
             userResponse.setStatus(nagsResponse.getRawStatusCode());
             for (Entry<String, List<String>> entry : nagsResponse.getHeaders().entrySet())
@@ -437,7 +661,6 @@ public class NgasService
                     }
                 }
             }
-            return IOUtils.copyLarge(nagsResponse.getBody(), userResponse.getOutputStream());
         }
 
         public HttpServletResponse getUserResponse()
@@ -1,5 +1,6 @@
 package au.csiro.casda.access.soda;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.time.ZonedDateTime;
@@ -13,7 +14,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,7 +42,9 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.View;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import com.wordnik.swagger.annotations.Api;
@@ -57,12 +60,15 @@ import au.csiro.casda.access.ResourceIllegalStateException;
 import au.csiro.casda.access.ResourceNoLongerAvailableException;
 import au.csiro.casda.access.ResourceNotFoundException;
 import au.csiro.casda.access.SystemStatus;
+import au.csiro.casda.access.TooManyRequestsException;
 import au.csiro.casda.access.jpa.DataAccessJobRepository;
 import au.csiro.casda.access.services.DataAccessService;
+import au.csiro.casda.access.services.JobAdmissionGovernor;
 import au.csiro.casda.access.services.NgasService.ServiceCallException;
 import au.csiro.casda.access.util.Utils;
 import au.csiro.casda.access.uws.AccessJobManager;
 import au.csiro.casda.access.uws.AccessJobManager.ScheduleJobException;
+import au.csiro.casda.access.uws.JobCompletionNotifier;
 import au.csiro.casda.entity.dataaccess.CachedFile.FileType;
 import au.csiro.casda.entity.dataaccess.CasdaDownloadMode;
 import au.csiro.casda.entity.dataaccess.DataAccessJob;
@@ -170,12 +176,14 @@ public class AccessDataController
 
     private int cancelledJobHoursToExpiry;
 
-    private final long pollTimeForSodaSyncJobsMillis;
-
     private final long timeoutForSodaSyncJobsMillis;
 
     private final long sizeLimitForSodaSyncJobsKb;
 
+    private final JobCompletionNotifier jobCompletionNotifier;
+
+    private final JobAdmissionGovernor jobAdmissionGovernor;
+
     private static final String ID_PARAM = "id";
 
     /**
@@ -198,12 +206,14 @@ public class AccessDataController
      *            the AES secret key used to decrypt an authorised ID token
      * @param cancelledJobHoursToExpiry
      *            the number of hours before a cancelled job becomes expired
-     * @param pollTimeForSodaSyncJobsMillis
-     *            how often to poll for SODA sync jobs to see if the job has completed
      * @param timeoutForSodaSyncJobsMillis
      *            maximum timeout for SODA sync jobs to complete
      * @param sizeLimitForSodaSyncJobsKb
      *            size limit for SODA sync download requests
+     * @param jobCompletionNotifier
+     *            used to find out when the job behind a SODA sync request has finished
+     * @param jobAdmissionGovernor
+     *            the governor deciding whether a user may create another async job
      */
     @Autowired
     public AccessDataController(HealthEndpoint healthEndpoint, SystemStatus systemStatus,
@@ -212,9 +222,9 @@ public class AccessDataController
             @Value("${application.base.url}") String applicationBaseUrl,
             @Value("${siap.shared.secret.key}") String dataLinkAccessSecretKey,
             @Value("${hours.to.expiry.default}") int cancelledJobHoursToExpiry,
-            @Value("${soda.sync.job.poll.time.millis}") long pollTimeForSodaSyncJobsMillis,
             @Value("${soda.sync.job.timeout.millis}") long timeoutForSodaSyncJobsMillis,
-            @Value("${soda.sync.job.size.limit.kb}") long sizeLimitForSodaSyncJobsKb)
+            @Value("${soda.sync.job.size.limit.kb}") long sizeLimitForSodaSyncJobsKb,
+            JobCompletionNotifier jobCompletionNotifier, JobAdmissionGovernor jobAdmissionGovernor)
     {
         this.healthEndpoint = healthEndpoint;
         this.systemStatus = systemStatus;
@@ -224,9 +234,10 @@ public class AccessDataController
         this.applicationBaseUrl = applicationBaseUrl;
         this.dataLinkAccessSecretKey = dataLinkAccessSecretKey;
         this.cancelledJobHoursToExpiry = cancelledJobHoursToExpiry;
-        this.pollTimeForSodaSyncJobsMillis = pollTimeForSodaSyncJobsMillis;
         this.timeoutForSodaSyncJobsMillis = timeoutForSodaSyncJobsMillis;
         this.sizeLimitForSodaSyncJobsKb = sizeLimitForSodaSyncJobsKb;
+        this.jobCompletionNotifier = jobCompletionNotifier;
+        this.jobAdmissionGovernor = jobAdmissionGovernor;
     }
 
     /**
@@ -313,19 +324,17 @@ public class AccessDataController
      *            the request
      * @param response
      *            the response
-     * @return a ModelAndView, or null if a download was processed.
+     * @return a DeferredResult which will hold the ModelAndView used to render the response.
      * 
      * @throws ResourceNotFoundException
      *             if the requested resource could not be found
      * @throws BadRequestException
      *             if the request was malformed
-     * @throws InterruptedException
-     *             if the method was interrupted
      */
     @RequestMapping(method = { RequestMethod.POST, RequestMethod.GET, RequestMethod.HEAD },
             value = ACCESS_DATA_SYNC_BASE_PATH, produces = { MediaType.APPLICATION_XML_VALUE })
-    public @ResponseBody ModelAndView syncDownloadDataProduct(HttpServletRequest request, HttpServletResponse response)
-            throws ResourceNotFoundException, BadRequestException, InterruptedException
+    public @ResponseBody DeferredResult<ModelAndView> syncDownloadDataProduct(HttpServletRequest request,
+            HttpServletResponse response) throws ResourceNotFoundException, BadRequestException
     {
         return syncDownload(request, response);
     }
@@ -345,27 +354,28 @@ public class AccessDataController
      *            the request
      * @param response
      *            the response
-     * @return a ModelAndView, or null if a download was processed.
+     * @return a DeferredResult which will hold the ModelAndView used to render the response.
      * 
      * @throws ResourceNotFoundException
      *             if the requested resource could not be found
      * @throws BadRequestException
      *             if the request was malformed
-     * @throws InterruptedException
-     *             if the method was interrupted
      */
     @RequestMapping(method = { RequestMethod.POST, RequestMethod.GET, RequestMethod.HEAD },
             value = ACCESS_DATA_SYNC_BASE_PATH_PAWSEY, produces = { MediaType.APPLICATION_XML_VALUE })
-    public @ResponseBody ModelAndView syncDownloadDataProductFromPawsey(HttpServletRequest request, 
-            HttpServletResponse response) throws ResourceNotFoundException, BadRequestException, InterruptedException
+    public @ResponseBody DeferredResult<ModelAndView> syncDownloadDataProductFromPawsey(HttpServletRequest request, 
+            HttpServletResponse response) throws ResourceNotFoundException, BadRequestException
     {
         return syncDownload(request, response);
     }
     
     /**
-     * This method will return the data in the data
-     * product through the HttpServletResponse. This method requires that the data product be 'online' - if it is not
-     * then a ResourceNotFound exception will be thrown.
+     * This method will return the data in the data product through the HttpServletResponse once the cache check job
+     * created for the request has finished (or failed to finish in time). This method requires that the data product be
+     * 'online' - if it is not then a ResourceNotFound exception will be the result.
+     * 
+     * The request thread is not held while the job runs: the returned DeferredResult is completed by the job's thread
+     * (via the JobCompletionNotifier) or by the container when the sync timeout expires.
      * 
      * Filtering parameters as defined in the SODA specification are currently not supported for SODA sync
      * requests.
@@ -374,17 +384,17 @@ public class AccessDataController
      *            the request
      * @param response
      *            the response
-     * @return a ModelAndView, or null if a download was processed.
+     * @return a DeferredResult which will hold the ModelAndView used to render the response.
      * 
      * @throws ResourceNotFoundException
      *             if the requested resource could not be found
      * @throws BadRequestException
      *             if the request was malformed
-     * @throws InterruptedException
-     *             if the method was interrupted
+     * @throws TooManyRequestsException
+     *             if the user is creating jobs too quickly
      */
-    private ModelAndView syncDownload(HttpServletRequest request, HttpServletResponse response) 
-            throws ResourceNotFoundException, BadRequestException, InterruptedException
+    private DeferredResult<ModelAndView> syncDownload(HttpServletRequest request, HttpServletResponse response)
+            throws ResourceNotFoundException, BadRequestException
     {
 
         logger.info("Hit the controller for '{} {}'", request.getMethod().toUpperCase(), ACCESS_DATA_SYNC_BASE_PATH);
@@ -396,7 +406,9 @@ public class AccessDataController
             ModelAndView mav = new ModelAndView();
             mav.setViewName(SODA_SERVICE_DESC_BASE_PATH + ".xml");
             mav.getModel().put("syncURL", this.applicationBaseUrl + ACCESS_DATA_SYNC_BASE_PATH);
-            return mav;
+            DeferredResult<ModelAndView> result = new DeferredResult<>();
+            result.setResult(mav);
+            return result;
         }
         if (!params.containsKey(ID_PARAM))
         {
@@ -439,142 +451,324 @@ public class AccessDataController
 
         jobDto.setParams(params);
 
+        // Suppress the content if this is a HEAD request 
+        boolean headersOnly = RequestMethod.HEAD.toString().equals(request.getMethod());
+
+        if (params.size() == 1)
+        {
+            // Only the id was given so the file can be sent as is if it is already on disk
+            DeferredResult<ModelAndView> result = syncDownloadFromDisk(jobDto, token, headersOnly);
+            if (result != null)
+            {
+                return result;
+            }
+        }
 
+        jobAdmissionGovernor.admitSync(jobDto);
         DataAccessJob dataAccessJob = accessJobManager.createDataAccessJob(jobDto, sizeLimitForSodaSyncJobsKb, true);
 
-        Path path = null;
-        boolean skipCacheCheck = false;
+        DeferredResult<ModelAndView> result = new DeferredResult<>(timeoutForSodaSyncJobsMillis);
+        SodaSyncCompletion completion = new SodaSyncCompletion(dataAccessJob, token, headersOnly, result);
+        result.onTimeout(completion::timedOut);
+
         /*
          * if it's in the cache, we want to schedule a data access job so that we can reclaim the cached files and more
-         * accurately keep track of what files in the cache have been used most recently
+         * accurately keep track of what files in the cache have been used most recently. We listen for the job before
+         * scheduling it so that we can't miss it finishing.
          */
+        jobCompletionNotifier.addListener(dataAccessJob.getRequestId(), completion);
         try
         {
             /*
              * This will only queue a sync job if the files are in the cache. If not, it will throw a
              * ScheduleJobException
              */
+            accessJobManager.scheduleJob(dataAccessJob.getRequestId());
+        }
+        catch (ResourceNotFoundException | ResourceIllegalStateException e)
+        {
+            jobCompletionNotifier.removeListener(dataAccessJob.getRequestId(), completion);
+            /*
+             * Since we just created it and are just scheduling it this would be very unexpected.
+             */
+            throw new RuntimeException(e);
+        }
+        catch (ScheduleJobException e)
+        {
+            jobCompletionNotifier.removeListener(dataAccessJob.getRequestId(), completion);
+            logger.info(
+                    "ServiceUnavailable: " + e.getMessage());
+            result.setResult(new ModelAndView(new ErrorFileView("ServiceUnavailable: " + e.getMessage(),
+                    dataAccessJob)));
+            return result;
+        }
+
+        if (AccessJobManager.UWS_JOB_FINISHED_EXECUTION_PHASES
+                .contains(accessJobManager.getJobStatus(dataAccessJob).getPhase()))
+        {
+            // The job has already been dealt with (or was never run), so there is nothing to wait for
+            completion.run();
+        }
+        return result;
+    }
+
+    /**
+     * Services an unfiltered SODA sync request without scheduling a job, if the requested file is already on disk in
+     * either the cache or NGAS. The access is recorded by storing a DataAccessJob which is already complete.
+     * 
+     * @param jobDto
+     *            the details of the request
+     * @param token
+     *            the request's id token
+     * @param headersOnly
+     *            true if the file content should not be sent
+     * @return a DeferredResult holding the download, or null if the file isn't on disk and a job is needed
+     */
+    private DeferredResult<ModelAndView> syncDownloadFromDisk(JobDto jobDto, RequestToken token, boolean headersOnly)
+    {
+        Path path = null;
+        try
+        {
+            path = dataAccessService.findFileOnDisk(new DataAccessDataProduct(token.getId()));
+        }
+        catch (ResourceNotFoundException | ServiceCallException e)
+        {
+            logger.info("Unable to find the file on disk. Reason: " + e.getMessage());
+        }
+        if (path == null)
+        {
+            return null;
+        }
+
+        DataAccessJob dataAccessJob = accessJobManager.recordCompletedDataAccessJob(jobDto, sizeLimitForSodaSyncJobsKb,
+                DateTime.now(DateTimeZone.UTC).plusMinutes(SODA_SYNC_REQUEST_GRACE_PERIOD_MINUTES));
+        String filename = path.toFile().getName();
+        logger.info("{}", CasdaDataAccessEvents.E040.messageBuilder().add(dataAccessJob.getRequestId()).add(filename));
+
+        DeferredResult<ModelAndView> result = new DeferredResult<>();
+        result.setResult(new ModelAndView(new DownloadView(dataAccessJob, filename, path.toFile(), headersOnly)));
+        return result;
+    }
+
+    /**
+     * Completes a SODA sync request once its cache check job has finished, or once the request has timed out. Whichever
+     * happens first wins, and the other is ignored.
+     */
+    private class SodaSyncCompletion implements Runnable
+    {
+        private final DataAccessJob dataAccessJob;
+
+        private final RequestToken token;
+
+        private final boolean headersOnly;
+
+        private final DeferredResult<ModelAndView> result;
+
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        SodaSyncCompletion(DataAccessJob dataAccessJob, RequestToken token, boolean headersOnly,
+                DeferredResult<ModelAndView> result)
+        {
+            this.dataAccessJob = dataAccessJob;
+            this.token = token;
+            this.headersOnly = headersOnly;
+            this.result = result;
+        }
+
+        @Override
+        public void run()
+        {
+            complete(false);
+        }
+
+        void timedOut()
+        {
+            complete(true);
+        }
+
+        private void complete(boolean timedOut)
+        {
+            if (!completed.compareAndSet(false, true))
+            {
+                return;
+            }
+            jobCompletionNotifier.removeListener(dataAccessJob.getRequestId(), this);
             try
             {
-                accessJobManager.scheduleJob(dataAccessJob.getRequestId());
+                result.setResult(findFile(timedOut));
             }
-            catch (ResourceNotFoundException | ResourceIllegalStateException e)
+            catch (ResourceNotFoundException | RuntimeException e)
             {
-                /*
-                 * Since we just created it and are just scheduling it this would be very unexpected.
-                 */
-                throw new RuntimeException(e);
+                result.setErrorResult(e);
             }
+        }
 
-            long start = System.currentTimeMillis();
-            while (true)
+        private ModelAndView findFile(boolean timedOut) throws ResourceNotFoundException
+        {
+            Path path = null;
+            boolean skipCacheCheck = false;
+            if (timedOut)
             {
-                if (AccessJobManager.UWS_JOB_FINISHED_EXECUTION_PHASES
-                        .contains(accessJobManager.getJobStatus(dataAccessJob).getPhase()))
+                try
                 {
-                    if (ExecutionPhase.COMPLETED == accessJobManager.getJobStatus(dataAccessJob)
-                            .getPhase())
+                    accessJobManager.cancelJob(dataAccessJob.getRequestId(), DateTime.now(DateTimeZone.UTC));
+                }
+                catch (ResourceIllegalStateException | ResourceNotFoundException e)
+                {
+                    ExecutionPhase phase = accessJobManager.getJobStatus(dataAccessJob).getPhase();
+                    if (!(AccessJobManager.UWS_JOB_FINISHED_EXECUTION_PHASES.contains(phase)))
                     {
-                        List<Map<FileType, Integer[]>> paging = 
-                        		dataAccessService.getPaging(dataAccessJob.getRequestId(), false);
-                        Collection<DownloadFile> files = dataAccessService.getPageOfFiles(paging.get(0), dataAccessJob);
-                        if (files.iterator().hasNext())
-                        {
-                            path = dataAccessService.findFile(dataAccessJob, files.iterator().next().getFilename())
-                                    .toPath();
-                        }
+                        throw new RuntimeException(
+                                "Could not cancel job created to refresh SODA SYNC files in request after timeout. "
+                                        + "Job with requestId '" + dataAccessJob.getRequestId()
+                                        + "' is still in phase '" + phase + "'");
                     }
-                    // If wasn't COMPLETED then we will treat as a timeout and try and find it some other way
-                    break;
                 }
-                else if (start + timeoutForSodaSyncJobsMillis < System.currentTimeMillis())
+                logger.info("Unable to access the files via the cache, will try to access the files by other means. "
+                        + "Reason: Job took too long to complete for a sync request");
+            }
+            else if (ExecutionPhase.COMPLETED == accessJobManager.getJobStatus(dataAccessJob).getPhase())
+            {
+                List<Map<FileType, Integer[]>> paging =
+                        dataAccessService.getPaging(dataAccessJob.getRequestId(), false);
+                Collection<DownloadFile> files = dataAccessService.getPageOfFiles(paging.get(0), dataAccessJob);
+                if (files.iterator().hasNext())
                 {
                     try
                     {
-                        accessJobManager.cancelJob(dataAccessJob.getRequestId(), DateTime.now(DateTimeZone.UTC));
+                        path = dataAccessService.findFile(dataAccessJob, files.iterator().next().getFilename())
+                                .toPath();
                     }
-                    catch (ResourceIllegalStateException | ResourceNotFoundException e)
+                    catch (IOException e)
                     {
-                        ExecutionPhase phase = accessJobManager.getJobStatus(dataAccessJob).getPhase();
-                        if (!(AccessJobManager.UWS_JOB_FINISHED_EXECUTION_PHASES.contains(phase)))
-                        {
-                            throw new RuntimeException(
-                                    "Could not cancel job created to refresh SODA SYNC files in request after timeout. "
-                                            + "Job with requestId '" + dataAccessJob.getRequestId()
-                                            + "' is still in phase '" + phase + "'");
-                        }
+                        /*
+                         * Indicates that the file was in the cache but could otherwise not be read. There's nothing we
+                         * can do about this.
+                         */
+                        throw new RuntimeException(e);
                     }
-                    throw new TimeoutException("Job took too long to complete for a sync request");
                 }
-                Thread.sleep(pollTimeForSodaSyncJobsMillis);
             }
+            // If wasn't COMPLETED then we will treat as a timeout and try and find it some other way
+
+            if (path == null)
+            {
+                skipCacheCheck = true;
+                try
+                {
+                    path = dataAccessService.findFileInNgasIfOnDisk(new DataAccessDataProduct(token.getId()));
+                }
+                catch (ResourceNotFoundException | ServiceCallException e)
+                {
+                    logger.info("Unable to access the file via NGAS. Reason: " + e.getMessage());
+                }
+            }
+            if (path == null)
+            {
+                /*
+                 * Update the DataAccessJob to mark it as failed as a way of recording that this request couldn't be
+                 * serviced.
+                 */
+                dataAccessService.markRequestError(dataAccessJob.getRequestId(), DateTime.now(DateTimeZone.UTC));
+                throw new ResourceNotFoundException("File is not available");
+            }
+            else
+            {
+                /*
+                 * Update the DataAccessJob regardless of its state (it could be COMPLETED, ERROR, or ABORTED) and mark
+                 * it as completed as a way of recording that this request was successfully serviced (most likely by
+                 * the presence of files in NGAS rather than the cache). We use an expiryTime of 'now' with a small
+                 * grace period because these files will be used immediately. Note: changing the DataAccessJob's expiry
+                 * time will not overwrite the underlying file's expiry time however.
+                 */
+                dataAccessService.markRequestCompleted(dataAccessJob.getRequestId(),
+                        DateTime.now(DateTimeZone.UTC).plusMinutes(SODA_SYNC_REQUEST_GRACE_PERIOD_MINUTES));
+            }
+
+            logger.info("{}", CasdaDataAccessEvents.E040.messageBuilder().add(dataAccessJob.getRequestId())
+                    .add(path.toFile().getName()));
+
+            return new ModelAndView(new DownloadView(dataAccessJob, path.toFile().getName(),
+                    skipCacheCheck ? path.toFile() : null, headersOnly));
         }
-        catch (IOException e)
+    }
+
+    /**
+     * Streams a file to the client. This runs on the container thread which the request is dispatched back to once a
+     * SODA sync request's file has been found.
+     */
+    private class DownloadView implements View
+    {
+        private final DataAccessJob dataAccessJob;
+
+        private final String filename;
+
+        private final File filepath;
+
+        private final boolean headersOnly;
+
+        /**
+         * @param filepath
+         *            the file if it has already been found outside of the job's directory, or null to send the file
+         *            from the job's directory
+         */
+        DownloadView(DataAccessJob dataAccessJob, String filename, File filepath, boolean headersOnly)
         {
-            /*
-             * Indicates that the file was in the cache but could otherwise not be read. There's nothing we can do about
-             * this.
-             */
-            throw new RuntimeException(e);
+            this.dataAccessJob = dataAccessJob;
+            this.filename = filename;
+            this.filepath = filepath;
+            this.headersOnly = headersOnly;
         }
-        catch(ScheduleJobException e)
+
+        @Override
+        public String getContentType()
         {
-            logger.info(
-                    "ServiceUnavailable: " + e.getMessage());
-            dataAccessService.returnErrorFile("ServiceUnavailable: " + e.getMessage(), response, dataAccessJob, false);
+            // set by the download
             return null;
         }
-        catch (TimeoutException e)
-        {
-            logger.info(
-                    "Unable to access the files via the cache, will try to access the files by other means. Reason: "
-                            + e.getMessage());
-            // don't return here to let it look for an alternative file location
-        }
 
-        if (path == null)
+        @Override
+        public void render(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response)
+                throws Exception
         {
-            skipCacheCheck = true;
-            try
+            if (filepath == null)
             {
-                path = dataAccessService.findFileInNgasIfOnDisk(new DataAccessDataProduct(token.getId()));
+                dataAccessService.downloadFile(dataAccessJob, filename, request, response, false, headersOnly);
             }
-            catch (ResourceNotFoundException | ServiceCallException e)
+            else
             {
-                logger.info("Unable to access the file via NGAS. Reason: " + e.getMessage());
+                dataAccessService.downloadFile(dataAccessJob, filename, filepath, request, response, headersOnly);
             }
         }
-        if (path == null)
+    }
+
+    /**
+     * Returns an error file to the client for a SODA sync request which could not be serviced.
+     */
+    private class ErrorFileView implements View
+    {
+        private final String message;
+
+        private final DataAccessJob dataAccessJob;
+
+        ErrorFileView(String message, DataAccessJob dataAccessJob)
         {
-            /*
-             * Update the DataAccessJob to mark it as failed as a way of recording that this request couldn't be
-             * serviced.
-             */
-            dataAccessService.markRequestError(dataAccessJob.getRequestId(), DateTime.now(DateTimeZone.UTC));
-            throw new ResourceNotFoundException("File is not available");
+            this.message = message;
+            this.dataAccessJob = dataAccessJob;
         }
-        else
+
+        @Override
+        public String getContentType()
         {
-            /*
-             * Update the DataAccessJob regardless of its state (it could be COMPLETED, ERROR, or ABORTED) and mark it
-             * as completed as a way of recording that this request was successfully serviced (most likely by the
-             * presence of files in NGAS rather than the cache). We use an expiryTime of 'now' with a small grace period
-             * because these files will be used immediately. Note: changing the DataAccessJob's expiry time will not
-             * overwrite the underlying file's expiry time however.
-             */
-            dataAccessService.markRequestCompleted(dataAccessJob.getRequestId(),
-                    DateTime.now(DateTimeZone.UTC).plusMinutes(SODA_SYNC_REQUEST_GRACE_PERIOD_MINUTES));
+            // set by the error file
+            return null;
         }
 
-        logger.info("{}", CasdaDataAccessEvents.E040.messageBuilder().add(dataAccessJob.getRequestId())
-                .add(path.toFile().getName()));
-
-        // Suppress the content if this is a HEAD request 
-        boolean headersOnly = RequestMethod.HEAD.toString().equals(request.getMethod());
-        dataAccessService.downloadFile(dataAccessJob, path.toFile().getName(), response, skipCacheCheck, headersOnly);
-        
-        return null;
-    
+        @Override
+        public void render(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response)
+        {
+            dataAccessService.returnErrorFile(message, response, dataAccessJob, false);
+        }
     }
 
     /**
@@ -587,6 +781,8 @@ public class AccessDataController
      *            This may also include fitering params, currently only supports "pos"
      * @return A response with code 303 and the UUID issued for the request. The Location header also contains a URL to
      *         query the created job.
+     * @throws TooManyRequestsException
+     *             if the user already has too many jobs being prepared, or is creating jobs too quickly
      */
     @RequestMapping(//
             method = { RequestMethod.POST }, //
@@ -632,7 +828,18 @@ public class AccessDataController
         jobDetails.setUserName(null); // not available
         jobDetails.setJobType(token.getDownloadMode());
         
-        DataAccessJob newJob = accessJobManager.createDataAccessJob(jobDetails, null, false);
+        jobAdmissionGovernor.admit(jobDetails);
+        DataAccessJob newJob;
+        try
+        {
+            newJob = accessJobManager.createDataAccessJob(jobDetails, null, false);
+        }
+        catch (RuntimeException e)
+        {
+            jobAdmissionGovernor.jobNotCreated(jobDetails);
+            throw e;
+        }
+        jobAdmissionGovernor.jobCreated(newJob);
 
         return redirectToJobPage(newJob.getRequestId(), newJob.getRequestId());
     }
@@ -5,7 +5,9 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
@@ -23,6 +25,8 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import au.csiro.casda.entity.dataaccess.ParamMap;
 import au.csiro.casda.entity.dataaccess.ParamMap.ParamKeyWhitelist;
@@ -38,22 +42,33 @@ public class GenerateFileService
 {
     private static Logger logger = LoggerFactory.getLogger(GenerateFileService.class);
 
+    private static final int MAX_CACHED_AXIS_LISTS = 10000;
+
     private String sregionContainsQuery;
 
     private JdbcTemplate jdbcTemplate;
+
+    private ImageFootprintIndex imageFootprintIndex;
+
+    /** Parsed axes keyed by image cube id and dimensions, so a change to an image's dimensions is picked up. */
+    private final Cache<List<Object>, List<ImageCubeAxis>> axisListCache =
+            CacheBuilder.newBuilder().maximumSize(MAX_CACHED_AXIS_LISTS).build();
     
     /**
      * Create a new instance of CutoutService
      *   
-     * @param sregionContainsQuery The sql query to check if the generated file area is within the image cube. 
+     * @param sregionContainsQuery The sql query to check which of an array of generated file centres are within
+     *            the image cube. 
      * @param jdbcTemplate The template to be used for database queries.
+     * @param imageFootprintIndex The in memory index of image cube footprints, checked before the database.
      */
     @Autowired
-    public GenerateFileService(@Value("${sregion.contains.query}") 
-    	String sregionContainsQuery, JdbcTemplate jdbcTemplate)
+    public GenerateFileService(@Value("${sregion.contains.points.query}") 
+    	String sregionContainsQuery, JdbcTemplate jdbcTemplate, ImageFootprintIndex imageFootprintIndex)
     {
         this.sregionContainsQuery = sregionContainsQuery;
         this.jdbcTemplate = jdbcTemplate;
+        this.imageFootprintIndex = imageFootprintIndex;
     }
     
     /**
@@ -240,17 +255,17 @@ public class GenerateFileService
 
     private List<GeneratedFileBounds> buildBoundsList(ParamMap dataAccessJobParams, ImageCube imageCube)
     {
-        List<GeneratedFileBounds> boundsList = new ArrayList<>();
+        List<GeneratedFileBounds> candidateBoundsList = new ArrayList<>();
         // Could have multiple, each entry produces a separate image cube
         if (dataAccessJobParams.get("pos") != null)
         {
             for (String posParam : dataAccessJobParams.get("pos"))
             {
                 GeneratedFileBounds bounds = calcPosGeneratedFileBounds(posParam);
-                if (bounds != null && overlapsImage(bounds, imageCube))
+                if (bounds != null)
                 {
                     bounds.setParams("POS="+posParam);
-                    boundsList.add(bounds);
+                    candidateBoundsList.add(bounds);
                 }
             }
             
@@ -261,10 +276,10 @@ public class GenerateFileService
             for (String circParam : dataAccessJobParams.get("circle"))
             {
                 GeneratedFileBounds bounds = calcCircleBounds(circParam);
-                if (bounds != null && overlapsImage(bounds, imageCube))
+                if (bounds != null)
                 {
                     bounds.setParams("CIRCLE="+circParam);
-                    boundsList.add(bounds);
+                    candidateBoundsList.add(bounds);
                 }
             } 
         }
@@ -274,13 +289,24 @@ public class GenerateFileService
             for (String polyParam : dataAccessJobParams.get("polygon"))
             {
                 GeneratedFileBounds bounds = calcPolygonBounds(polyParam);
-                if (bounds != null && overlapsImage(bounds, imageCube))
+                if (bounds != null)
                 {
                     bounds.setParams("POLYGON="+polyParam);
-                    boundsList.add(bounds);
+                    candidateBoundsList.add(bounds);
                 }
             } 
         }
+
+        // Check all of the regions against the image at once rather than one query per region
+        BitSet overlaps = overlapsImage(candidateBoundsList, imageCube);
+        List<GeneratedFileBounds> boundsList = new ArrayList<>();
+        for (int i = 0; i < candidateBoundsList.size(); i++)
+        {
+            if (overlaps.get(i))
+            {
+                boundsList.add(candidateBoundsList.get(i));
+            }
+        }
         return boundsList;
     }
 
@@ -402,46 +428,62 @@ public class GenerateFileService
 
     /**
      * Retrieve a list of non-spatial axes from the provided image cube. If the image is two dimensional, an empty list
-     * is returned.
+     * is returned. The axes of each image cube are only parsed once, and are parsed again if its dimensions change.
      * 
      * @param image
      *            The image cube to be examined.
-     * @return A list of axes.
+     * @return An unmodifiable list of axes.
      */
     public List<ImageCubeAxis> getAxisList(ImageCube image)
+    {
+        List<Object> key = Arrays.asList(image.getId(), image.getDimensions());
+        List<ImageCubeAxis> axisList = axisListCache.getIfPresent(key);
+        if (axisList == null)
+        {
+            axisList = Collections.unmodifiableList(parseAxisList(image));
+            axisListCache.put(key, axisList);
+        }
+        return axisList;
+    }
+
+    private List<ImageCubeAxis> parseAxisList(ImageCube image)
     {
         List<ImageCubeAxis> axisList = new ArrayList<>();
         try
         {
-            if (image.getDimensionsJson() == null)
+            JsonNode dimensionsJson = image.getDimensionsJson();
+            if (dimensionsJson == null)
             {
                 return axisList;
             }
 
-            JsonNode axesNode = image.getDimensionsJson().get("axes");
+            JsonNode axesNode = dimensionsJson.get("axes");
+            List<JsonNode> nonSpatialAxisNodes = new ArrayList<>();
+            List<Integer> nonSpatialAxisIndexes = new ArrayList<>();
             for (int i = 0; i < axesNode.size(); i++)
             {
                 JsonNode axisNode = axesNode.get(i);
                 String name = axisNode.get("name").asText();
                 if (name != null && !name.startsWith("RA") && !name.startsWith("DEC"))
                 {
-                    ImageCubeAxis icAxis = new ImageCubeAxis(i + 1, name, axisNode.get("numPixels").asInt(),
-                            axisNode.get("min").asDouble(), axisNode.get("max").asDouble(),
-                            axisNode.get("pixelSize").asDouble());
-                    axisList.add(icAxis);
+                    nonSpatialAxisNodes.add(axisNode);
+                    nonSpatialAxisIndexes.add(i + 1);
                 }
             }
 
             // Build up the number of planes each step of each axis spans.
             // We have to work from the inner (i.e. later) axis outwards
+            ImageCubeAxis[] axes = new ImageCubeAxis[nonSpatialAxisNodes.size()];
             int planeSpan = 1;
-            for (int i = axisList.size() - 1; i >= 0; i--)
+            for (int i = axes.length - 1; i >= 0; i--)
             {
-                ImageCubeAxis icAxis = axisList.get(i);
-                icAxis.setPlaneSpan(planeSpan);
-                planeSpan *= icAxis.getSize();
+                JsonNode axisNode = nonSpatialAxisNodes.get(i);
+                axes[i] = new ImageCubeAxis(nonSpatialAxisIndexes.get(i), axisNode.get("name").asText(),
+                        axisNode.get("numPixels").asInt(), axisNode.get("min").asDouble(),
+                        axisNode.get("max").asDouble(), axisNode.get("pixelSize").asDouble(), planeSpan);
+                planeSpan *= axes[i].getSize();
             }
-
+            axisList.addAll(Arrays.asList(axes));
         }
         catch (IOException e)
         {
@@ -645,15 +687,15 @@ public class GenerateFileService
     int[] calculateAxisOverlap(ImageCubeAxis axis, ValueRange valueRange)
     {
         // note: FITS pixels are 1 indexed.
-        BigDecimal axisMinValue = new BigDecimal(axis.getMinVal());
-        BigDecimal axisDelta = new BigDecimal(axis.getDelta());
+        BigDecimal axisMinValue = axis.getMinValDecimal();
+        BigDecimal axisDelta = axis.getDeltaDecimal();
         BigDecimal minPixelCalc =
                 (new BigDecimal(valueRange.getMinValue()).subtract(axisMinValue)).divide(axisDelta, RoundingMode.FLOOR);
         BigDecimal maxPixelCalc =
                 (new BigDecimal(valueRange.getMaxValue()).subtract(axisMinValue)).divide(axisDelta, RoundingMode.FLOOR);
         int minPixel = 1 + Math.max(0, minPixelCalc.intValue());
         int maxPixel = axis.getSize();
-        if (maxPixelCalc.compareTo(new BigDecimal(axis.getSize()-1)) <= 0)
+        if (maxPixelCalc.compareTo(axis.getLastPixelOffset()) <= 0)
         {
             maxPixel = 1 + maxPixelCalc.intValue();    
         }
@@ -736,18 +778,55 @@ public class GenerateFileService
         return false;
     }
 
-    private boolean overlapsImage(GeneratedFileBounds bounds, ImageCube imageCube)
+    /**
+     * Check which of the supplied bounds are centred within the spatial footprint of the image cube. The footprint is
+     * checked in memory if the image cube is in the footprint index. Otherwise all of the bounds are checked in a
+     * single query, which is passed arrays of the centre coordinates and the image cube id.
+     * 
+     * @param boundsList
+     *            The bounds to be checked.
+     * @param imageCube
+     *            The image cube to check them against.
+     * @return A BitSet with the bit at each bounds' index in the list set if that bounds overlaps the image cube.
+     */
+    BitSet overlapsImage(List<GeneratedFileBounds> boundsList, ImageCube imageCube)
     {
-        String query = sregionContainsQuery.replace("<centre_ra_rad>", radianString(bounds.getRa()))
-                .replace("<centre_dec_rad>", radianString(bounds.getDec()))
-                .replace("<image_cube_id>", String.valueOf(imageCube.getId()));
-        
-       String result = jdbcTemplate.queryForObject(query, String.class);
-       return "t".equalsIgnoreCase(result);
+        BitSet overlaps = new BitSet(boundsList.size());
+        if (boundsList.isEmpty())
+        {
+            return overlaps;
+        }
+
+        double[] raValues = new double[boundsList.size()];
+        double[] decValues = new double[boundsList.size()];
+        List<String> raRadians = new ArrayList<>();
+        List<String> decRadians = new ArrayList<>();
+        for (int i = 0; i < boundsList.size(); i++)
+        {
+            raValues[i] = Math.toRadians(Double.parseDouble(boundsList.get(i).getRa()));
+            decValues[i] = Math.toRadians(Double.parseDouble(boundsList.get(i).getDec()));
+            raRadians.add(String.valueOf(raValues[i]));
+            decRadians.add(String.valueOf(decValues[i]));
+        }
+
+        BitSet indexedOverlaps = imageFootprintIndex.overlaps(imageCube.getId(), raValues, decValues);
+        if (indexedOverlaps != null)
+        {
+            return indexedOverlaps;
+        }
+
+        // The query returns the (one based) positions of the points which are within the image
+        List<Long> matches = jdbcTemplate.queryForList(sregionContainsQuery, Long.class,
+                toArrayLiteral(raRadians), toArrayLiteral(decRadians), imageCube.getId());
+        for (Long position : matches)
+        {
+            overlaps.set(position.intValue() - 1);
+        }
+        return overlaps;
     }
 
-    private String radianString(String degreesValue)
+    private String toArrayLiteral(List<String> values)
     {
-        return String.valueOf(Math.toRadians(Double.parseDouble(degreesValue)));
+        return "{" + StringUtils.join(values, ",") + "}";
     }
 }
@@ -12,24 +12,32 @@ package au.csiro.casda.access.soda;
  * #L%
  */
 
+import java.math.BigDecimal;
+
 /**
  * An axis of a multi dimensional FITS image cube (e.g. FREQ). The positional axes (e.g. right ascension/declination)
  * are not expected to be recorded here as the axis is assumed to be linear.
  * <p>
+ * Axes are immutable so that the axes of an image cube can be parsed once and shared. The values used to convert an
+ * axis value to a pixel are held ready for use.
+ * <p>
  * Copyright 2015, CSIRO Australia. All rights reserved.
  */
 public class ImageCubeAxis
 {
-    private String name;
-    private int index;
-    private int size;
-    private double minVal;
-    private double maxVal;
-    private double delta;
-    private int planeSpan;
+    private final String name;
+    private final int index;
+    private final int size;
+    private final double minVal;
+    private final double maxVal;
+    private final double delta;
+    private final int planeSpan;
+    private final BigDecimal minValDecimal;
+    private final BigDecimal deltaDecimal;
+    private final BigDecimal lastPixelOffset;
 
     /**
-     * Create a new ImageCubeAxis instance.
+     * Create a new ImageCubeAxis instance which spans no planes.
      * 
      * @param index
      *            The order of this axis in the image cube.
@@ -45,6 +53,29 @@ public class ImageCubeAxis
      *            The step value per pixel.
      */
     public ImageCubeAxis(int index, String name, int size, double minVal, double maxVal, double delta)
+    {
+        this(index, name, size, minVal, maxVal, delta, 0);
+    }
+
+    /**
+     * Create a new ImageCubeAxis instance.
+     * 
+     * @param index
+     *            The order of this axis in the image cube.
+     * @param name
+     *            The name of the axis.
+     * @param size
+     *            The number of pixels in the axis.
+     * @param minVal
+     *            The lower bound of the smallest value in the axis' range.
+     * @param maxVal
+     *            The upper bound of the largest value in the axis' range.
+     * @param delta
+     *            The step value per pixel.
+     * @param planeSpan
+     *            The number of planes each value in this axis spans.
+     */
+    public ImageCubeAxis(int index, String name, int size, double minVal, double maxVal, double delta, int planeSpan)
     {
         this.index = index;
         this.name = name;
@@ -52,7 +83,10 @@ public class ImageCubeAxis
         this.minVal = minVal;
         this.maxVal = maxVal;
         this.delta = delta;
-
+        this.planeSpan = planeSpan;
+        this.minValDecimal = new BigDecimal(minVal);
+        this.deltaDecimal = new BigDecimal(delta);
+        this.lastPixelOffset = new BigDecimal(size - 1);
     }
 
     public String getName()
@@ -60,61 +94,31 @@ public class ImageCubeAxis
         return name;
     }
 
-    public void setName(String name)
-    {
-        this.name = name;
-    }
-
     public int getIndex()
     {
         return index;
     }
 
-    public void setIndex(int index)
-    {
-        this.index = index;
-    }
-
     public int getSize()
     {
         return size;
     }
 
-    public void setSize(int size)
-    {
-        this.size = size;
-    }
-
     public double getMinVal()
     {
         return minVal;
     }
 
-    public void setMinVal(double minVal)
-    {
-        this.minVal = minVal;
-    }
-
     public double getMaxVal()
     {
         return maxVal;
     }
 
-    public void setMaxVal(double maxVal)
-    {
-        this.maxVal = maxVal;
-    }
-
     public double getDelta()
     {
         return delta;
     }
 
-    public void setDelta(double delta)
-    {
-        this.delta = delta;
-    }
-
     /**
      * A plane span is the number of planes each value in this axis will span. Effectively it is the total size of all
      * later axes. e.g. for a cube with 6 frequencies (axis 3: FREQ) and 2 stokes polarisations (axis 4: STOKES), the
@@ -127,9 +131,28 @@ public class ImageCubeAxis
         return planeSpan;
     }
 
-    public void setPlaneSpan(int planeSpan)
+    /**
+     * @return The minimum value of the axis, ready for pixel calculations.
+     */
+    public BigDecimal getMinValDecimal()
     {
-        this.planeSpan = planeSpan;
+        return minValDecimal;
+    }
+
+    /**
+     * @return The step value per pixel, ready for pixel calculations.
+     */
+    public BigDecimal getDeltaDecimal()
+    {
+        return deltaDecimal;
+    }
+
+    /**
+     * @return The zero based offset of the last pixel in the axis, i.e. size - 1.
+     */
+    public BigDecimal getLastPixelOffset()
+    {
+        return lastPixelOffset;
     }
 
     @Override
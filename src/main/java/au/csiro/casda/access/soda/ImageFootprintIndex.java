@@ -0,0 +1,299 @@
+package au.csiro.casda.access.soda;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the spatial footprint (s_region_poly) of each image cube in memory so that cutout positions can be checked
+ * against an image without a database query.
+ * <p>
+ * Footprints are loaded in the background: each refresh adds image cubes with a higher id than any already loaded,
+ * and the whole index is rebuilt periodically to pick up changed or deleted footprints. Footprints are pgSphere
+ * polygons, which are always convex, so a point is within a footprint if it is on the inner side of every edge. A
+ * bounding cap around each footprint lets most points be rejected with a single dot product. Image cubes which are not
+ * in the index yet are reported as unknown so the caller can fall back to asking the database.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class ImageFootprintIndex implements PublicMetrics
+{
+    private static Logger logger = LoggerFactory.getLogger(ImageFootprintIndex.class);
+
+    /** Allowance for rounding, matching the precision pgSphere uses for its own containment tests. */
+    private static final double EPSILON = 1.0E-9;
+
+    /** Matches a (lon , lat) vertex in pgSphere's radian output format, e.g. {(0.1 , 0.2),(0.3 , 0.4)} */
+    private static final Pattern VERTEX_PATTERN = Pattern.compile("\\(\\s*([-+0-9.eE]+)\\s*,\\s*([-+0-9.eE]+)\\s*\\)");
+
+    private final String footprintQuery;
+
+    private final boolean enabled;
+
+    private final long rebuildPeriodMillis;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Map<Long, Footprint> footprints = new ConcurrentHashMap<>();
+
+    private volatile long maxLoadedId = 0;
+
+    private volatile long lastRebuildMillis = 0;
+
+    /**
+     * Constructor
+     *
+     * @param footprintQuery
+     *            the sql query to load the id and text form of the footprint of each image cube with an id greater
+     *            than the single parameter, ordered by id
+     * @param enabled
+     *            whether footprints should be checked in memory at all
+     * @param rebuildPeriodMillis
+     *            how often the whole index is rebuilt rather than just having new image cubes added
+     * @param jdbcTemplate
+     *            the template to be used for database queries
+     */
+    @Autowired
+    public ImageFootprintIndex(@Value("${image.footprint.query}") String footprintQuery,
+            @Value("${image.footprint.index.enabled}") boolean enabled,
+            @Value("${image.footprint.index.rebuild.millis}") long rebuildPeriodMillis, JdbcTemplate jdbcTemplate)
+    {
+        this.footprintQuery = footprintQuery;
+        this.enabled = enabled;
+        this.rebuildPeriodMillis = rebuildPeriodMillis;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Loads footprints for any new image cubes, or rebuilds the whole index if it is due to be rebuilt.
+     */
+    @Scheduled(fixedDelayString = "${image.footprint.index.refresh.millis}")
+    public void refresh()
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        try
+        {
+            long now = System.currentTimeMillis();
+            if (now - lastRebuildMillis >= rebuildPeriodMillis)
+            {
+                Map<Long, Footprint> rebuilt = new ConcurrentHashMap<>();
+                maxLoadedId = load(rebuilt, 0);
+                footprints = rebuilt;
+                lastRebuildMillis = now;
+                logger.info("Loaded footprints of {} image cubes", rebuilt.size());
+            }
+            else
+            {
+                maxLoadedId = load(footprints, maxLoadedId);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Unable to load image cube footprints, overlaps will be checked in the database", e);
+        }
+    }
+
+    private long load(Map<Long, Footprint> target, long afterId)
+    {
+        long maxId = afterId;
+        for (Map<String, Object> row : jdbcTemplate.queryForList(footprintQuery, afterId))
+        {
+            long id = ((Number) row.get("id")).longValue();
+            maxId = Math.max(maxId, id);
+            Footprint footprint = parseFootprint((String) row.get("region"));
+            if (footprint == null)
+            {
+                logger.warn("Unable to parse footprint of image cube {}: {}", id, row.get("region"));
+                target.remove(id);
+            }
+            else
+            {
+                target.put(id, footprint);
+            }
+        }
+        return maxId;
+    }
+
+    /**
+     * Checks which of the supplied points are within the footprint of an image cube.
+     *
+     * @param imageCubeId
+     *            the id of the image cube
+     * @param raRadians
+     *            the right ascension of each point, in radians
+     * @param decRadians
+     *            the declination of each point, in radians
+     * @return a BitSet with the bit at each point's index set if the point is within the footprint, or null if the
+     *         image cube's footprint is not known
+     */
+    public BitSet overlaps(Long imageCubeId, double[] raRadians, double[] decRadians)
+    {
+        Footprint footprint = enabled && imageCubeId != null ? footprints.get(imageCubeId) : null;
+        if (footprint == null)
+        {
+            return null;
+        }
+        BitSet overlaps = new BitSet(raRadians.length);
+        for (int i = 0; i < raRadians.length; i++)
+        {
+            if (footprint.contains(toVector(raRadians[i], decRadians[i])))
+            {
+                overlaps.set(i);
+            }
+        }
+        return overlaps;
+    }
+
+    /**
+     * Adds or replaces the footprint of an image cube.
+     *
+     * @param imageCubeId
+     *            the id of the image cube
+     * @param region
+     *            the footprint in pgSphere's radian output format
+     * @return true if the footprint was understood and added, false otherwise
+     */
+    boolean put(long imageCubeId, String region)
+    {
+        Footprint footprint = parseFootprint(region);
+        if (footprint == null)
+        {
+            return false;
+        }
+        footprints.put(imageCubeId, footprint);
+        return true;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics()
+    {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<Integer>("image.footprint.index.size", footprints.size()));
+        return metrics;
+    }
+
+    static Footprint parseFootprint(String region)
+    {
+        if (region == null)
+        {
+            return null;
+        }
+        List<double[]> vertices = new ArrayList<>();
+        Matcher matcher = VERTEX_PATTERN.matcher(region);
+        while (matcher.find())
+        {
+            vertices.add(toVector(Double.parseDouble(matcher.group(1)), Double.parseDouble(matcher.group(2))));
+        }
+        if (vertices.size() < 3)
+        {
+            return null;
+        }
+        return new Footprint(vertices);
+    }
+
+    private static double[] toVector(double lon, double lat)
+    {
+        double cosLat = Math.cos(lat);
+        return new double[] { cosLat * Math.cos(lon), cosLat * Math.sin(lon), Math.sin(lat) };
+    }
+
+    private static double dot(double[] a, double[] b)
+    {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static double[] cross(double[] a, double[] b)
+    {
+        return new double[] { a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0] };
+    }
+
+    /**
+     * A convex spherical polygon, held as the normals of the great circles along its edges, oriented to point into the
+     * polygon, plus a cap which encloses it.
+     */
+    static class Footprint
+    {
+        private final double[][] edgeNormals;
+
+        private final double[] capCentre;
+
+        private final double capMinDot;
+
+        Footprint(List<double[]> vertices)
+        {
+            int numVertices = vertices.size();
+            double[] centre = new double[3];
+            for (double[] vertex : vertices)
+            {
+                centre[0] += vertex[0];
+                centre[1] += vertex[1];
+                centre[2] += vertex[2];
+            }
+            double length = Math.sqrt(dot(centre, centre));
+            capCentre = new double[] { centre[0] / length, centre[1] / length, centre[2] / length };
+
+            double minDot = 1;
+            edgeNormals = new double[numVertices][];
+            for (int i = 0; i < numVertices; i++)
+            {
+                double[] normal = cross(vertices.get(i), vertices.get((i + 1) % numVertices));
+                // pgSphere accepts polygons in either winding order, so point every normal towards the centre
+                if (dot(normal, capCentre) < 0)
+                {
+                    normal = new double[] { -normal[0], -normal[1], -normal[2] };
+                }
+                edgeNormals[i] = normal;
+                minDot = Math.min(minDot, dot(vertices.get(i), capCentre));
+            }
+            // A cap of a hemisphere or more isn't convex, so it can't be relied on to enclose the polygon
+            capMinDot = minDot > 0 ? minDot - EPSILON : -1 - EPSILON;
+        }
+
+        boolean contains(double[] point)
+        {
+            if (dot(point, capCentre) < capMinDot)
+            {
+                return false;
+            }
+            for (double[] normal : edgeNormals)
+            {
+                if (dot(normal, point) < -EPSILON)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
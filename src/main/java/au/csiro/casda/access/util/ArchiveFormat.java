@@ -0,0 +1,68 @@
+package au.csiro.casda.access.util;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The archive formats that the files of a data access job can be bundled into for a single download.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public enum ArchiveFormat
+{
+    /** An uncompressed POSIX (ustar/pax) tar file. */
+    TAR("tar", "application/x-tar"),
+
+    /** A zip file with the entries stored uncompressed. */
+    ZIP("zip", "application/zip");
+
+    private final String extension;
+
+    private final String contentType;
+
+    private ArchiveFormat(String extension, String contentType)
+    {
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    public String getExtension()
+    {
+        return extension;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    /**
+     * Finds the archive format matching a file extension.
+     *
+     * @param extension
+     *            the file extension, e.g. tar
+     * @return the matching format, or null if the extension is not supported
+     */
+    public static ArchiveFormat fromExtension(String extension)
+    {
+        for (ArchiveFormat format : values())
+        {
+            if (format.extension.equalsIgnoreCase(StringUtils.trimToEmpty(extension)))
+            {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,289 @@
+package au.csiro.casda.access.util;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Writes files into an archive as a stream, without staging the archive on disk. Each entry is written as soon as it
+ * is added so the memory used does not depend on the number or size of the files.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public abstract class ArchiveStreamWriter
+{
+    /**
+     * Creates a writer for the requested archive format.
+     *
+     * @param format
+     *            the archive format
+     * @param output
+     *            the stream the archive will be written to. The stream is not closed by the writer.
+     * @return a new writer
+     */
+    public static ArchiveStreamWriter create(ArchiveFormat format, OutputStream output)
+    {
+        switch (format)
+        {
+        case TAR:
+            return new TarStreamWriter(output);
+        case ZIP:
+            return new ZipStreamWriter(output);
+        default:
+            throw new IllegalArgumentException("Unsupported archive format " + format);
+        }
+    }
+
+    /**
+     * Adds a file to the archive.
+     *
+     * @param entryName
+     *            the path of the file within the archive
+     * @param file
+     *            the file (or a link to the file) to be added
+     * @return the number of bytes of file content written
+     * @throws IOException
+     *             if the file could not be read or the archive could not be written
+     */
+    public abstract long addFile(String entryName, File file) throws IOException;
+
+    /**
+     * Writes the end of the archive. No further files may be added after this is called.
+     *
+     * @throws IOException
+     *             if the archive could not be written
+     */
+    public abstract void finish() throws IOException;
+
+    /**
+     * Writes a POSIX.1-2001 (pax) tar archive. Entries use a plain ustar header unless the name or size will not fit,
+     * in which case a pax extended header is written first. File content is copied with
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)} so that the operating system can move the data
+     * without it being copied through a buffer on the heap.
+     */
+    static class TarStreamWriter extends ArchiveStreamWriter
+    {
+        private static final int BLOCK_SIZE = 512;
+
+        private static final int NAME_LENGTH = 100;
+
+        /** The largest size that fits in the 11 octal digits of the ustar size field. */
+        private static final long MAX_USTAR_SIZE = 077777777777L;
+
+        private final OutputStream output;
+
+        private final WritableByteChannel channel;
+
+        TarStreamWriter(OutputStream output)
+        {
+            this.output = output;
+            this.channel = Channels.newChannel(output);
+        }
+
+        @Override
+        public long addFile(String entryName, File file) throws IOException
+        {
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                long size = fileChannel.size();
+                long modified = file.lastModified() / 1000;
+                byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+
+                if (name.length > NAME_LENGTH || size > MAX_USTAR_SIZE)
+                {
+                    StringBuilder records = new StringBuilder();
+                    if (name.length > NAME_LENGTH)
+                    {
+                        records.append(paxRecord("path", entryName));
+                    }
+                    if (size > MAX_USTAR_SIZE)
+                    {
+                        records.append(paxRecord("size", Long.toString(size)));
+                    }
+                    byte[] paxData = records.toString().getBytes(StandardCharsets.UTF_8);
+                    output.write(createHeader(truncate(("PaxHeaders/" + entryName).getBytes(StandardCharsets.UTF_8)),
+                            paxData.length, modified, 'x'));
+                    output.write(paxData);
+                    writePadding(paxData.length);
+                }
+
+                output.write(createHeader(truncate(name), Math.min(size, MAX_USTAR_SIZE), modified, '0'));
+                output.flush();
+
+                long position = 0;
+                while (position < size)
+                {
+                    long transferred = fileChannel.transferTo(position, size - position, channel);
+                    if (transferred <= 0)
+                    {
+                        throw new IOException("File " + file + " was truncated while being added to the archive");
+                    }
+                    position += transferred;
+                }
+                writePadding(size);
+                return size;
+            }
+        }
+
+        @Override
+        public void finish() throws IOException
+        {
+            // The end of the archive is marked by two empty blocks
+            output.write(new byte[BLOCK_SIZE * 2]);
+            output.flush();
+        }
+
+        private void writePadding(long length) throws IOException
+        {
+            int remainder = (int) (length % BLOCK_SIZE);
+            if (remainder > 0)
+            {
+                output.write(new byte[BLOCK_SIZE - remainder]);
+            }
+        }
+
+        private static byte[] truncate(byte[] name)
+        {
+            if (name.length <= NAME_LENGTH)
+            {
+                return name;
+            }
+            byte[] truncated = new byte[NAME_LENGTH];
+            System.arraycopy(name, 0, truncated, 0, NAME_LENGTH);
+            return truncated;
+        }
+
+        /*
+         * A pax record is "<length> <keyword>=<value>\n" where the length includes its own digits.
+         */
+        private static String paxRecord(String keyword, String value)
+        {
+            int contentLength = (" " + keyword + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+            int length = contentLength + Integer.toString(contentLength).length();
+            if (Integer.toString(length).length() > Integer.toString(contentLength).length())
+            {
+                length++;
+            }
+            return length + " " + keyword + "=" + value + "\n";
+        }
+
+        private static byte[] createHeader(byte[] name, long size, long modified, char typeFlag)
+        {
+            byte[] header = new byte[BLOCK_SIZE];
+            System.arraycopy(name, 0, header, 0, name.length);
+            writeOctal(header, 100, 8, 0644);
+            writeOctal(header, 108, 8, 0);
+            writeOctal(header, 116, 8, 0);
+            writeOctal(header, 124, 12, size);
+            writeOctal(header, 136, 12, modified);
+            header[156] = (byte) typeFlag;
+            System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+            // The checksum is calculated with the checksum field itself filled with spaces
+            for (int i = 148; i < 156; i++)
+            {
+                header[i] = ' ';
+            }
+            long checksum = 0;
+            for (byte b : header)
+            {
+                checksum += b & 0xff;
+            }
+            writeOctal(header, 148, 7, checksum);
+            return header;
+        }
+
+        /*
+         * Writes a zero padded, null terminated octal number into a header field.
+         */
+        private static void writeOctal(byte[] header, int offset, int length, long value)
+        {
+            String octal = String.format("%0" + (length - 1) + "o", value);
+            System.arraycopy(octal.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+            header[offset + length - 1] = 0;
+        }
+    }
+
+    /**
+     * Writes a zip archive with the entries stored without compression, which is appropriate for the already
+     * compressed or incompressible data products we serve. Large files and archives use the Zip64 extensions
+     * automatically. A stored entry's size and CRC have to be written before its content, so each file is read once
+     * to calculate its CRC and again as it is copied into the archive.
+     */
+    static class ZipStreamWriter extends ArchiveStreamWriter
+    {
+        private static final int BUFFER_SIZE = 65536;
+
+        private final ZipOutputStream zipOutput;
+
+        ZipStreamWriter(OutputStream output)
+        {
+            this.zipOutput = new ZipOutputStream(output, StandardCharsets.UTF_8);
+            this.zipOutput.setMethod(ZipOutputStream.STORED);
+        }
+
+        @Override
+        public long addFile(String entryName, File file) throws IOException
+        {
+            ZipEntry entry = new ZipEntry(entryName);
+            entry.setTime(file.lastModified());
+            entry.setMethod(ZipEntry.STORED);
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                long size = fileChannel.size();
+                entry.setSize(size);
+                entry.setCompressedSize(size);
+                entry.setCrc(calculateCrc(fileChannel));
+                zipOutput.putNextEntry(entry);
+                fileChannel.position(0);
+                long copied = IOUtils.copyLarge(Channels.newInputStream(fileChannel), zipOutput);
+                // the zip stream checks the size and CRC of the entry as it is closed
+                zipOutput.closeEntry();
+                return copied;
+            }
+        }
+
+        private static long calculateCrc(FileChannel fileChannel) throws IOException
+        {
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (fileChannel.read(buffer) >= 0)
+            {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+            return crc.getValue();
+        }
+
+        @Override
+        public void finish() throws IOException
+        {
+            zipOutput.finish();
+            zipOutput.flush();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package au.csiro.casda.access.util;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A single byte range of a file as requested using an HTTP Range header (see RFC 7233). Positions are zero-based and
+ * inclusive.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class ByteRange
+{
+    /** The only range unit we support. */
+    public static final String BYTES_UNIT = "bytes";
+
+    /**
+     * The maximum number of ranges we will honour in a single request. Requests asking for more than this are served
+     * as a normal full download, as permitted by RFC 7233 section 3.1.
+     */
+    public static final int MAX_RANGES = 100;
+
+    private final long start;
+
+    private final long end;
+
+    /**
+     * Constructor
+     *
+     * @param start
+     *            the position of the first byte in the range
+     * @param end
+     *            the position of the last byte in the range
+     */
+    public ByteRange(long start, long end)
+    {
+        if (start < 0 || end < start)
+        {
+            throw new IllegalArgumentException("Invalid byte range " + start + "-" + end);
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart()
+    {
+        return start;
+    }
+
+    public long getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * @return the number of bytes in the range
+     */
+    public long getLength()
+    {
+        return end - start + 1;
+    }
+
+    /**
+     * Builds the value of the Content-Range header for this range.
+     *
+     * @param fileLength
+     *            the full length of the file in bytes
+     * @return the header value, e.g. <code>bytes 0-499/1234</code>
+     */
+    public String toContentRange(long fileLength)
+    {
+        return String.format("%s %d-%d/%d", BYTES_UNIT, start, end, fileLength);
+    }
+
+    /**
+     * Builds the value of the Content-Range header to be sent with a 416 (Range Not Satisfiable) response.
+     *
+     * @param fileLength
+     *            the full length of the file in bytes
+     * @return the header value, e.g. <code>bytes *&#47;1234</code>
+     */
+    public static String toUnsatisfiedContentRange(long fileLength)
+    {
+        return String.format("%s */%d", BYTES_UNIT, fileLength);
+    }
+
+    /**
+     * Parses the value of an HTTP Range header against a file of the given length. The result will be:
+     * <ul>
+     * <li>null if the header is absent, malformed, uses an unsupported unit, asks for too many ranges or for more
+     * bytes in total than the file holds - in each of these cases the header should be ignored and the whole file
+     * sent,</li>
+     * <li>an empty list if the header is valid but none of the ranges can be satisfied, or</li>
+     * <li>the list of satisfiable ranges clipped to the end of the file, with overlapping or adjacent ranges merged
+     * and in order of their position in the file, as RFC 7233 section 4.1 allows.</li>
+     * </ul>
+     *
+     * @param rangeHeader
+     *            the value of the Range header, may be null
+     * @param fileLength
+     *            the full length of the file in bytes
+     * @return the list of ranges as described above
+     */
+    public static List<ByteRange> parse(String rangeHeader, long fileLength)
+    {
+        if (StringUtils.isBlank(rangeHeader))
+        {
+            return null;
+        }
+        String header = rangeHeader.trim();
+        int equalsPos = header.indexOf('=');
+        if (equalsPos < 0 || !BYTES_UNIT.equalsIgnoreCase(header.substring(0, equalsPos).trim()))
+        {
+            return null;
+        }
+
+        String[] specs = header.substring(equalsPos + 1).split(",");
+        if (specs.length > MAX_RANGES)
+        {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String rawSpec : specs)
+        {
+            String spec = rawSpec.trim();
+            int dashPos = spec.indexOf('-');
+            if (dashPos < 0)
+            {
+                return null;
+            }
+            String first = spec.substring(0, dashPos).trim();
+            String last = spec.substring(dashPos + 1).trim();
+            try
+            {
+                if (first.isEmpty())
+                {
+                    // suffix-byte-range-spec, i.e. the last N bytes of the file
+                    long suffixLength = parseNonNegative(last);
+                    if (suffixLength > 0 && fileLength > 0)
+                    {
+                        ranges.add(new ByteRange(Math.max(0, fileLength - suffixLength), fileLength - 1));
+                    }
+                }
+                else
+                {
+                    long start = parseNonNegative(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : parseNonNegative(last);
+                    if (end < start)
+                    {
+                        // syntactically invalid, so the whole header must be ignored
+                        return null;
+                    }
+                    // a range starting beyond the end of the file can't be satisfied, so it is left out
+                    if (start < fileLength)
+                    {
+                        ranges.add(new ByteRange(start, Math.min(end, fileLength - 1)));
+                    }
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+        return merge(ranges, fileLength);
+    }
+
+    /*
+     * Sorts the ranges and merges those which overlap or are adjacent, so that no byte is sent twice. Returns null if
+     * the ranges add up to more than the whole file, as sending them would cost more than sending the file once (see
+     * RFC 7233 section 6.1).
+     */
+    private static List<ByteRange> merge(List<ByteRange> ranges, long fileLength)
+    {
+        long requestedLength = 0;
+        for (ByteRange range : ranges)
+        {
+            requestedLength += range.getLength();
+        }
+        if (requestedLength > fileLength)
+        {
+            return null;
+        }
+        ranges.sort(Comparator.comparingLong(ByteRange::getStart));
+        List<ByteRange> merged = new ArrayList<>();
+        for (ByteRange range : ranges)
+        {
+            ByteRange last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range.getStart() <= last.getEnd() + 1)
+            {
+                merged.set(merged.size() - 1, new ByteRange(last.getStart(), Math.max(last.getEnd(), range.getEnd())));
+            }
+            else
+            {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    private static long parseNonNegative(String value)
+    {
+        if (value.isEmpty() || !StringUtils.isNumeric(value))
+        {
+            throw new NumberFormatException("Not a valid byte position '" + value + "'");
+        }
+        return Long.parseLong(value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return start + "-" + end;
+    }
+}
@@ -0,0 +1,207 @@
+package au.csiro.casda.access.util;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Helpers for the HTTP validators (ETag and Last-Modified) of downloaded files and for evaluating the conditional
+ * request headers that use them (see RFC 7232 and RFC 7233).
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class HttpValidators
+{
+    private static final String CHECKSUM_EXTENSION = ".checksum";
+
+    private static final String WEAK_PREFIX = "W/";
+
+    /**
+     * Builds a strong entity tag for a file on disk. If the file has an accompanying checksum file that is at least as
+     * new as the file then the stored checksum is used, otherwise the tag is derived from the file's inode, size and
+     * modification time.
+     *
+     * @param file
+     *            the file (or a link to the file)
+     * @return the quoted entity tag, or null if the file's attributes could not be read
+     */
+    public static String createEntityTag(File file)
+    {
+        File checksumFile = new File(file.getPath() + CHECKSUM_EXTENSION);
+        if (checksumFile.isFile() && checksumFile.lastModified() >= file.lastModified())
+        {
+            try
+            {
+                String checksum = FileUtils.readFileToString(checksumFile, StandardCharsets.US_ASCII).trim();
+                if (StringUtils.isNotBlank(checksum))
+                {
+                    return quote(checksum.replaceAll("\\s+", "-"));
+                }
+            }
+            catch (IOException e)
+            {
+                // fall back to using the file attributes
+            }
+        }
+
+        try
+        {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            Object fileKey = attributes.fileKey();
+            return quote(String.format("%x-%x-%x", fileKey == null ? 0 : fileKey.hashCode(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis()));
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Builds a strong entity tag from a checksum reported for a file by another system (e.g. NGAS).
+     *
+     * @param checksum
+     *            the checksum value
+     * @return the quoted entity tag, or null if no checksum was supplied
+     */
+    public static String createEntityTag(String checksum)
+    {
+        return StringUtils.isBlank(checksum) ? null : quote(checksum.trim().replaceAll("\\s+", "-"));
+    }
+
+    /**
+     * Adds the validator headers to the response and then evaluates the If-None-Match and If-Modified-Since headers of
+     * the request. If the client's copy is still current, the response status is set to 304 (Not Modified) and no
+     * content should be sent.
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @param entityTag
+     *            the current entity tag of the resource, may be null
+     * @param lastModified
+     *            the modification time of the resource in milliseconds, or a negative number if unknown
+     * @return true if a 304 response has been set up and the content must not be sent
+     */
+    public static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String entityTag,
+            long lastModified)
+    {
+        if (entityTag != null)
+        {
+            response.setHeader(HttpHeaders.ETAG, entityTag);
+        }
+        if (lastModified >= 0)
+        {
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        }
+
+        boolean notModified;
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (StringUtils.isNotBlank(ifNoneMatch))
+        {
+            // If-None-Match takes precedence over If-Modified-Since (RFC 7232 section 6)
+            notModified = entityTag != null && matchesAny(ifNoneMatch, entityTag);
+        }
+        else
+        {
+            long ifModifiedSince = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+            notModified = ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+
+        if (notModified)
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    /**
+     * Checks the If-Range header (if any) of the request against the current state of a resource. A range request
+     * should only be honoured if the resource hasn't changed since the client retrieved the first part of it.
+     *
+     * @param request
+     *            the request
+     * @param entityTag
+     *            the current entity tag of the resource, may be null
+     * @param lastModified
+     *            the modification time of the resource in milliseconds
+     * @return true if the request either has no If-Range header or its validator matches the resource.
+     */
+    public static boolean isIfRangeSatisfied(HttpServletRequest request, String entityTag, long lastModified)
+    {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (StringUtils.isBlank(ifRange))
+        {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith(WEAK_PREFIX))
+        {
+            // If-Range requires a strong comparison
+            return entityTag != null && ifRange.equals(entityTag);
+        }
+        // HTTP dates only have a precision of one second
+        long ifRangeDate = getDateHeader(request, HttpHeaders.IF_RANGE);
+        return ifRangeDate >= 0 && ifRangeDate / 1000 == lastModified / 1000;
+    }
+
+    /*
+     * If-None-Match uses the weak comparison function, i.e. the W/ prefix is ignored.
+     */
+    private static boolean matchesAny(String headerValue, String entityTag)
+    {
+        if ("*".equals(headerValue.trim()))
+        {
+            return true;
+        }
+        String opaqueTag = StringUtils.removeStart(entityTag, WEAK_PREFIX);
+        for (String candidate : headerValue.split(","))
+        {
+            if (StringUtils.removeStart(candidate.trim(), WEAK_PREFIX).equals(opaqueTag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name)
+    {
+        try
+        {
+            return request.getDateHeader(name);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // an unparseable date must be ignored
+            return -1;
+        }
+    }
+
+    private static String quote(String value)
+    {
+        return "\"" + value.replace("\"", "") + "\"";
+    }
+}
@@ -5,13 +5,19 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -28,6 +34,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
+import org.springframework.data.repository.CrudRepository;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -42,6 +49,7 @@ import au.csiro.casda.access.ImageFormat;
 import au.csiro.casda.access.JobDto;
 import au.csiro.casda.access.ResourceIllegalStateException;
 import au.csiro.casda.access.ResourceNotFoundException;
+import au.csiro.casda.access.ServiceUnavailableException;
 import au.csiro.casda.access.SizeLimitReachedException;
 import au.csiro.casda.access.cache.CacheException;
 import au.csiro.casda.access.cache.CacheManagerInterface;
@@ -221,6 +229,10 @@ public class AccessJobManager
 
     private static final Logger logger = LoggerFactory.getLogger(AccessJobManager.class);
 
+    private static final int RESTORE_RETRY_AFTER_SECONDS = 30;
+
+    private static final int FIND_ALL_BATCH_SIZE = 1000;
+
     private final String baseUrl;
 
     private final long categoryAJobMaxSize;
@@ -278,11 +290,20 @@ public class AccessJobManager
     private DataAccessService dataAccessService;
     
     private CasdaMailService casdaMailService;
+
+    private JobSchedulingPolicy jobSchedulingPolicy;
+
+    private DataAccessJobJournal dataAccessJobJournal;
+
+    /** Released once the job queues have been restored from their backup */
+    private volatile CountDownLatch queuesRestored = new CountDownLatch(0);
     
     private int expiryNotificationPeriod;
 
     private int hoursToExpiryDefault;
 
+    private long restoreWaitMillis;
+
     /**
      * Constructor
      * 
@@ -320,6 +341,10 @@ public class AccessJobManager
      *            The dataAccessService
      * @param casdaMailService
      * 			  the email service for sending user notifications
+     * @param jobSchedulingPolicy
+     *            the policy deciding the order of jobs in the category A and B queues
+     * @param dataAccessJobJournal
+     *            the journal of changes made to the job queues since they were last backed up
      * @param baseUrl
      *            the uws base url
      * @param categoryAMaxRunningJobs
@@ -340,6 +365,8 @@ public class AccessJobManager
      * 			  the amount of notice users get before their job expires
      * @param hoursToExpiryDefault
      *            the default number of hours until a job will expire
+     * @param restoreWaitMillis
+     *            how long a request waits for the job queues to be restored before it is refused
      */
     @Autowired
     public AccessJobManager(EntityManagerFactory emf, DataAccessJobRepository dataAccessJobRepository,
@@ -350,8 +377,8 @@ public class AccessJobManager
             EvaluationFileRepository evaluationFileRepository, CacheManagerInterface cacheManager, 
             UWSFactory uwsFactory, UWSFileManager uwsFileManager, GenerateFileService generateFileService, 
             JobManager slurmJobManager, DataAccessService dataAccessService,
-            CasdaMailService casdaMailService,
-            @Value("${uws.baseurl}") String baseUrl,
+            CasdaMailService casdaMailService, JobSchedulingPolicy jobSchedulingPolicy,
+            DataAccessJobJournal dataAccessJobJournal, @Value("${uws.baseurl}") String baseUrl,
             @Value("${uws.category.a.maxrunningjobs}") int categoryAMaxRunningJobs,
             @Value("${uws.category.b.maxrunningjobs}") int categoryBMaxRunningJobs,
             @Value("${admin.ui.availablejobs.days}") int displayDaysOfAvailableJobs,
@@ -360,7 +387,8 @@ public class AccessJobManager
             @Value("${download.base.url}") String fileDownloadBaseUrl,
             @Value("${siap.shared.secret.key}") String dataLinkAccessSecretKey,
             @Value("${email.expiry.notification.period}") int expiryNotificationPeriod,
-            @Value("${hours.to.expiry.default}") int hoursToExpiryDefault)
+            @Value("${hours.to.expiry.default}") int hoursToExpiryDefault,
+            @Value("${uws.restore.wait.millis}") long restoreWaitMillis)
     {
         this.emf = emf;
         this.dataAccessJobRepository = dataAccessJobRepository;
@@ -387,8 +415,11 @@ public class AccessJobManager
         this.encapsulationFileRepository = encapsulationFileRepository;
         this.evaluationFileRepository = evaluationFileRepository;
         this.casdaMailService = casdaMailService;
+        this.jobSchedulingPolicy = jobSchedulingPolicy;
+        this.dataAccessJobJournal = dataAccessJobJournal;
         this.expiryNotificationPeriod = expiryNotificationPeriod;
         this.hoursToExpiryDefault = hoursToExpiryDefault;
+        this.restoreWaitMillis = restoreWaitMillis;
     }
 
     /**
@@ -414,7 +445,12 @@ public class AccessJobManager
         for(int pageNum = 0; pageNum < paging.size(); pageNum++)
         {
         	List<DownloadFile> files = dataAccessService.getPageOfFiles(paging.get(pageNum), dataAccessJob);
-        	runImmediately &= cacheManager.allFilesAvailableInCache(files);
+        	if (!cacheManager.allFilesAvailableInCache(files))
+        	{
+        	    // no need to look up the rest of the files once one isn't in the cache
+        	    runImmediately = false;
+        	    break;
+        	}
         }
         
         // if all the files are already available in the cache, run the job immediately
@@ -438,37 +474,34 @@ public class AccessJobManager
     /**
      * scheduled job which checks for expiring data access jobs and sends out notifications for those expiring within
      * the given window, period in properties &amp; period ,minus one day, this will stop multiple notifications 
-     * from being sent out
+     * from being sent out. Expired jobs are updated in bulk, and the emails are queued to be sent in the background
+     * so a large backlog doesn't hold up the other scheduled tasks.
      */
     @Scheduled(cron = "${email.expiring.period}")
     public void handleStatusAndNotificationsForExpiringJobs()
     {
         logger.info("Started actioning expiring jobs");
         int numEmails = 0;
-    	for(DataAccessJob job : 
-    		dataAccessJobRepository.findAllJobsForExpiryNotification(new DateTime().plusDays(expiryNotificationPeriod), 
-    				new DateTime().plusDays(expiryNotificationPeriod-1)))
-    	{
-    		casdaMailService.sendEmail(job, CasdaMailService.EXPIRING_EMAIL, CasdaMailService.EXPIRING_EMAIL_SUBJECT);
-    		numEmails++;
-    	}
-    	for(DataAccessJob job : dataAccessJobRepository.findExpiredJobs())
-    	{
-    		casdaMailService.sendEmail(job, CasdaMailService.EXPIRED_EMAIL, CasdaMailService.EXPIRED_EMAIL_SUBJECT);
+        DateTime notifyBefore = new DateTime().plusDays(expiryNotificationPeriod);
+        for (DataAccessJob job : dataAccessService.findJobsForExpiryNotification(notifyBefore,
+                notifyBefore.minusDays(1)))
+        {
+            casdaMailService.queueEmail(job, CasdaMailService.EXPIRING_EMAIL, CasdaMailService.EXPIRING_EMAIL_SUBJECT);
             numEmails++;
-    		job.setStatus(DataAccessJobStatus.EXPIRED);
-    		dataAccessJobRepository.save(job);
-    	}
-    	// Expire any old preparing jobs
-    	DateTime newestCreationTime = new DateTime().minusHours(hoursToExpiryDefault);
-        for(DataAccessJob job : dataAccessJobRepository.findPreparingJobsOlderThanTime(newestCreationTime))
+        }
+        for (DataAccessJob job : dataAccessService.expireReadyJobs())
+        {
+            casdaMailService.queueEmail(job, CasdaMailService.EXPIRED_EMAIL, CasdaMailService.EXPIRED_EMAIL_SUBJECT);
+            numEmails++;
+        }
+        // Expire any old preparing jobs
+        DateTime newestCreationTime = new DateTime().minusHours(hoursToExpiryDefault);
+        List<String> expiredPreparingJobs = dataAccessService.expirePreparingJobsCreatedBefore(newestCreationTime);
+        if (!expiredPreparingJobs.isEmpty())
         {
-            logger.info("Expiring old unstarted job " + job.getRequestId());
-            job.setStatus(DataAccessJobStatus.EXPIRED);
-            job.setExpiredTimestamp(new DateTime());
-            dataAccessJobRepository.save(job);
+            logger.info("Expired old unstarted jobs " + expiredPreparingJobs);
         }
-        logger.info("Finished actioning expiring jobs. " + numEmails + " emails sent.");
+        logger.info("Finished actioning expiring jobs. " + numEmails + " emails queued.");
     }
     
     /**
@@ -484,28 +517,7 @@ public class AccessJobManager
     		//jobs which are completing or executing return 0, also jobs which have been removed.
     		return 0;
     	}
-    	Iterator<UWSJob> jobList = 
-    			((PriorityQueueExecutionManager) uwsJob.getJobList().getExecutionManager()).getQueuedJobs();
-
-    	int count = 1;
-    	
-    	while(jobList.hasNext())
-    	{
-    		UWSJob job = jobList.next();
-    		if(job == uwsJob)
-    		{
-    			break;
-    		}
-    		else
-    		{
-    			if(!job.isFinished())
-    			{
-        			count++;
-    			}
-    		}
-    	}
-    	
-		return count;
+    	return ((PriorityQueueExecutionManager) uwsJob.getJobList().getExecutionManager()).getQueuePosition(uwsJob);
     }
 
 
@@ -539,6 +551,51 @@ public class AccessJobManager
      */
     public DataAccessJob createDataAccessJob(JobDto job, Long sizeLimit, boolean createDataProducts)
             throws SizeLimitReachedException
+    {
+        // refuse the request before the job is stored, as it couldn't be queued until the restore has finished
+        awaitRestore();
+        DataAccessJob dataAccessJob = buildDataAccessJob(job, sizeLimit, createDataProducts);
+		dataAccessJob.setStatus(DataAccessJobStatus.PREPARING);
+        casdaMailService.sendEmail(dataAccessJob, CasdaMailService.CREATED_EMAIL, CasdaMailService.CREATED_EMAIL_SUBJECT);   
+        dataAccessJob = dataAccessJobRepository.save(dataAccessJob);
+
+        logger.info("{}", CasdaDataAccessEvents.E037.messageBuilder().add(dataAccessJob.getDownloadMode())
+                .add(dataAccessJob.getRequestId()));
+
+        return dataAccessJob;
+    }
+
+    /**
+     * Records a request which is serviced immediately, without a UWS job, e.g. an unfiltered SODA sync download of a
+     * file that is already on disk. The DataAccessJob is stored with a single insert, already marked as READY, so that
+     * the access is recorded the same way as for any other request.
+     * 
+     * @param job
+     *            the data access job details
+     * @param sizeLimit
+     *            ignored if null, otherwise will only record the job if it is less than or equal to the size limit
+     * @param expiryTime
+     *            when the job will expire
+     * @return recorded data access job
+     * @throws SizeLimitReachedException
+     *             if the size limit is not null, and the job size is greater than the size limit
+     */
+    public DataAccessJob recordCompletedDataAccessJob(JobDto job, Long sizeLimit, DateTime expiryTime)
+            throws SizeLimitReachedException
+    {
+        DataAccessJob dataAccessJob = buildDataAccessJob(job, sizeLimit, true);
+        dataAccessJob.setStatus(DataAccessJobStatus.READY);
+        dataAccessJob.setAvailableTimestamp(dataAccessJob.getCreatedTimestamp());
+        dataAccessJob.setExpiredTimestamp(expiryTime);
+        dataAccessJob = dataAccessJobRepository.save(dataAccessJob);
+
+        logger.info("{}", CasdaDataAccessEvents.E037.messageBuilder().add(dataAccessJob.getDownloadMode())
+                .add(dataAccessJob.getRequestId()));
+
+        return dataAccessJob;
+    }
+
+    private DataAccessJob buildDataAccessJob(JobDto job, Long sizeLimit, boolean createDataProducts)
     {
         DataAccessJob dataAccessJob = new DataAccessJob();
         dataAccessJob.setUserIdent(job.getUserIdent());
@@ -558,13 +615,6 @@ public class AccessJobManager
         dataAccessJob.setCreatedTimestamp(now);
         dataAccessJob.setLastModified(now);
         dataAccessJob.setRequestId(UUID.randomUUID().toString());
-		dataAccessJob.setStatus(DataAccessJobStatus.PREPARING);
-        casdaMailService.sendEmail(dataAccessJob, CasdaMailService.CREATED_EMAIL, CasdaMailService.CREATED_EMAIL_SUBJECT);   
-        dataAccessJob = dataAccessJobRepository.save(dataAccessJob);
-
-        logger.info("{}", CasdaDataAccessEvents.E037.messageBuilder().add(dataAccessJob.getDownloadMode())
-                .add(dataAccessJob.getRequestId()));
-
         return dataAccessJob;
     }
 
@@ -593,47 +643,80 @@ public class AccessJobManager
         long fileSizeKb = 0l;
         if (ids != null)
         {
+            List<DataAccessDataProduct> dataAccessProducts = new ArrayList<>();
+            Map<DataAccessProductType, Set<Long>> idsByType = new EnumMap<>(DataAccessProductType.class);
             for (String id : ids)
             {
                 DataAccessDataProduct dataAccessProduct = new DataAccessDataProduct(id);
+                dataAccessProducts.add(dataAccessProduct);
+                Set<Long> idsOfType = idsByType.get(dataAccessProduct.getDataAccessProductType());
+                if (idsOfType == null)
+                {
+                    idsOfType = new LinkedHashSet<>();
+                    idsByType.put(dataAccessProduct.getDataAccessProductType(), idsOfType);
+                }
+                idsOfType.add(dataAccessProduct.getId());
+            }
+
+            // Load each type of data product in one query, rather than one query per requested product
+            Map<Long, ImageCube> imageCubes = findAllById(imageCubeRepository,
+                    idsByType.get(DataAccessProductType.cube), ImageCube::getId);
+            Map<Long, Spectrum> spectra = findAllById(spectrumRepository,
+                    idsByType.get(DataAccessProductType.spectrum), Spectrum::getId);
+            Map<Long, MomentMap> momentMaps = findAllById(momentMapRepository,
+                    idsByType.get(DataAccessProductType.moment_map), MomentMap::getId);
+            Map<Long, Cubelet> cubelets = findAllById(cubeletRepository,
+                    idsByType.get(DataAccessProductType.cubelet), Cubelet::getId);
+            Map<Long, MeasurementSet> measurementSets = findAllById(measurementSetRepository,
+                    idsByType.get(DataAccessProductType.visibility), MeasurementSet::getId);
+            Map<Long, Catalogue> catalogues = findAllById(catalogueRepository,
+                    idsByType.get(DataAccessProductType.catalogue), Catalogue::getId);
+            Map<Long, EncapsulationFile> encapsulationFiles = findAllById(encapsulationFileRepository,
+                    idsByType.get(DataAccessProductType.encap), EncapsulationFile::getId);
+            Map<Long, EvaluationFile> evaluationFiles = findAllById(evaluationFileRepository,
+                    idsByType.get(DataAccessProductType.evaluation), EvaluationFile::getId);
+
+            for (DataAccessDataProduct dataAccessProduct : dataAccessProducts)
+            {
+                Long id = dataAccessProduct.getId();
                 switch (dataAccessProduct.getDataAccessProductType())
                 {
                 case cube:
                     if (DataAccessUtil.imageCutoutsShouldBeCreated(dataAccessJob, dataLinkAccessSecretKey))
                     {
-                        fileSizeKb += addImageCutouts(dataAccessJob, dataAccessProduct, dataAccessJob.getParamMap(),
-                                paramsWithoutCutouts);
+                        fileSizeKb += addImageCutouts(dataAccessJob, dataAccessProduct, imageCubes.get(id),
+                                dataAccessJob.getParamMap(), paramsWithoutCutouts);
                     }
                     else if (DataAccessUtil.spectrumShouldBeCreated(dataAccessJob, dataLinkAccessSecretKey))
                     {
-                        fileSizeKb += addGeneratedSpectra(dataAccessJob, dataAccessProduct, dataAccessJob.getParamMap(),
-                                paramsWithoutCutouts);
+                        fileSizeKb += addGeneratedSpectra(dataAccessJob, dataAccessProduct, imageCubes.get(id),
+                                dataAccessJob.getParamMap(), paramsWithoutCutouts);
                     }
                     else
                     {
-                        fileSizeKb += addImageCube(dataAccessJob, dataAccessProduct);
+                        fileSizeKb += addImageCube(dataAccessJob, dataAccessProduct, imageCubes.get(id));
                     }
                     break;
                 case spectrum:
-                    fileSizeKb += addSpectrum(dataAccessJob, dataAccessProduct);
+                    fileSizeKb += addSpectrum(dataAccessJob, dataAccessProduct, spectra.get(id));
                     break;
                 case moment_map:
-                    fileSizeKb += addMomentMap(dataAccessJob, dataAccessProduct);
+                    fileSizeKb += addMomentMap(dataAccessJob, dataAccessProduct, momentMaps.get(id));
                     break;
                 case cubelet:
-                    fileSizeKb += addCubelet(dataAccessJob, dataAccessProduct);
+                    fileSizeKb += addCubelet(dataAccessJob, dataAccessProduct, cubelets.get(id));
                     break;
                 case visibility:
-                    fileSizeKb += addMeasurementSet(dataAccessJob, dataAccessProduct);
+                    fileSizeKb += addMeasurementSet(dataAccessJob, dataAccessProduct, measurementSets.get(id));
                     break;
                 case catalogue:
-                    addCatalogue(dataAccessJob, dataAccessProduct);
+                    addCatalogue(dataAccessJob, dataAccessProduct, catalogues.get(id));
                     break;
                 case encap:
-                	addEncapsulationFile(dataAccessJob, dataAccessProduct);
+                	addEncapsulationFile(dataAccessJob, dataAccessProduct, encapsulationFiles.get(id));
                 	break;
                 case evaluation:
-                    fileSizeKb += addEvaluationFile(dataAccessJob, dataAccessProduct);
+                    fileSizeKb += addEvaluationFile(dataAccessJob, dataAccessProduct, evaluationFiles.get(id));
                     break;
                 default:
                     throw new IllegalArgumentException(
@@ -667,6 +750,37 @@ public class AccessJobManager
         dataAccessJob.addError(message);
     }
 
+    /**
+     * Loads a set of entities in as few queries as possible, batching the ids so that a very large request doesn't
+     * exceed the database's limit on the size of a query.
+     * 
+     * @param repository
+     *            the repository holding the entities
+     * @param ids
+     *            the ids of the entities to load, may be null if there are none
+     * @param idGetter
+     *            a function to get the id of a loaded entity
+     * @return the entities which were found, keyed by id
+     */
+    private <T> Map<Long, T> findAllById(CrudRepository<T, Long> repository, Set<Long> ids,
+            Function<T, Long> idGetter)
+    {
+        Map<Long, T> entities = new HashMap<>();
+        if (ids != null && !ids.isEmpty())
+        {
+            List<Long> idList = new ArrayList<>(ids);
+            for (int start = 0; start < idList.size(); start += FIND_ALL_BATCH_SIZE)
+            {
+                List<Long> batch = idList.subList(start, Math.min(start + FIND_ALL_BATCH_SIZE, idList.size()));
+                for (T entity : repository.findAll(batch))
+                {
+                    entities.put(idGetter.apply(entity), entity);
+                }
+            }
+        }
+        return entities;
+    }
+
     /**
      * Prepares an async job to start, by reading the request information from the data access job's param map, and
      * either calculating the cutouts that will be generated (if relevant). It will link to the requested entities
@@ -682,6 +796,7 @@ public class AccessJobManager
      */
     public DataAccessJob prepareAsyncJobToStart(String jobId, String[] dataProductIds, Long sizeLimit)
     {
+        awaitRestore();
         DataAccessJob dataAccessJob = dataAccessJobRepository.findByRequestId(jobId);
         createDataAccessProducts(dataProductIds, dataAccessJob, sizeLimit);
         return dataAccessJobRepository.save(dataAccessJob);
@@ -711,7 +826,15 @@ public class AccessJobManager
 
             logger.debug("Putting job id {} on queue {}", job.getJobId(), uwsJobQueue.getName());
 
-            uwsJobQueue.addNewJob(job);
+            DataAccessJobBackupManager backupManager = getBackupManager();
+            if (backupManager != null)
+            {
+                backupManager.addNewJob(uwsJobQueue, job);
+            }
+            else
+            {
+                uwsJobQueue.addNewJob(job);
+            }
         }
         catch (UWSException ex)
         {
@@ -736,8 +859,14 @@ public class AccessJobManager
         if (job != null && job.getJobList() != null
                 && job.getJobList().getExecutionManager() instanceof PriorityQueueExecutionManager)
         {
-            return ((PriorityQueueExecutionManager) job.getJobList().getExecutionManager()).sendToPosition(requestId,
-                    position);
+            boolean moved = ((PriorityQueueExecutionManager) job.getJobList().getExecutionManager())
+                    .sendToPosition(requestId, position);
+            DataAccessJobBackupManager backupManager = getBackupManager();
+            if (moved && backupManager != null)
+            {
+                backupManager.jobMoved(requestId, job.getJobList().getName(), position);
+            }
+            return moved;
         }
         else
         {
@@ -762,6 +891,7 @@ public class AccessJobManager
     public void retryJob(String requestId)
             throws ResourceNotFoundException, ResourceIllegalStateException, ScheduleJobException
     {
+        awaitRestore();
         DataAccessJob dataAccessJob = dataAccessJobRepository.findByRequestId(requestId);
         if (dataAccessJob == null)
         {
@@ -885,6 +1015,11 @@ public class AccessJobManager
         {
             logger.debug("Final state for job '" + requestId + "' after abort is '" + postAbortPhase + "'");
         }
+        DataAccessJobBackupManager backupManager = getBackupManager();
+        if (backupManager != null && UWS_JOB_FINISHED_EXECUTION_PHASES.contains(postAbortPhase))
+        {
+            backupManager.jobFinished(requestId, postAbortPhase);
+        }
 
         return job;
     }
@@ -1075,6 +1210,7 @@ public class AccessJobManager
     public void scheduleJob(String requestId)
             throws ResourceNotFoundException, ResourceIllegalStateException, ScheduleJobException
     {
+        awaitRestore();
         DataAccessJob dataAccessJob = dataAccessJobRepository.findByRequestId(requestId);
         if (dataAccessJob == null)
         {
@@ -1103,7 +1239,86 @@ public class AccessJobManager
             throw new ScheduleJobException("Some of the requested files are large and not currently available.");
         }
 
-        executeUWSJob(paramMap, jobList);
+        if (jobList.getExecutionManager() instanceof PriorityQueueExecutionManager)
+        {
+            PriorityQueueExecutionManager executionManager =
+                    (PriorityQueueExecutionManager) jobList.getExecutionManager();
+            executionManager.putSchedulingDetails(dataAccessJob.getRequestId(),
+                    new JobSchedulingDetails(dataAccessJob.getUserIdent(), dataAccessJob.getSizeKb(),
+                            getCachedFraction(dataAccessJob), System.currentTimeMillis()));
+            executeUWSJob(paramMap, jobList);
+            executionManager.applySchedulingPolicy();
+        }
+        else
+        {
+            executeUWSJob(paramMap, jobList);
+        }
+    }
+
+    /**
+     * Works out how much of a job's data is already available in the cache.
+     * 
+     * @param dataAccessJob
+     *            the data access job
+     * @return the fraction (between 0 and 1) of the job's size which is already in the cache
+     */
+    private double getCachedFraction(DataAccessJob dataAccessJob)
+    {
+        if (dataAccessJob.getSizeKb() <= 0)
+        {
+            return 0;
+        }
+        long availableSizeKb = 0;
+        for (Map<FileType, Integer[]> page : dataAccessService.getPaging(dataAccessJob.getRequestId(), false))
+        {
+            availableSizeKb +=
+                    cacheManager.getAvailableSizeKb(dataAccessService.getPageOfFiles(page, dataAccessJob));
+        }
+        return (double) availableSizeKb / dataAccessJob.getSizeKb();
+    }
+
+    /**
+     * Reorders the category A and B queues, so that jobs which have been waiting a long time move up the queue.
+     */
+    @Scheduled(fixedDelayString = "${uws.scheduling.refresh.millis}")
+    public void applySchedulingPolicies()
+    {
+        if (!isRestored())
+        {
+            return;
+        }
+        for (JobList jobList : Arrays.asList(categoryAJobList, categoryBJobList))
+        {
+            if (jobList != null && jobList.getExecutionManager() instanceof PriorityQueueExecutionManager)
+            {
+                ((PriorityQueueExecutionManager) jobList.getExecutionManager()).applySchedulingPolicy();
+            }
+        }
+    }
+
+    /**
+     * Writes a new backup of the job queues if enough changes have been journaled since the last one.
+     */
+    @Scheduled(fixedDelayString = "${uws.journal.compaction.millis}")
+    public void compactJobJournal()
+    {
+        DataAccessJobBackupManager backupManager = getBackupManager();
+        if (backupManager != null && isRestored() && backupManager.compactJournal())
+        {
+            logger.info("Backed up UWS job queue to compact the job journal.");
+        }
+    }
+
+    /**
+     * @return the backup manager journaling changes to the job queues, or null if there isn't one
+     */
+    private DataAccessJobBackupManager getBackupManager()
+    {
+        if (uws != null && uws.getBackupManager() instanceof DataAccessJobBackupManager)
+        {
+            return (DataAccessJobBackupManager) uws.getBackupManager();
+        }
+        return null;
     }
 
     /**
@@ -1200,6 +1415,7 @@ public class AccessJobManager
         }
 
         // add all the currently running and queued jobs
+        awaitRestore();
         List<DataAccessJobDto> jobs = new ArrayList<>();
         int totalJobCount = categoryAJobList.getNbJobs() + immediateJobList.getNbJobs() + categoryBJobList.getNbJobs();
         List<UWSJob> uwsRunningAndQueuedJobs = new ArrayList<>();
@@ -1284,6 +1500,12 @@ public class AccessJobManager
     @PreDestroy
     public void backupJobQueue()
     {
+        if (!isRestored())
+        {
+            // a backup now would be missing the jobs not yet restored, so keep the last backup and journal
+            logger.warn("UWS job queue is still being restored, so has not been backed up.");
+            return;
+        }
         uws.getBackupManager().saveAll();
         logger.info("Backed up UWS job queue.");
     }
@@ -1299,19 +1521,79 @@ public class AccessJobManager
     {
         uws = new UWSService(this.uwsFactory, this.uwsFileManager, new UWSUrl(baseUrl));
         categoryAJobList = new JobList(CATEGORY_A_JOB_LIST_NAME,
-                new PriorityQueueExecutionManager(uws.getLogger(), categoryAMaxRunningJobs));
+                new PriorityQueueExecutionManager(uws.getLogger(), categoryAMaxRunningJobs, jobSchedulingPolicy));
         uws.addJobList(categoryAJobList);
         categoryBJobList = new JobList(CATEGORY_B_JOB_LIST_NAME,
-                new PriorityQueueExecutionManager(uws.getLogger(), categoryBMaxRunningJobs));
+                new PriorityQueueExecutionManager(uws.getLogger(), categoryBMaxRunningJobs, jobSchedulingPolicy));
         uws.addJobList(categoryBJobList);
 
         // Set the immediate job list to run with no queue - ie all get started immediately
         immediateJobList = new JobList(IMMEDIATE_JOB_LIST_NAME, new QueuedExecutionManager(uws.getLogger()));
         uws.addJobList(immediateJobList);
 
-        uws.setBackupManager(new DataAccessJobBackupManager(uws));
-        // try and restore previous jobs
-        uws.getBackupManager().restoreAll();
+        DataAccessJobBackupManager backupManager = new DataAccessJobBackupManager(uws, dataAccessJobJournal);
+        uws.setBackupManager(backupManager);
+        // try and restore previous jobs in the background, anything using the queues waits until they are restored
+        CountDownLatch restored = new CountDownLatch(1);
+        queuesRestored = restored;
+        Thread restoreThread = new Thread(() -> {
+            try
+            {
+                backupManager.restoreAll();
+            }
+            catch (RuntimeException e)
+            {
+                logger.error("Unable to restore the UWS job queue", e);
+            }
+            finally
+            {
+                restored.countDown();
+            }
+        }, "uws-restore");
+        restoreThread.setDaemon(true);
+        restoreThread.start();
+    }
+
+    /**
+     * @return true once the job queues have been restored from their backup
+     */
+    public boolean isRestored()
+    {
+        return queuesRestored.getCount() == 0;
+    }
+
+    /**
+     * @return the progress of restoring the job queues from their backup, or null if the queues aren't set up
+     */
+    public UwsRestoreProgress getRestoreProgress()
+    {
+        DataAccessJobBackupManager backupManager = getBackupManager();
+        return backupManager == null ? null : backupManager.getRestoreProgress();
+    }
+
+    /**
+     * Waits a short time for the job queues to be restored from their backup, so that requests made during a long
+     * restore are refused rather than holding their threads until it finishes.
+     * 
+     * @throws ServiceUnavailableException
+     *             if the job queues are still being restored
+     */
+    private void awaitRestore() throws ServiceUnavailableException
+    {
+        try
+        {
+            if (!queuesRestored.await(restoreWaitMillis, TimeUnit.MILLISECONDS))
+            {
+                throw new ServiceUnavailableException(
+                        "The job queues are still being restored after a restart, please try again later",
+                        RESTORE_RETRY_AFTER_SECONDS);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the UWS job queue to be restored", e);
+        }
     }
 
     /**
@@ -1323,11 +1605,31 @@ public class AccessJobManager
      */
     JobList getQueue(String queue)
     {
+        awaitRestore();
         return uws.getJobList(queue);
     }
 
+    /**
+     * Gets the execution manager of a queue which has a limit on the number of running jobs.
+     * 
+     * @param queue
+     *            the name of the queue
+     * @return the execution manager, or null if there is no such queue
+     */
+    PriorityQueueExecutionManager getQueueExecutionManager(String queue)
+    {
+        // the queues aren't adjusted until they have been restored
+        JobList jobList = uws == null || !isRestored() ? null : getQueue(queue);
+        if (jobList != null && jobList.getExecutionManager() instanceof PriorityQueueExecutionManager)
+        {
+            return (PriorityQueueExecutionManager) jobList.getExecutionManager();
+        }
+        return null;
+    }
+
     List<JobList> getJobLists()
     {
+        awaitRestore();
         return Arrays.asList(this.categoryAJobList, this.categoryBJobList, this.immediateJobList);
     }
 
@@ -1444,10 +1746,9 @@ public class AccessJobManager
         return categoryAJobMaxSize;
     }
 
-    private long addImageCube(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct)
+    private long addImageCube(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct, ImageCube ic)
     {
         long fileSizeKb = 0;
-        ImageCube ic = imageCubeRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (ic != null)
         {
@@ -1462,24 +1763,23 @@ public class AccessJobManager
         return fileSizeKb;
     }
 
-    private long addImageCutouts(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct,
+    private long addImageCutouts(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct, ImageCube ic,
             ParamMap dataAccessJobParams, List<String> paramsWithoutCutouts)
     {
         long fileSizeKb = 0;
-        ImageCube ic = imageCubeRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (ic != null)
         {
             List<GeneratedFileBounds> cutoutBounds = generateFileService.calcGeneratedFileBounds(dataAccessJobParams, 
             		ic, dataAccessProduct.getDataProductId(), paramsWithoutCutouts);
+            List<ImageCubeAxis> imageCubeAxes = generateFileService.getAxisList(ic);
+            ImageCubeAxis imageCubeAxis = imageCubeAxes.isEmpty() ? null : imageCubeAxes.get(0);
             for (GeneratedFileBounds cutoutBound : cutoutBounds)
             {
                 ImageCutout cutout = new ImageCutout();
                 cutout.setImageCube(ic);
                 cutout.setBounds(cutoutBound.toString());
 
-                List<ImageCubeAxis> imageCubeAxes = generateFileService.getAxisList(ic);
-                ImageCubeAxis imageCubeAxis = imageCubeAxes.isEmpty() ? null : imageCubeAxes.get(0);
                 // estimate file size
                 double sizeOneLayer = imageCubeAxis == null
                         ? (double) ic.getFilesize() : ((double) ic.getFilesize()) / ((double) 
@@ -1500,24 +1800,23 @@ public class AccessJobManager
         return fileSizeKb;
     }
     
-    private long addGeneratedSpectra(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct,
+    private long addGeneratedSpectra(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct, ImageCube ic,
             ParamMap dataAccessJobParams, List<String> paramsWithoutSpectra)
     {
         long fileSizeKb = 0;
-        ImageCube ic = imageCubeRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (ic != null)
         {
         	 List<GeneratedFileBounds> spectraBounds = generateFileService.calcGeneratedFileBounds(dataAccessJobParams, 
              		ic, dataAccessProduct.getDataProductId(), paramsWithoutSpectra);
+             List<ImageCubeAxis> imageCubeAxes = generateFileService.getAxisList(ic);
+             ImageCubeAxis imageCubeAxis = imageCubeAxes.isEmpty() ? null : imageCubeAxes.get(0);
              for (GeneratedFileBounds spectraBound : spectraBounds)
              {
                  GeneratedSpectrum spectrum = new GeneratedSpectrum();
                  spectrum.setImageCube(ic);
                  spectrum.setBounds(spectraBound.toString());
 
-                 List<ImageCubeAxis> imageCubeAxes = generateFileService.getAxisList(ic);
-                 ImageCubeAxis imageCubeAxis = imageCubeAxes.isEmpty() ? null : imageCubeAxes.get(0);
                  // estimate file size
                  double sizeOneLayer = imageCubeAxis == null
                          ? (double) ic.getFilesize() : ((double) ic.getFilesize()) / ((double) 
@@ -1538,11 +1837,11 @@ public class AccessJobManager
         return fileSizeKb;
     }
 
-    private long addMeasurementSet(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct)
+    private long addMeasurementSet(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct,
+            MeasurementSet measurementSet)
     {
         long fileSizeKb = 0;
 
-        MeasurementSet measurementSet = measurementSetRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (measurementSet != null)
         {
@@ -1557,11 +1856,11 @@ public class AccessJobManager
         return fileSizeKb;
     }
     
-    private long addEncapsulationFile(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct)
+    private long addEncapsulationFile(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct,
+            EncapsulationFile encapFile)
     {
         long fileSizeKb = 0;
 
-        EncapsulationFile encapFile = encapsulationFileRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (encapFile != null)
         {
@@ -1576,11 +1875,11 @@ public class AccessJobManager
         return fileSizeKb;
     }
     
-    private long addEvaluationFile(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct)
+    private long addEvaluationFile(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct,
+            EvaluationFile evaluationFile)
     {
         long fileSizeKb = 0;
 
-        EvaluationFile evaluationFile = evaluationFileRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (evaluationFile != null)
         {
@@ -1595,11 +1894,11 @@ public class AccessJobManager
         return fileSizeKb;
     }
     
-    private long addSpectrum(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct)
+    private long addSpectrum(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct,
+            Spectrum spectrum)
     {
         long fileSizeKb = 0;
 
-        Spectrum spectrum = spectrumRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (spectrum != null)
         {
@@ -1614,11 +1913,11 @@ public class AccessJobManager
         return fileSizeKb;
     }
     
-    private long addMomentMap(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct)
+    private long addMomentMap(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct,
+            MomentMap momentmap)
     {
         long fileSizeKb = 0;
 
-        MomentMap momentmap = momentMapRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (momentmap != null)
         {
@@ -1633,11 +1932,11 @@ public class AccessJobManager
         return fileSizeKb;
     }
     
-    private long addCubelet(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct)
+    private long addCubelet(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct,
+            Cubelet cubelet)
     {
         long fileSizeKb = 0;
 
-        Cubelet cubelet = cubeletRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (cubelet != null)
         {
@@ -1652,9 +1951,9 @@ public class AccessJobManager
         return fileSizeKb;
     }
 
-    private void addCatalogue(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct)
+    private void addCatalogue(DataAccessJob dataAccessJob, DataAccessDataProduct dataAccessProduct,
+            Catalogue catalogue)
     {
-        Catalogue catalogue = catalogueRepository.findOne(dataAccessProduct.getId());
         // ignore missing for now - selected from screen usually
         if (catalogue != null)
         {
@@ -43,6 +43,9 @@ public class AccessUwsFactory extends AbstractUWSFactory
     
     private final String siapSharedSecretKey;
 
+    @SuppressWarnings({ "checkstyle:visibilitymodifier", "checkstyle:javadocvariable" })
+    protected final JobCompletionNotifier jobCompletionNotifier;
+
     /**
      * Create a new AccessUwsFactory instance.
      * 
@@ -56,18 +59,22 @@ public class AccessUwsFactory extends AbstractUWSFactory
      *            the number of hours to expiry for a SODA sync job
      * @param siapSharedSecretKey
      *            the key for decrypting request tokens
+     * @param jobCompletionNotifier
+     *            notified when each job thread has finished
      */
     @Autowired
     public AccessUwsFactory(DataAccessService dataAccessService, Packager packager,
             @Value("${hours.to.expiry.default}") int hoursToExpiryDefault,
             @Value("${hours.to.expiry.soda_sync}") int hoursToExpirySodaSync, 
-            @Value("${siap.shared.secret.key}") String siapSharedSecretKey)
+            @Value("${siap.shared.secret.key}") String siapSharedSecretKey,
+            JobCompletionNotifier jobCompletionNotifier)
     {
         this.dataAccessService = dataAccessService;
         this.packager = packager;
         this.hoursToExpiryDefault = hoursToExpiryDefault;
         this.hoursToExpirySodaSync = hoursToExpirySodaSync;
         this.siapSharedSecretKey = siapSharedSecretKey;
+        this.jobCompletionNotifier = jobCompletionNotifier;
     }
 
     /*
@@ -79,6 +86,6 @@ public class AccessUwsFactory extends AbstractUWSFactory
     public JobThread createJobThread(UWSJob uwsJob) throws UWSException
     {
         return new DataAccessThread(uwsJob, dataAccessService, packager, hoursToExpiryDefault, 
-        		hoursToExpirySodaSync, siapSharedSecretKey);
+        		hoursToExpirySodaSync, siapSharedSecretKey, jobCompletionNotifier);
     }
 }
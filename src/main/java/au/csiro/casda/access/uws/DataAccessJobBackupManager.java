@@ -1,19 +1,36 @@
 package au.csiro.casda.access.uws;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.apache.commons.codec.Charsets;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.json.JSONWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +44,7 @@ import uws.service.UWS;
 import uws.service.backup.DefaultUWSBackupManager;
 import uws.service.file.UWSFileManager;
 import au.csiro.casda.access.DataAccessApplication;
+import au.csiro.casda.access.uws.DataAccessJobJournal.Operation;
 import au.csiro.casda.logging.CasdaLoggingSettings;
 
 /*
@@ -43,6 +61,10 @@ import au.csiro.casda.logging.CasdaLoggingSettings;
 
 /**
  * A specialised implementation of the UWS backup manager which will restore the phase of the recovered job.
+ * <p>
+ * Changes to the job lists between full backups are recorded in a {@link DataAccessJobJournal}. On restore the last
+ * backup is read and the journal replayed over it, so jobs queued, moved or finished since the backup are restored as
+ * they were. A new backup is then written and the journal truncated, as it is whenever the journal grows too large.
  * 
  * Copyright 2015, CSIRO Australia All rights reserved.
  */
@@ -51,17 +73,502 @@ public class DataAccessJobBackupManager extends DefaultUWSBackupManager
 
     private static final Logger logger = LoggerFactory.getLogger(DataAccessJobBackupManager.class);
 
+    private static final String JOB_LIST_NAME = "jobListName";
+
+    private static final String JOB = "job";
+
+    private static final String POSITION = "position";
+
+    private static final String JOBS = "jobs";
+
+    /** The number of jobs which may have been read from the backup but not yet restored */
+    private static final int MAX_PENDING_RESTORES = 1000;
+
     private CasdaLoggingSettings loggingSettings = new CasdaLoggingSettings(DataAccessApplication.APPLICATION_NAME);
 
+    private final DataAccessJobJournal journal;
+
+    private final UwsRestoreProgress restoreProgress = new UwsRestoreProgress();
+
+    /** The state of each job changed since the last backup, read from the journal while restoring */
+    private Map<String, JournaledJob> journaledJobs;
+
+    /** The jobs moved since the last backup, in the order they were moved, read from the journal while restoring */
+    private List<JSONObject> journaledMoves;
+
+    /** The phase of each job journaled as finished which its job list may not yet show as finished */
+    private final Map<String, ExecutionPhase> finishingJobs = new ConcurrentHashMap<>();
+
     /**
-     * Create a new instance of our DataAccessJobBackupManager.
+     * Create a new instance of our DataAccessJobBackupManager which doesn't keep a journal.
      * 
      * @param uws
      *            The UWS to save/restore.
      */
     public DataAccessJobBackupManager(UWS uws)
+    {
+        this(uws, null);
+    }
+
+    /**
+     * Create a new instance of our DataAccessJobBackupManager.
+     * 
+     * @param uws
+     *            The UWS to save/restore.
+     * @param journal
+     *            the journal of changes since the last backup, may be null
+     */
+    public DataAccessJobBackupManager(UWS uws, DataAccessJobJournal journal)
     {
         super(uws);
+        this.journal = journal != null && journal.isEnabled() ? journal : null;
+    }
+
+    /**
+     * Restores the jobs from the last backup and the journal of changes made since, then writes a new backup. If the
+     * backup couldn't be fully read no new backup is written, and a copy of the backup and the journal is kept as the
+     * next backup will replace them.
+     * <p>
+     * The backup is read as a stream, one job at a time, rather than being parsed whole. Each job list is restored on
+     * its own thread, so the job lists are restored in parallel while the jobs within each list are restored in the
+     * order they were backed up, which keeps the queue order.
+     * 
+     * @return the restore report from the backup
+     */
+    @Override
+    public int[] restoreAll()
+    {
+        if (!enabled)
+        {
+            return null;
+        }
+        restoreProgress.start();
+        loadJournal();
+        try
+        {
+            RestoredBackup restoredBackup = restoreBackup();
+            int[] report = restoredBackup.report;
+            restoreFromJournal();
+            if (!restoredBackup.complete)
+            {
+                keepIncompleteBackup();
+            }
+            else if (journal != null)
+            {
+                saveAll();
+            }
+            getLogger().uwsRestored(uws, report);
+            logger.info("Restored {} of {} jobs from the UWS backup in {} ms", report[0], report[1],
+                    restoreProgress.getElapsedMillis());
+            return report;
+        }
+        finally
+        {
+            journaledJobs = null;
+            journaledMoves = null;
+            restoreProgress.finish();
+        }
+    }
+
+    /**
+     * @return the progress of the latest restore
+     */
+    public UwsRestoreProgress getRestoreProgress()
+    {
+        return restoreProgress;
+    }
+
+    private RestoredBackup restoreBackup()
+    {
+        InputStream input;
+        try
+        {
+            input = uws.getFileManager().getBackupInput();
+        }
+        catch (FileNotFoundException e)
+        {
+            logger.info("No UWS backup to restore");
+            return new RestoredBackup(new int[] { 0, 0, 0, 0 }, true);
+        }
+        catch (IOException e)
+        {
+            logger.error("Unable to open the UWS backup", e);
+            return new RestoredBackup(new int[] { -1, -1, 0, 0 }, false);
+        }
+        if (input == null)
+        {
+            logger.info("No UWS backup to restore");
+            return new RestoredBackup(new int[] { 0, 0, 0, 0 }, true);
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        Semaphore pendingJobs = new Semaphore(MAX_PENDING_RESTORES);
+        Map<String, CompletableFuture<Void>> jobListRestores = new HashMap<>();
+        Map<String, JobOwner> users = new ConcurrentHashMap<>();
+        boolean complete = true;
+        try (Reader reader = new BufferedReader(new InputStreamReader(input, Charsets.UTF_8)))
+        {
+            JSONTokener tokener = new JSONTokener(reader);
+            if (tokener.nextClean() != '{')
+            {
+                throw tokener.syntaxError("A UWS backup must begin with '{'");
+            }
+            for (char c = tokener.nextClean(); c != '}' && c != 0; c = tokener.nextClean())
+            {
+                if (c == ',')
+                {
+                    continue;
+                }
+                tokener.back();
+                String key = tokener.nextValue().toString();
+                if (tokener.nextClean() != ':')
+                {
+                    throw tokener.syntaxError("Expected a ':' after the key " + key);
+                }
+                if (JOBS.equals(key))
+                {
+                    readJobs(tokener, json -> {
+                        restoreProgress.jobRead();
+                        pendingJobs.acquireUninterruptibly();
+                        // each job list's jobs are restored one after the other, in their backed up order
+                        String jobListName = json.optString(JOB_LIST_NAME);
+                        CompletableFuture<Void> previous =
+                                jobListRestores.getOrDefault(jobListName, CompletableFuture.completedFuture(null));
+                        jobListRestores.put(jobListName, previous
+                                .thenRunAsync(() -> restoreBackedUpJob(json, users, pendingJobs), executor));
+                    });
+                }
+                else
+                {
+                    // the date, and the users which we don't back up
+                    tokener.nextValue();
+                }
+            }
+        }
+        catch (IOException | JSONException e)
+        {
+            logger.error("Unable to read the whole UWS backup, restoring the jobs read so far", e);
+            complete = false;
+        }
+        finally
+        {
+            CompletableFuture.allOf(jobListRestores.values().toArray(new CompletableFuture<?>[0])).join();
+            executor.shutdown();
+        }
+        int nbRestoredJobs = restoreProgress.getJobsRestored();
+        return new RestoredBackup(new int[] { nbRestoredJobs, restoreProgress.getJobsRead(), 0, 0 }, complete);
+    }
+
+    /*
+     * Keeps a copy of the backup and journal beside them, as the next backup will be missing the jobs which couldn't
+     * be restored and would otherwise replace them.
+     */
+    private void keepIncompleteBackup()
+    {
+        if (journal == null)
+        {
+            logger.error("The UWS backup couldn't be fully restored and will be replaced by the next backup");
+            return;
+        }
+        String suffix = "." + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        try (InputStream backup = uws.getFileManager().getBackupInput())
+        {
+            journal.keepCopy(backup, suffix);
+            logger.error("The UWS backup couldn't be fully restored, so a copy of it and of the job journal has been "
+                    + "kept with the suffix {}", suffix);
+        }
+        catch (IOException e)
+        {
+            logger.error("The UWS backup couldn't be fully restored, and a copy of it couldn't be kept", e);
+        }
+    }
+
+    private void readJobs(JSONTokener tokener, Consumer<JSONObject> jobConsumer) throws JSONException
+    {
+        if (tokener.nextClean() != '[')
+        {
+            throw tokener.syntaxError("Expected the jobs to be an array");
+        }
+        if (tokener.nextClean() == ']')
+        {
+            return;
+        }
+        tokener.back();
+        while (true)
+        {
+            Object value = tokener.nextValue();
+            if (value instanceof JSONObject)
+            {
+                jobConsumer.accept((JSONObject) value);
+            }
+            char c = tokener.nextClean();
+            if (c == ']')
+            {
+                return;
+            }
+            if (c != ',')
+            {
+                throw tokener.syntaxError("Expected a ',' or ']' after a job");
+            }
+        }
+    }
+
+    private void restoreBackedUpJob(JSONObject json, Map<String, JobOwner> users, Semaphore pendingJobs)
+    {
+        try
+        {
+            if (restoreJob(json, users))
+            {
+                restoreProgress.jobRestored();
+            }
+        }
+        catch (UWSException | RuntimeException e)
+        {
+            restoreProgress.jobFailed();
+            logger.error("Couldn't restore job {}", json.optString(UWSJob.PARAM_JOB_ID), e);
+        }
+        finally
+        {
+            pendingJobs.release();
+        }
+    }
+
+    /**
+     * Works out the latest state of each job changed since the last backup from the journal.
+     */
+    void loadJournal()
+    {
+        journaledJobs = new LinkedHashMap<>();
+        journaledMoves = new ArrayList<>();
+        List<JSONObject> entries = journal == null ? new ArrayList<>() : journal.read();
+        logger.info("Replaying {} job journal entries", entries.size());
+        for (JSONObject entry : entries)
+        {
+            try
+            {
+                String jobId = entry.getString(UWSJob.PARAM_JOB_ID);
+                Operation operation = Operation.valueOf(entry.getString(DataAccessJobJournal.OPERATION));
+                JournaledJob journaledJob = journaledJobs.get(jobId);
+                switch (operation)
+                {
+                case ENQUEUED:
+                    // a job can be queued again once it has finished, so it goes to the back of the restore order
+                    journaledJobs.remove(jobId);
+                    journaledJobs.put(jobId, new JournaledJob(entry.getJSONObject(JOB)));
+                    break;
+                case MOVED:
+                    journaledMoves.add(entry);
+                    break;
+                case STARTED:
+                    journaledJobs.computeIfAbsent(jobId, id -> new JournaledJob(null)).started = true;
+                    break;
+                case FINISHED:
+                    if (journaledJob == null)
+                    {
+                        journaledJob = new JournaledJob(null);
+                        journaledJobs.put(jobId, journaledJob);
+                    }
+                    journaledJob.finishedPhase = entry.getString(UWSJob.PARAM_PHASE);
+                    break;
+                default:
+                    break;
+                }
+            }
+            catch (JSONException | IllegalArgumentException e)
+            {
+                logger.warn("Ignoring invalid job journal entry {}", entry, e);
+            }
+        }
+    }
+
+    /**
+     * Restores the jobs which were queued since the last backup, running jobs first, then moves jobs to the positions
+     * an administrator put them in.
+     * 
+     * @return the number of jobs restored
+     */
+    int restoreFromJournal()
+    {
+        int restored = 0;
+        Map<String, JobOwner> users = new HashMap<>();
+        List<JournaledJob> startedFirst = journaledJobs.values().stream()
+                .filter(journaledJob -> journaledJob.json != null)
+                .sorted((a, b) -> Boolean.compare(b.isRunning(), a.isRunning())).collect(Collectors.toList());
+        for (JournaledJob journaledJob : startedFirst)
+        {
+            try
+            {
+                if (super.restoreJob(journaledJob.getJsonToRestore(), users))
+                {
+                    restored++;
+                }
+            }
+            catch (UWSException | JSONException e)
+            {
+                logger.error("Couldn't restore job from journal {}", journaledJob.json, e);
+            }
+        }
+        for (JSONObject move : journaledMoves)
+        {
+            try
+            {
+                JobList jobList = uws.getJobList(move.getString(JOB_LIST_NAME));
+                if (jobList != null && jobList.getExecutionManager() instanceof PriorityQueueExecutionManager)
+                {
+                    ((PriorityQueueExecutionManager) jobList.getExecutionManager())
+                            .sendToPosition(move.getString(UWSJob.PARAM_JOB_ID), move.getInt(POSITION));
+                }
+            }
+            catch (JSONException e)
+            {
+                logger.warn("Ignoring invalid job journal entry {}", move, e);
+            }
+        }
+        logger.info("Restored {} jobs from the job journal", restored);
+        return restored;
+    }
+
+    /**
+     * Records in the journal that a job has been added to a job list.
+     * 
+     * @param job
+     *            the job
+     * @param jobListName
+     *            the name of the job list
+     */
+    public void jobQueued(UWSJob job, String jobListName)
+    {
+        if (journal == null)
+        {
+            return;
+        }
+        try
+        {
+            journal.append(Operation.ENQUEUED, new JSONObject().put(UWSJob.PARAM_JOB_ID, job.getJobId())
+                    .put(JOB, getJSONJob(job, jobListName)));
+        }
+        catch (UWSException | JSONException e)
+        {
+            logger.error("Couldn't journal job {}", job.getJobId(), e);
+        }
+    }
+
+    /**
+     * Adds a job to a job list, recording it in the journal. The journal is locked throughout so that a backup can't be
+     * written in between, which would leave out the job and then truncate the journal entry for it.
+     * 
+     * @param jobList
+     *            the job list
+     * @param job
+     *            the job
+     * @throws UWSException
+     *             if the job could not be added to the job list
+     */
+    public void addNewJob(JobList jobList, UWSJob job) throws UWSException
+    {
+        if (journal == null)
+        {
+            jobList.addNewJob(job);
+            return;
+        }
+        synchronized (journal)
+        {
+            jobQueued(job, jobList.getName());
+            try
+            {
+                jobList.addNewJob(job);
+            }
+            catch (UWSException | RuntimeException e)
+            {
+                jobFinished(job.getJobId(), ExecutionPhase.ERROR);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Records in the journal that a job has been moved to a new position in its queue.
+     * 
+     * @param jobId
+     *            the id of the job
+     * @param jobListName
+     *            the name of the job list
+     * @param position
+     *            the job's new position in the queue
+     */
+    public void jobMoved(String jobId, String jobListName, int position)
+    {
+        appendToJournal(Operation.MOVED, jobId, JOB_LIST_NAME, jobListName, POSITION, position);
+    }
+
+    /**
+     * Records in the journal that a job's thread has started.
+     * 
+     * @param jobId
+     *            the id of the job
+     */
+    public void jobStarted(String jobId)
+    {
+        appendToJournal(Operation.STARTED, jobId);
+    }
+
+    /**
+     * Records in the journal that a job has finished, so that it won't be run again on restore.
+     * 
+     * @param jobId
+     *            the id of the job
+     * @param phase
+     *            the phase the job finished in
+     */
+    public void jobFinished(String jobId, ExecutionPhase phase)
+    {
+        if (journal == null)
+        {
+            return;
+        }
+        synchronized (journal)
+        {
+            // the job list may still show the job as executing until the job's thread ends, so a backup written
+            // before then must record the phase journaled here rather than that of the job
+            finishingJobs.put(jobId, phase);
+            appendToJournal(Operation.FINISHED, jobId, UWSJob.PARAM_PHASE, phase.name());
+        }
+    }
+
+    private void appendToJournal(Operation operation, String jobId, Object... keysAndValues)
+    {
+        if (journal == null)
+        {
+            return;
+        }
+        try
+        {
+            JSONObject entry = new JSONObject().put(UWSJob.PARAM_JOB_ID, jobId);
+            for (int i = 0; i + 1 < keysAndValues.length; i += 2)
+            {
+                entry.put((String) keysAndValues[i], keysAndValues[i + 1]);
+            }
+            journal.append(operation, entry);
+        }
+        catch (JSONException e)
+        {
+            logger.error("Couldn't journal {} of job {}", operation, jobId, e);
+        }
+    }
+
+    /**
+     * Writes a new backup if the journal has grown too large.
+     * 
+     * @return true if a backup was written
+     */
+    public boolean compactJournal()
+    {
+        if (journal == null || !journal.needsCompaction())
+        {
+            return false;
+        }
+        saveAll();
+        return true;
     }
 
     /*
@@ -73,9 +580,11 @@ public class DataAccessJobBackupManager extends DefaultUWSBackupManager
     {
         try
         {
-            if (json.getString(UWSJob.PARAM_JOB_ID).startsWith(PriorityQueueExecutionManager.PAUSE_QUEUE_JOB_PREFIX))
+            String jobId = json.getString(UWSJob.PARAM_JOB_ID);
+            JournaledJob journaledJob = journaledJobs == null ? null : journaledJobs.get(jobId);
+            if (jobId.startsWith(PriorityQueueExecutionManager.PAUSE_QUEUE_JOB_PREFIX))
             {
-                String jobListName = json.getString("jobListName");
+                String jobListName = json.getString(JOB_LIST_NAME);
                 JobList joblist = uws.getJobList(jobListName);
                 if (joblist != null && joblist.getExecutionManager() instanceof PriorityQueueExecutionManager)
                 {
@@ -83,6 +592,16 @@ public class DataAccessJobBackupManager extends DefaultUWSBackupManager
                 }
                 return false; // response is false because we do not want it to be counted as a restored job
             }
+            else if (journaledJob != null && journaledJob.json != null)
+            {
+                // the job was queued again since the backup, it will be restored from the journal
+                return false;
+            }
+            else if (journaledJob != null && journaledJob.finishedPhase != null)
+            {
+                json.put(UWSJob.PARAM_PHASE, journaledJob.finishedPhase);
+                return super.restoreJob(json, users);
+            }
             else
             {
                 return super.restoreJob(json, users);
@@ -96,9 +615,8 @@ public class DataAccessJobBackupManager extends DefaultUWSBackupManager
     }
 
     /*
-     * This is mostly copied from DefaultUWSBackupManager.saveAll(), but I have removed the part that writes user
-     * information because we don't use it and the current config would prevent the jobs from being reloaded on start
-     * up, and I have updated this method to read our ordered job list to preserve the queue order.
+     * Writes a full backup, then truncates the journal. The journal is locked throughout so that no change can be
+     * recorded in between and lost.
      */
     @Override
     public int[] saveAll()
@@ -111,7 +629,32 @@ public class DataAccessJobBackupManager extends DefaultUWSBackupManager
         {
             return null;
         }
+        if (journal == null)
+        {
+            return writeBackup(new HashSet<>());
+        }
+        synchronized (journal)
+        {
+            Set<String> stillFinishing = new HashSet<>();
+            int[] report = writeBackup(stillFinishing);
+            finishingJobs.keySet().retainAll(stillFinishing);
+            if (report[0] == report[1])
+            {
+                journal.truncate();
+            }
+            return report;
+        }
+    }
 
+    /*
+     * This is mostly copied from DefaultUWSBackupManager.saveAll(), but I have removed the part that writes user
+     * information because we don't use it and the current config would prevent the jobs from being reloaded on start
+     * up, and I have updated this method to read our ordered job list to preserve the queue order. Jobs journaled as
+     * finished but not yet shown as finished by their job list are written with their journaled phase, and their ids
+     * added to stillFinishing.
+     */
+    private int[] writeBackup(Set<String> stillFinishing)
+    {
         int nbSavedJobs = 0, nbSavedOwners = 0;
         int nbJobs = 0, nbOwners = 0;
 
@@ -120,7 +663,8 @@ public class DataAccessJobBackupManager extends DefaultUWSBackupManager
         try
         {
             // Create a writer toward the backup file:
-            writer = new PrintWriter(new OutputStreamWriter(fileManager.getBackupOutput(), Charsets.UTF_8));
+            writer = new PrintWriter(
+                    new BufferedWriter(new OutputStreamWriter(fileManager.getBackupOutput(), Charsets.UTF_8)));
             JSONWriter out = new JSONWriter(writer);
 
             // JSON structure: { date: ..., users: [...], jobs: [...] }
@@ -158,9 +702,15 @@ public class DataAccessJobBackupManager extends DefaultUWSBackupManager
                     nbJobs++;
                     try
                     {
-                        out.value(getJSONJob(job, jl.getName()));
+                        JSONObject jsonJob = getJSONJob(job, jl.getName());
+                        ExecutionPhase finishedPhase = finishingJobs.get(job.getJobId());
+                        if (finishedPhase != null && !job.isFinished())
+                        {
+                            jsonJob.put(UWSJob.PARAM_PHASE, finishedPhase.name());
+                            stillFinishing.add(job.getJobId());
+                        }
+                        out.value(jsonJob);
                         nbSavedJobs++;
-                        writer.flush();
                     }
                     catch (UWSException ue)
                     {
@@ -176,15 +726,22 @@ public class DataAccessJobBackupManager extends DefaultUWSBackupManager
 
             // End the general structure:
             out.endObject();
-
+            writer.flush();
+            if (writer.checkError())
+            {
+                getLogger().error("Unexpected IO error while saving the whole UWS !", null);
+                nbSavedJobs = -1;
+            }
         }
         catch (JSONException je)
         {
             getLogger().error("Unexpected JSON error while saving the whole UWS !", je);
+            nbSavedJobs = -1;
         }
         catch (IOException ie)
         {
             getLogger().error("Unexpected IO error while saving the whole UWS !", ie);
+            nbSavedJobs = -1;
         }
         finally
         {
@@ -236,4 +793,51 @@ public class DataAccessJobBackupManager extends DefaultUWSBackupManager
         super.restoreOtherJobParams(json, job);
     }
 
+    /**
+     * The report of restoring the jobs from the backup, and whether the whole backup could be read.
+     */
+    private static class RestoredBackup
+    {
+        private final int[] report;
+
+        private final boolean complete;
+
+        RestoredBackup(int[] report, boolean complete)
+        {
+            this.report = report;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * The state of a job recorded in the journal.
+     */
+    private static class JournaledJob
+    {
+        /** The job's details when it was last queued, or null if it was queued before the last backup */
+        private final JSONObject json;
+
+        private boolean started = false;
+
+        private String finishedPhase;
+
+        JournaledJob(JSONObject json)
+        {
+            this.json = json;
+        }
+
+        boolean isRunning()
+        {
+            return started && finishedPhase == null;
+        }
+
+        JSONObject getJsonToRestore() throws JSONException
+        {
+            if (finishedPhase != null)
+            {
+                json.put(UWSJob.PARAM_PHASE, finishedPhase);
+            }
+            return json;
+        }
+    }
 }
@@ -0,0 +1,273 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * An append-only journal of the changes made to the UWS job lists since the last full backup.
+ * <p>
+ * Each entry is a JSON object on its own line, written and flushed as soon as the change is made, so the queue can be
+ * rebuilt after a crash by restoring the last backup and replaying the journal. Once a new backup has been written
+ * the journal is truncated, so it only ever holds the changes made since that backup. A partly written last line,
+ * as left by a crash, is ignored when the journal is read.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class DataAccessJobJournal implements DisposableBean
+{
+    /**
+     * The kinds of change recorded in the journal.
+     */
+    public enum Operation
+    {
+        /** A job was added to a job list, the entry holds the job's full details */
+        ENQUEUED,
+
+        /** A job was moved to a new position in its queue by an administrator */
+        MOVED,
+
+        /** A job's thread started */
+        STARTED,
+
+        /** A job finished, failed or was aborted */
+        FINISHED
+    }
+
+    /** The key of the operation in each entry */
+    static final String OPERATION = "op";
+
+    /** The name of the copy kept of a backup which couldn't be fully restored, before its suffix */
+    static final String INCOMPLETE_BACKUP_NAME = "incomplete-uws.backup";
+
+    private static final Logger logger = LoggerFactory.getLogger(DataAccessJobJournal.class);
+
+    private final File file;
+
+    private final int compactionEntries;
+
+    private Writer writer;
+
+    private int entries = 0;
+
+    /**
+     * Constructor
+     *
+     * @param uwsDirectory
+     *            the directory holding the UWS backup
+     * @param journalFileName
+     *            the name of the journal file within the UWS directory, or blank to not keep a journal
+     * @param compactionEntries
+     *            the number of entries the journal may grow to before a new backup is written and the journal
+     *            truncated
+     */
+    @Autowired
+    public DataAccessJobJournal(@Value("${uws.directory}") String uwsDirectory,
+            @Value("${uws.journal.filename}") String journalFileName,
+            @Value("${uws.journal.compaction.entries}") int compactionEntries)
+    {
+        this.file = StringUtils.isBlank(journalFileName) ? null : new File(uwsDirectory, journalFileName);
+        this.compactionEntries = compactionEntries;
+    }
+
+    /**
+     * @return true if changes are being journaled
+     */
+    public boolean isEnabled()
+    {
+        return file != null;
+    }
+
+    /**
+     * Adds an entry to the end of the journal.
+     *
+     * @param operation
+     *            the kind of change
+     * @param entry
+     *            the details of the change
+     */
+    public synchronized void append(Operation operation, JSONObject entry)
+    {
+        if (file == null)
+        {
+            return;
+        }
+        try
+        {
+            entry.put(OPERATION, operation.name());
+            if (writer == null)
+            {
+                if (file.getParentFile() != null)
+                {
+                    file.getParentFile().mkdirs();
+                }
+                boolean existing = file.length() > 0;
+                writer = new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+                if (existing)
+                {
+                    // start on a new line in case the last entry was only partly written
+                    writer.write('\n');
+                }
+            }
+            writer.write(entry.toString());
+            writer.write('\n');
+            writer.flush();
+            entries++;
+        }
+        catch (IOException | JSONException e)
+        {
+            logger.error("Unable to add {} entry to the job journal {}", operation, file, e);
+            closeWriter();
+        }
+    }
+
+    /**
+     * Reads all the entries in the journal, oldest first.
+     *
+     * @return the entries
+     */
+    public synchronized List<JSONObject> read()
+    {
+        List<JSONObject> journalEntries = new ArrayList<>();
+        if (file == null || !file.exists())
+        {
+            return journalEntries;
+        }
+        try
+        {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++)
+            {
+                if (StringUtils.isBlank(lines.get(i)))
+                {
+                    continue;
+                }
+                try
+                {
+                    journalEntries.add(new JSONObject(lines.get(i)));
+                }
+                catch (JSONException e)
+                {
+                    logger.warn("Ignoring unreadable line {} of job journal {}", i + 1, file, e);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Unable to read the job journal {}", file, e);
+        }
+        entries = journalEntries.size();
+        return journalEntries;
+    }
+
+    /**
+     * Empties the journal, once a backup holding all the changes in it has been written.
+     */
+    public synchronized void truncate()
+    {
+        if (file == null)
+        {
+            return;
+        }
+        closeWriter();
+        try
+        {
+            Files.deleteIfExists(file.toPath());
+            entries = 0;
+        }
+        catch (IOException e)
+        {
+            logger.error("Unable to truncate the job journal {}", file, e);
+        }
+    }
+
+    /**
+     * Keeps a copy of a backup which couldn't be fully restored, and of the journal of the changes made since it, in
+     * the UWS directory so that neither is lost when the next backup is written and the journal truncated.
+     *
+     * @param backup
+     *            the backup which couldn't be fully restored, may be null if it couldn't be opened
+     * @param suffix
+     *            the suffix to add to the names of the copies
+     * @throws IOException
+     *             if the copies couldn't be written
+     */
+    public synchronized void keepCopy(InputStream backup, String suffix) throws IOException
+    {
+        if (file == null)
+        {
+            return;
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (backup != null)
+        {
+            Files.copy(backup, new File(directory, INCOMPLETE_BACKUP_NAME + suffix).toPath());
+        }
+        if (file.exists())
+        {
+            Files.copy(file.toPath(), new File(directory, file.getName() + suffix).toPath());
+        }
+    }
+
+    /**
+     * @return true if the journal has grown large enough that a new backup should be written
+     */
+    public synchronized boolean needsCompaction()
+    {
+        return file != null && entries > 0 && entries >= compactionEntries;
+    }
+
+    private void closeWriter()
+    {
+        if (writer != null)
+        {
+            try
+            {
+                writer.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Unable to close the job journal {}", file, e);
+            }
+            writer = null;
+        }
+    }
+
+    @Override
+    public synchronized void destroy()
+    {
+        closeWriter();
+    }
+}
@@ -22,6 +22,7 @@ import au.csiro.casda.logging.CasdaMessageBuilder;
 import au.csiro.casda.logging.LogEvent;
 import uws.UWSException;
 import uws.job.ErrorType;
+import uws.job.ExecutionPhase;
 import uws.job.JobThread;
 import uws.job.Result;
 import uws.job.UWSJob;
@@ -54,6 +55,7 @@ public class DataAccessThread extends JobThread
     private final int hoursToExpiryDefault;
     private final int hoursToExpirySodaSync;
     private final String siapSharedSecretKey;
+    private final JobCompletionNotifier jobCompletionNotifier;
 
     /**
      * Create a new DataAccessThread instance.
@@ -70,11 +72,14 @@ public class DataAccessThread extends JobThread
      *            the number of hours to expiry for a SODA sync job
      * @param siapSharedSecretKey
      *            the key for unencrypting the request token
+     * @param jobCompletionNotifier
+     *            notified when the thread has finished with the job
      * @throws UWSException
      *             If the job thread cannot be created.
      */
     public DataAccessThread(UWSJob uwsJob, DataAccessService dataAccessService, Packager packager,
-            int hoursToExpiryDefault, int hoursToExpirySodaSync, String siapSharedSecretKey) throws UWSException
+            int hoursToExpiryDefault, int hoursToExpirySodaSync, String siapSharedSecretKey,
+            JobCompletionNotifier jobCompletionNotifier) throws UWSException
     {
         super(uwsJob);
         this.dataAccessService = dataAccessService;
@@ -82,10 +87,52 @@ public class DataAccessThread extends JobThread
         this.hoursToExpiryDefault = hoursToExpiryDefault;
         this.hoursToExpirySodaSync = hoursToExpirySodaSync;
         this.siapSharedSecretKey = siapSharedSecretKey;
+        this.jobCompletionNotifier = jobCompletionNotifier;
     }
 
     @Override
     protected void jobWork() throws UWSException, InterruptedException
+    {
+        String id = (String) getJob().getParameter(AccessJobManager.REQUEST_ID);
+        DataAccessJobBackupManager backupManager = getBackupManager();
+        if (backupManager != null)
+        {
+            backupManager.jobStarted(getJob().getJobId());
+        }
+        ExecutionPhase finishedPhase = ExecutionPhase.ERROR;
+        try
+        {
+            processJob();
+            finishedPhase = ExecutionPhase.COMPLETED;
+        }
+        catch (InterruptedException e)
+        {
+            finishedPhase = ExecutionPhase.ABORTED;
+            throw e;
+        }
+        finally
+        {
+            if (backupManager != null)
+            {
+                backupManager.jobFinished(getJob().getJobId(), finishedPhase);
+            }
+            // by now the outcome has been recorded against the data access job
+            jobCompletionNotifier.jobFinished(id);
+        }
+    }
+
+    private DataAccessJobBackupManager getBackupManager()
+    {
+        UWSJob job = getJob();
+        if (job.getJobList() != null && job.getJobList().getUWS() != null
+                && job.getJobList().getUWS().getBackupManager() instanceof DataAccessJobBackupManager)
+        {
+            return (DataAccessJobBackupManager) job.getJobList().getUWS().getBackupManager();
+        }
+        return null;
+    }
+
+    private void processJob() throws UWSException, InterruptedException
     {
         UWSJob job = getJob();
 
@@ -162,6 +209,7 @@ public class DataAccessThread extends JobThread
             logger.debug("Marking DataAccessJob {} READY", id);
 
             this.publishResult(result);
+            jobCompletionNotifier.jobPackaged(packagerResult.getTotalSizeKb());
 
             long duration = System.currentTimeMillis() - start;
 
@@ -0,0 +1,190 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import uws.job.UWSJob;
+
+/**
+ * Orders queued jobs so that each user gets a fair share of the queue, smaller jobs are not stuck behind very large
+ * ones, and no job waits forever.
+ * <p>
+ * Each job is given a score, and the job with the lowest score runs first. The score is made up of:
+ * <ul>
+ * <li>the user weight for every job the same user already has running or ahead of it in the queue,</li>
+ * <li>the size weight for every doubling of the size (in GB) of the job's files which aren't already in the cache,</li>
+ * <li>less the aging weight for every hour the job has been waiting,</li>
+ * <li>less the resident boost if at least the resident fraction of the job's files are already in the cache.</li>
+ * </ul>
+ * Jobs which are entirely in the cache don't reach this policy, they are run straight away on the immediate queue.
+ * Jobs with equal scores keep their existing order.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+@ConditionalOnProperty(name = "uws.scheduling.policy", havingValue = "fairshare", matchIfMissing = true)
+public class FairShareSchedulingPolicy implements JobSchedulingPolicy
+{
+    private static final double MILLIS_PER_HOUR = 3600000d;
+
+    private final double userWeight;
+
+    private final double sizeWeight;
+
+    private final double agingWeightPerHour;
+
+    private final double residentFraction;
+
+    private final double residentBoost;
+
+    /**
+     * Constructor
+     *
+     * @param userWeight
+     *            the score added for each other job the same user has running or ahead in the queue
+     * @param sizeWeight
+     *            the score added for each doubling of the uncached size of the job, in GB
+     * @param agingWeightPerHour
+     *            the score taken away for each hour a job has been waiting
+     * @param residentFraction
+     *            the fraction of a job's data which must already be in the cache for the job to get the resident boost
+     * @param residentBoost
+     *            the score taken away for jobs which have most of their data in the cache
+     */
+    @Autowired
+    public FairShareSchedulingPolicy(@Value("${uws.scheduling.fairshare.user.weight}") double userWeight,
+            @Value("${uws.scheduling.fairshare.size.weight}") double sizeWeight,
+            @Value("${uws.scheduling.fairshare.aging.weight.per.hour}") double agingWeightPerHour,
+            @Value("${uws.scheduling.fairshare.resident.fraction}") double residentFraction,
+            @Value("${uws.scheduling.fairshare.resident.boost}") double residentBoost)
+    {
+        this.userWeight = userWeight;
+        this.sizeWeight = sizeWeight;
+        this.agingWeightPerHour = agingWeightPerHour;
+        this.residentFraction = residentFraction;
+        this.residentBoost = residentBoost;
+    }
+
+    @Override
+    public List<UWSJob> order(List<UWSJob> queuedJobs, Collection<UWSJob> runningJobs,
+            Map<String, JobSchedulingDetails> details, long nowMillis)
+    {
+        Map<String, Integer> userLoad = new HashMap<>();
+        for (UWSJob runningJob : runningJobs)
+        {
+            String user = getUser(details.get(runningJob.getJobId()));
+            userLoad.put(user, userLoad.getOrDefault(user, 0) + 1);
+        }
+
+        // The user part of a score only changes between a user's jobs, so each user's jobs can be ordered up front
+        Map<String, LinkedList<ScoredJob>> jobsByUser = new HashMap<>();
+        for (int i = 0; i < queuedJobs.size(); i++)
+        {
+            UWSJob job = queuedJobs.get(i);
+            JobSchedulingDetails jobDetails = details.get(job.getJobId());
+            String user = getUser(jobDetails);
+            if (!jobsByUser.containsKey(user))
+            {
+                jobsByUser.put(user, new LinkedList<>());
+            }
+            jobsByUser.get(user).add(new ScoredJob(job, i, getScore(jobDetails, nowMillis)));
+        }
+        Comparator<ScoredJob> byScore = Comparator.comparingDouble((ScoredJob scoredJob) -> scoredJob.score)
+                .thenComparingInt(scoredJob -> scoredJob.index);
+        for (LinkedList<ScoredJob> userJobs : jobsByUser.values())
+        {
+            userJobs.sort(byScore);
+        }
+
+        List<UWSJob> orderedJobs = new ArrayList<>(queuedJobs.size());
+        while (orderedJobs.size() < queuedJobs.size())
+        {
+            String nextUser = null;
+            ScoredJob nextJob = null;
+            double nextScore = 0;
+            for (Map.Entry<String, LinkedList<ScoredJob>> userJobs : jobsByUser.entrySet())
+            {
+                ScoredJob candidate = userJobs.getValue().peek();
+                if (candidate == null)
+                {
+                    continue;
+                }
+                double score = candidate.score + userWeight * userLoad.getOrDefault(userJobs.getKey(), 0);
+                if (nextJob == null || score < nextScore || (score == nextScore && candidate.index < nextJob.index))
+                {
+                    nextUser = userJobs.getKey();
+                    nextJob = candidate;
+                    nextScore = score;
+                }
+            }
+            jobsByUser.get(nextUser).remove();
+            userLoad.put(nextUser, userLoad.getOrDefault(nextUser, 0) + 1);
+            orderedJobs.add(nextJob.job);
+        }
+        return orderedJobs;
+    }
+
+    private double getScore(JobSchedulingDetails jobDetails, long nowMillis)
+    {
+        if (jobDetails == null)
+        {
+            return 0;
+        }
+        double uncachedSizeGb = jobDetails.getUncachedSizeKb() / (double) FileUtils.ONE_MB;
+        double hoursWaiting = Math.max(0, nowMillis - jobDetails.getQueuedMillis()) / MILLIS_PER_HOUR;
+        double score = sizeWeight * Math.log1p(uncachedSizeGb) / Math.log(2) - agingWeightPerHour * hoursWaiting;
+        if (jobDetails.getCachedFraction() >= residentFraction)
+        {
+            score -= residentBoost;
+        }
+        return score;
+    }
+
+    private static String getUser(JobSchedulingDetails jobDetails)
+    {
+        return jobDetails == null ? StringUtils.EMPTY : StringUtils.defaultString(jobDetails.getUserIdent());
+    }
+
+    /**
+     * A queued job with its original index in the queue and its score, ignoring the user's other jobs.
+     */
+    private static class ScoredJob
+    {
+        private final UWSJob job;
+
+        private final int index;
+
+        private final double score;
+
+        ScoredJob(UWSJob job, int index, double score)
+        {
+            this.job = job;
+            this.index = index;
+            this.score = score;
+        }
+    }
+}
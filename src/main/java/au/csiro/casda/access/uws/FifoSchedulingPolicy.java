@@ -0,0 +1,40 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import uws.job.UWSJob;
+
+/**
+ * Runs queued jobs in the order they were queued.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+@ConditionalOnProperty(name = "uws.scheduling.policy", havingValue = "fifo")
+public class FifoSchedulingPolicy implements JobSchedulingPolicy
+{
+    @Override
+    public List<UWSJob> order(List<UWSJob> queuedJobs, Collection<UWSJob> runningJobs,
+            Map<String, JobSchedulingDetails> details, long nowMillis)
+    {
+        return new ArrayList<>(queuedJobs);
+    }
+}
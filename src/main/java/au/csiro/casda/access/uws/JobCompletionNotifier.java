@@ -0,0 +1,147 @@
+package au.csiro.casda.access.uws;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * Lets interested parties know when the DataAccessThread for a data access job has finished, whether it succeeded,
+ * failed or was aborted. This allows a request waiting on a job (e.g. a SODA sync request) to be completed as soon as
+ * the job is done rather than by polling the job's status.
+ * <p>
+ * Listeners are called once, on a separate thread so that they don't hold up the UWS job thread, and are then
+ * forgotten. A listener is not called if the job never runs, so anyone waiting on a job must also time out.
+ * <p>
+ * The notifier also keeps a running total of the data packaged by successful jobs, from which packaging throughput
+ * can be measured.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class JobCompletionNotifier implements DisposableBean
+{
+    private static Logger logger = LoggerFactory.getLogger(JobCompletionNotifier.class);
+
+    private final ConcurrentMap<String, List<Runnable>> listeners = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+
+    private final AtomicLong packagedKb = new AtomicLong();
+
+    /**
+     * Constructor
+     */
+    public JobCompletionNotifier()
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "job-completion-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registers a listener to be called when a job's thread finishes. The listener should be registered before the
+     * job is scheduled so that its completion can't be missed.
+     *
+     * @param requestId
+     *            the request id of the data access job
+     * @param listener
+     *            the listener
+     */
+    public void addListener(String requestId, Runnable listener)
+    {
+        listeners.computeIfAbsent(requestId, id -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Removes a listener, e.g. because the party waiting on the job has given up.
+     *
+     * @param requestId
+     *            the request id of the data access job
+     * @param listener
+     *            the listener
+     */
+    public void removeListener(String requestId, Runnable listener)
+    {
+        listeners.computeIfPresent(requestId, (id, jobListeners) -> {
+            jobListeners.remove(listener);
+            return jobListeners.isEmpty() ? null : jobListeners;
+        });
+    }
+
+    /**
+     * Called by the DataAccessThread once it has finished working on a job and has recorded the outcome.
+     *
+     * @param requestId
+     *            the request id of the data access job
+     */
+    public void jobFinished(String requestId)
+    {
+        List<Runnable> jobListeners = listeners.remove(requestId);
+        if (jobListeners == null)
+        {
+            return;
+        }
+        for (Runnable listener : jobListeners)
+        {
+            try
+            {
+                executor.execute(listener);
+            }
+            catch (RejectedExecutionException e)
+            {
+                logger.warn("Could not notify listener that job {} has finished", requestId, e);
+            }
+        }
+    }
+
+    /**
+     * Called by the DataAccessThread when it has successfully packaged the files for a job.
+     *
+     * @param sizeKb
+     *            the total size of the job's files
+     */
+    public void jobPackaged(long sizeKb)
+    {
+        packagedKb.addAndGet(Math.max(0, sizeKb));
+    }
+
+    /**
+     * @return the total size of the files packaged by successful jobs since startup
+     */
+    public long getPackagedKb()
+    {
+        return packagedKb.get();
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+}
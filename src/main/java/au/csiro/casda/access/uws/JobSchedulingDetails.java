@@ -0,0 +1,77 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+/**
+ * The details of a queued job which a {@link JobSchedulingPolicy} uses to decide when it should run.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class JobSchedulingDetails
+{
+    private final String userIdent;
+
+    private final long sizeKb;
+
+    private final double cachedFraction;
+
+    private final long queuedMillis;
+
+    /**
+     * Constructor
+     * 
+     * @param userIdent
+     *            the ident of the user who requested the job, may be null if not known
+     * @param sizeKb
+     *            the total size of the job's files, in KB
+     * @param cachedFraction
+     *            the fraction (between 0 and 1) of the job's size which is already available in the cache
+     * @param queuedMillis
+     *            when the job was queued, in milliseconds since the epoch
+     */
+    public JobSchedulingDetails(String userIdent, long sizeKb, double cachedFraction, long queuedMillis)
+    {
+        this.userIdent = userIdent;
+        this.sizeKb = sizeKb;
+        this.cachedFraction = Math.max(0, Math.min(1, cachedFraction));
+        this.queuedMillis = queuedMillis;
+    }
+
+    public String getUserIdent()
+    {
+        return userIdent;
+    }
+
+    public long getSizeKb()
+    {
+        return sizeKb;
+    }
+
+    public double getCachedFraction()
+    {
+        return cachedFraction;
+    }
+
+    public long getQueuedMillis()
+    {
+        return queuedMillis;
+    }
+
+    /**
+     * @return the size of the job's files which still have to be retrieved into the cache, in KB
+     */
+    public long getUncachedSizeKb()
+    {
+        return Math.round(sizeKb * (1 - cachedFraction));
+    }
+}
@@ -0,0 +1,43 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import uws.job.UWSJob;
+
+/**
+ * Decides the order in which the jobs queued in a {@link PriorityQueueExecutionManager} will be run.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public interface JobSchedulingPolicy
+{
+    /**
+     * Orders the queued jobs.
+     * 
+     * @param queuedJobs
+     *            the jobs waiting to run, in their current order
+     * @param runningJobs
+     *            the jobs which are currently running
+     * @param details
+     *            the scheduling details of the queued and running jobs, keyed by job id
+     * @param nowMillis
+     *            the current time, in milliseconds since the epoch
+     * @return the queued jobs in the order they should be run
+     */
+    public List<UWSJob> order(List<UWSJob> queuedJobs, Collection<UWSJob> runningJobs,
+            Map<String, JobSchedulingDetails> details, long nowMillis);
+}
@@ -15,9 +15,14 @@ package au.csiro.casda.access.uws;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.Logger;
@@ -32,6 +37,14 @@ import uws.service.log.UWSLog;
 /**
  * Implements a priority queue to order jobs for UWS.
  * <p>
+ * The UWS library synchronises on the execution manager when it starts, queues and removes jobs, so every method here
+ * which reads or reorders the queued or running jobs synchronises on the same monitor. Callers block until the queue
+ * is free rather than spinning, and the library can never see the queue part way through a change.
+ * <p>
+ * The order of the queued jobs is decided by a {@link JobSchedulingPolicy}, which is applied each time
+ * {@link #applySchedulingPolicy()} is called. Jobs which have been moved by an administrator using
+ * {@link #sendToPosition(String, int)} are left where they were put, and the policy orders the jobs around them.
+ * <p>
  * Copyright 2015, CSIRO Australia. All rights reserved.
  */
 public class PriorityQueueExecutionManager extends QueuedExecutionManager
@@ -40,8 +53,25 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
     /** Job id prefix for the jobs used to pause the queue */
     protected static final String PAUSE_QUEUE_JOB_PREFIX = "PAUSE_QUEUE_JOB_";
 
+    /** How long a snapshot of queue positions may be used before it is rebuilt */
+    private static final long QUEUE_POSITIONS_MAX_AGE_MILLIS = 1000;
+
+    /** How long the scheduling details of a job are kept while waiting for the job to be queued */
+    private static final long SCHEDULING_DETAILS_GRACE_MILLIS = 60000;
+
+    /** The most recent snapshot of queue positions, replaced as a whole so it can be read without locking */
+    private volatile QueuePositions queuePositions = new QueuePositions(new IdentityHashMap<>(), 1, 0, 0);
+
+    private final JobSchedulingPolicy schedulingPolicy;
+
+    /** The scheduling details of queued and running jobs, keyed by job id */
+    private final Map<String, JobSchedulingDetails> schedulingDetails = new HashMap<>();
+
+    /** The ids of the queued jobs which have been put in place by an administrator */
+    private final Set<String> pinnedJobIds = new HashSet<>();
+
     /**
-     * Constructor
+     * Constructor for a queue which runs jobs in the order they are queued.
      * 
      * @param logger
      *            UWS logger
@@ -50,38 +80,23 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
      */
     public PriorityQueueExecutionManager(UWSLog logger, int maxRunningJobs)
     {
-        super(logger, maxRunningJobs);
+        this(logger, maxRunningJobs, new FifoSchedulingPolicy());
     }
 
     /**
-     * Whether the queue is currently locked.
-     */
-    private boolean locked = false;
-
-    /**
-     * Lock the queue
+     * Constructor
      * 
-     * @return false if it is already locked, true if this method locked the queue.
-     */
-    private synchronized boolean lockQueue()
-    {
-        if (locked)
-        {
-            return false;
-        }
-        else
-        {
-            locked = true;
-            return locked;
-        }
-    }
-
-    /**
-     * Unlock the queue
+     * @param logger
+     *            UWS logger
+     * @param maxRunningJobs
+     *            the maximum number of allowed running jobs
+     * @param schedulingPolicy
+     *            the policy deciding the order queued jobs are run in
      */
-    private synchronized void unlockQueue()
+    public PriorityQueueExecutionManager(UWSLog logger, int maxRunningJobs, JobSchedulingPolicy schedulingPolicy)
     {
-        locked = false;
+        super(logger, maxRunningJobs);
+        this.schedulingPolicy = schedulingPolicy;
     }
 
     /**
@@ -97,27 +112,15 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
     public synchronized boolean sendToPosition(String requestId, int position)
     {
         logger.info("Moving {} to {} ", requestId, position);
-        while (!lockQueue())
+        Optional<UWSJob> job =
+                this.queuedJobs.stream()
+                        .filter(queuedJob -> requestId.equals(queuedJob.getParameter(AccessJobManager.REQUEST_ID)))
+                        .findFirst();
+        if (job.isPresent())
         {
-            logger.debug("Waiting for lock to move job");
-        }
-        try
-        {
-            boolean result = false;
-            Optional<UWSJob> job =
-                    this.queuedJobs.stream()
-                            .filter(queuedJob -> requestId.equals(queuedJob.getParameter(AccessJobManager.REQUEST_ID)))
-                            .findFirst();
-            if (job.isPresent())
-            {
-                result = sendToPosition(job.get(), position, true);
-            }
-            return result;
-        }
-        finally
-        {
-            this.unlockQueue();
+            return sendToPosition(job.get(), position);
         }
+        return false;
     }
 
     /**
@@ -127,72 +130,152 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
      *            the UWS job to move
      * @param position
      *            the new index in the queue
-     * @param hasLock
-     *            if the method already has the lock on the queue (so it doesn't need to be locked)
      * @return true if the job could be put in that position, false if there is no matching job
      */
-    protected synchronized boolean sendToPosition(UWSJob job, int position, boolean hasLock)
+    protected synchronized boolean sendToPosition(UWSJob job, int position)
     {
-        if (!hasLock)
+        // as long as it isn't a running job, you can reposition (or add) the uws job
+        if (this.runningJobs.containsKey(job.getJobId()))
         {
-            while (!lockQueue())
-            {
-                logger.debug("Waiting for lock to move job");
-            }
+            logger.info("Can't reprioritise {} ({})", job.getParameter(AccessJobManager.REQUEST_ID), job.getJobId());
+            return false;
         }
-        try
+        logger.info("Current index: " + this.queuedJobs.indexOf(job));
+        this.queuedJobs.remove(job);
+        if (position > this.queuedJobs.size())
         {
-            // as long as it isn't a running job, you can reposition (or add) the uws job
-            boolean result = false;
-            if (!this.runningJobs.containsKey(job.getJobId()))
+            position = this.queuedJobs.size();
+        }
+        this.queuedJobs.add(position, job);
+        this.pinnedJobIds.add(job.getJobId());
+        invalidateQueuePositions();
+        logger.info("Index of job {} is {}", job.getParameter(AccessJobManager.REQUEST_ID), position);
+        return true;
+    }
+
+    /**
+     * Records the details used to schedule a job. This should be called before the job is queued.
+     * 
+     * @param jobId
+     *            the UWS job id
+     * @param details
+     *            the job's scheduling details
+     */
+    public synchronized void putSchedulingDetails(String jobId, JobSchedulingDetails details)
+    {
+        this.schedulingDetails.put(jobId, details);
+    }
+
+    /**
+     * Reorders the queued jobs according to the scheduling policy, leaving any jobs put in place by an administrator
+     * where they are. Jobs without scheduling details, such as those restored from a backup, are treated as having
+     * been queued when they were first seen here.
+     */
+    public synchronized void applySchedulingPolicy()
+    {
+        long now = System.currentTimeMillis();
+        Set<String> queuedJobIds = new HashSet<>();
+        List<UWSJob> unpinnedJobs = new ArrayList<>();
+        for (UWSJob job : this.queuedJobs)
+        {
+            queuedJobIds.add(job.getJobId());
+            if (!this.schedulingDetails.containsKey(job.getJobId()))
             {
-                logger.info("Current index: " + this.queuedJobs.indexOf(job));
-                this.queuedJobs.remove(job);
-                if (position > this.queuedJobs.size())
-                {
-                    position = this.queuedJobs.size();
-                }
-                this.queuedJobs.add(position, job);
-                logger.info("Index of job {} is {}", job.getParameter(AccessJobManager.REQUEST_ID),
-                        this.queuedJobs.indexOf(job));
-                result = true;
+                this.schedulingDetails.put(job.getJobId(), new JobSchedulingDetails(null, 0, 0, now));
             }
-            else
+            if (!this.pinnedJobIds.contains(job.getJobId()))
             {
-                logger.info("Can't reprioritise {} ({})", job.getParameter(AccessJobManager.REQUEST_ID), job.getJobId());
+                unpinnedJobs.add(job);
             }
-            return result;
         }
-        finally
+        this.pinnedJobIds.retainAll(queuedJobIds);
+        List<UWSJob> running = new ArrayList<>(this.runningJobs.values());
+        for (Iterator<Map.Entry<String, JobSchedulingDetails>> entries =
+                this.schedulingDetails.entrySet().iterator(); entries.hasNext();)
         {
-            if (!hasLock)
+            Map.Entry<String, JobSchedulingDetails> entry = entries.next();
+            if (!queuedJobIds.contains(entry.getKey()) && !this.runningJobs.containsKey(entry.getKey())
+                    && now - entry.getValue().getQueuedMillis() > SCHEDULING_DETAILS_GRACE_MILLIS)
             {
-                this.unlockQueue();
+                entries.remove();
             }
         }
+        if (unpinnedJobs.size() < 2)
+        {
+            return;
+        }
 
+        Iterator<UWSJob> orderedJobs = schedulingPolicy
+                .order(unpinnedJobs, running, Collections.unmodifiableMap(this.schedulingDetails), now).iterator();
+        for (int i = 0; i < this.queuedJobs.size(); i++)
+        {
+            if (!this.pinnedJobIds.contains(this.queuedJobs.get(i).getJobId()))
+            {
+                this.queuedJobs.set(i, orderedJobs.next());
+            }
+        }
+        invalidateQueuePositions();
     }
 
     /**
-     * {@inheritDoc}
+     * Returns the position of a job in the queue, counting from 1 and skipping any finished jobs ahead of it. Jobs
+     * which are not queued are given the position after the last queued job.
+     * <p>
+     * Positions are read from a snapshot of the queue so that users checking on their jobs don't each walk the whole
+     * queue. The snapshot is rebuilt when it is more than a second old, when the queue has grown or shrunk, or when
+     * jobs have been reprioritised, so a position may lag behind the queue by up to a second.
+     * 
+     * @param job
+     *            the UWS job
+     * @return the position of the job in the queue
      */
-    @Override
-    public boolean hasQueue()
+    public int getQueuePosition(UWSJob job)
     {
-        if (!lockQueue())
+        QueuePositions snapshot = queuePositions;
+        if (snapshot.isStale(this.queuedJobs.size()))
         {
-            return false;
+            snapshot = buildQueuePositions();
         }
-        try
+        Integer position = snapshot.positions.get(job);
+        return position == null ? snapshot.nextPosition : position;
+    }
+
+    private synchronized QueuePositions buildQueuePositions()
+    {
+        // another thread may have rebuilt the snapshot while this one was waiting for the lock
+        QueuePositions current = queuePositions;
+        if (!current.isStale(this.queuedJobs.size()))
         {
-            boolean result = super.hasQueue();
-            return result;
+            return current;
         }
-        finally
+        Map<UWSJob, Integer> positions = new IdentityHashMap<>();
+        int position = 1;
+        for (UWSJob job : this.queuedJobs)
         {
-            unlockQueue();
+            positions.put(job, position);
+            if (!job.isFinished())
+            {
+                position++;
+            }
         }
+        QueuePositions snapshot =
+                new QueuePositions(positions, position, this.queuedJobs.size(), System.currentTimeMillis());
+        queuePositions = snapshot;
+        return snapshot;
+    }
 
+    private void invalidateQueuePositions()
+    {
+        queuePositions = new QueuePositions(new IdentityHashMap<>(), 1, 0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean hasQueue()
+    {
+        return super.hasQueue();
     }
 
     /**
@@ -201,43 +284,31 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
      * 
      * @return the ordered list of jobs
      */
-    public List<UWSJob> getOrderedJobList()
+    public synchronized List<UWSJob> getOrderedJobList()
     {
         List<UWSJob> jobs = new ArrayList<>();
-        while (!lockQueue())
-        {
-            logger.debug("Waiting for lock to get job list");
-        }
-        try
+        CollectionUtils.addAll(jobs, this.getRunningJobs());
+        // order the running jobs by start time
+        Collections.sort(jobs, new Comparator<UWSJob>()
         {
-            CollectionUtils.addAll(jobs, this.getRunningJobs());
-            // order the running jobs by start time
-            Collections.sort(jobs, new Comparator<UWSJob>()
+            @Override
+            public int compare(UWSJob a, UWSJob b)
             {
-                @Override
-                public int compare(UWSJob a, UWSJob b)
+                if (a.getStartTime() == null && b.getStartTime() == null)
                 {
-                    if (a.getStartTime() == null && b.getStartTime() == null)
-                    {
-                        return 0;
-                    }
-                    else if (a.getStartTime() == null || b.getStartTime() == null)
-                    {
-                        return a.getStartTime() == null ? -1 : 1;
-                    }
-                    return a.getStartTime().compareTo(b.getStartTime());
+                    return 0;
                 }
+                else if (a.getStartTime() == null || b.getStartTime() == null)
+                {
+                    return a.getStartTime() == null ? -1 : 1;
+                }
+                return a.getStartTime().compareTo(b.getStartTime());
+            }
 
-            });
-            // this adds all the queued jobs in the order that they will be run
-            CollectionUtils.addAll(jobs, this.getQueuedJobs());
-            return jobs;
-        }
-        finally
-        {
-            unlockQueue();
-        }
-
+        });
+        // this adds all the queued jobs in the order that they will be run
+        CollectionUtils.addAll(jobs, this.getQueuedJobs());
+        return jobs;
     }
 
     /**
@@ -247,7 +318,7 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
      * @param job
      *            the uws job to add to the list of running jobs
      */
-    protected void addRunningJob(UWSJob job)
+    protected synchronized void addRunningJob(UWSJob job)
     {
         this.runningJobs.put(job.getJobId(), job);
     }
@@ -258,9 +329,10 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
      * @param job
      *            the uws job to add to the list of running jobs
      */
-    protected void addQueuedJob(UWSJob job)
+    protected synchronized void addQueuedJob(UWSJob job)
     {
         this.queuedJobs.add(job);
+        invalidateQueuePositions();
     }
 
     /**
@@ -270,7 +342,7 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
      * @param job
      *            the uws job to remove from the list of running jobs
      */
-    private void removeRunningJob(UWSJob job)
+    private synchronized void removeRunningJob(UWSJob job)
     {
         logger.debug("Removing running job {}", job.getJobId());
         this.runningJobs.remove(job.getJobId());
@@ -282,7 +354,7 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
      * 
      * @return true if the queue is paused and will not begin executing any new jobs
      */
-    public boolean isQueuePaused()
+    public synchronized boolean isQueuePaused()
     {
         for (Iterator<UWSJob> runningJobs = this.getRunningJobs(); runningJobs.hasNext();)
         {
@@ -303,7 +375,7 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
      * @throws UWSException
      *             if there is a problem pausing the queue
      */
-    public void pauseQueue() throws UWSException
+    public synchronized void pauseQueue() throws UWSException
     {
         if (!this.isQueuePaused())
         {
@@ -326,7 +398,7 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
      * @throws UWSException
      *             if there is a problem unpausing the queue
      */
-    public void unpauseQueue() throws UWSException
+    public synchronized void unpauseQueue() throws UWSException
     {
         logger.debug("Number of running jobs {} with keys {}", this.getNbRunningJobs(), this.runningJobs.keySet());
         List<UWSJob> pausedJobs = new ArrayList<>();
@@ -346,4 +418,58 @@ public class PriorityQueueExecutionManager extends QueuedExecutionManager
         // this will initiate the queue to pick up a new job to run
         this.refresh();
     }
+
+    /**
+     * Changes the number of jobs which may run at once. If the limit is lowered, jobs which are already running are
+     * left to finish; if it is raised, queued jobs are started straight away. The limit of a paused queue is left
+     * alone, as the queue is held by one pause job for each running slot.
+     * 
+     * @param maxRunningJobs
+     *            the new maximum number of running jobs, at least 1
+     * @return true if the queue now has the given limit, false if it could not be changed
+     * @throws UWSException
+     *             if there is a problem starting queued jobs
+     */
+    public synchronized boolean resize(int maxRunningJobs) throws UWSException
+    {
+        if (maxRunningJobs < 1 || isQueuePaused())
+        {
+            return false;
+        }
+        if (maxRunningJobs != getMaxRunningJobs())
+        {
+            logger.info("Changing maximum running jobs from {} to {}", getMaxRunningJobs(), maxRunningJobs);
+            setMaxRunningJobs(maxRunningJobs);
+            this.refresh();
+        }
+        return true;
+    }
+
+    /**
+     * An immutable snapshot of the positions of the queued jobs.
+     */
+    private static class QueuePositions
+    {
+        private final Map<UWSJob, Integer> positions;
+
+        private final int nextPosition;
+
+        private final int queueSize;
+
+        private final long builtMillis;
+
+        QueuePositions(Map<UWSJob, Integer> positions, int nextPosition, int queueSize, long builtMillis)
+        {
+            this.positions = positions;
+            this.nextPosition = nextPosition;
+            this.queueSize = queueSize;
+            this.builtMillis = builtMillis;
+        }
+
+        boolean isStale(int currentQueueSize)
+        {
+            return currentQueueSize != queueSize
+                    || System.currentTimeMillis() - builtMillis > QUEUE_POSITIONS_MAX_AGE_MILLIS;
+        }
+    }
 }
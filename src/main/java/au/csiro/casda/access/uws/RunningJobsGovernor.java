@@ -0,0 +1,525 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import au.csiro.casda.access.jpa.CachedFileRepository;
+import au.csiro.casda.access.security.BackendResilience;
+import au.csiro.casda.access.security.BackendResilience.Guard;
+import au.csiro.casda.access.security.BackendResilience.State;
+import au.csiro.casda.access.security.HttpConnectionPools;
+import au.csiro.casda.entity.dataaccess.CachedFile;
+import uws.UWSException;
+
+/**
+ * Adjusts the maximum number of running jobs of the category A and B queues to suit the load on the system.
+ * <p>
+ * Every so often the governor measures how much data has been packaged, the response time of NGAS, the share of CPU
+ * time spent waiting on I/O and the number of files waiting to be recalled into the cache. If NGAS is slower than its
+ * target or unavailable, or the I/O wait or recall backlog is above its limit, more running jobs would only add to the
+ * contention, so each queue's limit is cut by a quarter. Otherwise a queue which has jobs waiting and every slot in
+ * use is given one more slot, unless the last slot it was given made packaging slower, in which case that slot is
+ * taken away again. Limits stay within the configured bounds for each queue.
+ * <p>
+ * Packaging throughput is only known when jobs finish, so it is measured over the time since a job last finished
+ * while jobs were running, and smoothed over several measurements. Until a job finishes after a queue is given
+ * another slot, the queue's limit is left as it is.
+ * <p>
+ * An administrator may fix the limit of a queue, which stops the governor changing it until the queue is handed back.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+@Component
+public class RunningJobsGovernor implements PublicMetrics
+{
+    private static Logger logger = LoggerFactory.getLogger(RunningJobsGovernor.class);
+
+    /** How much packaging throughput may drop after a queue is given another slot before the slot is taken back */
+    private static final double THROUGHPUT_TOLERANCE = 0.1;
+
+    /** The weight given to the latest throughput measurement in the smoothed throughput */
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    private static final double MILLIS_PER_SECOND = 1000d;
+
+    /** The position of the iowait figure in the cpu line of /proc/stat, after the "cpu" label */
+    private static final int IOWAIT_FIELD = 5;
+
+    private final AccessJobManager accessJobManager;
+
+    private final JobCompletionNotifier jobCompletionNotifier;
+
+    private final Guard ngasGuard;
+
+    private final CachedFileRepository cachedFileRepository;
+
+    private final boolean enabled;
+
+    private final double maxIoWait;
+
+    private final long maxRecallBacklog;
+
+    private final int maxDownloadAttempts;
+
+    private final String cpuStatFile;
+
+    private final Map<String, QueueLimit> queueLimits = new LinkedHashMap<>();
+
+    private long lastMeasuredMillis;
+
+    private long lastPackagedKb;
+
+    private long[] lastCpuTimes;
+
+    private double smoothedThroughputKbPerSecond = -1;
+
+    private Measurements latestMeasurements = new Measurements(-1, false, 0, false, 0, 0);
+
+    /**
+     * Constructor
+     *
+     * @param accessJobManager
+     *            the manager of the queues
+     * @param jobCompletionNotifier
+     *            keeps track of how much data has been packaged
+     * @param backendResilience
+     *            provides the average response time of NGAS
+     * @param cachedFileRepository
+     *            the repository used to count the files waiting to be recalled
+     * @param enabled
+     *            whether the limits are adjusted automatically, if not they are only changed by an administrator
+     * @param categoryAMaxRunningJobs
+     *            the initial maximum number of running jobs for the category A queue
+     * @param categoryAMinLimit
+     *            the lowest the category A limit will be set automatically
+     * @param categoryAMaxLimit
+     *            the highest the category A limit will be set automatically, the initial limit is used if this is lower
+     * @param categoryBMaxRunningJobs
+     *            the initial maximum number of running jobs for the category B queue
+     * @param categoryBMinLimit
+     *            the lowest the category B limit will be set automatically
+     * @param categoryBMaxLimit
+     *            the highest the category B limit will be set automatically, the initial limit is used if this is lower
+     * @param maxIoWait
+     *            the fraction of CPU time waiting on I/O above which limits are cut
+     * @param maxRecallBacklog
+     *            the number of files waiting to be recalled above which limits are cut
+     * @param maxDownloadAttempts
+     *            the number of attempts made to download a file, used to tell which files are still being recalled
+     * @param cpuStatFile
+     *            the file to read CPU times from, in the format of /proc/stat, or blank to ignore I/O wait
+     */
+    @Autowired
+    public RunningJobsGovernor(AccessJobManager accessJobManager, JobCompletionNotifier jobCompletionNotifier,
+            BackendResilience backendResilience, CachedFileRepository cachedFileRepository,
+            @Value("${uws.concurrency.adaptive.enabled}") boolean enabled,
+            @Value("${uws.category.a.maxrunningjobs}") int categoryAMaxRunningJobs,
+            @Value("${uws.category.a.maxrunningjobs.min}") int categoryAMinLimit,
+            @Value("${uws.category.a.maxrunningjobs.max}") int categoryAMaxLimit,
+            @Value("${uws.category.b.maxrunningjobs}") int categoryBMaxRunningJobs,
+            @Value("${uws.category.b.maxrunningjobs.min}") int categoryBMinLimit,
+            @Value("${uws.category.b.maxrunningjobs.max}") int categoryBMaxLimit,
+            @Value("${uws.concurrency.max.iowait}") double maxIoWait,
+            @Value("${uws.concurrency.max.recall.backlog}") long maxRecallBacklog,
+            @Value("${max.download.attempts}") int maxDownloadAttempts,
+            @Value("${uws.concurrency.cpu.stat.file}") String cpuStatFile)
+    {
+        this.accessJobManager = accessJobManager;
+        this.jobCompletionNotifier = jobCompletionNotifier;
+        this.ngasGuard = backendResilience.getGuard(HttpConnectionPools.NGAS);
+        this.cachedFileRepository = cachedFileRepository;
+        this.enabled = enabled;
+        this.maxIoWait = maxIoWait;
+        this.maxRecallBacklog = maxRecallBacklog;
+        this.maxDownloadAttempts = maxDownloadAttempts;
+        this.cpuStatFile = cpuStatFile;
+        this.queueLimits.put(AccessJobManager.CATEGORY_A_JOB_LIST_NAME,
+                new QueueLimit(categoryAMinLimit, Math.max(categoryAMaxLimit, categoryAMaxRunningJobs)));
+        this.queueLimits.put(AccessJobManager.CATEGORY_B_JOB_LIST_NAME,
+                new QueueLimit(categoryBMinLimit, Math.max(categoryBMaxLimit, categoryBMaxRunningJobs)));
+        this.lastMeasuredMillis = System.currentTimeMillis();
+        this.lastPackagedKb = jobCompletionNotifier.getPackagedKb();
+        this.lastCpuTimes = readCpuTimes();
+    }
+
+    /**
+     * Measures the load on the system and adjusts the limit of each queue.
+     */
+    @Scheduled(fixedDelayString = "${uws.concurrency.adjust.millis}")
+    public void adjust()
+    {
+        adjust(System.currentTimeMillis());
+    }
+
+    /**
+     * Measures the load on the system and adjusts the limit of each queue.
+     *
+     * @param nowMillis
+     *            the current time
+     */
+    synchronized void adjust(long nowMillis)
+    {
+        Measurements measurements = measure(nowMillis);
+        latestMeasurements = measurements;
+        boolean congested = measurements.ngasCircuitOpen || measurements.ngasLatencyRatio > 1
+                || measurements.ioWait > maxIoWait || measurements.recallBacklog > maxRecallBacklog;
+
+        for (Map.Entry<String, QueueLimit> entry : queueLimits.entrySet())
+        {
+            PriorityQueueExecutionManager executionManager =
+                    accessJobManager.getQueueExecutionManager(entry.getKey());
+            if (executionManager == null)
+            {
+                continue;
+            }
+            QueueLimit queueLimit = entry.getValue();
+            int current = executionManager.getMaxRunningJobs();
+            int target = current;
+            boolean increased = false;
+            boolean awaitingThroughput = queueLimit.throughputWhenIncreased > 0;
+            if (queueLimit.override != null)
+            {
+                target = queueLimit.override;
+            }
+            else if (!enabled)
+            {
+                continue;
+            }
+            else if (congested)
+            {
+                target = current - Math.max(1, current / 4);
+            }
+            else if (awaitingThroughput && !measurements.throughputMeasured)
+            {
+                // no job has finished since the last slot was given, so it can't yet be told whether it helped
+                continue;
+            }
+            else if (awaitingThroughput && measurements.throughputKbPerSecond < queueLimit.throughputWhenIncreased
+                    * (1 - THROUGHPUT_TOLERANCE))
+            {
+                target = current - 1;
+            }
+            else if (executionManager.getNbQueuedJobs() > 0 && executionManager.getNbRunningJobs() >= current)
+            {
+                target = current + 1;
+                increased = true;
+            }
+            if (queueLimit.override == null)
+            {
+                target = Math.min(queueLimit.maxLimit, Math.max(queueLimit.minLimit, target));
+            }
+            boolean resized = false;
+            if (target != current)
+            {
+                logger.info("Changing maximum running jobs for {} from {} to {} with {}", entry.getKey(), current,
+                        target, measurements);
+                resized = resize(entry.getKey(), executionManager, target);
+            }
+            queueLimit.throughputWhenIncreased =
+                    increased && resized && target > current ? measurements.throughputKbPerSecond : -1;
+        }
+    }
+
+    private Measurements measure(long nowMillis)
+    {
+        long packagedKb = jobCompletionNotifier.getPackagedKb();
+        boolean throughputMeasured = false;
+        if (packagedKb > lastPackagedKb && nowMillis > lastMeasuredMillis)
+        {
+            // measured over the time since a job last finished, so a period in which none did isn't taken as a drop
+            double throughputKbPerSecond =
+                    (packagedKb - lastPackagedKb) * MILLIS_PER_SECOND / (nowMillis - lastMeasuredMillis);
+            smoothedThroughputKbPerSecond = smoothedThroughputKbPerSecond < 0 ? throughputKbPerSecond
+                    : THROUGHPUT_SMOOTHING * throughputKbPerSecond
+                            + (1 - THROUGHPUT_SMOOTHING) * smoothedThroughputKbPerSecond;
+            throughputMeasured = true;
+            lastMeasuredMillis = nowMillis;
+            lastPackagedKb = packagedKb;
+        }
+        else if (!isAnyJobRunning())
+        {
+            // time with nothing running says nothing about throughput
+            lastMeasuredMillis = nowMillis;
+            lastPackagedKb = packagedKb;
+        }
+
+        long[] cpuTimes = readCpuTimes();
+        double ioWait = 0;
+        if (cpuTimes != null && lastCpuTimes != null)
+        {
+            long total = 0;
+            for (int i = 0; i < cpuTimes.length && i < lastCpuTimes.length; i++)
+            {
+                total += cpuTimes[i] - lastCpuTimes[i];
+            }
+            ioWait = total > 0 ? (cpuTimes[IOWAIT_FIELD - 1] - lastCpuTimes[IOWAIT_FIELD - 1]) / (double) total : 0;
+        }
+        lastCpuTimes = cpuTimes;
+
+        return new Measurements(smoothedThroughputKbPerSecond, throughputMeasured, ngasGuard.getLatencyRatio(),
+                ngasGuard.getState() == State.OPEN, ioWait, countRecallBacklog());
+    }
+
+    private boolean isAnyJobRunning()
+    {
+        for (String queue : queueLimits.keySet())
+        {
+            PriorityQueueExecutionManager executionManager = accessJobManager.getQueueExecutionManager(queue);
+            if (executionManager != null && executionManager.getNbRunningJobs() > 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long countRecallBacklog()
+    {
+        try
+        {
+            Page<CachedFile> downloading =
+                    cachedFileRepository.findDownloadingCachedFiles(maxDownloadAttempts, new PageRequest(0, 1));
+            return downloading == null ? 0 : downloading.getTotalElements();
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Unable to count the files waiting to be recalled", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the total CPU times from the first line of a file in the format of /proc/stat, e.g.
+     * "cpu  4705 356 584 3699 23 23 0 0 0 0", where the fifth figure is the time spent waiting on I/O.
+     *
+     * @return the CPU times, or null if they could not be read
+     */
+    private long[] readCpuTimes()
+    {
+        if (StringUtils.isBlank(cpuStatFile))
+        {
+            return null;
+        }
+        try
+        {
+            List<String> lines = Files.readAllLines(Paths.get(cpuStatFile), StandardCharsets.US_ASCII);
+            if (lines.isEmpty() || !lines.get(0).startsWith("cpu "))
+            {
+                return null;
+            }
+            String[] fields = StringUtils.split(lines.get(0).substring("cpu ".length()));
+            if (fields.length < IOWAIT_FIELD)
+            {
+                return null;
+            }
+            long[] cpuTimes = new long[fields.length];
+            for (int i = 0; i < fields.length; i++)
+            {
+                cpuTimes[i] = Long.parseLong(fields[i]);
+            }
+            return cpuTimes;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.debug("Unable to read CPU times from {}", cpuStatFile, e);
+            return null;
+        }
+    }
+
+    private boolean resize(String queue, PriorityQueueExecutionManager executionManager, int maxRunningJobs)
+    {
+        try
+        {
+            return executionManager.resize(maxRunningJobs);
+        }
+        catch (UWSException e)
+        {
+            logger.error("Unable to change the maximum running jobs for {} to {}", queue, maxRunningJobs, e);
+            return false;
+        }
+    }
+
+    /**
+     * Fixes the maximum number of running jobs for a queue, so that it is no longer adjusted automatically.
+     *
+     * @param queue
+     *            the name of the queue
+     * @param maxRunningJobs
+     *            the maximum number of running jobs, at least 1
+     * @return true if the limit was set, false if there is no such queue, the limit is invalid or the queue is paused
+     */
+    public synchronized boolean overrideMaxRunningJobs(String queue, int maxRunningJobs)
+    {
+        QueueLimit queueLimit = queueLimits.get(queue);
+        PriorityQueueExecutionManager executionManager = accessJobManager.getQueueExecutionManager(queue);
+        if (queueLimit == null || executionManager == null || maxRunningJobs < 1
+                || !resize(queue, executionManager, maxRunningJobs))
+        {
+            return false;
+        }
+        logger.info("Maximum running jobs for {} fixed at {}", queue, maxRunningJobs);
+        queueLimit.override = maxRunningJobs;
+        queueLimit.throughputWhenIncreased = -1;
+        return true;
+    }
+
+    /**
+     * Hands the maximum number of running jobs for a queue back to the governor.
+     *
+     * @param queue
+     *            the name of the queue
+     * @return true if the queue's limit will be adjusted automatically again, false if there is no such queue
+     */
+    public synchronized boolean clearOverride(String queue)
+    {
+        QueueLimit queueLimit = queueLimits.get(queue);
+        if (queueLimit == null)
+        {
+            return false;
+        }
+        queueLimit.override = null;
+        return true;
+    }
+
+    /**
+     * @return the limits of each queue and the latest measurements, for reporting
+     */
+    public synchronized Map<String, Object> getDetails()
+    {
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("adaptive", enabled);
+        for (Map.Entry<String, QueueLimit> entry : queueLimits.entrySet())
+        {
+            QueueLimit queueLimit = entry.getValue();
+            PriorityQueueExecutionManager executionManager =
+                    accessJobManager.getQueueExecutionManager(entry.getKey());
+            Map<String, Object> queueDetails = new LinkedHashMap<>();
+            if (executionManager != null)
+            {
+                queueDetails.put("maxRunningJobs", executionManager.getMaxRunningJobs());
+                queueDetails.put("runningJobs", executionManager.getNbRunningJobs());
+                queueDetails.put("queuedJobs", executionManager.getNbQueuedJobs());
+            }
+            queueDetails.put("minLimit", queueLimit.minLimit);
+            queueDetails.put("maxLimit", queueLimit.maxLimit);
+            queueDetails.put("override", queueLimit.override);
+            details.put(entry.getKey(), queueDetails);
+        }
+        details.put("throughputKbPerSecond", Math.round(latestMeasurements.throughputKbPerSecond));
+        details.put("ngasLatencyRatio", latestMeasurements.ngasLatencyRatio);
+        details.put("ngasCircuitOpen", latestMeasurements.ngasCircuitOpen);
+        details.put("ioWait", latestMeasurements.ioWait);
+        details.put("recallBacklog", latestMeasurements.recallBacklog);
+        return details;
+    }
+
+    @Override
+    public synchronized Collection<Metric<?>> metrics()
+    {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        for (String queue : queueLimits.keySet())
+        {
+            PriorityQueueExecutionManager executionManager = accessJobManager.getQueueExecutionManager(queue);
+            if (executionManager != null)
+            {
+                metrics.add(new Metric<Integer>("uws." + StringUtils.deleteWhitespace(queue).toLowerCase()
+                        + ".maxrunningjobs", executionManager.getMaxRunningJobs()));
+            }
+        }
+        metrics.add(new Metric<Long>("uws.packaging.throughput.kbps",
+                Math.round(latestMeasurements.throughputKbPerSecond)));
+        metrics.add(new Metric<Long>("uws.recall.backlog", latestMeasurements.recallBacklog));
+        return metrics;
+    }
+
+    /**
+     * The bounds and state of the limit of one queue.
+     */
+    private static class QueueLimit
+    {
+        private final int minLimit;
+
+        private final int maxLimit;
+
+        private Integer override;
+
+        /** The smoothed throughput when the queue was last given another slot, or -1 if that has been judged */
+        private double throughputWhenIncreased = -1;
+
+        QueueLimit(int minLimit, int maxLimit)
+        {
+            this.minLimit = Math.max(1, minLimit);
+            this.maxLimit = Math.max(this.minLimit, maxLimit);
+        }
+    }
+
+    /**
+     * The load on the system over the period since the previous measurements.
+     */
+    private static class Measurements
+    {
+        /** The smoothed packaging throughput */
+        private final double throughputKbPerSecond;
+
+        /** Whether a job has finished since the previous measurements, so the throughput has been updated */
+        private final boolean throughputMeasured;
+
+        private final double ngasLatencyRatio;
+
+        private final boolean ngasCircuitOpen;
+
+        private final double ioWait;
+
+        private final long recallBacklog;
+
+        Measurements(double throughputKbPerSecond, boolean throughputMeasured, double ngasLatencyRatio,
+                boolean ngasCircuitOpen, double ioWait, long recallBacklog)
+        {
+            this.throughputKbPerSecond = throughputKbPerSecond;
+            this.throughputMeasured = throughputMeasured;
+            this.ngasLatencyRatio = ngasLatencyRatio;
+            this.ngasCircuitOpen = ngasCircuitOpen;
+            this.ioWait = ioWait;
+            this.recallBacklog = recallBacklog;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("throughput %.0f KB/s, NGAS latency ratio %.2f%s, I/O wait %.2f, recall backlog %d",
+                    throughputKbPerSecond, ngasLatencyRatio, ngasCircuitOpen ? " (circuit open)" : "", ioWait,
+                    recallBacklog);
+        }
+    }
+}
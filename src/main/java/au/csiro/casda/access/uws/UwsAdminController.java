@@ -3,6 +3,7 @@ package au.csiro.casda.access.uws;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -63,6 +64,9 @@ public class UwsAdminController
 
     @Autowired
     private DataAccessJobRepository dataAccessJobRepository;
+
+    @Autowired
+    private RunningJobsGovernor runningJobsGovernor;
     
     @Value("${google.analytics.id}")
     private String googleAnalyticsId;
@@ -253,6 +257,65 @@ public class UwsAdminController
                 HttpStatus.NOT_FOUND);
     }
 
+    /**
+     * Get method to report the maximum number of running jobs of each queue, the bounds they are adjusted within and
+     * the measurements of system load they are based on.
+     * 
+     * @return the details of the running job limits
+     */
+    @RequestMapping(value = "/queues/concurrency", method = RequestMethod.GET)
+    public @ResponseBody Map<String, Object> viewConcurrency()
+    {
+        return runningJobsGovernor.getDetails();
+    }
+
+    /**
+     * Put method to fix the maximum number of running jobs of a queue, overriding the automatic adjustment.
+     * 
+     * @param queue
+     *            the queue name
+     * @param maxRunningJobs
+     *            the maximum number of jobs the queue may run at once
+     * @return MessageDTO with the result, and the response code of 200 if set, 404 if not
+     */
+    @RequestMapping(value = "/queues/{queue}/concurrency", method = RequestMethod.PUT)
+    public @ResponseBody ResponseEntity<MessageDTO> overrideConcurrency(@PathVariable() String queue,
+            @RequestParam(required = true) int maxRunningJobs)
+    {
+        logger.info("Hit the controller for the '/queues/{}/concurrency?maxRunningJobs={}' url mapping", queue,
+                maxRunningJobs);
+
+        if (runningJobsGovernor.overrideMaxRunningJobs(queue, maxRunningJobs))
+        {
+            return new ResponseEntity<MessageDTO>(new MessageDTO(MessageCode.SUCCESS,
+                    "Queue " + queue + " maximum running jobs set to " + maxRunningJobs), HttpStatus.OK);
+        }
+        return new ResponseEntity<MessageDTO>(
+                new MessageDTO(MessageCode.FAILURE, "No suitable unpaused queue found for that limit"),
+                HttpStatus.NOT_FOUND);
+    }
+
+    /**
+     * Put method to return the maximum number of running jobs of a queue to automatic adjustment.
+     * 
+     * @param queue
+     *            the queue name
+     * @return MessageDTO with the result, and the response code of 200 if found, 404 if not
+     */
+    @RequestMapping(value = "/queues/{queue}/concurrency/adaptive", method = RequestMethod.PUT)
+    public @ResponseBody ResponseEntity<MessageDTO> adaptiveConcurrency(@PathVariable() String queue)
+    {
+        logger.info("Hit the controller for the '/queues/{}/concurrency/adaptive' url mapping", queue);
+
+        if (runningJobsGovernor.clearOverride(queue))
+        {
+            return new ResponseEntity<MessageDTO>(new MessageDTO(MessageCode.SUCCESS,
+                    "Queue " + queue + " maximum running jobs will be adjusted automatically"), HttpStatus.OK);
+        }
+        return new ResponseEntity<MessageDTO>(new MessageDTO(MessageCode.FAILURE, "No suitable queue found"),
+                HttpStatus.NOT_FOUND);
+    }
+
     /**
      * Admin endpoint to allow a job to be resumed. If the request id is 'failed' or 'preparing' it will attempt to
      * restart all the failed or preparing jobs displayed on the page - these are mainly intended for testing purposes.
@@ -0,0 +1,121 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the progress of restoring the UWS job queues from their backup, so that it can be reported while the
+ * restore runs in the background.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class UwsRestoreProgress
+{
+    private final AtomicInteger jobsRead = new AtomicInteger();
+
+    private final AtomicInteger jobsRestored = new AtomicInteger();
+
+    private final AtomicInteger jobsFailed = new AtomicInteger();
+
+    private volatile long startMillis;
+
+    private volatile long finishMillis;
+
+    /**
+     * Records that the restore has started.
+     */
+    void start()
+    {
+        jobsRead.set(0);
+        jobsRestored.set(0);
+        jobsFailed.set(0);
+        finishMillis = 0;
+        startMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Records that a job has been read from the backup.
+     */
+    void jobRead()
+    {
+        jobsRead.incrementAndGet();
+    }
+
+    /**
+     * Records that a job has been put back on its queue.
+     */
+    void jobRestored()
+    {
+        jobsRestored.incrementAndGet();
+    }
+
+    /**
+     * Records that a job read from the backup couldn't be restored.
+     */
+    void jobFailed()
+    {
+        jobsFailed.incrementAndGet();
+    }
+
+    /**
+     * Records that the restore has finished.
+     */
+    void finish()
+    {
+        finishMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true if the restore has started but not yet finished
+     */
+    public boolean isRestoring()
+    {
+        return startMillis > 0 && finishMillis == 0;
+    }
+
+    /**
+     * @return true if the restore has finished
+     */
+    public boolean isFinished()
+    {
+        return finishMillis > 0;
+    }
+
+    public int getJobsRead()
+    {
+        return jobsRead.get();
+    }
+
+    public int getJobsRestored()
+    {
+        return jobsRestored.get();
+    }
+
+    public int getJobsFailed()
+    {
+        return jobsFailed.get();
+    }
+
+    /**
+     * @return how long the restore has been running, or took if it has finished, in milliseconds
+     */
+    public long getElapsedMillis()
+    {
+        if (startMillis == 0)
+        {
+            return 0;
+        }
+        return (finishMillis > 0 ? finishMillis : System.currentTimeMillis()) - startMillis;
+    }
+}
@@ -317,6 +317,8 @@ $(document).ready(function(){
 									<c:choose>	
 										<c:when test="${dataAccessJob.ready}">
 											<a href="${downloadLink}" class="downloadLink" title="Click to download the urls of the above files in a single text file.">Save links as text file</a>																					
+											<span class="downloadLink" style="padding-bottom: 5px;">|</span>
+											<a href="${archiveLink}" class="downloadLink" title="Click to download all of the above files and their checksums in a single tar file.">Download all as tar file</a>
 										</c:when>
 									</c:choose>
 								</td>
@@ -45,6 +45,9 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
@@ -84,8 +87,11 @@ import au.csiro.casda.access.jpa.MeasurementSetRepository;
 import au.csiro.casda.access.jpa.MomentMapRepository;
 import au.csiro.casda.access.jpa.SpectrumRepository;
 import au.csiro.casda.access.jpa.ThumbnailRepository;
+import au.csiro.casda.access.services.AsyncDownloadStreamer;
 import au.csiro.casda.access.services.CasdaMailService;
 import au.csiro.casda.access.services.DataAccessService;
+import au.csiro.casda.access.services.DownloadGovernor;
+import au.csiro.casda.access.services.NgasLocationCache;
 import au.csiro.casda.access.services.NgasService;
 import au.csiro.casda.access.soda.AccessDataController;
 import au.csiro.casda.access.uws.AccessJobManager;
@@ -94,6 +100,7 @@ import au.csiro.casda.entity.dataaccess.CachedFile.FileType;
 import au.csiro.casda.entity.dataaccess.ParamMap.ParamKeyWhitelist;
 import au.csiro.casda.entity.dataaccess.CasdaDownloadMode;
 import au.csiro.casda.entity.dataaccess.DataAccessJob;
+import au.csiro.casda.entity.dataaccess.DataAccessJobStatus;
 import au.csiro.casda.entity.dataaccess.ImageCutout;
 import au.csiro.casda.jobmanager.ProcessJobBuilder.ProcessJobFactory;
 
@@ -180,7 +187,8 @@ public class DataAccessDownloadControllerTest
                 encapsulationFileRepository, evaluationFileRepository, thumbnailRepository, cachedFileRepository,
                 ngasService, cacheDir.getRoot().getAbsolutePath(), 25, 1000, "", "", "", mock(ProcessJobFactory.class),
                 mock(CacheManager.class), dataAccessJdbcRepository, imageCutoutRepository, generatedSpectrumRepository,
-                casdaMailService, downloadManager);
+                casdaMailService, downloadManager, mock(AsyncDownloadStreamer.class),
+                new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
         controller = new DataAccessDownloadController(dataAccessJobRepository, dataAccessService, accessJobManager,
                 "https://myserver:8080/maps/<project>/<file>", "/path/to/coverage/", "moc.fits", "preview.jpg",
                 "https://casda-dev-app.csiro.au/maps/<hips_path>", "/ASKAP/archive/dev/vol002/maps/active/", "sssh");
@@ -386,6 +394,162 @@ public class DataAccessDownloadControllerTest
                 .andExpect(header().string("Content-Type", MediaType.APPLICATION_OCTET_STREAM_VALUE));
     }
 
+    @Test
+    public void testDownloadSingleByteRange() throws Exception
+    {
+        String requestId = "123-abc";
+        String filename = "test.fits";
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setDownloadMode(CasdaDownloadMode.WEB);
+        when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+        createCachedDataFile(requestId, filename, "0123456789", FileType.IMAGE_CUBE);
+
+        MvcResult result = this.mockMvc.perform(get("/requests/" + requestId + "/" + filename).header("Range",
+                "bytes=2-5")) //
+                .andExpect(status().isPartialContent()) //
+                .andExpect(header().string("Accept-Ranges", "bytes")) //
+                .andExpect(header().string("Content-Range", "bytes 2-5/10")) //
+                .andExpect(header().string("Content-Length", "4")).andReturn();
+
+        assertEquals("2345", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testDownloadSuffixByteRange() throws Exception
+    {
+        String requestId = "123-abc";
+        String filename = "test.fits";
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setDownloadMode(CasdaDownloadMode.PAWSEY_HTTP);
+        when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+        createCachedDataFile(requestId, filename, "0123456789", FileType.IMAGE_CUBE);
+
+        MvcResult result = this.mockMvc.perform(get("/pawsey/requests/" + requestId + "/" + filename).header("Range",
+                "bytes=-3")) //
+                .andExpect(status().isPartialContent()) //
+                .andExpect(header().string("Content-Range", "bytes 7-9/10")).andReturn();
+
+        assertEquals("789", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testDownloadMultipleByteRanges() throws Exception
+    {
+        String requestId = "123-abc";
+        String filename = "test.txt";
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setDownloadMode(CasdaDownloadMode.WEB);
+        when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+        createCachedDataFile(requestId, filename, "0123456789", FileType.MEASUREMENT_SET);
+
+        MvcResult result = this.mockMvc.perform(get("/requests/" + requestId + "/" + filename).header("Range",
+                "bytes=0-1,8-")) //
+                .andExpect(status().isPartialContent()).andReturn();
+
+        String contentType = result.getResponse().getHeader("Content-Type");
+        assertThat(contentType, containsString("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+        String body = result.getResponse().getContentAsString();
+        assertEquals("\r\n--" + boundary + "\r\nContent-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 0-1/10\r\n\r\n01" + "\r\n--" + boundary
+                + "\r\nContent-Type: application/octet-stream\r\nContent-Range: bytes 8-9/10\r\n\r\n89" + "\r\n--"
+                + boundary + "--\r\n", body);
+        assertEquals(Integer.toString(body.length()), result.getResponse().getHeader("Content-Length"));
+    }
+
+    @Test
+    public void testDownloadUnsatisfiableByteRange() throws Exception
+    {
+        String requestId = "123-abc";
+        String filename = "test.fits";
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setDownloadMode(CasdaDownloadMode.WEB);
+        when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+        createCachedDataFile(requestId, filename, "0123456789", FileType.IMAGE_CUBE);
+
+        MvcResult result = this.mockMvc.perform(get("/requests/" + requestId + "/" + filename).header("Range",
+                "bytes=20-30")) //
+                .andExpect(status().isRequestedRangeNotSatisfiable()) //
+                .andExpect(header().string("Content-Range", "bytes */10")).andReturn();
+
+        assertEquals("", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testDownloadByteRangeIgnoredWhenIfRangeDoesNotMatch() throws Exception
+    {
+        String requestId = "123-abc";
+        String filename = "test.fits";
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setDownloadMode(CasdaDownloadMode.WEB);
+        when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+        File dataFile = createCachedDataFile(requestId, filename, "0123456789", FileType.IMAGE_CUBE);
+
+        MvcResult result = this.mockMvc.perform(get("/requests/" + requestId + "/" + filename)
+                .header("Range", "bytes=2-5").header("If-Range", dataFile.lastModified() - 60000)) //
+                .andExpect(status().isOk()).andReturn();
+        assertEquals("0123456789", result.getResponse().getContentAsString());
+
+        result = this.mockMvc.perform(get("/requests/" + requestId + "/" + filename).header("Range", "bytes=2-5")
+                .header("If-Range", dataFile.lastModified())) //
+                .andExpect(status().isPartialContent()).andReturn();
+        assertEquals("2345", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testDownloadConditionalOnChecksumEntityTag() throws Exception
+    {
+        String requestId = "123-abc";
+        String filename = "test.fits";
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setDownloadMode(CasdaDownloadMode.WEB);
+        when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+        createCachedDataFile(requestId, filename, "0123456789", FileType.IMAGE_CUBE);
+        createDataFile(requestId, filename + ".checksum", "1a2b3c a 4d5e6f");
+
+        this.mockMvc.perform(get("/requests/" + requestId + "/" + filename)) //
+                .andExpect(status().isOk()) //
+                .andExpect(header().string("ETag", "\"1a2b3c-a-4d5e6f\""));
+
+        MvcResult result = this.mockMvc.perform(get("/requests/" + requestId + "/" + filename)
+                .header("If-None-Match", "\"other\", \"1a2b3c-a-4d5e6f\"")) //
+                .andExpect(status().isNotModified()) //
+                .andExpect(header().string("ETag", "\"1a2b3c-a-4d5e6f\"")).andReturn();
+        assertEquals("", result.getResponse().getContentAsString());
+
+        result = this.mockMvc.perform(get("/requests/" + requestId + "/" + filename).header("Range", "bytes=0-1")
+                .header("If-Range", "\"1a2b3c-a-4d5e6f\"")) //
+                .andExpect(status().isPartialContent()).andReturn();
+        assertEquals("01", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    public void testDownloadConditionalOnLastModified() throws Exception
+    {
+        String requestId = "123-abc";
+        String filename = "test.txt";
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setDownloadMode(CasdaDownloadMode.WEB);
+        when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+        File dataFile = createCachedDataFile(requestId, filename, "0123456789", FileType.MEASUREMENT_SET);
+
+        this.mockMvc.perform(get("/requests/" + requestId + "/" + filename).header("If-Modified-Since",
+                dataFile.lastModified())) //
+                .andExpect(status().isNotModified());
+
+        MvcResult result = this.mockMvc.perform(get("/requests/" + requestId + "/" + filename)
+                .header("If-Modified-Since", dataFile.lastModified() - 60000)) //
+                .andExpect(status().isOk()).andReturn();
+        assertEquals("0123456789", result.getResponse().getContentAsString());
+    }
+
     @Test
     public void testDownloadCantStreamFile() throws Exception
     {
@@ -566,7 +730,7 @@ public class DataAccessDownloadControllerTest
                 mockdataAccessService, accessJobManager, "", "", "", "", "", "", "");
         MockMvc mockMvc1 = MockMvcBuilders.standaloneSetup(controller1).build();
         mockMvc1.perform(get("/pawsey/thumbnail/" + fileId)).andReturn();
-        verify(mockdataAccessService, times(1)).downloadThumbnailFromNgas(eq(fileId), any());
+        verify(mockdataAccessService, times(1)).downloadThumbnailFromNgas(eq(fileId), any(), any());
     }
 
     @Test
@@ -594,11 +758,12 @@ public class DataAccessDownloadControllerTest
         double radius = 0.1;
         String url = String.format("/preview/image/%d?ra=%f&dec=%f&radius=%f", imageId, ra, dec, radius); 
         
-        when(mockdataAccessService.downloadCutoutPreview(anyLong(), anyDouble(), anyDouble(), anyDouble(), anyObject()))
+        when(mockdataAccessService.downloadCutoutPreview(anyLong(), anyDouble(), anyDouble(), anyDouble(), anyObject(),
+                anyObject()))
                 .thenReturn(true);
         MockMvc mockMvc1 = MockMvcBuilders.standaloneSetup(controller1).build();
         mockMvc1.perform(get(url)).andReturn();
-        verify(mockdataAccessService).downloadCutoutPreview(eq(imageId), eq(ra), eq(dec), eq(radius), any());
+        verify(mockdataAccessService).downloadCutoutPreview(eq(imageId), eq(ra), eq(dec), eq(radius), any(), any());
     }
 
     @Test
@@ -618,12 +783,13 @@ public class DataAccessDownloadControllerTest
         accessJob.addImageCutout(new ImageCutout());
         when(accessJobManager.createDataAccessJob(anyObject(), anyLong(), anyBoolean()))
                 .thenReturn(accessJob);
-        when(mockdataAccessService.downloadCutoutPreview(anyLong(), anyDouble(), anyDouble(), anyDouble(), anyObject()))
+        when(mockdataAccessService.downloadCutoutPreview(anyLong(), anyDouble(), anyDouble(), anyDouble(), anyObject(),
+                anyObject()))
         .thenReturn(false);
         MockMvc mockMvc1 = MockMvcBuilders.standaloneSetup(controller1).build();
         mockMvc1.perform(get(url)).andExpect(status().isNoContent()).andReturn();
         
-        verify(mockdataAccessService).downloadCutoutPreview(eq(imageId), eq(ra), eq(dec), eq(radius), any());
+        verify(mockdataAccessService).downloadCutoutPreview(eq(imageId), eq(ra), eq(dec), eq(radius), any(), any());
 
         ArgumentCaptor<JobDto> jobDtoCaptor = ArgumentCaptor.forClass(JobDto.class);
         verify(accessJobManager).createDataAccessJob(jobDtoCaptor.capture(), eq((Long)null), eq(true));
@@ -656,12 +822,13 @@ public class DataAccessDownloadControllerTest
         accessJob.addImageCutout(new ImageCutout());
         when(accessJobManager.createDataAccessJob(anyObject(), anyLong(), anyBoolean()))
                 .thenReturn(accessJob);
-        when(mockdataAccessService.downloadCutoutPreview(anyLong(), anyDouble(), anyDouble(), anyDouble(), anyObject()))
+        when(mockdataAccessService.downloadCutoutPreview(anyLong(), anyDouble(), anyDouble(), anyDouble(), anyObject(),
+                anyObject()))
         .thenReturn(false);
         MockMvc mockMvc1 = MockMvcBuilders.standaloneSetup(controller1).build();
         mockMvc1.perform(get(url)).andExpect(status().isNoContent()).andReturn();
         
-        verify(mockdataAccessService).downloadCutoutPreview(eq(imageId), eq(ra), eq(dec), eq(radius), any());
+        verify(mockdataAccessService).downloadCutoutPreview(eq(imageId), eq(ra), eq(dec), eq(radius), any(), any());
 
         ArgumentCaptor<JobDto> jobDtoCaptor = ArgumentCaptor.forClass(JobDto.class);
         verify(accessJobManager).createDataAccessJob(jobDtoCaptor.capture(), eq((Long)null), eq(true));
@@ -694,12 +861,13 @@ public class DataAccessDownloadControllerTest
         assertThat(accessJob.getImageCutouts(), is(empty()));
         when(accessJobManager.createDataAccessJob(anyObject(), anyLong(), anyBoolean()))
                 .thenReturn(accessJob);
-        when(mockdataAccessService.downloadCutoutPreview(anyLong(), anyDouble(), anyDouble(), anyDouble(), anyObject()))
+        when(mockdataAccessService.downloadCutoutPreview(anyLong(), anyDouble(), anyDouble(), anyDouble(), anyObject(),
+                anyObject()))
         .thenReturn(false);
         MockMvc mockMvc1 = MockMvcBuilders.standaloneSetup(controller1).build();
         mockMvc1.perform(get(url)).andExpect(status().isNotFound()).andReturn();
         
-        verify(mockdataAccessService).downloadCutoutPreview(eq(imageId), eq(ra), eq(dec), eq(radius), any());
+        verify(mockdataAccessService).downloadCutoutPreview(eq(imageId), eq(ra), eq(dec), eq(radius), any(), any());
 
         ArgumentCaptor<JobDto> jobDtoCaptor = ArgumentCaptor.forClass(JobDto.class);
         verify(accessJobManager).createDataAccessJob(jobDtoCaptor.capture(), eq((Long)null), eq(true));
@@ -715,6 +883,75 @@ public class DataAccessDownloadControllerTest
         verify(accessJobManager, never()).scheduleJob(anyString());
     }
     
+    @Test
+    public void testDownloadArchiveTar() throws Exception
+    {
+        String requestId = "123-abc";
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setDownloadMode(CasdaDownloadMode.WEB);
+        job.setStatus(DataAccessJobStatus.READY);
+        when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+
+        Map<String, Object> fileCounts = new HashMap<>();
+        for (FileType fileType : FileType.values())
+        {
+            fileCounts.put(fileType.name(), fileType == FileType.IMAGE_CUBE ? 2L : 0L);
+        }
+        when(dataAccessJdbcRepository.countFilesForJob(requestId)).thenReturn(fileCounts);
+        List<Map<String, Object>> imageCubes = new ArrayList<>();
+        for (long id = 1; id <= 2; id++)
+        {
+            Map<String, Object> imageCube = new HashMap<>();
+            imageCube.put(DataAccessUtil.ID, id);
+            imageCube.put(DataAccessUtil.OBSERVATION_ID, 12345);
+            imageCube.put(DataAccessUtil.FILENAME, "cube" + id + ".fits");
+            imageCube.put(DataAccessUtil.FILE_SIZE, 1L);
+            imageCubes.add(imageCube);
+        }
+        when(dataAccessJdbcRepository.getPageOfDownloadFiles(eq(FileType.IMAGE_CUBE.name()), eq(requestId),
+                any(Integer[].class), eq(false))).thenReturn(imageCubes);
+
+        String filename = DataAccessUtil.compileUniqueFileId(12345, null,
+                FileType.IMAGE_CUBE.getCollectionName(), "cube1.fits", 1L);
+        createDataFile(requestId, filename, "blah blah");
+        createDataFile(requestId, filename + ".checksum", "1a2b 9 ffee");
+        // the second cube has not been made available so is left out
+
+        MvcResult result = this.mockMvc.perform(get("/requests/" + requestId + "/archive/tar"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", "attachment; filename=" + requestId + ".tar"))
+                .andExpect(header().string("Content-Type", "application/x-tar")).andReturn();
+
+        byte[] archive = result.getResponse().getContentAsByteArray();
+        // two entries of one header block and one content block each, followed by two end blocks
+        assertEquals(512 * 6, archive.length);
+        String content = new String(archive, "US-ASCII");
+        assertThat(content, containsString(requestId + "/" + filename + "\0"));
+        assertThat(content, containsString(requestId + "/" + filename + ".checksum\0"));
+        assertThat(content, containsString("blah blah"));
+
+        testAppender.verifyLogMessage(Level.INFO,
+                allOf(containsString("[E041]"), containsString(requestId), containsString(requestId + ".tar"),
+                        containsString("downloadMode: " + CasdaDownloadMode.WEB.name())),
+                sameInstance((Throwable) null));
+    }
+
+    @Test
+    public void testDownloadArchiveNotReady() throws Exception
+    {
+        String requestId = "123-abc";
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setDownloadMode(CasdaDownloadMode.PAWSEY_HTTP);
+        job.setStatus(DataAccessJobStatus.PREPARING);
+        when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+
+        this.mockMvc.perform(get("/pawsey/requests/" + requestId + "/archive/zip")).andExpect(status().isConflict());
+        this.mockMvc.perform(get("/requests/" + requestId + "/archive/zip")).andExpect(status().isNotFound());
+        this.mockMvc.perform(get("/pawsey/requests/" + requestId + "/archive/rar")).andExpect(status().isNotFound());
+    }
+
     private File createCachedDataFile(String requestId, String filename, String contents, FileType fileType)
             throws IOException
     {
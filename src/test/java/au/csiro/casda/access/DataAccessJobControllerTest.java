@@ -37,6 +37,7 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import au.csiro.casda.access.services.DataAccessService;
+import au.csiro.casda.access.services.JobAdmissionGovernor;
 import au.csiro.casda.access.uws.AccessJobManager;
 import au.csiro.casda.entity.dataaccess.CasdaDownloadMode;
 import au.csiro.casda.entity.dataaccess.DataAccessJob;
@@ -56,6 +57,9 @@ public class DataAccessJobControllerTest
     @Mock
     private AccessJobManager accessJobManager;
 
+    @Mock
+    private JobAdmissionGovernor jobAdmissionGovernor;
+
     @InjectMocks
     private DataAccessJobController controller;
 
@@ -98,6 +102,8 @@ public class DataAccessJobControllerTest
                 .andExpect(header().string("location", "http://localhost/requests/" + job.getRequestId() + "/page/1"))
                 .andExpect(content().string(new ObjectMapper().writeValueAsString(Arrays.asList(job.getRequestId()))));
         verify(accessJobManager).createDataAccessJob(any());
+        verify(jobAdmissionGovernor).admit(any());
+        verify(jobAdmissionGovernor).jobCreated(job);
 
         testAppender.verifyLogMessage(Level.INFO, "Hit the controller ");
     }
@@ -122,6 +128,20 @@ public class DataAccessJobControllerTest
         testAppender.verifyLogMessage(Level.INFO, "Hit the controller ");
     }
 
+    @Test
+    public void testJobCreationRefusedByAdmission() throws Exception
+    {
+        doThrow(new TooManyRequestsException("You are creating jobs too quickly", 45)).when(jobAdmissionGovernor)
+                .admit(any());
+        this.mockMvc
+                .perform(post("/requests").param("recordType", "image_cube").param("ids", "1")
+                        .param("userName", "bob").param("downloadMode", "WEB")
+                        .contentType(MediaType.APPLICATION_FORM_URLENCODED))
+                .andExpect(status().isTooManyRequests());
+        verify(accessJobManager, never()).createDataAccessJob(any());
+        verify(jobAdmissionGovernor, never()).jobCreated(any());
+    }
+
     /**
      * Basic test to reject new job request - missing mandatory parameter username
      * 
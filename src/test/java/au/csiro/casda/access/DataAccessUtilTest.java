@@ -35,6 +35,7 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Test;
 
+import au.csiro.casda.access.util.ArchiveFormat;
 import au.csiro.casda.access.util.Utils;
 import au.csiro.casda.entity.dataaccess.CachedFile.FileType;
 import au.csiro.casda.entity.dataaccess.CasdaDownloadMode;
@@ -80,6 +81,17 @@ public class DataAccessUtilTest
         }
     }
 
+    @Test
+    public void testGetRelativeLinkForJobArchive() throws Exception
+    {
+        for (CasdaDownloadMode downloadMode : CasdaDownloadMode.values())
+        {
+            String link = Utils.PAWSEY_DOWNLOADS.contains(downloadMode) ? "pawsey/123-abc/archive/zip"
+                    : "web/123-abc/archive/zip";
+            assertEquals(link, DataAccessUtil.getRelativeLinkForJobArchive(downloadMode, "123-abc", ArchiveFormat.ZIP));
+        }
+    }
+
     @Test
     public void testGetTimeDifferenceInHoursDisplayString()
     {
@@ -405,6 +417,29 @@ public class DataAccessUtilTest
         assertEquals(16L, imageCutoutFile.getOriginalImageDownloadFile().getSizeKb());
     }
     
+    @Test
+    public void testGetImageCutoutFilesUsesCanonicalId()
+    {
+        List<DownloadFile> fileList = new ArrayList<DownloadFile>();
+        List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+
+        Map<String, Object> imageCutout = new HashMap<String, Object>();
+        imageCutout.put(DataAccessUtil.ID, 152L);
+        imageCutout.put(DataAccessUtil.CANONICAL_ID, 97L);
+        imageCutout.put(DataAccessUtil.FILE_SIZE, 1L);
+        imageCutout.put(DataAccessUtil.IMAGE_CUBE_ID, 13L);
+        imageCutout.put(DataAccessUtil.IMAGE_CUBE_SIZE, 16L);
+        imageCutout.put(DataAccessUtil.FILENAME, "my_image.fits");
+        imageCutout.put("format", "png");
+        results.add(imageCutout);
+
+        DataAccessUtil.getGeneratedImageFiles(results, fileList, FileType.IMAGE_CUTOUT);
+        assertEquals(1, fileList.size());
+        GeneratedFileDescriptor imageCutoutFile = (GeneratedFileDescriptor) fileList.get(0);
+        assertEquals("cutout-97-imagecube-13.png", imageCutoutFile.getFileId());
+        assertEquals(Long.valueOf(152L), imageCutoutFile.getId());
+    }
+    
     @Test
     public void testGetGeneratedSpectrumFiles()
     {
@@ -0,0 +1,65 @@
+package au.csiro.casda.access;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Stubs the common behaviour of mock repositories.
+ * 
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ * 
+ */
+public class TestRepositoryUtils
+{
+    /**
+     * Makes findAll on each of the given mock repositories return whatever the repository's findOne has been stubbed
+     * to return for each of the requested ids, so that tests can stub individual entities.
+     * 
+     * @param repositories
+     *            the mock repositories
+     */
+    @SafeVarargs
+    public static void stubFindAll(CrudRepository<?, Long>... repositories)
+    {
+        for (CrudRepository<?, Long> repository : repositories)
+        {
+            when(repository.findAll(Mockito.<Iterable<Long>> any())).thenAnswer(new Answer<List<Object>>()
+            {
+                @Override
+                @SuppressWarnings("unchecked")
+                public List<Object> answer(InvocationOnMock invocation) throws Throwable
+                {
+                    List<Object> entities = new ArrayList<>();
+                    for (Long id : (Iterable<Long>) invocation.getArguments()[0])
+                    {
+                        Object entity = repository.findOne(id);
+                        if (entity != null)
+                        {
+                            entities.add(entity);
+                        }
+                    }
+                    return entities;
+                }
+            });
+        }
+    }
+}
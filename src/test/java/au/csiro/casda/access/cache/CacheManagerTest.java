@@ -128,14 +128,43 @@ public class CacheManagerTest
         cachedFile2.setFileAvailableFlag(false);
         DownloadFile file3 = new FileDescriptor("file_3_id", 111L, FileType.CATALOGUE);
 
-        when(cachedFileRepositoryMock.findByFileId("file_1_id")).thenReturn(cachedFile1);
-        when(cachedFileRepositoryMock.findByFileId("file_2_id")).thenReturn(cachedFile2);
-        when(cachedFileRepositoryMock.findByFileId("file_3_id")).thenReturn(null);
+        stubCachedFiles(cachedFile1, cachedFile2);
 
         assertTrue(cacheManager.allFilesAvailableInCache(new ArrayList<>()));
         assertTrue(cacheManager.allFilesAvailableInCache(Arrays.asList(file1)));
         assertFalse(cacheManager.allFilesAvailableInCache(Arrays.asList(file1, file2)));
         assertFalse(cacheManager.allFilesAvailableInCache(Arrays.asList(file3, file1)));
+        verify(cachedFileRepositoryMock, never()).findByFileId(anyString());
+    }
+
+    @Test
+    public void testGetAvailableSizeKb()
+    {
+        DownloadFile file1 = new FileDescriptor("file_1_id", 100L, FileType.IMAGE_CUBE);
+        CachedFile cachedFile1 = new CachedFile("file_1_id", "/path/to/file1", 100L, DateTime.now().plusDays(1));
+        cachedFile1.setFileAvailableFlag(true);
+        DownloadFile file2 = new FileDescriptor("file_2_id", 123L, FileType.MEASUREMENT_SET);
+        CachedFile cachedFile2 = new CachedFile("file_2_id", "/path/to/file2", 123L, DateTime.now().plusDays(1));
+        cachedFile2.setFileAvailableFlag(false);
+        DownloadFile file3 = new FileDescriptor("file_3_id", 111L, FileType.CATALOGUE);
+        DownloadFile file4 = new FileDescriptor("file_4_id", 50L, FileType.SPECTRUM);
+        CachedFile cachedFile4 = new CachedFile("file_4_id", "/path/to/file4", 50L, DateTime.now().plusDays(1));
+        cachedFile4.setFileAvailableFlag(true);
+
+        stubCachedFiles(cachedFile1, cachedFile2, cachedFile4);
+
+        assertEquals(0L, cacheManager.getAvailableSizeKb(new ArrayList<>()));
+        assertEquals(150L, cacheManager.getAvailableSizeKb(Arrays.asList(file1, file2, file3, file4)));
+        verify(cachedFileRepositoryMock, times(1)).findByFileIdIn(any());
+    }
+
+    private void stubCachedFiles(CachedFile... cachedFiles)
+    {
+        when(cachedFileRepositoryMock.findByFileIdIn(any())).thenAnswer(invocation -> {
+            Collection<?> fileIds = (Collection<?>) invocation.getArguments()[0];
+            return Arrays.stream(cachedFiles).filter(cachedFile -> fileIds.contains(cachedFile.getFileId()))
+                    .collect(Collectors.toList());
+        });
     }
 
     // Nothing to do, all files are in the cache
@@ -442,7 +471,7 @@ public class CacheManagerTest
         assertEquals("original-image-path", newCachedFiles.get(0).getOriginalFilePath());
         assertFalse(newCachedFiles.get(0).isFileAvailableFlag());
         assertEquals(
-                new File(new File(jobBaseFolder, "Hello"), "cutout-1-image-12").getAbsolutePath(),
+                new File(cacheManager.getCurrentDateDir(), "cutout-1-image-12").getAbsolutePath(),
                 newCachedFiles.get(0).getPath());
         assertEquals(FileType.IMAGE_CUTOUT, newCachedFiles.get(0).getFileType());
     }
@@ -476,7 +505,7 @@ public class CacheManagerTest
         assertEquals(Long.valueOf(11), newCachedFiles.get(0).getSizeKb());
         assertNull(newCachedFiles.get(0).getOriginalFilePath());
         assertFalse(newCachedFiles.get(0).isFileAvailableFlag());
-        assertEquals(new File(new File(jobBaseFolder, "Hello"), "cutout-1-image-12").getAbsolutePath(),
+        assertEquals(new File(cacheManager.getCurrentDateDir(), "cutout-1-image-12").getAbsolutePath(),
                 newCachedFiles.get(0).getPath());
         assertEquals(FileType.IMAGE_CUTOUT, newCachedFiles.get(0).getFileType());
 
@@ -512,7 +541,7 @@ public class CacheManagerTest
         assertEquals("original-image-path", newCachedFiles.get(0).getOriginalFilePath());
         assertFalse(newCachedFiles.get(0).isFileAvailableFlag());
         assertEquals(
-                new File(new File(jobBaseFolder, "Hello"), "spectrum-1-image-12").getAbsolutePath(),
+                new File(cacheManager.getCurrentDateDir(), "spectrum-1-image-12").getAbsolutePath(),
                 newCachedFiles.get(0).getPath());
         assertEquals(FileType.GENERATED_SPECTRUM, newCachedFiles.get(0).getFileType());
     }
@@ -546,7 +575,7 @@ public class CacheManagerTest
         assertEquals(Long.valueOf(11), newCachedFiles.get(0).getSizeKb());
         assertNull(newCachedFiles.get(0).getOriginalFilePath());
         assertFalse(newCachedFiles.get(0).isFileAvailableFlag());
-        assertEquals(new File(new File(jobBaseFolder, "Hello"), "spectrum-1-image-12").getAbsolutePath(),
+        assertEquals(new File(cacheManager.getCurrentDateDir(), "spectrum-1-image-12").getAbsolutePath(),
                 newCachedFiles.get(0).getPath());
         assertEquals(FileType.GENERATED_SPECTRUM, newCachedFiles.get(0).getFileType());
 
@@ -584,8 +613,8 @@ public class CacheManagerTest
         assertEquals(Long.valueOf(11), newCachedFiles.get(0).getSizeKb());
         assertNull(newCachedFiles.get(0).getOriginalFilePath());
         assertFalse(newCachedFiles.get(0).isFileAvailableFlag());
-        File jobFolder = new File(jobBaseFolder, "Hello");
-        assertEquals(new File(jobFolder, "cutout-1-image-12").getAbsolutePath(),
+        File dateFolder = cacheManager.getCurrentDateDir();
+        assertEquals(new File(dateFolder, "cutout-1-image-12").getAbsolutePath(),
                 newCachedFiles.get(0).getPath());
         assertEquals(FileType.IMAGE_CUTOUT, newCachedFiles.get(0).getFileType());
 
@@ -598,7 +627,7 @@ public class CacheManagerTest
         assertEquals(Long.valueOf(11), newCachedFiles.get(2).getSizeKb());
         assertNull(newCachedFiles.get(2).getOriginalFilePath());
         assertFalse(newCachedFiles.get(2).isFileAvailableFlag());
-        assertEquals(new File(jobFolder, "cutout-2-image-12").getAbsolutePath(),
+        assertEquals(new File(dateFolder, "cutout-2-image-12").getAbsolutePath(),
                 newCachedFiles.get(2).getPath());
         assertEquals(FileType.IMAGE_CUTOUT, newCachedFiles.get(2).getFileType());
     }
@@ -914,6 +943,29 @@ public class CacheManagerTest
         verify(cacheManager, never()).createSymLink(eq("ABC-123-Y"), eq(new File(cachedFile2.getPath())), anyBoolean());
     }
 
+    @Test
+    public void testCreateDataAccessJobDirectoryLinksSharedGeneratedFiles() throws Exception
+    {
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId("ABC-123-Y");
+
+        CachedFile cachedFile = new CachedFile();
+        cachedFile.setFileId("cutout-97-imagecube-13.fits");
+        cachedFile.setPath(tempFolder + "/1/cutout-97-imagecube-13.fits");
+        cachedFile.setFileAvailableFlag(true);
+
+        DownloadFile file = new GeneratedFileDescriptor(152L, "cutout-97-imagecube-13.fits", 11L, "image-13", 16L,
+                FileType.IMAGE_CUTOUT);
+        doReturn(cachedFile).when(cacheManager).getCachedFile("cutout-97-imagecube-13.fits");
+        doNothing().when(cacheManager).linkJob(any(), any(), any());
+        doNothing().when(cacheManager).createSymLink(anyString(), any(), anyBoolean());
+
+        cacheManager.createDataAccessJobDirectory(job, Arrays.asList(file));
+
+        verify(cacheManager, times(1)).linkJob(eq(job), eq(cachedFile), eq(new File(cachedFile.getPath())));
+        verify(cacheManager, times(1)).createSymLink(eq("ABC-123-Y"), eq(new File(cachedFile.getPath())), eq(true));
+    }
+
     @Test
     public void testRemoveCachedFileAndRemoveFolderIfEmpty() throws Exception
     {
@@ -16,6 +16,7 @@ package au.csiro.casda.access.health;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 
@@ -29,7 +30,12 @@ import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.Status;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.ResourceAccessException;
 
+import au.csiro.casda.access.security.BackendResilience;
+import au.csiro.casda.access.security.BackendResilience.CallType;
+import au.csiro.casda.access.security.HttpConnectionPools;
 import au.csiro.casda.access.security.SecuredRestTemplate;
 
 /**
@@ -49,16 +55,21 @@ public class NgasServiceHealthTest
     @Mock
     private SecuredRestTemplate restTemplate;
 
+    private BackendResilience backendResilience;
+
     @Before
     public void setup()
     {
         MockitoAnnotations.initMocks(this);
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("resilience.failure.threshold", "1");
+        backendResilience = new BackendResilience(environment);
     }
 
     @Test
     public void testSuccess()
     {
-        NgasServiceHealth health = new NgasServiceHealth(restTemplate, HTTP_THE_URL);
+        NgasServiceHealth health = new NgasServiceHealth(restTemplate, HTTP_THE_URL, backendResilience);
 
         when(restTemplate.getForEntity(eq("http://theUrl:3456/STATUS"), eq(String.class))).thenReturn(
                 new ResponseEntity<String>(
@@ -73,7 +84,7 @@ public class NgasServiceHealthTest
     @Test
     public void testFailWithWarning()
     {
-        NgasServiceHealth health = new NgasServiceHealth(restTemplate, HTTP_THE_URL);
+        NgasServiceHealth health = new NgasServiceHealth(restTemplate, HTTP_THE_URL, backendResilience);
 
         when(restTemplate.getForEntity(eq("http://theUrl:3456/STATUS"), eq(String.class))).thenReturn(
                 new ResponseEntity<String>(
@@ -87,7 +98,7 @@ public class NgasServiceHealthTest
     @Test
     public void testFailWithWarningException()
     {
-        NgasServiceHealth health = new NgasServiceHealth(restTemplate, HTTP_THE_URL);
+        NgasServiceHealth health = new NgasServiceHealth(restTemplate, HTTP_THE_URL, backendResilience);
 
         when(restTemplate.getForEntity(eq("http://theUrl:3456/STATUS"), eq(String.class))).thenThrow(
                 new RuntimeException("BOB"));
@@ -97,11 +108,37 @@ public class NgasServiceHealthTest
         assertThat((String) healthResp.getDetails().get("error"), containsString("BOB"));
     }
 
+    @Test
+    public void testWarningWhenCircuitOpen()
+    {
+        NgasServiceHealth health = new NgasServiceHealth(restTemplate, HTTP_THE_URL, backendResilience);
+        try
+        {
+            backendResilience.getGuard(HttpConnectionPools.NGAS).execute(CallType.NON_IDEMPOTENT, () -> {
+                throw new ResourceAccessException("timed out");
+            });
+            fail("Expected the call to fail");
+        }
+        catch (ResourceAccessException e)
+        {
+            // expected
+        }
+
+        when(restTemplate.getForEntity(eq("http://theUrl:3456/STATUS"), eq(String.class))).thenReturn(
+                new ResponseEntity<String>(
+                        "<NgamsStatus><Status State=\"ONLINE\" Status=\"SUCCESS\" SubState=\"IDLE\"/></NgamsStatus>",
+                        HttpStatus.OK));
+        Health healthResp = health.health();
+        assertThat(healthResp.getStatus().getCode(), is("WARN"));
+        assertThat(healthResp.getDetails().get("ngas_circuit").toString(), containsString("circuit=OPEN"));
+        assertThat(healthResp.getDetails().get("votools_circuit").toString(), containsString("circuit=CLOSED"));
+    }
+
     @Test
     public void testConstructorBaseUrlMissing()
     {
         thrown.expect(IllegalArgumentException.class);
-        new NgasServiceHealth(restTemplate, null);
+        new NgasServiceHealth(restTemplate, null, backendResilience);
     }
 
 }
@@ -0,0 +1,93 @@
+package au.csiro.casda.access.health;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import au.csiro.casda.access.uws.AccessJobManager;
+import au.csiro.casda.access.uws.UwsRestoreProgress;
+
+/**
+ * Tests the UWS restore health check.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class UwsRestoreHealthTest
+{
+    @Mock
+    private AccessJobManager accessJobManager;
+
+    @Mock
+    private UwsRestoreProgress progress;
+
+    private UwsRestoreHealth health;
+
+    @Before
+    public void setup()
+    {
+        MockitoAnnotations.initMocks(this);
+        when(accessJobManager.getRestoreProgress()).thenReturn(progress);
+        when(progress.getJobsRead()).thenReturn(1200);
+        when(progress.getJobsRestored()).thenReturn(1100);
+        health = new UwsRestoreHealth(accessJobManager);
+    }
+
+    @Test
+    public void testInProgress()
+    {
+        when(accessJobManager.isRestored()).thenReturn(false);
+
+        Health healthResp = health.health();
+        assertThat(healthResp.getStatus(), is(Status.OUT_OF_SERVICE));
+        assertThat(healthResp.getDetails().get("jobsRead"), is(1200));
+        assertThat(healthResp.getDetails().get("jobsRestored"), is(1100));
+    }
+
+    @Test
+    public void testComplete()
+    {
+        when(accessJobManager.isRestored()).thenReturn(true);
+
+        Health healthResp = health.health();
+        assertThat(healthResp.getStatus(), is(Status.UP));
+        assertThat(healthResp.getDetails().get("restore"), is("complete"));
+    }
+
+    @Test
+    public void testFailedJobs()
+    {
+        when(accessJobManager.isRestored()).thenReturn(true);
+        when(progress.getJobsFailed()).thenReturn(3);
+
+        Health healthResp = health.health();
+        assertThat(healthResp.getStatus().getCode(), is("WARN"));
+        assertThat(healthResp.getDetails().get("jobsFailed"), is(3));
+    }
+
+    @Test
+    public void testNotStarted()
+    {
+        when(accessJobManager.getRestoreProgress()).thenReturn(null);
+
+        assertThat(health.health().getStatus(), is(Status.OUT_OF_SERVICE));
+    }
+}
@@ -32,12 +32,15 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
 import org.springframework.test.web.client.MockRestServiceServer;
 
 import au.csiro.casda.access.CatalogueDownloadFile;
 import au.csiro.casda.access.CatalogueDownloadFormat;
 import au.csiro.casda.access.DataAccessUtil;
 import au.csiro.casda.access.jpa.TapTableRepository;
+import au.csiro.casda.access.security.BackendResilience;
+import au.csiro.casda.access.security.HttpConnectionPools;
 import au.csiro.casda.access.security.SecuredRestTemplate;
 import au.csiro.casda.access.services.InlineScriptService;
 import au.csiro.casda.entity.TapTableExtract;
@@ -101,15 +104,17 @@ public class VoToolsCataloguePackagerTest
     {
         MockitoAnnotations.initMocks(this);
 
+        HttpConnectionPools connectionPools = new HttpConnectionPools(new MockEnvironment());
         SecuredRestTemplate restTemplate = 
-        		new SecuredRestTemplate(SecuredRestTemplate.DEFAULT_RESTTEMPLATE_CONNECT_TIMEOUT);
+        		new SecuredRestTemplate(SecuredRestTemplate.DEFAULT_RESTTEMPLATE_CONNECT_TIMEOUT, connectionPools);
         mockServer = MockRestServiceServer.createServer(restTemplate);
 
         tempDir = tempFolder.newFolder("CatTest").getAbsolutePath();
 
         String calcChecksumScript = "script/calc_checksum.sh";
         cataloguePackager =
-                spy(new VoToolsCataloguePackager(inlineScriptService, tapTableRepository, url, calcChecksumScript));
+                spy(new VoToolsCataloguePackager(inlineScriptService, tapTableRepository, url, calcChecksumScript,
+                        connectionPools, new BackendResilience(new MockEnvironment())));
         cataloguePackager.setRestTemplate(restTemplate);
     }
 
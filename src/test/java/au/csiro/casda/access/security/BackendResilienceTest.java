@@ -0,0 +1,332 @@
+package au.csiro.casda.access.security;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import au.csiro.casda.access.security.BackendResilience.CallType;
+import au.csiro.casda.access.security.BackendResilience.Guard;
+import au.csiro.casda.access.security.BackendResilience.State;
+
+/**
+ * Test cases for BackendResilience.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class BackendResilienceTest
+{
+    private MockEnvironment environment;
+
+    private BackendResilience backendResilience;
+
+    @Before
+    public void setUp()
+    {
+        environment = new MockEnvironment();
+        environment.setProperty("resilience.failure.threshold", "2");
+        environment.setProperty("resilience.open.millis", "60000");
+        environment.setProperty("resilience.retry.max.attempts", "3");
+        environment.setProperty("resilience.retry.base.millis", "1");
+        environment.setProperty("resilience.retry.max.millis", "2");
+        environment.setProperty("resilience.max.concurrent", "1");
+        environment.setProperty("resilience.bulkhead.wait.millis", "10");
+        environment.setProperty("resilience.ngas.failure.threshold", "3");
+        backendResilience = new BackendResilience(environment);
+    }
+
+    @Test
+    public void testGuardsArePerBackend()
+    {
+        Guard ngasGuard = backendResilience.getGuard(HttpConnectionPools.NGAS);
+        assertThat(backendResilience.getGuard(HttpConnectionPools.NGAS), sameInstance(ngasGuard));
+        assertThat(backendResilience.getGuard(HttpConnectionPools.VO_TOOLS), not(sameInstance(ngasGuard)));
+    }
+
+    @Test
+    public void testIdempotentCallRetried()
+    {
+        Guard guard = backendResilience.getGuard(HttpConnectionPools.NGAS);
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = guard.execute(CallType.IDEMPOTENT, () -> {
+            if (calls.incrementAndGet() < 3)
+            {
+                throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+            }
+            return "done";
+        });
+
+        assertThat(result, is("done"));
+        assertThat(calls.get(), is(3));
+        assertThat(guard.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void testNonIdempotentCallNotRetried()
+    {
+        Guard guard = backendResilience.getGuard(HttpConnectionPools.VO_TOOLS);
+        AtomicInteger calls = new AtomicInteger();
+
+        failCall(guard, CallType.NON_IDEMPOTENT, calls);
+
+        assertThat(calls.get(), is(1));
+        assertThat(guard.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void testClientErrorIsNotFailure()
+    {
+        Guard guard = backendResilience.getGuard(HttpConnectionPools.VO_TOOLS);
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 3; i++)
+        {
+            try
+            {
+                guard.execute(CallType.IDEMPOTENT, () -> {
+                    calls.incrementAndGet();
+                    throw new HttpClientErrorException(HttpStatus.NOT_FOUND);
+                });
+                fail("Expected the call to fail");
+            }
+            catch (HttpClientErrorException e)
+            {
+                // expected
+            }
+        }
+        assertThat(calls.get(), is(3));
+        assertThat(guard.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void testCircuitOpensAfterFailuresAndRefusesCalls()
+    {
+        Guard guard = backendResilience.getGuard(HttpConnectionPools.VO_TOOLS);
+        AtomicInteger calls = new AtomicInteger();
+
+        failCall(guard, CallType.NON_IDEMPOTENT, calls);
+        failCall(guard, CallType.NON_IDEMPOTENT, calls);
+        assertThat(guard.getState(), is(State.OPEN));
+
+        try
+        {
+            guard.execute(CallType.NON_IDEMPOTENT, () -> calls.incrementAndGet());
+            fail("Expected the call to be refused");
+        }
+        catch (BackendUnavailableException e)
+        {
+            assertThat(calls.get(), is(2));
+        }
+    }
+
+    @Test
+    public void testRetriesStopWhenCircuitOpens()
+    {
+        Guard guard = backendResilience.getGuard(HttpConnectionPools.VO_TOOLS);
+        AtomicInteger calls = new AtomicInteger();
+
+        failCall(guard, CallType.IDEMPOTENT, calls);
+
+        assertThat(calls.get(), is(2));
+        assertThat(guard.getState(), is(State.OPEN));
+    }
+
+    @Test
+    public void testHalfOpenTrialClosesCircuit()
+    {
+        environment.setProperty("resilience.votools.open.millis", "0");
+        Guard guard = new BackendResilience(environment).getGuard(HttpConnectionPools.VO_TOOLS);
+        AtomicInteger calls = new AtomicInteger();
+
+        failCall(guard, CallType.NON_IDEMPOTENT, calls);
+        failCall(guard, CallType.NON_IDEMPOTENT, calls);
+        assertThat(guard.getState(), is(State.HALF_OPEN));
+
+        assertThat(guard.execute(CallType.NON_IDEMPOTENT, () -> "ok"), is("ok"));
+        assertThat(guard.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void testFailedTrialReopensCircuit()
+    {
+        environment.setProperty("resilience.votools.open.millis", "0");
+        Guard guard = new BackendResilience(environment).getGuard(HttpConnectionPools.VO_TOOLS);
+        AtomicInteger calls = new AtomicInteger();
+
+        failCall(guard, CallType.NON_IDEMPOTENT, calls);
+        failCall(guard, CallType.NON_IDEMPOTENT, calls);
+        failCall(guard, CallType.NON_IDEMPOTENT, calls);
+
+        assertThat((Integer) guard.getDetails().get("consecutiveFailures"), is(3));
+    }
+
+    @Test
+    public void testBulkheadRefusesCallsOverLimit() throws Exception
+    {
+        Guard guard = backendResilience.getGuard(HttpConnectionPools.VO_TOOLS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        Thread slowCall = new Thread(() -> guard.execute(CallType.STREAMING, () -> {
+            started.countDown();
+            try
+            {
+                return finish.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                return false;
+            }
+        }));
+        slowCall.start();
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+        try
+        {
+            guard.execute(CallType.IDEMPOTENT, () -> "too many");
+            fail("Expected the call to be refused");
+        }
+        catch (BackendUnavailableException e)
+        {
+            assertThat((Long) guard.getDetails().get("rejected"), is(1L));
+        }
+        finally
+        {
+            finish.countDown();
+            slowCall.join();
+        }
+
+        assertThat(guard.execute(CallType.IDEMPOTENT, () -> "room now"), is("room now"));
+    }
+
+    @Test
+    public void testBulkheadSlotReleasedWhileBackingOff() throws Exception
+    {
+        environment.setProperty("resilience.votools.retry.base.millis", "3600000");
+        environment.setProperty("resilience.votools.retry.max.millis", "3600000");
+        Guard guard = new BackendResilience(environment).getGuard(HttpConnectionPools.VO_TOOLS);
+        CountDownLatch failed = new CountDownLatch(1);
+
+        Thread retryingCall = new Thread(() -> {
+            try
+            {
+                guard.execute(CallType.IDEMPOTENT, () -> {
+                    failed.countDown();
+                    throw new ResourceAccessException("Read timed out");
+                });
+            }
+            catch (ResourceAccessException e)
+            {
+                // expected once the back off is interrupted
+            }
+        });
+        retryingCall.start();
+        try
+        {
+            assertThat(failed.await(5, TimeUnit.SECONDS), is(true));
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((Integer) guard.getDetails().get("inFlight") > 0 && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(1);
+            }
+
+            assertThat(guard.execute(CallType.IDEMPOTENT, () -> "not blocked"), is("not blocked"));
+        }
+        finally
+        {
+            retryingCall.interrupt();
+            retryingCall.join();
+        }
+    }
+
+    @Test
+    public void testClientAbortIsNotFailure()
+    {
+        Guard guard = backendResilience.getGuard(HttpConnectionPools.VO_TOOLS);
+        for (int i = 0; i < 3; i++)
+        {
+            try
+            {
+                guard.execute(CallType.STREAMING, () -> {
+                    throw new ResourceAccessException("aborted", new ClientAbortException());
+                });
+                fail("Expected the call to fail");
+            }
+            catch (ResourceAccessException e)
+            {
+                // expected
+            }
+        }
+        assertThat(guard.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void testMetrics()
+    {
+        backendResilience.getGuard(HttpConnectionPools.NGAS);
+
+        List<String> names = new ArrayList<>();
+        for (Metric<?> metric : backendResilience.metrics())
+        {
+            names.add(metric.getName());
+        }
+        assertThat(names, hasItem("resilience.ngas.state"));
+        assertThat(names, hasItem("resilience.ngas.inflight"));
+        assertThat(names, hasItem("resilience.ngas.limit"));
+        assertThat(names, hasItem("resilience.ngas.rejected"));
+        assertThat(names, not(hasItem("resilience.votools.state")));
+    }
+
+    private void failCall(Guard guard, CallType callType, AtomicInteger calls)
+    {
+        try
+        {
+            guard.execute(callType, () -> {
+                calls.incrementAndGet();
+                throw new ResourceAccessException("Read timed out");
+            });
+            fail("Expected the call to fail");
+        }
+        catch (ResourceAccessException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Stands in for the servlet container's exception for a client closing the connection.
+     */
+    private static class ClientAbortException extends java.io.IOException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,120 @@
+package au.csiro.casda.access.security;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.mock.env.MockEnvironment;
+
+/**
+ * Test cases for HttpConnectionPools.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class HttpConnectionPoolsTest
+{
+    private HttpConnectionPools connectionPools;
+
+    @Before
+    public void setUp()
+    {
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("http.pool.max.total", "20");
+        environment.setProperty("http.pool.max.per.route", "10");
+        environment.setProperty("http.pool.ngas.max.per.route", "15");
+        environment.setProperty("http.pool.keep.alive.millis", "5000");
+        connectionPools = new HttpConnectionPools(environment);
+    }
+
+    @After
+    public void tearDown()
+    {
+        connectionPools.destroy();
+    }
+
+    @Test
+    public void testPoolsArePerBackend()
+    {
+        PoolingHttpClientConnectionManager ngasPool = connectionPools.getConnectionManager(HttpConnectionPools.NGAS);
+        PoolingHttpClientConnectionManager voToolsPool =
+                connectionPools.getConnectionManager(HttpConnectionPools.VO_TOOLS);
+
+        assertThat(connectionPools.getConnectionManager(HttpConnectionPools.NGAS), sameInstance(ngasPool));
+        assertThat(voToolsPool, not(sameInstance(ngasPool)));
+
+        assertThat(ngasPool.getMaxTotal(), is(20));
+        assertThat(ngasPool.getDefaultMaxPerRoute(), is(15));
+        assertThat(voToolsPool.getMaxTotal(), is(20));
+        assertThat(voToolsPool.getDefaultMaxPerRoute(), is(10));
+    }
+
+    @Test
+    public void testKeepAliveStrategy()
+    {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        assertThat(connectionPools.getKeepAliveStrategy(HttpConnectionPools.NGAS).getKeepAliveDuration(response,
+                new BasicHttpContext()), is(5000L));
+
+        response.setHeader("Keep-Alive", "timeout=2");
+        assertThat(connectionPools.getKeepAliveStrategy(HttpConnectionPools.NGAS).getKeepAliveDuration(response,
+                new BasicHttpContext()), is(2000L));
+
+        response.setHeader("Keep-Alive", "timeout=60");
+        assertThat(connectionPools.getKeepAliveStrategy(HttpConnectionPools.NGAS).getKeepAliveDuration(response,
+                new BasicHttpContext()), is(5000L));
+    }
+
+    @Test
+    public void testMetrics()
+    {
+        connectionPools.getConnectionManager(HttpConnectionPools.NGAS);
+        connectionPools.evictConnections();
+
+        List<String> names = new ArrayList<>();
+        for (Metric<?> metric : connectionPools.metrics())
+        {
+            names.add(metric.getName());
+        }
+        assertThat(names, hasItem("http.pool.ngas.leased"));
+        assertThat(names, hasItem("http.pool.ngas.pending"));
+        assertThat(names, hasItem("http.pool.ngas.available"));
+        assertThat(names, hasItem("http.pool.ngas.max"));
+        assertThat(names, not(hasItem("http.pool.votools.leased")));
+    }
+
+    @Test
+    public void testTemplateUsesPool()
+    {
+        SecuredRestTemplate restTemplate =
+                new SecuredRestTemplate("", "", false, connectionPools, HttpConnectionPools.VO_TOOLS);
+        assertThat(restTemplate.getRequestFactory(), notNullValue());
+        assertThat(connectionPools.metrics().size(), is(4));
+    }
+}
@@ -0,0 +1,234 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for AsyncDownloadStreamer.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class AsyncDownloadStreamerTest
+{
+    private AsyncDownloadStreamer streamer;
+
+    private HttpServletRequest request;
+
+    private HttpServletResponse response;
+
+    private AsyncContext asyncContext;
+
+    private TestOutputStream output;
+
+    private AtomicLong bytesSent;
+
+    private AtomicReference<Throwable> error;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        streamer = new AsyncDownloadStreamer(100, 5000);
+        request = mock(HttpServletRequest.class);
+        response = mock(HttpServletResponse.class);
+        asyncContext = mock(AsyncContext.class);
+        output = new TestOutputStream();
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(response.getOutputStream()).thenReturn(output);
+        bytesSent = new AtomicLong(-1);
+        error = new AtomicReference<>();
+    }
+
+    @After
+    public void tearDown()
+    {
+        streamer.destroy();
+    }
+
+    @Test
+    public void testCanStream()
+    {
+        assertThat(streamer.canStream(request, 100), is(true));
+        assertThat(streamer.canStream(request, -1), is(true));
+        assertThat(streamer.canStream(request, 99), is(false));
+
+        when(request.isAsyncStarted()).thenReturn(true);
+        assertThat(streamer.canStream(request, 100), is(false));
+
+        HttpServletRequest syncRequest = mock(HttpServletRequest.class);
+        assertThat(streamer.canStream(syncRequest, 100), is(false));
+    }
+
+    @Test
+    public void testStreamWritesWhenReady() throws Exception
+    {
+        byte[] data = new byte[200 * 1024];
+        data[data.length - 1] = 7;
+        streamer.stream(request, response, new ByteArrayInputStream(data), data.length, this::completed);
+        verify(asyncContext).setTimeout(5000);
+        verify(asyncContext).addListener(any(AsyncListener.class));
+
+        // The client can only take one chunk before it needs to wait
+        output.readyWrites = 1;
+        output.listener.onWritePossible();
+        assertThat(output.data.size(), is(64 * 1024));
+        assertThat(bytesSent.get(), is(-1L));
+        verify(asyncContext, never()).complete();
+
+        output.readyWrites = Integer.MAX_VALUE;
+        output.listener.onWritePossible();
+        assertThat(output.data.size(), is(data.length));
+        assertThat(output.data.toByteArray()[data.length - 1], is((byte) 7));
+        assertThat(bytesSent.get(), is((long) data.length));
+        assertThat(error.get(), nullValue());
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void testThrottledStreamResumesWithoutBlocking() throws Exception
+    {
+        byte[] data = new byte[128 * 1024];
+        DownloadGovernor.Permit permit = mock(DownloadGovernor.Permit.class);
+        when(permit.reserve(anyLong())).thenReturn(TimeUnit.MILLISECONDS.toNanos(50), 0L);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(asyncContext).start(any(Runnable.class));
+        streamer.stream(request, response, new ByteArrayInputStream(data), data.length, permit, this::completed);
+
+        output.readyWrites = Integer.MAX_VALUE;
+        output.listener.onWritePossible();
+        // writing stops after the first chunk until the pause is over, even though the client is ready
+        assertThat(output.data.size(), is(64 * 1024));
+        output.listener.onWritePossible();
+        assertThat(output.data.size(), is(64 * 1024));
+
+        verify(asyncContext, timeout(5000)).complete();
+        assertThat(output.data.size(), is(data.length));
+        assertThat(bytesSent.get(), is((long) data.length));
+        assertThat(error.get(), nullValue());
+    }
+
+    @Test
+    public void testStreamUnknownLength() throws Exception
+    {
+        streamer.stream(request, response, new ByteArrayInputStream(new byte[1000]), -1, this::completed);
+        output.readyWrites = Integer.MAX_VALUE;
+        output.listener.onWritePossible();
+
+        assertThat(bytesSent.get(), is(1000L));
+        assertThat(error.get(), nullValue());
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void testStreamSourceTooShort() throws Exception
+    {
+        streamer.stream(request, response, new ByteArrayInputStream(new byte[1000]), 2000, this::completed);
+        output.readyWrites = Integer.MAX_VALUE;
+        output.listener.onWritePossible();
+
+        assertThat(bytesSent.get(), is(1000L));
+        assertThat(error.get(), instanceOf(EOFException.class));
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void testStreamClientError() throws Exception
+    {
+        streamer.stream(request, response, new ByteArrayInputStream(new byte[1000]), 1000, this::completed);
+        IOException clientError = new IOException("Broken pipe");
+        output.listener.onError(clientError);
+        // any further notifications are ignored
+        output.listener.onError(new IOException("again"));
+
+        assertThat(bytesSent.get(), is(0L));
+        assertThat(error.get(), equalTo(clientError));
+        verify(asyncContext).complete();
+    }
+
+    private void completed(long sent, Throwable t)
+    {
+        bytesSent.set(sent);
+        error.set(t);
+    }
+
+    /**
+     * Servlet output stream which will accept a limited number of writes before it reports that it isn't ready.
+     */
+    private static class TestOutputStream extends ServletOutputStream
+    {
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        private WriteListener listener;
+
+        private int readyWrites = 0;
+
+        @Override
+        public boolean isReady()
+        {
+            return readyWrites > 0;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+            this.listener = writeListener;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            data.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            data.write(b, off, len);
+            readyWrites--;
+        }
+    }
+}
@@ -62,7 +62,7 @@ public class CasdaMailServiceTest
     	
     	mailService = new MailService(sender, config, null);
     	casdaMailService = new CasdaMailService(mailService, "casda@csiro.au", 
-    			"https://localhost:8080/link/to/<ID>/page/1");
+    			"https://localhost:8080/link/to/<ID>/page/1", 10, 2, 10);
     	
         wiser = new Wiser();
         wiser.setHostname("localhost");
@@ -73,6 +73,7 @@ public class CasdaMailServiceTest
     @After
     public void tearDown() throws Exception 
     {
+        casdaMailService.destroy();
         wiser.stop();
     }
 	
@@ -176,6 +177,23 @@ public class CasdaMailServiceTest
 		assertThat(removeNewLine(messages.get(0).toString()), containsString(removeNewLine(email)));
 	}
 	
+	@Test
+	public void testQueuedEmailIsSent() throws Exception
+	{
+		DataAccessJob job = createDataAccessJob(DataAccessJobStatus.EXPIRED);
+		
+		casdaMailService.queueEmail(job, CasdaMailService.EXPIRED_EMAIL, CasdaMailService.EXPIRED_EMAIL_SUBJECT);
+		casdaMailService.destroy();
+		
+		List<WiserMessage> messages = wiser.getMessages();
+		
+		assertEquals(1, messages.size());
+		assertEquals("steve.stevens@gmail.com", messages.get(0).getEnvelopeReceiver());
+		assertEquals("Data Access Job d6f1a293-630f-4df9-b095-3516f858bbf7 has expired",
+				messages.get(0).getMimeMessage().getSubject());
+		assertEquals(0, casdaMailService.getQueuedEmailCount());
+	}
+	
 	private DataAccessJob createDataAccessJob(DataAccessJobStatus status)
 	{
 		DataAccessJob job = new DataAccessJob();
@@ -5,9 +5,12 @@ import static au.csiro.casda.access.uws.AccessJobManagerTest.createMeasurementSe
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -18,19 +21,23 @@ import static org.mockito.Mockito.when;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Before;
@@ -41,8 +48,11 @@ import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 import au.csiro.TestUtils;
+import au.csiro.casda.access.BadRequestException;
 import au.csiro.casda.access.DataAccessDataProduct;
 import au.csiro.casda.access.DataAccessDataProduct.DataAccessProductType;
 import au.csiro.casda.access.DownloadFile;
@@ -66,6 +76,7 @@ import au.csiro.casda.access.jpa.SpectrumRepository;
 import au.csiro.casda.access.jpa.ThumbnailRepository;
 import au.csiro.casda.access.services.NgasService.ServiceCallException;
 import au.csiro.casda.access.services.NgasService.Status;
+import au.csiro.casda.access.util.HttpValidators;
 import au.csiro.casda.access.uws.AccessJobManager;
 import au.csiro.casda.entity.dataaccess.CachedFile;
 import au.csiro.casda.entity.dataaccess.CachedFile.FileType;
@@ -152,6 +163,8 @@ public class DataAccessServiceTest
 
     private DataAccessService dataAccessService;
 
+    private MockHttpServletRequest request;
+
     /**
      * Set up the service before each test.
      * 
@@ -162,13 +175,15 @@ public class DataAccessServiceTest
     public void setUp() throws Exception
     {
         MockitoAnnotations.initMocks(this);
+        request = new MockHttpServletRequest();
         String archiveStatusCommandAndArgs = TestUtils.getCommandAndArgsElStringForEchoOutput("DUL");
         dataAccessService = new DataAccessService(dataAccessJobRepository, imageCubeRepository,
                 measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
                 encapsulationFileRepository, evaluationFileRepository, thumbnailRepository, cachedFileRepository,
                 ngasService, cacheDir.getRoot().getAbsolutePath(), 25, 1000, archiveStatusCommandAndArgs, "", "",
                 new JavaProcessJobFactory(), cacheManager, dataAccessJdbcRepository, imageCutoutRepository,
-                generatedSpectrumRepository, casdaMailService, downloadManager);
+                generatedSpectrumRepository, casdaMailService, downloadManager, mock(AsyncDownloadStreamer.class),
+                new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
 
         Status ngasStatus = mock(Status.class);
         when(ngasStatus.wasSuccess()).thenReturn(true);
@@ -419,7 +434,8 @@ public class DataAccessServiceTest
                 encapsulationFileRepository, evaluationFileRepository, thumbnailRepository, cachedFileRepository,
                 ngasService, cacheDir.getRoot().getAbsolutePath(), 25, 1000, archiveStatusCommandAndArgs, "", "",
                 new JavaProcessJobFactory(), mock(CacheManager.class), dataAccessJdbcRepository, imageCutoutRepository,
-                generatedSpectrumRepository, casdaMailService, downloadManager);
+                generatedSpectrumRepository, casdaMailService, downloadManager, mock(AsyncDownloadStreamer.class),
+                new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
 
         ImageCube imageCube = createImageCube(125L, "image_cube-125.fits", 12L, "ABC123", 123123);
         when(imageCubeRepository.findOne(125L)).thenReturn(imageCube);
@@ -445,7 +461,8 @@ public class DataAccessServiceTest
                 encapsulationFileRepository, evaluationFileRepository, thumbnailRepository, cachedFileRepository,
                 ngasService, cacheDir.getRoot().getAbsolutePath(), 25, 1000, archiveStatusCommandAndArgs, "", "",
                 new JavaProcessJobFactory(), mock(CacheManager.class), dataAccessJdbcRepository, imageCutoutRepository,
-                generatedSpectrumRepository, casdaMailService, downloadManager);
+                generatedSpectrumRepository, casdaMailService, downloadManager, mock(AsyncDownloadStreamer.class),
+                new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
 
         String fileId = "file-id";
 
@@ -459,6 +476,72 @@ public class DataAccessServiceTest
         assertNull(imageCubePath);
     }
 
+    @Test
+    public void testFindFileInNgasUsesCachedLocation() throws Exception
+    {
+        String archiveStatusCommandAndArgs = TestUtils.getCommandAndArgsElStringForEchoOutput("DUL");
+        dataAccessService = new DataAccessService(dataAccessJobRepository, imageCubeRepository,
+                measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
+                encapsulationFileRepository, evaluationFileRepository, thumbnailRepository, cachedFileRepository,
+                ngasService, cacheDir.getRoot().getAbsolutePath(), 25, 1000, archiveStatusCommandAndArgs, "", "",
+                new JavaProcessJobFactory(), cacheManager, dataAccessJdbcRepository, imageCutoutRepository,
+                generatedSpectrumRepository, casdaMailService, downloadManager, mock(AsyncDownloadStreamer.class),
+                new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(60000, 60000, 1000, 100), false);
+
+        String fileId = "cached-file-id";
+        File ngasVolume = cacheDir.newFolder("ngas");
+        File ngasFile = new File(ngasVolume, fileId);
+        FileUtils.writeStringToFile(ngasFile, "data");
+
+        Status ngasStatus = mock(Status.class);
+        when(ngasStatus.wasSuccess()).thenReturn(true);
+        when(ngasService.getStatus(fileId)).thenReturn(ngasStatus);
+        when(ngasStatus.getMountPoint()).thenReturn(ngasVolume.getAbsolutePath());
+        when(ngasStatus.getFileName()).thenReturn(fileId);
+
+        assertEquals(ngasFile.toPath(), dataAccessService.findFileInNgasIfOnDisk(fileId));
+        assertEquals(ngasFile.toPath(), dataAccessService.findFileInNgasIfOnDisk(fileId));
+        verify(ngasService, times(1)).getStatus(fileId);
+
+        // a stale path is looked up again
+        ngasFile.delete();
+        assertEquals(ngasFile.toPath(), dataAccessService.findFileInNgas(fileId));
+        verify(ngasService, times(2)).getStatus(fileId);
+    }
+
+    @Test
+    public void testFindFileOnDiskPrefersCache() throws Exception
+    {
+        ImageCube imageCube = createImageCube(12L, "image_cube-12.fits", 10L, "ABC123", 445);
+        when(imageCubeRepository.findOne(12L)).thenReturn(imageCube);
+        File test = createDataFile("id", imageCube.getFileId(), "image data");
+        CachedFile cachedFile = new CachedFile(imageCube.getFileId(), test.getPath(), 10L,
+                DateTime.now(DateTimeZone.UTC).plusWeeks(1));
+        cachedFile.setFileAvailableFlag(true);
+        when(cacheManager.getCachedFile(imageCube.getFileId())).thenReturn(cachedFile);
+
+        assertEquals(test.toPath(),
+                dataAccessService.findFileOnDisk(new DataAccessDataProduct(DataAccessProductType.cube, 12L)));
+        verify(ngasService, never()).getStatus(any());
+    }
+
+    @Test
+    public void testFindFileOnDiskNotInCacheTriesNgas() throws Exception
+    {
+        ImageCube imageCube = createImageCube(12L, "image_cube-12.fits", 10L, "ABC123", 445);
+        when(imageCubeRepository.findOne(12L)).thenReturn(imageCube);
+        Status ngasStatus = mock(Status.class);
+        when(ngasStatus.wasSuccess()).thenReturn(true);
+        when(ngasService.getStatus(imageCube.getFileId())).thenReturn(ngasStatus);
+        when(ngasStatus.getMountPoint()).thenReturn("/ngas/volume1");
+        when(ngasStatus.getFileName()).thenReturn(imageCube.getFileId());
+
+        Path path = dataAccessService.findFileOnDisk(new DataAccessDataProduct(DataAccessProductType.cube, 12L));
+
+        verify(ngasService).getStatus(imageCube.getFileId());
+        assertEquals(Paths.get("/ngas/volume1", imageCube.getFileId()), path);
+    }
+
     @Test
     public void testFindFileInNgasInvalidDataProduct() throws Exception
     {
@@ -522,15 +605,97 @@ public class DataAccessServiceTest
         when(thumbnailRepository.findThumbnail(any(), any())).thenReturn(null, thumbOrig);
 
         // run with an null thumbnail
-        dataAccessService.downloadThumbnailFromNgas("observations-111-thumbnail-id", response);
-        verify(ngasService, times(1)).retrieveFile(eq("observations-111-thumbnail-id"), any());
+        dataAccessService.downloadThumbnailFromNgas("observations-111-thumbnail-id", request, response);
+        verify(ngasService, times(1)).retrieveFile(eq("observations-111-thumbnail-id"), any(), any(),
+                (NgasCacheTee) isNull());
 
         // run with an unencapsulated thumbnail
-        dataAccessService.downloadThumbnailFromNgas("observations-111-thumbnail-id", response);
-        verify(ngasService, times(2)).retrieveFile(eq("observations-111-thumbnail-id"), any());
+        dataAccessService.downloadThumbnailFromNgas("observations-111-thumbnail-id", request, response);
+        verify(ngasService, times(2)).retrieveFile(eq("observations-111-thumbnail-id"), any(), any(),
+                (NgasCacheTee) isNull());
 
     }
 
+    @Test
+    public void testDownloadThumbnailFromNgasKeepsVerifiedCopy() throws Exception
+    {
+        DataAccessService teeingService = new DataAccessService(dataAccessJobRepository, imageCubeRepository,
+                measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
+                encapsulationFileRepository, evaluationFileRepository, thumbnailRepository, cachedFileRepository,
+                ngasService, cacheDir.getRoot().getAbsolutePath(), 25, 1000, "", "", "", new JavaProcessJobFactory(),
+                cacheManager, dataAccessJdbcRepository, imageCutoutRepository, generatedSpectrumRepository,
+                casdaMailService, downloadManager, mock(AsyncDownloadStreamer.class),
+                new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), true);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        byte[] data = "thumbnail image data".getBytes();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        Status ngasStatus = mock(Status.class);
+        when(ngasStatus.getChecksum()).thenReturn(Integer.toString((int) crc.getValue()));
+        when(ngasStatus.getChecksumPlugIn()).thenReturn("ngamsGenCrc32");
+        when(ngasStatus.getUncompressedFileSizeBytes()).thenReturn((long) data.length);
+        when(ngasService.getStatus("observations-111-thumbnail-id")).thenReturn(ngasStatus);
+        when(cacheManager.getMaxCacheSizeKb()).thenReturn(1000L);
+
+        teeingService.downloadThumbnailFromNgas("observations-111-thumbnail-id", request, response);
+
+        ArgumentCaptor<NgasCacheTee> teeCaptor = ArgumentCaptor.forClass(NgasCacheTee.class);
+        verify(ngasService).retrieveFile(eq("observations-111-thumbnail-id"), any(), any(), teeCaptor.capture());
+        NgasCacheTee tee = teeCaptor.getValue();
+        assertThat(IOUtils.toByteArray(tee.wrap(new ByteArrayInputStream(data))), equalTo(data));
+        tee.complete(true);
+
+        ArgumentCaptor<CachedFile> cachedFileCaptor = ArgumentCaptor.forClass(CachedFile.class);
+        verify(cachedFileRepository).save(cachedFileCaptor.capture());
+        CachedFile cachedFile = cachedFileCaptor.getValue();
+        assertThat(cachedFile.getFileId(), is("observations-111-thumbnail-id"));
+        assertThat(cachedFile.isFileAvailableFlag(), is(true));
+        assertThat(cachedFile.getFileType(), is(FileType.THUMBNAIL));
+        assertThat(FileUtils.readFileToByteArray(new File(cachedFile.getPath())), equalTo(data));
+    }
+
+    @Test
+    public void testDownloadThumbnailFromNgasUsesKeptCopy() throws Exception
+    {
+        File test = createDataFile("id", "observations-111-thumbnail-id", "thumbnail image data");
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+        CachedFile cachedFile = new CachedFile("observations-111-thumbnail-id", test.getPath(), 1L,
+                DateTime.now(DateTimeZone.UTC).plusWeeks(1));
+        cachedFile.setFileAvailableFlag(true);
+        when(cacheManager.getCachedFile("observations-111-thumbnail-id")).thenReturn(cachedFile);
+
+        dataAccessService.downloadThumbnailFromNgas("observations-111-thumbnail-id", request, response);
+
+        verify(ngasService, never()).retrieveFile(any(), any(), any(), any());
+        verify(ngasService, never()).getStatus(any());
+        verify(response).setContentType("image/png");
+    }
+
+    @Test
+    public void testDownloadThumbnailFromNgasRemembersChecksum() throws Exception
+    {
+        DataAccessService cachingService = new DataAccessService(dataAccessJobRepository, imageCubeRepository,
+                measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
+                encapsulationFileRepository, evaluationFileRepository, thumbnailRepository, cachedFileRepository,
+                ngasService, cacheDir.getRoot().getAbsolutePath(), 25, 1000, "", "", "", new JavaProcessJobFactory(),
+                cacheManager, dataAccessJdbcRepository, imageCutoutRepository, generatedSpectrumRepository,
+                casdaMailService, downloadManager, mock(AsyncDownloadStreamer.class),
+                new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(60000, 60000, 60000, 10), false);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        Status ngasStatus = mock(Status.class);
+        when(ngasStatus.getChecksum()).thenReturn("12345");
+        when(ngasService.getStatus("observations-111-thumbnail-id")).thenReturn(ngasStatus);
+
+        cachingService.downloadThumbnailFromNgas("observations-111-thumbnail-id", request, response);
+        cachingService.downloadThumbnailFromNgas("observations-111-thumbnail-id", request, response);
+
+        verify(ngasService, times(1)).getStatus("observations-111-thumbnail-id");
+        verify(ngasService, times(2)).retrieveFile(eq("observations-111-thumbnail-id"), any(), any(),
+                (NgasCacheTee) isNull());
+    }
+
     @Test
     public void testDownloadThumbnailFromNgasEncapsulated() throws Exception
     {
@@ -569,31 +734,31 @@ public class DataAccessServiceTest
         when(cacheManager.getCachedFile("observations-112-encaps-1")).thenReturn(null, encapsCacheFile);
 
         // run with an encapsulated thumbnail
-        dataAccessService.downloadThumbnailFromNgas("observations-112-thumbnail-id", response);
+        dataAccessService.downloadThumbnailFromNgas("observations-112-thumbnail-id", request, response);
         // on first run this file's encapsulation is added to the cache table so it will be downloaded to cache
         verify(cachedFileRepository, times(1)).save(any(CachedFile.class));
         verify(downloadManager, times(1)).pollJobManagerForDownloadJob(any(CachedFile.class));
         verify(response).sendError(204);
 
         // on the second run through the cache table entry exists, but file is not available so nothing happens
-        dataAccessService.downloadThumbnailFromNgas("observations-112-thumbnail-id", response);
+        dataAccessService.downloadThumbnailFromNgas("observations-112-thumbnail-id", request, response);
         verify(cachedFileRepository, times(1)).save(any(CachedFile.class));
         verify(response, times(2)).sendError(204);
 
         // on the third run the thumbnail file is added to the cache table so it will be downloaded to cache
-        dataAccessService.downloadThumbnailFromNgas("observations-112-thumbnail-id", response);
+        dataAccessService.downloadThumbnailFromNgas("observations-112-thumbnail-id", request, response);
         verify(cachedFileRepository, times(2)).save(any(CachedFile.class));
         verify(response, times(3)).sendError(204);
 
         // on the fourth run through the cache table entry exists, but file is not available so nothing happens
-        dataAccessService.downloadThumbnailFromNgas("observations-112-thumbnail-id", response);
+        dataAccessService.downloadThumbnailFromNgas("observations-112-thumbnail-id", request, response);
         verify(response, times(4)).sendError(204);
         verify(cacheFile, times(3)).isFileAvailableFlag();
         // so we test the counts on the other paths have not triggered
         verify(cachedFileRepository, times(2)).save(any(CachedFile.class));
 
         // on the fourth run the file is available to be downloaded
-        dataAccessService.downloadThumbnailFromNgas("observations-111-thumbnail-id", response);
+        dataAccessService.downloadThumbnailFromNgas("observations-111-thumbnail-id", request, response);
         verify(cacheFile, times(6)).isFileAvailableFlag();
         verify(cachedFileRepository, times(2)).save(any(CachedFile.class));
         verify(response, times(1)).flushBuffer();
@@ -607,19 +772,19 @@ public class DataAccessServiceTest
         HttpServletResponse response = mock(HttpServletResponse.class);
         when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
 
-        dataAccessService.downloadThumbnailFromNgas("observations-111-thumbnail-mom0_1.png", response);
+        dataAccessService.downloadThumbnailFromNgas("observations-111-thumbnail-mom0_1.png", request, response);
         verify(thumbnailRepository, times(1)).findThumbnail("mom0_1.png", 111);
 
-        dataAccessService.downloadThumbnailFromNgas("observations-121-thumbnail-C007c-mom1_1.png", response);
+        dataAccessService.downloadThumbnailFromNgas("observations-121-thumbnail-C007c-mom1_1.png", request, response);
         verify(thumbnailRepository, times(1)).findThumbnail("C007c-mom1_1.png", 121);
 
-        dataAccessService.downloadThumbnailFromNgas("observations-121-thumbnail-42.png", response);
+        dataAccessService.downloadThumbnailFromNgas("observations-121-thumbnail-42.png", request, response);
         verify(thumbnailRepository, times(1)).findOne(42L);
 
-        dataAccessService.downloadThumbnailFromNgas("level7-1741-thumbnail-spec1.png", response);
+        dataAccessService.downloadThumbnailFromNgas("level7-1741-thumbnail-spec1.png", request, response);
         verify(thumbnailRepository, times(1)).findLevel7Thumbnail("spec1.png", 1741);
 
-        dataAccessService.downloadThumbnailFromNgas("level7-1741-thumbnail-358.png", response);
+        dataAccessService.downloadThumbnailFromNgas("level7-1741-thumbnail-358.png", request, response);
         verify(thumbnailRepository, times(1)).findOne(358L);
     }
 
@@ -734,7 +899,7 @@ public class DataAccessServiceTest
         double len = 0.2;
         String bounds = String.format("%f %f %.6f %.6f", ra, dec, len, len); 
         HttpServletResponse response = mock(HttpServletResponse.class);
-        boolean result = dataAccessService.downloadCutoutPreview(imageId, ra, dec, 0.1, response);
+        boolean result = dataAccessService.downloadCutoutPreview(imageId, ra, dec, 0.1, request, response);
         assertThat(result, is(false));
         verify(imageCutoutRepository).findByImageCubeIdBoundsAndDownloadFormat(imageId, bounds, "png");
     }
@@ -761,12 +926,38 @@ public class DataAccessServiceTest
         CachedFile cachedFile = new CachedFile(fileId, dataFile.getAbsolutePath(), 9L, DateTime.now());
         when(cacheManager.getCachedFile(cutout.getFileId())).thenReturn(cachedFile);
         
-        boolean result = dataAccessService.downloadCutoutPreview(imageId, ra, dec, 0.1, response);
+        boolean result = dataAccessService.downloadCutoutPreview(imageId, ra, dec, 0.1, request, response);
         assertThat(result, is(true));
         verify(imageCutoutRepository).findByImageCubeIdBoundsAndDownloadFormat(imageId, bounds, "png");
         verify(response, never()).sendError(anyInt());
     }
 
+    @Test
+    public void testDownloadCutoutPreviewNotModified() throws IOException
+    {
+        long imageId = 42;
+        double ra = 161.264775;
+        double dec = -59.684431;
+        double len = 0.2;
+        String bounds = String.format("%f %f %.6f %.6f", ra, dec, len, len); 
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        List<ImageCutout> cutoutList = new ArrayList<>();
+        ImageCutout cutout = createCutout(bounds + " some other stuff", DataAccessJobStatus.READY);
+        cutoutList.add(cutout);
+        when(imageCutoutRepository.findByImageCubeIdBoundsAndDownloadFormat(imageId, bounds, "png"))
+                .thenReturn(cutoutList);
+        File dataFile = createDataFile("aaa", "foo.png", "Imagine a picture");
+        CachedFile cachedFile = new CachedFile(cutout.getFileId(), dataFile.getAbsolutePath(), 9L, DateTime.now());
+        when(cacheManager.getCachedFile(cutout.getFileId())).thenReturn(cachedFile);
+        request.addHeader("If-None-Match", HttpValidators.createEntityTag(dataFile));
+
+        boolean result = dataAccessService.downloadCutoutPreview(imageId, ra, dec, 0.1, request, response);
+        assertThat(result, is(true));
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response).setHeader("ETag", HttpValidators.createEntityTag(dataFile));
+        verify(response, never()).getOutputStream();
+    }
+
     @Test
     public void testDownloadCutoutPreviewSmallRadius() throws IOException
     {
@@ -790,7 +981,7 @@ public class DataAccessServiceTest
         CachedFile cachedFile = new CachedFile(fileId, dataFile.getAbsolutePath(), 9L, DateTime.now());
         when(cacheManager.getCachedFile(cutout.getFileId())).thenReturn(cachedFile);
         
-        boolean result = dataAccessService.downloadCutoutPreview(imageId, ra, dec, radius, response);
+        boolean result = dataAccessService.downloadCutoutPreview(imageId, ra, dec, radius, request, response);
         assertThat(result, is(true));
         verify(imageCutoutRepository).findByImageCubeIdBoundsAndDownloadFormat(imageId, bounds, "png");
         verify(response, never()).sendError(anyInt());
@@ -811,12 +1002,56 @@ public class DataAccessServiceTest
         when(imageCutoutRepository.findByImageCubeIdBoundsAndDownloadFormat(imageId, bounds, "png"))
                 .thenReturn(cutoutList);
         
-        boolean result = dataAccessService.downloadCutoutPreview(imageId, ra, dec, 0.1, response);
+        boolean result = dataAccessService.downloadCutoutPreview(imageId, ra, dec, 0.1, request, response);
         assertThat(result, is(true));
         verify(imageCutoutRepository).findByImageCubeIdBoundsAndDownloadFormat(imageId, bounds, "png");
         verify(response).sendError(204);
     }
 
+    @Test
+    public void testAsyncDownloadClosesFileIfStreamCannotStart() throws Exception
+    {
+        AsyncDownloadStreamer asyncDownloadStreamer = mock(AsyncDownloadStreamer.class);
+        when(asyncDownloadStreamer.canStream(any(), anyLong())).thenReturn(true);
+        doThrow(new IllegalStateException("Async not supported")).when(asyncDownloadStreamer).stream(any(), any(),
+                any(), anyLong(), any(DownloadGovernor.Permit.class),
+                any(AsyncDownloadStreamer.CompletionHandler.class));
+        DataAccessService asyncService = new DataAccessService(dataAccessJobRepository, imageCubeRepository,
+                measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
+                encapsulationFileRepository, evaluationFileRepository, thumbnailRepository, cachedFileRepository,
+                ngasService, cacheDir.getRoot().getAbsolutePath(), 25, 1000, "", "", "", new JavaProcessJobFactory(),
+                cacheManager, dataAccessJdbcRepository, imageCutoutRepository, generatedSpectrumRepository,
+                casdaMailService, downloadManager, asyncDownloadStreamer, new DownloadGovernor(0, 0, 0, 0, 0),
+                new NgasLocationCache(0, 0, 0, 0), false);
+        DataAccessJob dataAccessJob = new DataAccessJob();
+        dataAccessJob.setRequestId("ABC-123");
+        File dataFile = createDataFile("ABC-123", "image.fits", "some image data");
+
+        try
+        {
+            asyncService.downloadFile(dataAccessJob, "image.fits", dataFile, request, new MockHttpServletResponse(),
+                    false);
+            fail("Expected BadRequestException");
+        }
+        catch (BadRequestException e)
+        {
+            // expected
+        }
+
+        ArgumentCaptor<InputStream> sourceCaptor = ArgumentCaptor.forClass(InputStream.class);
+        verify(asyncDownloadStreamer).stream(any(), any(), sourceCaptor.capture(), anyLong(),
+                any(DownloadGovernor.Permit.class), any(AsyncDownloadStreamer.CompletionHandler.class));
+        try
+        {
+            sourceCaptor.getValue().read();
+            fail("Expected the file to have been closed");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
     private ImageCutout createCutout(String bounds, DataAccessJobStatus status)
     {
         ImageCutout imageCutout = new ImageCutout();
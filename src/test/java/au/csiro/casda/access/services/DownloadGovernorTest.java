@@ -0,0 +1,208 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import au.csiro.casda.access.TooManyRequestsException;
+import au.csiro.casda.entity.dataaccess.DataAccessJob;
+
+/**
+ * Test cases for DownloadGovernor.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class DownloadGovernorTest
+{
+    @Test
+    public void testUserStreamLimit()
+    {
+        DownloadGovernor governor = new DownloadGovernor(2, 0, 0, 0, 45);
+        DownloadGovernor.Permit first = governor.acquire(createJob("abc", "user1"));
+        DownloadGovernor.Permit second = governor.acquire(createJob("def", "user1"));
+        try
+        {
+            governor.acquire(createJob("ghi", "user1"));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            assertThat(e.getRetryAfterSeconds(), is(45));
+        }
+
+        // other users are not affected
+        DownloadGovernor.Permit other = governor.acquire(createJob("jkl", "user2"));
+        assertThat(governor.getActiveStreams(), is(3));
+
+        first.close();
+        // closing twice only releases the permit once
+        first.close();
+        assertThat(governor.getActiveStreams(), is(2));
+        governor.acquire(createJob("ghi", "user1")).close();
+
+        second.close();
+        other.close();
+        assertThat(governor.getActiveStreams(), is(0));
+        assertThat(getMetric(governor, "downloads.rejected.user"), is(1L));
+        assertThat(getMetric(governor, "downloads.users.active"), is(0L));
+    }
+
+    @Test
+    public void testRequestStreamLimit()
+    {
+        DownloadGovernor governor = new DownloadGovernor(0, 1, 0, 0, 30);
+        DownloadGovernor.Permit permit = governor.acquire(createJob("abc", "user1"));
+        try
+        {
+            governor.acquire(createJob("abc", "user1"));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            assertThat(e.getRetryAfterSeconds(), is(30));
+        }
+        governor.acquire(createJob("def", "user1")).close();
+
+        permit.close();
+        governor.acquire(createJob("abc", "user1")).close();
+        assertThat(getMetric(governor, "downloads.rejected.request"), is(1L));
+    }
+
+    @Test
+    public void testAnonymousJobsAreSeparateUsers()
+    {
+        DownloadGovernor governor = new DownloadGovernor(1, 0, 0, 0, 30);
+        governor.acquire(createJob("abc", null));
+        governor.acquire(createJob("def", null));
+        assertThat(governor.getActiveStreams(), is(2));
+    }
+
+    @Test
+    public void testUnlimited() throws Exception
+    {
+        DownloadGovernor governor = new DownloadGovernor(0, 0, 0, 0, 30);
+        for (int i = 0; i < 100; i++)
+        {
+            governor.acquire(createJob("abc", "user1"));
+        }
+        assertThat(governor.getActiveStreams(), is(100));
+
+        DownloadGovernor.Permit permit = governor.acquire(createJob("abc", "user1"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        IOUtils.copy(new ByteArrayInputStream(new byte[1000]), permit.throttle(output));
+        assertThat(output.size(), is(1000));
+        assertThat(getMetric(governor, "downloads.bytes"), is(1000L));
+        assertThat(getMetric(governor, "downloads.throttled.millis"), is(0L));
+    }
+
+    @Test
+    public void testUserBandwidthLimit() throws Exception
+    {
+        DownloadGovernor governor = new DownloadGovernor(0, 0, 10000, 0, 30);
+        DownloadGovernor.Permit permit = governor.acquire(createJob("abc", "user1"));
+
+        long start = System.nanoTime();
+        // The first second's worth is available immediately, the next 5000 bytes take about half a second
+        OutputStream output = permit.throttle(new ByteArrayOutputStream());
+        for (int i = 0; i < 15; i++)
+        {
+            output.write(new byte[1000]);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertThat(elapsedMillis, greaterThanOrEqualTo(400L));
+        assertThat(getMetric(governor, "downloads.bytes"), is(15000L));
+    }
+
+    @Test
+    public void testGlobalBandwidthLimitIsShared() throws Exception
+    {
+        DownloadGovernor governor = new DownloadGovernor(0, 0, 0, 10000, 30);
+        InputStream first =
+                governor.acquire(createJob("abc", "user1")).throttle(new ByteArrayInputStream(new byte[8000]));
+        InputStream second =
+                governor.acquire(createJob("def", "user2")).throttle(new ByteArrayInputStream(new byte[7000]));
+
+        long start = System.nanoTime();
+        IOUtils.copy(first, new ByteArrayOutputStream());
+        IOUtils.copy(second, new ByteArrayOutputStream());
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertThat(elapsedMillis, greaterThanOrEqualTo(400L));
+    }
+
+    @Test
+    public void testBandwidthAllowanceSurvivesReconnecting() throws Exception
+    {
+        DownloadGovernor governor = new DownloadGovernor(0, 0, 10000, 0, 30);
+        DownloadGovernor.Permit permit = governor.acquire(createJob("abc", "user1"));
+        assertThat(permit.reserve(10000), is(0L));
+        assertThat(permit.reserve(5000), greaterThan(0L));
+        permit.close();
+
+        // the user's debt isn't forgotten when their last download finishes, or by an eviction sweep
+        governor.evictIdleUsers();
+        DownloadGovernor.Permit next = governor.acquire(createJob("def", "user1"));
+        assertThat(next.reserve(1000), greaterThan(0L));
+        next.close();
+        assertThat(getMetric(governor, "downloads.users.active"), is(0L));
+    }
+
+    @Test
+    public void testIdleUsersAreEvicted() throws Exception
+    {
+        DownloadGovernor governor = new DownloadGovernor(0, 0, 1000000, 0, 30);
+        DownloadGovernor.Permit permit = governor.acquire(createJob("abc", "user1"));
+        permit.reserve(100);
+        permit.close();
+        assertThat(getMetric(governor, "downloads.users.tracked"), is(1L));
+        Thread.sleep(50);
+
+        governor.evictIdleUsers();
+        assertThat(getMetric(governor, "downloads.users.tracked"), is(0L));
+    }
+
+    private long getMetric(DownloadGovernor governor, String name)
+    {
+        for (Metric<?> metric : governor.metrics())
+        {
+            if (metric.getName().equals(name))
+            {
+                return metric.getValue().longValue();
+            }
+        }
+        throw new IllegalArgumentException("No metric named " + name);
+    }
+
+    private DataAccessJob createJob(String requestId, String userIdent)
+    {
+        DataAccessJob job = new DataAccessJob();
+        job.setRequestId(requestId);
+        job.setUserIdent(userIdent);
+        job.setUserLoginSystem(userIdent == null ? null : "OPAL");
+        return job;
+    }
+}
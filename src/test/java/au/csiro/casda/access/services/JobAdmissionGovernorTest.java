@@ -0,0 +1,267 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import au.csiro.casda.access.JobDto;
+import au.csiro.casda.access.TooManyRequestsException;
+import au.csiro.casda.access.jpa.DataAccessJobRepository;
+import au.csiro.casda.entity.dataaccess.DataAccessJob;
+
+/**
+ * Test cases for JobAdmissionGovernor.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class JobAdmissionGovernorTest
+{
+    private DataAccessJobRepository dataAccessJobRepository;
+
+    @Before
+    public void setUp()
+    {
+        dataAccessJobRepository = mock(DataAccessJobRepository.class);
+        setActiveJobTotals("user1", 0, 0);
+        setActiveJobTotals("user2", 0, 0);
+    }
+
+    @Test
+    public void testActiveJobLimit()
+    {
+        JobAdmissionGovernor governor = new JobAdmissionGovernor(dataAccessJobRepository, 2, 0, 0, 1, 60000, 45);
+        setActiveJobTotals("user1", 1, 100);
+
+        governor.admit(createJobDto("user1"));
+        governor.jobCreated(createJob("user1", 100));
+        try
+        {
+            governor.admit(createJobDto("user1"));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            assertThat(e.getRetryAfterSeconds(), is(45));
+        }
+
+        // other users are not affected, and the database is only read once per user within the reconcile interval
+        governor.admit(createJobDto("user2"));
+        verify(dataAccessJobRepository, times(1)).findActiveJobTotalsForUser("user1");
+        assertThat(getMetric(governor, "jobs.admission.rejected.active"), is(1L));
+    }
+
+    @Test
+    public void testActiveSizeLimit()
+    {
+        JobAdmissionGovernor governor = new JobAdmissionGovernor(dataAccessJobRepository, 0, 1000, 0, 1, 60000, 30);
+
+        governor.admit(createJobDto("user1"));
+        governor.jobCreated(createJob("user1", 1200));
+        try
+        {
+            governor.admit(createJobDto("user1"));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            assertThat(e.getRetryAfterSeconds(), is(30));
+        }
+        assertThat(getMetric(governor, "jobs.admission.rejected.size"), is(1L));
+    }
+
+    @Test
+    public void testReconcilesWithDatabase()
+    {
+        JobAdmissionGovernor governor = new JobAdmissionGovernor(dataAccessJobRepository, 1, 0, 0, 1, 0, 30);
+        setActiveJobTotals("user1", 1, 100);
+        try
+        {
+            governor.admit(createJobDto("user1"));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            // expected
+        }
+
+        // the user's job has since finished
+        setActiveJobTotals("user1", 0, 0);
+        governor.admit(createJobDto("user1"));
+    }
+
+    @Test
+    public void testRateLimit()
+    {
+        JobAdmissionGovernor governor = new JobAdmissionGovernor(dataAccessJobRepository, 0, 0, 1, 2, 60000, 30);
+
+        governor.admit(createJobDto("user1"));
+        governor.admit(createJobDto("user1"));
+        try
+        {
+            governor.admit(createJobDto("user1"));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            assertThat(e.getRetryAfterSeconds(), greaterThan(50));
+        }
+        governor.admit(createJobDto("user2"));
+        assertThat(getMetric(governor, "jobs.admission.rejected.rate"), is(1L));
+        verify(dataAccessJobRepository, never()).findActiveJobTotalsForUser(anyString());
+    }
+
+    @Test
+    public void testAnonymousUsersShareRateLimit()
+    {
+        JobAdmissionGovernor governor = new JobAdmissionGovernor(dataAccessJobRepository, 1, 0, 1, 1, 60000, 30);
+
+        governor.admit(createJobDto(null));
+        governor.jobCreated(createJob(null, 100));
+        try
+        {
+            governor.admit(createJobDto(""));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            assertThat(e.getMessage(), is("You are creating jobs too quickly, please try again in 60 seconds"));
+        }
+        verify(dataAccessJobRepository, never()).findActiveJobTotalsForUser(anyString());
+    }
+
+    @Test
+    public void testAdmissionReservesActiveJob()
+    {
+        JobAdmissionGovernor governor = new JobAdmissionGovernor(dataAccessJobRepository, 1, 0, 0, 1, 60000, 30);
+
+        governor.admit(createJobDto("user1"));
+        try
+        {
+            // the first job is still being created
+            governor.admit(createJobDto("user1"));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            // expected
+        }
+
+        governor.jobNotCreated(createJobDto("user1"));
+        governor.admit(createJobDto("user1"));
+    }
+
+    @Test
+    public void testReconcileKeepsReservations()
+    {
+        JobAdmissionGovernor governor = new JobAdmissionGovernor(dataAccessJobRepository, 1, 0, 0, 1, 0, 30);
+
+        governor.admit(createJobDto("user1"));
+        try
+        {
+            // the database doesn't have the first job yet, but it is still reserved
+            governor.admit(createJobDto("user1"));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            // expected
+        }
+        verify(dataAccessJobRepository, times(2)).findActiveJobTotalsForUser("user1");
+    }
+
+    @Test
+    public void testSyncAdmissionOnlyRateLimited()
+    {
+        JobAdmissionGovernor governor = new JobAdmissionGovernor(dataAccessJobRepository, 1, 0, 1, 2, 60000, 30);
+        setActiveJobTotals("user1", 1, 100);
+
+        governor.admitSync(createJobDto("user1"));
+        governor.admitSync(createJobDto("user1"));
+        try
+        {
+            governor.admitSync(createJobDto("user1"));
+            fail("Expected TooManyRequestsException");
+        }
+        catch (TooManyRequestsException e)
+        {
+            assertThat(getMetric(governor, "jobs.admission.rejected.rate"), is(1L));
+        }
+        verify(dataAccessJobRepository, never()).findActiveJobTotalsForUser(anyString());
+    }
+
+    @Test
+    public void testEvictIdleUsers()
+    {
+        JobAdmissionGovernor governor = new JobAdmissionGovernor(dataAccessJobRepository, 5, 0, 0, 1, 0, 30);
+        governor.admit(createJobDto("user1"));
+        assertThat(getMetric(governor, "jobs.admission.users"), is(1L));
+
+        // a user isn't forgotten while a job they were admitted for is being created
+        governor.evictIdleUsers();
+        assertThat(getMetric(governor, "jobs.admission.users"), is(1L));
+
+        governor.jobCreated(createJob("user1", 100));
+        governor.evictIdleUsers();
+        assertThat(getMetric(governor, "jobs.admission.users"), is(0L));
+    }
+
+    private void setActiveJobTotals(String userIdent, long jobs, long sizeKb)
+    {
+        List<Object[]> totals = Collections.singletonList(new Object[] { jobs, sizeKb });
+        when(dataAccessJobRepository.findActiveJobTotalsForUser(userIdent)).thenReturn(totals);
+    }
+
+    private JobDto createJobDto(String userIdent)
+    {
+        JobDto job = new JobDto();
+        job.setUserIdent(userIdent);
+        job.setUserLoginSystem("OPAL");
+        return job;
+    }
+
+    private DataAccessJob createJob(String userIdent, long sizeKb)
+    {
+        DataAccessJob job = new DataAccessJob();
+        job.setUserIdent(userIdent);
+        job.setSizeKb(sizeKb);
+        return job;
+    }
+
+    private long getMetric(JobAdmissionGovernor governor, String name)
+    {
+        for (Metric<?> metric : governor.metrics())
+        {
+            if (metric.getName().equals(name))
+            {
+                return metric.getValue().longValue();
+            }
+        }
+        throw new IllegalArgumentException("No metric " + name);
+    }
+}
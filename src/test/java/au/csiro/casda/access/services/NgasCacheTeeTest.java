@@ -0,0 +1,190 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import au.csiro.casda.access.services.NgasService.Status;
+
+/**
+ * Test cases for NgasCacheTee.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class NgasCacheTeeTest
+{
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final byte[] data = "some thumbnail data".getBytes(StandardCharsets.US_ASCII);
+
+    private File destination;
+
+    private AtomicReference<File> verifiedFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        destination = new File(new File(tempFolder.getRoot(), "data"), "file-id");
+        verifiedFile = new AtomicReference<>();
+    }
+
+    @Test
+    public void testCanVerify()
+    {
+        assertThat(NgasCacheTee.canVerify(createStatus("123", "ngamsGenCrc32", 10)), is(true));
+        assertThat(NgasCacheTee.canVerify(createStatus("123", "ngamsGenCrc32c", 10)), is(false));
+        assertThat(NgasCacheTee.canVerify(createStatus("", "ngamsGenCrc32", 10)), is(false));
+    }
+
+    @Test
+    public void testVerifiedCopyIsKept() throws Exception
+    {
+        NgasCacheTee tee = new NgasCacheTee("file-id", createStatus(signedCrc(data), "ngamsGenCrc32", data.length),
+                destination, verifiedFile::set);
+
+        assertThat(IOUtils.toByteArray(tee.wrap(new ByteArrayInputStream(data))), equalTo(data));
+        tee.complete(true);
+
+        assertThat(verifiedFile.get(), is(destination));
+        assertThat(FileUtils.readFileToByteArray(destination), equalTo(data));
+        assertThat(getPartFiles(), is(0));
+    }
+
+    @Test
+    public void testUnsignedChecksumIsAccepted() throws Exception
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        NgasCacheTee tee = new NgasCacheTee("file-id",
+                createStatus(Long.toString(crc.getValue()), "ngamsGenCrc32", data.length), destination,
+                verifiedFile::set);
+
+        IOUtils.toByteArray(tee.wrap(new ByteArrayInputStream(data)));
+        tee.complete(true);
+
+        assertThat(verifiedFile.get(), is(destination));
+    }
+
+    @Test
+    public void testChecksumMismatchIsDiscarded() throws Exception
+    {
+        NgasCacheTee tee =
+                new NgasCacheTee("file-id", createStatus("12345", "ngamsGenCrc32", data.length), destination,
+                        verifiedFile::set);
+
+        assertThat(IOUtils.toByteArray(tee.wrap(new ByteArrayInputStream(data))), equalTo(data));
+        tee.complete(true);
+
+        assertThat(verifiedFile.get(), nullValue());
+        assertThat(destination.exists(), is(false));
+        assertThat(getPartFiles(), is(0));
+    }
+
+    @Test
+    public void testIncompleteTransferIsDiscarded() throws Exception
+    {
+        NgasCacheTee tee = new NgasCacheTee("file-id", createStatus(signedCrc(data), "ngamsGenCrc32", data.length),
+                destination, verifiedFile::set);
+
+        InputStream input = tee.wrap(new ByteArrayInputStream(data));
+        input.read(new byte[5]);
+        tee.complete(false);
+        // later calls have no effect
+        tee.complete(true);
+
+        assertThat(verifiedFile.get(), nullValue());
+        assertThat(destination.exists(), is(false));
+        assertThat(getPartFiles(), is(0));
+    }
+
+    @Test
+    public void testShortTransferIsDiscarded() throws Exception
+    {
+        NgasCacheTee tee = new NgasCacheTee("file-id",
+                createStatus(signedCrc(data), "ngamsGenCrc32", data.length + 1), destination, verifiedFile::set);
+
+        IOUtils.toByteArray(tee.wrap(new ByteArrayInputStream(data)));
+        tee.complete(true);
+
+        assertThat(verifiedFile.get(), nullValue());
+        assertThat(destination.exists(), is(false));
+    }
+
+    @Test
+    public void testConcurrentCopiesDoNotShareAPartialFile() throws Exception
+    {
+        Status status = createStatus(signedCrc(data), "ngamsGenCrc32", data.length);
+        AtomicReference<File> otherVerifiedFile = new AtomicReference<>();
+        NgasCacheTee first = new NgasCacheTee("file-id", status, destination, verifiedFile::set);
+        NgasCacheTee second = new NgasCacheTee("file-id", status, destination, otherVerifiedFile::set);
+
+        InputStream firstInput = first.wrap(new ByteArrayInputStream(data));
+        InputStream secondInput = second.wrap(new ByteArrayInputStream(data));
+        assertThat(getPartFiles(), is(2));
+        // interleave the two transfers
+        byte[] buffer = new byte[4];
+        while (firstInput.read(buffer) >= 0 | secondInput.read(buffer) >= 0)
+        {
+            continue;
+        }
+        first.complete(true);
+        second.complete(true);
+
+        assertThat(verifiedFile.get(), is(destination));
+        assertThat(otherVerifiedFile.get(), nullValue());
+        assertThat(FileUtils.readFileToByteArray(destination), equalTo(data));
+        assertThat(getPartFiles(), is(0));
+    }
+
+    private int getPartFiles()
+    {
+        File[] partFiles = destination.getParentFile().listFiles((dir, name) -> name.endsWith(".part"));
+        return partFiles == null ? 0 : partFiles.length;
+    }
+
+    private String signedCrc(byte[] bytes)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return Integer.toString((int) crc.getValue());
+    }
+
+    private Status createStatus(String checksum, String checksumPlugIn, long size)
+    {
+        Status status = mock(Status.class);
+        when(status.getChecksum()).thenReturn(checksum);
+        when(status.getChecksumPlugIn()).thenReturn(checksumPlugIn);
+        when(status.getUncompressedFileSizeBytes()).thenReturn(size);
+        return status;
+    }
+}
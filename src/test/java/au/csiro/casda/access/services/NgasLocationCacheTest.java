@@ -0,0 +1,121 @@
+package au.csiro.casda.access.services;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Test cases for NgasLocationCache.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class NgasLocationCacheTest
+{
+    @Test
+    public void testLocation()
+    {
+        NgasLocationCache cache = new NgasLocationCache(60000, 60000, 60000, 10);
+        Path path = Paths.get("/ngas/volume1/file-1");
+
+        assertThat(cache.getLocation("file-1"), is(nullValue()));
+        cache.putLocation("file-1", path);
+        assertThat(cache.getLocation("file-1"), is(path));
+
+        cache.invalidate("file-1");
+        assertThat(cache.getLocation("file-1"), is(nullValue()));
+    }
+
+    @Test
+    public void testChecksum()
+    {
+        NgasLocationCache cache = new NgasLocationCache(60000, 60000, 60000, 10);
+
+        assertThat(cache.getChecksum("file-1"), is(nullValue()));
+        cache.putChecksum("file-1", "12345");
+        assertThat(cache.getChecksum("file-1"), is("12345"));
+
+        cache.invalidate("file-1");
+        assertThat(cache.getChecksum("file-1"), is(nullValue()));
+    }
+
+    @Test
+    public void testOnDisk()
+    {
+        NgasLocationCache cache = new NgasLocationCache(60000, 60000, 60000, 10);
+
+        assertThat(cache.isOnDisk("file-1"), is(nullValue()));
+        cache.putOnDisk("file-1", false);
+        assertThat(cache.isOnDisk("file-1"), is(false));
+        cache.putOnDisk("file-1", true);
+        assertThat(cache.isOnDisk("file-1"), is(true));
+        cache.putOnDisk("file-1", false);
+        assertThat(cache.isOnDisk("file-1"), is(false));
+    }
+
+    @Test
+    public void testNotOnDiskExpiresSooner() throws Exception
+    {
+        NgasLocationCache cache = new NgasLocationCache(60000, 60000, 1, 10);
+
+        cache.putOnDisk("file-1", true);
+        cache.putOnDisk("file-2", false);
+        Thread.sleep(10);
+
+        assertThat(cache.isOnDisk("file-1"), is(true));
+        assertThat(cache.isOnDisk("file-2"), is(nullValue()));
+    }
+
+    @Test
+    public void testSizeBounded()
+    {
+        NgasLocationCache cache = new NgasLocationCache(60000, 60000, 60000, 2);
+        for (int i = 0; i < 5; i++)
+        {
+            cache.putLocation("file-" + i, Paths.get("/ngas/volume1/file-" + i));
+        }
+        assertThat(getMetric(cache, "ngas.location.cache.size") <= 2, is(true));
+        assertThat(getMetric(cache, "ngas.location.cache.evictions") >= 3, is(true));
+        assertThat(cache.getLocation("file-4"), is(Paths.get("/ngas/volume1/file-4")));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        NgasLocationCache cache = new NgasLocationCache(0, 0, 0, 0);
+        cache.putLocation("file-1", Paths.get("/ngas/volume1/file-1"));
+        cache.putOnDisk("file-1", true);
+
+        assertThat(cache.getLocation("file-1"), is(nullValue()));
+        assertThat(cache.isOnDisk("file-1"), is(nullValue()));
+    }
+
+    private long getMetric(NgasLocationCache cache, String name)
+    {
+        for (Metric<?> metric : cache.metrics())
+        {
+            if (metric.getName().equals(name))
+            {
+                return metric.getValue().longValue();
+            }
+        }
+        throw new IllegalArgumentException("No metric " + name);
+    }
+}
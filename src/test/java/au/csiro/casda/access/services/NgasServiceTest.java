@@ -15,6 +15,7 @@ package au.csiro.casda.access.services;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -29,7 +30,9 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.env.MockEnvironment;
 
+import au.csiro.casda.access.security.BackendResilience;
 import au.csiro.casda.access.security.SecuredRestTemplate;
 import au.csiro.casda.access.services.NgasService.ServiceCallException;
 import au.csiro.casda.access.services.NgasService.Status;
@@ -57,7 +60,8 @@ public class NgasServiceTest
     @Test
     public void testGetStatusEmptyFail() throws ServiceCallException
     {
-        NgasService service = new NgasService(restTemplate, "http://vbcvb:567");
+        NgasService service = new NgasService(restTemplate, "http://vbcvb:567", mock(AsyncDownloadStreamer.class),
+                new BackendResilience(new MockEnvironment()));
         when(restTemplate.getForEntity("http://vbcvb:567/STATUS?file_id={file_id}", String.class, "fileId1234"))
                 .thenReturn(responseEntity);
         when(responseEntity.getBody()).thenReturn("<?xml version=\"1.0\" ?><NgamsStatus></NgamsStatus>");
@@ -68,7 +72,8 @@ public class NgasServiceTest
     @Test
     public void testGetStatusSuccess() throws ServiceCallException, IOException, URISyntaxException
     {
-        NgasService service = new NgasService(restTemplate, "http://vbcvb:567");
+        NgasService service = new NgasService(restTemplate, "http://vbcvb:567", mock(AsyncDownloadStreamer.class),
+                new BackendResilience(new MockEnvironment()));
         when(restTemplate.getForEntity("http://vbcvb:567/STATUS?file_id={file_id}", String.class, "fileId1234"))
                 .thenReturn(responseEntity);
         when(responseEntity.getBody()).thenReturn(this.getNgasResponse("ngas_file_status_example.xml"));
@@ -83,7 +88,8 @@ public class NgasServiceTest
     @Test
     public void testGetStatusFileNotFound() throws ServiceCallException, IOException, URISyntaxException
     {
-        NgasService service = new NgasService(restTemplate, "http://vbcvb:567");
+        NgasService service = new NgasService(restTemplate, "http://vbcvb:567", mock(AsyncDownloadStreamer.class),
+                new BackendResilience(new MockEnvironment()));
         when(restTemplate.getForEntity("http://vbcvb:567/STATUS?file_id={file_id}", String.class, "fileId1234"))
                 .thenReturn(responseEntity);
         when(responseEntity.getBody()).thenReturn(this.getNgasResponse("ngas_file_status_not_found_example.xml"));
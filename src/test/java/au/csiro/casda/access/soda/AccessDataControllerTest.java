@@ -13,12 +13,14 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import static org.hamcrest.Matchers.allOf;
@@ -48,6 +50,8 @@ import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
 
+import javax.servlet.AsyncListener;
+
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.RandomStringUtils;
@@ -74,8 +78,10 @@ import org.springframework.boot.actuate.endpoint.HealthEndpoint;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.Status;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.method.annotation.ExceptionHandlerExceptionResolver;
@@ -106,12 +112,17 @@ import au.csiro.casda.access.jpa.MeasurementSetRepository;
 import au.csiro.casda.access.jpa.MomentMapRepository;
 import au.csiro.casda.access.jpa.SpectrumRepository;
 import au.csiro.casda.access.jpa.ThumbnailRepository;
+import au.csiro.casda.access.services.AsyncDownloadStreamer;
 import au.csiro.casda.access.services.CasdaMailService;
 import au.csiro.casda.access.services.DataAccessService;
+import au.csiro.casda.access.services.DownloadGovernor;
+import au.csiro.casda.access.services.JobAdmissionGovernor;
+import au.csiro.casda.access.services.NgasLocationCache;
 import au.csiro.casda.access.services.NgasService;
 import au.csiro.casda.access.util.Utils;
 import au.csiro.casda.access.uws.AccessJobManager;
 import au.csiro.casda.access.uws.AccessJobManagerTest;
+import au.csiro.casda.access.uws.JobCompletionNotifier;
 import au.csiro.casda.entity.CasdaDataProductEntity;
 import au.csiro.casda.entity.dataaccess.CachedFile;
 import au.csiro.casda.entity.dataaccess.CachedFile.FileType;
@@ -180,7 +191,8 @@ public class AccessDataControllerTest
             MockitoAnnotations.initMocks(this);
             controller = new AccessDataController(healthEndpoint, systemStatus, mock(DataAccessService.class),
                     mock(AccessJobManager.class), mock(DataAccessJobRepository.class), "http://localhost:8088/foo",
-                    RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 500, 5000, 100000);
+                    RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 5000, 100000,
+                    new JobCompletionNotifier(), mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
         }
@@ -264,7 +276,8 @@ public class AccessDataControllerTest
             AccessDataController controller = new AccessDataController(mock(HealthEndpoint.class),
                     mock(SystemStatus.class), mock(DataAccessService.class), mock(AccessJobManager.class),
                     mock(DataAccessJobRepository.class), this.baseUrl, RandomStringUtils.randomAscii(16),
-                    RandomUtils.nextInt(10, 20), 500, 5000, 100000);
+                    RandomUtils.nextInt(10, 20), 5000, 100000, new JobCompletionNotifier(),
+                    mock(JobAdmissionGovernor.class));
             MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
 
@@ -304,8 +317,8 @@ public class AccessDataControllerTest
             MockitoAnnotations.initMocks(this);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     mock(DataAccessService.class), mock(AccessJobManager.class), mock(DataAccessJobRepository.class),
-                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 500,
-                    5000, 100000);
+                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 5000,
+                    100000, new JobCompletionNotifier(), mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
         }
@@ -372,6 +385,9 @@ public class AccessDataControllerTest
         @Mock
         private DownloadManager downloadManager;
 
+        @Mock
+        private JobCompletionNotifier jobCompletionNotifier;
+
         private AccessDataController controller;
 
         private MockMvc mockMvc;
@@ -389,10 +405,13 @@ public class AccessDataControllerTest
                     mock(ThumbnailRepository.class), cachedFileRepository, ngasService,
                     cacheDir.getRoot().getAbsolutePath(), 25, 1000, archiveStatusCommandAndArgs, "", "", 
                     new JavaProcessJobFactory(), mock(CacheManager.class), dataAccessJdbcRepository, 
-                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager);
+                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager,
+                    mock(AsyncDownloadStreamer.class),
+                    new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     dataAccessService, accessJobManager, dataAccessJobRepository, "http://localhost:8088/foo",
-                    secretKey, RandomUtils.nextInt(10, 20), 10, 20, SYNC_SIZE_LIMIT);
+                    secretKey, RandomUtils.nextInt(10, 20), 20, SYNC_SIZE_LIMIT, jobCompletionNotifier,
+                    mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
             when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(createCount());
@@ -412,6 +431,7 @@ public class AccessDataControllerTest
             job.setRequestId(requestId);
             job.setId(jobId);
             job.setDownloadMode(CasdaDownloadMode.SODA_SYNC_WEB);
+            ImageCube imageCube = AccessJobManagerTest.createImageCube(123L, filename, 123L, "ABC123", sbid);
             when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(getPaging());
             when(dataAccessJdbcRepository.getPageOfDownloadFiles(any(String.class), any(String.class), 
             		any(Integer[].class), any(Boolean.class))).thenReturn(getImageCubes(123L, sbid));
@@ -422,12 +442,11 @@ public class AccessDataControllerTest
                     ExecutionPhase.COMPLETED, new DateTime(DateTimeZone.UTC).minusHours(3).getMillis(),
                     new DateTime(DateTimeZone.UTC).minusHours(2).getMillis(),
                     new DateTime(DateTimeZone.UTC).plusDays(2), job.getParamMap(), Arrays.asList(), null));
-            when(imageCubeRepository.findOne(1L)).thenReturn(new ImageCube());
+            when(imageCubeRepository.findOne(1L)).thenReturn(imageCube);
+            stubNgasUnavailable(fileId);
             doNothing().when(accessJobManager).scheduleJob(any());
 
-            this.mockMvc
-                    .perform(post(AccessDataController.ACCESS_DATA_SYNC_BASE_PATH)
-                            .contentType(MediaType.APPLICATION_FORM_URLENCODED).param("ID", id))
+            performSyncRequest(id, false)
                     .andExpect(status().isOk())
                     .andExpect(header().string("Content-Disposition", "attachment; filename=" + fileId))
                     .andExpect(content().string(is(equalTo("ABC123 data")))).andReturn();
@@ -471,15 +490,14 @@ public class AccessDataControllerTest
                     new DateTime(DateTimeZone.UTC).plusDays(2), job.getParamMap(), Arrays.asList(), null));
             NgasService.Status ngasStatus = mock(NgasService.Status.class);
             when(ngasService.getStatus(fileId)).thenReturn(ngasStatus);
-            when(ngasStatus.wasSuccess()).thenReturn(true);
+            // NGAS can't be reached when the request arrives, so the file has to be found via a job
+            when(ngasStatus.wasSuccess()).thenReturn(false, true);
             when(ngasStatus.getMountPoint()).thenReturn(ngasDir.getRoot().getPath());
             when(ngasStatus.getFileName()).thenReturn(fileId);
 
             doNothing().when(accessJobManager).scheduleJob(any());
 
-            this.mockMvc
-                    .perform(post(AccessDataController.ACCESS_DATA_SYNC_BASE_PATH)
-                            .contentType(MediaType.APPLICATION_FORM_URLENCODED).param("ID", id))
+            performSyncRequest(id, true)
                     .andExpect(status().isOk())
                     .andExpect(header().string("Content-Disposition", "attachment; filename=" + fileId))
                     .andExpect(content().string(is(equalTo("ABC123 data")))).andReturn();
@@ -518,15 +536,14 @@ public class AccessDataControllerTest
                     new DateTime(DateTimeZone.UTC).plusDays(2), job.getParamMap(), Arrays.asList(), null));
             NgasService.Status ngasStatus = mock(NgasService.Status.class);
             when(ngasService.getStatus(fileId)).thenReturn(ngasStatus);
-            when(ngasStatus.wasSuccess()).thenReturn(true);
+            // NGAS can't be reached when the request arrives, so the file has to be found via a job
+            when(ngasStatus.wasSuccess()).thenReturn(false, true);
             when(ngasStatus.getMountPoint()).thenReturn(ngasDir.getRoot().getPath());
             when(ngasStatus.getFileName()).thenReturn(fileId);
 
             doNothing().when(accessJobManager).scheduleJob(any());
 
-            this.mockMvc
-                    .perform(post(AccessDataController.ACCESS_DATA_SYNC_BASE_PATH)
-                            .contentType(MediaType.APPLICATION_FORM_URLENCODED).param("ID", id))
+            performSyncRequest(id, false)
                     .andExpect(status().isOk())
                     .andExpect(header().string("Content-Disposition", "attachment; filename=" + fileId))
                     .andExpect(content().string(is(equalTo("ABC123 data")))).andReturn();
@@ -556,6 +573,7 @@ public class AccessDataControllerTest
                     new DateTime(DateTimeZone.UTC).minusHours(2).getMillis(),
                     new DateTime(DateTimeZone.UTC).plusDays(2), job.getParamMap(), Arrays.asList(), null));
 
+            stubNgasUnavailable("observations-" + sbid + "-image_cubes-" + filename);
             doNothing().when(accessJobManager).scheduleJob(any());
             doThrow(new ResourceIllegalStateException("some problem")).when(accessJobManager).cancelJob(any(),
                     any(DateTime.class));
@@ -566,8 +584,7 @@ public class AccessDataControllerTest
                     equalTo("Could not cancel job created to refresh SODA SYNC files in request after timeout. "
                             + "Job with requestId '" + requestId + "' is still in phase 'EXECUTING'")));
 
-            this.mockMvc.perform(post(AccessDataController.ACCESS_DATA_SYNC_BASE_PATH)
-                    .contentType(MediaType.APPLICATION_FORM_URLENCODED).param("ID", id));
+            performSyncRequest(id, true);
         }
 
         @Test
@@ -601,7 +618,8 @@ public class AccessDataControllerTest
 
             NgasService.Status ngasStatus = mock(NgasService.Status.class);
             when(ngasService.getStatus(fileId)).thenReturn(ngasStatus);
-            when(ngasStatus.wasSuccess()).thenReturn(true);
+            // NGAS can't be reached when the request arrives, so the file has to be found via a job
+            when(ngasStatus.wasSuccess()).thenReturn(false, true);
             when(ngasStatus.getMountPoint()).thenReturn(ngasDir.getRoot().getPath());
             when(ngasStatus.getFileName()).thenReturn(fileId);
 
@@ -611,9 +629,127 @@ public class AccessDataControllerTest
             exception.expectCause(is(instanceOf(RuntimeException.class)));
             exception.expectCause(hasMessage(containsString(fileId)));
 
-            this.mockMvc
+            performSyncRequest(id, false);
+        }
+
+        @Test
+        public void testFileOnDiskSentWithoutJob() throws Exception
+        {
+            String id = Utils.encryptAesUrlSafe("cube-1|myUserId|OPAL|WEB|123", secretKey);
+            int sbid = 445;
+            String filename = "image_cube-123.fits";
+            String fileId = "observations-" + sbid + "-image_cubes-" + filename;
+
+            DataAccessJob job = new DataAccessJob();
+            job.setRequestId(UUID.randomUUID().toString());
+            job.setId(123456L);
+            job.setDownloadMode(CasdaDownloadMode.SODA_SYNC_WEB);
+            ImageCube imageCube = AccessJobManagerTest.createImageCube(123L, filename, 123L, "ABC123", sbid);
+            when(imageCubeRepository.findOne(Mockito.anyLong())).thenReturn(imageCube);
+
+            File dataFile = new File(ngasDir.getRoot(), fileId);
+            dataFile.getParentFile().mkdirs();
+            FileUtils.writeStringToFile(dataFile, "ABC123 data");
+            NgasService.Status ngasStatus = mock(NgasService.Status.class);
+            when(ngasService.getStatus(fileId)).thenReturn(ngasStatus);
+            when(ngasStatus.wasSuccess()).thenReturn(true);
+            when(ngasStatus.getMountPoint()).thenReturn(ngasDir.getRoot().getPath());
+            when(ngasStatus.getFileName()).thenReturn(fileId);
+
+            when(accessJobManager.recordCompletedDataAccessJob(any(), eq(SYNC_SIZE_LIMIT), any(DateTime.class)))
+                    .thenReturn(job);
+
+            performSyncRequest(id, false).andExpect(status().isOk())
+                    .andExpect(header().string("Content-Disposition", "attachment; filename=" + fileId))
+                    .andExpect(content().string(is(equalTo("ABC123 data"))));
+
+            verify(accessJobManager, never()).createDataAccessJob(any(), any(), any(Boolean.class));
+            verify(accessJobManager, never()).scheduleJob(any());
+            verify(jobCompletionNotifier, never()).addListener(any(), any());
+        }
+
+        @Test
+        public void testJobCompletionCompletesRequest() throws Exception
+        {
+            String id = Utils.encryptAesUrlSafe("cube-1|myUserId|OPAL|WEB|123", secretKey);
+            int sbid = 445;
+            String filename = "image_cube-123.fits";
+            String fileId = "observations-" + sbid + "-image_cubes-" + filename;
+
+            String requestId = UUID.randomUUID().toString();
+            DataAccessJob job = new DataAccessJob();
+            job.setRequestId(requestId);
+            job.setId(123456L);
+            job.setDownloadMode(CasdaDownloadMode.SODA_SYNC_WEB);
+            ImageCube imageCube = AccessJobManagerTest.createImageCube(123L, filename, 123L, "ABC123", sbid);
+            when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(getPaging());
+            when(dataAccessJdbcRepository.getPageOfDownloadFiles(any(String.class), any(String.class), 
+                    any(Integer[].class), any(Boolean.class))).thenReturn(getImageCubes(123L, sbid));
+            when(dataAccessJobRepository.findByRequestId(requestId)).thenReturn(job);
+            createCachedDataFile(requestId, fileId, "ABC123 data", FileType.IMAGE_CUBE);
+            when(accessJobManager.createDataAccessJob(any(), eq(SYNC_SIZE_LIMIT), eq(true))).thenReturn(job);
+            when(accessJobManager.getJobStatus(job)).thenReturn(AccessJobManager.createUWSJob(requestId,
+                    ExecutionPhase.EXECUTING, new DateTime(DateTimeZone.UTC).minusHours(3).getMillis(),
+                    new DateTime(DateTimeZone.UTC).minusHours(2).getMillis(),
+                    new DateTime(DateTimeZone.UTC).plusDays(2), job.getParamMap(), Arrays.asList(), null));
+            when(imageCubeRepository.findOne(1L)).thenReturn(imageCube);
+            stubNgasUnavailable(fileId);
+            doNothing().when(accessJobManager).scheduleJob(any());
+
+            MvcResult mvcResult = this.mockMvc
                     .perform(post(AccessDataController.ACCESS_DATA_SYNC_BASE_PATH)
-                            .contentType(MediaType.APPLICATION_FORM_URLENCODED).param("ID", id));
+                            .contentType(MediaType.APPLICATION_FORM_URLENCODED).param("ID", id))
+                    .andExpect(request().asyncStarted()).andReturn();
+
+            ArgumentCaptor<Runnable> listener = ArgumentCaptor.forClass(Runnable.class);
+            verify(jobCompletionNotifier).addListener(eq(requestId), listener.capture());
+
+            // the job finishes after the request has gone async
+            when(accessJobManager.getJobStatus(job)).thenReturn(AccessJobManager.createUWSJob(requestId,
+                    ExecutionPhase.COMPLETED, new DateTime(DateTimeZone.UTC).minusHours(3).getMillis(),
+                    new DateTime(DateTimeZone.UTC).minusHours(2).getMillis(),
+                    new DateTime(DateTimeZone.UTC).plusDays(2), job.getParamMap(), Arrays.asList(), null));
+            listener.getValue().run();
+            verify(jobCompletionNotifier).removeListener(requestId, listener.getValue());
+
+            this.mockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isOk())
+                    .andExpect(header().string("Content-Disposition", "attachment; filename=" + fileId))
+                    .andExpect(content().string(is(equalTo("ABC123 data"))));
+        }
+
+        private void stubNgasUnavailable(String fileId) throws Exception
+        {
+            NgasService.Status ngasStatus = mock(NgasService.Status.class);
+            when(ngasService.getStatus(fileId)).thenReturn(ngasStatus);
+            when(ngasStatus.wasSuccess()).thenReturn(false);
+        }
+
+        /**
+         * Performs a sync request and then dispatches its (deferred) result.
+         * 
+         * @param id
+         *            the authenticated id token
+         * @param timeOut
+         *            whether to time out the request rather than wait for it to be completed
+         * @return the ResultActions for the dispatched result
+         * @throws Exception
+         *             if the request fails
+         */
+        private ResultActions performSyncRequest(String id, boolean timeOut) throws Exception
+        {
+            MvcResult mvcResult = this.mockMvc
+                    .perform(post(AccessDataController.ACCESS_DATA_SYNC_BASE_PATH)
+                            .contentType(MediaType.APPLICATION_FORM_URLENCODED).param("ID", id))
+                    .andExpect(request().asyncStarted()).andReturn();
+            if (timeOut)
+            {
+                MockAsyncContext asyncContext = (MockAsyncContext) mvcResult.getRequest().getAsyncContext();
+                for (AsyncListener listener : asyncContext.getListeners())
+                {
+                    listener.onTimeout(null);
+                }
+            }
+            return this.mockMvc.perform(asyncDispatch(mvcResult));
         }
 
         private File createCachedDataFile(String requestId, String filename, String contents, FileType fileType)
@@ -673,7 +809,8 @@ public class AccessDataControllerTest
             secretKey = RandomStringUtils.randomAscii(16);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     dataAccessService, accessJobManager, dataAccessJobRepository, "http://localhost:8088/foo",
-                    secretKey, RandomUtils.nextInt(10, 20), 500, 5000, 100000);
+                    secretKey, RandomUtils.nextInt(10, 20), 5000, 100000, new JobCompletionNotifier(),
+                    mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
         }
@@ -1075,8 +1212,8 @@ public class AccessDataControllerTest
             MockitoAnnotations.initMocks(this);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     mock(DataAccessService.class), accessJobManager, dataAccessJobRepository,
-                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 500,
-                    5000, 100000);
+                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 5000,
+                    100000, new JobCompletionNotifier(), mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
             UWSJob.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
@@ -1165,7 +1302,8 @@ public class AccessDataControllerTest
             cancelledJobHoursToExpiry = RandomUtils.nextInt(10, 20);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     mock(DataAccessService.class), accessJobManager, dataAccessJobRepository,
-                    "http://localhost:8088/foo", secretKey, cancelledJobHoursToExpiry, 500, 5000, 100000);
+                    "http://localhost:8088/foo", secretKey, cancelledJobHoursToExpiry, 5000, 100000,
+                    new JobCompletionNotifier(), mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
         }
@@ -1367,8 +1505,8 @@ public class AccessDataControllerTest
             cancelledJobHoursToExpiry = RandomUtils.nextInt(10, 20);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     mock(DataAccessService.class), accessJobManager, dataAccessJobRepository,
-                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), cancelledJobHoursToExpiry, 500,
-                    5000, 100000);
+                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), cancelledJobHoursToExpiry, 5000,
+                    100000, new JobCompletionNotifier(), mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
         }
@@ -1511,8 +1649,8 @@ public class AccessDataControllerTest
             cancelledJobHoursToExpiry = RandomUtils.nextInt(10, 20);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     mock(DataAccessService.class), accessJobManager, dataAccessJobRepository,
-                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), cancelledJobHoursToExpiry, 500,
-                    5000, 100000);
+                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), cancelledJobHoursToExpiry, 5000,
+                    100000, new JobCompletionNotifier(), mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
         }
@@ -1596,8 +1734,8 @@ public class AccessDataControllerTest
             MockitoAnnotations.initMocks(this);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     mock(DataAccessService.class), accessJobManager, dataAccessJobRepository,
-                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 500,
-                    5000, 100000);
+                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 5000,
+                    100000, new JobCompletionNotifier(), mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
         }
@@ -1679,8 +1817,8 @@ public class AccessDataControllerTest
             MockitoAnnotations.initMocks(this);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     mock(DataAccessService.class), accessJobManager, dataAccessJobRepository,
-                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 500,
-                    5000, 100000);
+                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 5000,
+                    100000, new JobCompletionNotifier(), mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
         }
@@ -1781,7 +1919,8 @@ public class AccessDataControllerTest
             MockitoAnnotations.initMocks(this);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     dataAccessService, accessJobManager, dataAccessJobRepository, "http://localhost:8088/foo",
-                    secretKey, RandomUtils.nextInt(10, 20), 500, 5000, 100000);
+                    secretKey, RandomUtils.nextInt(10, 20), 5000, 100000, new JobCompletionNotifier(),
+                    mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
 
@@ -1983,8 +2122,8 @@ public class AccessDataControllerTest
             MockitoAnnotations.initMocks(this);
             controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class),
                     mock(DataAccessService.class), accessJobManager, dataAccessJobRepository,
-                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 500,
-                    5000, 100000);
+                    "http://localhost:8088/foo", RandomStringUtils.randomAscii(16), RandomUtils.nextInt(10, 20), 5000,
+                    100000, new JobCompletionNotifier(), mock(JobAdmissionGovernor.class));
             this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
                     .setHandlerExceptionResolvers(new ExceptionHandlerExceptionResolver()).build();
         }
@@ -66,6 +66,7 @@ import org.xml.sax.SAXException;
 
 import au.csiro.casda.access.ResourceNoLongerAvailableException;
 import au.csiro.casda.access.SystemStatus;
+import au.csiro.casda.access.TestRepositoryUtils;
 import au.csiro.casda.access.cache.CacheManager;
 import au.csiro.casda.access.cache.CacheManagerInterface;
 import au.csiro.casda.access.cache.DownloadManager;
@@ -85,11 +86,18 @@ import au.csiro.casda.access.jpa.MeasurementSetRepository;
 import au.csiro.casda.access.jpa.MomentMapRepository;
 import au.csiro.casda.access.jpa.SpectrumRepository;
 import au.csiro.casda.access.jpa.ThumbnailRepository;
+import au.csiro.casda.access.services.AsyncDownloadStreamer;
 import au.csiro.casda.access.services.CasdaMailService;
 import au.csiro.casda.access.services.DataAccessService;
+import au.csiro.casda.access.services.DownloadGovernor;
+import au.csiro.casda.access.services.JobAdmissionGovernor;
+import au.csiro.casda.access.services.NgasLocationCache;
 import au.csiro.casda.access.services.NgasService;
 import au.csiro.casda.access.util.Utils;
 import au.csiro.casda.access.uws.AccessJobManager;
+import au.csiro.casda.access.uws.DataAccessJobJournal;
+import au.csiro.casda.access.uws.FifoSchedulingPolicy;
+import au.csiro.casda.access.uws.JobCompletionNotifier;
 import au.csiro.casda.access.uws.TestAccessUwsFactory;
 import au.csiro.casda.entity.dataaccess.DataAccessJob;
 import au.csiro.casda.entity.dataaccess.DataAccessJobStatus;
@@ -264,22 +272,28 @@ public class AsyncFunctionalTest
                 encapsulationFileRepository, evaluationFileRepository, thumbnailRepository,
                 mock(CachedFileRepository.class), mock(NgasService.class), cacheDir.getRoot().getAbsolutePath(), 25,
                 1000, "", "", "", mock(ProcessJobFactory.class), mock(CacheManager.class), dataAccessJdbcRepository,
-                imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager);
+                imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager,
+                mock(AsyncDownloadStreamer.class),
+                new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
+        JobCompletionNotifier jobCompletionNotifier = new JobCompletionNotifier();
         accessUwsFactory = new TestAccessUwsFactory(dataAccessService, packager, hoursToExpiryDefault,
-                hoursToExpirySiapSync);
+                hoursToExpirySiapSync, jobCompletionNotifier);
 
         manager = new AccessJobManager(emf, dataAccessJobRepository, imageCubeRepository, catalogueRepository,
                 measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
-                encapsulationFileRepository, evaluationFileRepository, cacheManager, 
-                accessUwsFactory, new LocalUWSFileManager(uwsDir.getRoot()),
-                generateFileService, null, dataAccessService, casdaMailService, "uwsBaseUrl", 1, 1, 2, 3,
-                MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, "mySecretKey", 3, 72);
+                encapsulationFileRepository, evaluationFileRepository, cacheManager, accessUwsFactory,
+                new LocalUWSFileManager(uwsDir.getRoot()), generateFileService, null, dataAccessService,
+                casdaMailService, new FifoSchedulingPolicy(), new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1, 1,
+                2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, "mySecretKey", 3, 72, 5000);
 
         manager.init();
+        TestRepositoryUtils.stubFindAll(imageCubeRepository, catalogueRepository, measurementSetRepository,
+                spectrumRepository, momentMapRepository, cubeletRepository, encapsulationFileRepository,
+                evaluationFileRepository);
 
         controller = new AccessDataController(mock(HealthEndpoint.class), mock(SystemStatus.class), dataAccessService,
                 manager, dataAccessJobRepository, "http://localhost:8088/foo", secretKey, cancelledJobHoursToExpiry,
-                500, 5000, 100000);
+                5000, 100000, jobCompletionNotifier, mock(JobAdmissionGovernor.class));
 
         when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(createCount());
         this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
@@ -308,7 +322,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -351,7 +366,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -414,7 +430,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -484,7 +501,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -554,7 +572,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -603,7 +622,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -677,7 +697,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -758,7 +779,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -892,7 +914,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -940,7 +963,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -1015,7 +1039,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -1097,7 +1122,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -1179,7 +1205,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -1245,7 +1272,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -1332,7 +1360,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -1419,7 +1448,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(getPaging());
 
@@ -1497,7 +1527,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -1587,7 +1618,8 @@ public class AsyncFunctionalTest
     {
         String id = Utils.encryptAesUrlSafe("visibility-1|myUserId|NEXUS|WEB|123", secretKey);
 
-        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(mock(MeasurementSet.class));
+        MeasurementSet measurementSet = mockMeasurementSet(1L);
+        when(measurementSetRepository.findOne(Mockito.eq(1L))).thenReturn(measurementSet);
 
         MvcResult result;
 
@@ -2006,6 +2038,13 @@ public class AsyncFunctionalTest
         checkXmlAgainstTestCaseFile("functional.parameters.empty", result.getResponse().getContentAsString());
     }
 
+    private static MeasurementSet mockMeasurementSet(long id)
+    {
+        MeasurementSet measurementSet = mock(MeasurementSet.class);
+        when(measurementSet.getId()).thenReturn(id);
+        return measurementSet;
+    }
+
     private static void checkXmlAgainstTestCaseFile(String testCase, String xml) throws SAXException, IOException
     {
         XMLUnit.setIgnoreWhitespace(true);
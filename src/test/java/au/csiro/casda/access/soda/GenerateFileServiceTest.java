@@ -7,15 +7,23 @@ import static org.hamcrest.Matchers.in;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 
@@ -42,6 +50,30 @@ import au.csiro.casda.entity.observation.ImageCube;
 @RunWith(Enclosed.class)
 public class GenerateFileServiceTest
 {
+    /**
+     * Stub the sky overlap query so that either all or none of the checked positions are within the image.
+     * 
+     * @param jdbcTemplate
+     *            The mock JdbcTemplate used by the GenerateFileService.
+     * @param overlaps
+     *            True if every position should overlap the image, false if none should.
+     */
+    public static void stubOverlap(JdbcTemplate jdbcTemplate, boolean overlaps)
+    {
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class), anyVararg())).thenAnswer(invocation -> {
+            List<Long> matches = new ArrayList<>();
+            if (overlaps)
+            {
+                // The first query parameter is the array of ra values for the positions being checked
+                String raValues = (String) invocation.getArguments()[2];
+                for (long i = 1; i <= raValues.split(",").length; i++)
+                {
+                    matches.add(i);
+                }
+            }
+            return matches;
+        });
+    }
 
     /**
      * Check the calcGeneratedFileBounds method's handling of various POS values.
@@ -84,7 +116,7 @@ public class GenerateFileServiceTest
         {
             this.posValue = posValue;
             this.bounds = bounds;
-            generateFileService = new GenerateFileService("", jdbcTemplate);
+            generateFileService = new GenerateFileService("", jdbcTemplate, mock(ImageFootprintIndex.class));
         }
 
         @Test
@@ -122,7 +154,7 @@ public class GenerateFileServiceTest
         {
             this.posValue = posValue;
             this.bounds = bounds;
-            generateFileService = new GenerateFileService("", jdbcTemplate);
+            generateFileService = new GenerateFileService("", jdbcTemplate, mock(ImageFootprintIndex.class));
         }
 
         @Test
@@ -163,7 +195,7 @@ public class GenerateFileServiceTest
         {
             this.posValue = posValue;
             this.bounds = bounds;
-            generateFileService = new GenerateFileService("", jdbcTemplate);
+            generateFileService = new GenerateFileService("", jdbcTemplate, mock(ImageFootprintIndex.class));
         }
 
         @Test
@@ -188,14 +220,14 @@ public class GenerateFileServiceTest
         public CalcGeneratedFileBoundsMultipleTest() throws Exception
         {
             MockitoAnnotations.initMocks(this);
-            generateFileService = new GenerateFileService("", jdbcTemplate);
+            generateFileService = new GenerateFileService("", jdbcTemplate, mock(ImageFootprintIndex.class));
         }
 
         @SuppressWarnings("unchecked")
         @Test
         public void testCalcGeneratedFileBounds2d() throws IOException
         {
-            when(jdbcTemplate.queryForObject(anyString(), any(Class.class))).thenReturn("t");
+            stubOverlap(jdbcTemplate, true);
             String[] values = { "CIRCLE 12.0 34.0 0.5", "CIRCLE 0.0 -90.0 4.2", "RANGE 12.0 12.5 34.0 36.0" };
             GeneratedFileBounds[] expected = new GeneratedFileBounds[] { 
             		new GeneratedFileBounds("12.0", "34.0", "1.000000", null),
@@ -220,7 +252,7 @@ public class GenerateFileServiceTest
         public void testCalcGeneratedFileBounds2dNoOverlap() throws IOException
         {
             // Force all overlap queries to return no overlap
-            when(jdbcTemplate.queryForObject(anyString(), any(Class.class))).thenReturn("f");
+            stubOverlap(jdbcTemplate, false);
             String[] values = { "CIRCLE 12.0 34.0 0.5", "CIRCLE 0.0 -90.0 4.2", "RANGE 12.0 12.5 34.0 36.0" };
             List<String> posParams = new ArrayList<>();
             for (String val : values)
@@ -259,7 +291,7 @@ public class GenerateFileServiceTest
         @Test
         public void testCalcGeneratedFileBounds2dEmptyPol() throws IOException
         {
-            when(jdbcTemplate.queryForObject(anyString(), any(Class.class))).thenReturn("t");
+            stubOverlap(jdbcTemplate, true);
             String[] values = { "CIRCLE 12.0 34.0 0.5", "CIRCLE 0.0 -90.0 4.2", "RANGE 12.0 12.5 34.0 36.0" };
             GeneratedFileBounds[] expected = new GeneratedFileBounds[] { 
             		new GeneratedFileBounds("12.0", "34.0", "1.000000", null),
@@ -280,6 +312,54 @@ public class GenerateFileServiceTest
             assertThat(calcGeneratedFileBounds.get(2).getParams(), is("POS=RANGE 12.0 12.5 34.0 36.0"));
         }
 
+        @Test
+        public void testCalcGeneratedFileBounds2dPartialOverlapSingleQuery() throws IOException
+        {
+            // Only the second position is within the image
+            when(jdbcTemplate.queryForList(anyString(), eq(Long.class), anyVararg()))
+                    .thenReturn(Arrays.asList(2L));
+            String[] values = { "CIRCLE 12.0 34.0 0.5", "CIRCLE 0.0 -90.0 4.2" };
+            String[] circleValues = { "14.0 36.0 0.5" };
+
+            ImageCube image = createImageCubeFromJson("src/test/resources/soda/image_geometry.2d.json");
+            image.setId(27L);
+            ParamMap paramMap = new ParamMap("", new DataAccessJob());
+            paramMap.add("pos", values);
+            paramMap.add("circle", circleValues);
+            List<String> errorList = new ArrayList<>();
+            List<GeneratedFileBounds> calcGeneratedFileBounds = 
+                    generateFileService.calcGeneratedFileBounds(paramMap, image, "cube-27", errorList);
+            assertThat(calcGeneratedFileBounds.size(), is(1));
+            assertThat(calcGeneratedFileBounds.get(0).getParams(), is("POS=CIRCLE 0.0 -90.0 4.2"));
+            assertThat(errorList.size(), is(2));
+
+            verify(jdbcTemplate, times(1)).queryForList(anyString(), eq(Long.class),
+                    eq("{" + Math.toRadians(12.0) + "," + Math.toRadians(0.0) + "," + Math.toRadians(14.0) + "}"),
+                    eq("{" + Math.toRadians(34.0) + "," + Math.toRadians(-90.0) + "," + Math.toRadians(36.0) + "}"),
+                    eq(27L));
+        }
+
+        @Test
+        public void testCalcGeneratedFileBoundsUsesFootprintIndex() throws IOException
+        {
+            ImageFootprintIndex imageFootprintIndex = mock(ImageFootprintIndex.class);
+            BitSet overlaps = new BitSet();
+            overlaps.set(1);
+            when(imageFootprintIndex.overlaps(eq(27L), any(double[].class), any(double[].class))).thenReturn(overlaps);
+            GenerateFileService indexedService = new GenerateFileService("", jdbcTemplate, imageFootprintIndex);
+            String[] values = { "CIRCLE 12.0 34.0 0.5", "CIRCLE 0.0 -90.0 4.2" };
+
+            ImageCube image = createImageCubeFromJson("src/test/resources/soda/image_geometry.2d.json");
+            image.setId(27L);
+            ParamMap paramMap = new ParamMap("", new DataAccessJob());
+            paramMap.add("pos", values);
+            List<GeneratedFileBounds> calcGeneratedFileBounds =
+                    indexedService.calcGeneratedFileBounds(paramMap, image, "cube-27", new ArrayList<>());
+            assertThat(calcGeneratedFileBounds.size(), is(1));
+            assertThat(calcGeneratedFileBounds.get(0).getParams(), is("POS=CIRCLE 0.0 -90.0 4.2"));
+            verifyZeroInteractions(jdbcTemplate);
+        }
+
         @Test
         public void testCalcGeneratedFileBounds2dNoPosNoDim() throws IOException
         {
@@ -328,7 +408,7 @@ public class GenerateFileServiceTest
         @Test
         public void testCalcGeneratedFileBoundsWithPosWithDim() throws IOException
         {
-            when(jdbcTemplate.queryForObject(anyString(), any(Class.class))).thenReturn("t");
+            stubOverlap(jdbcTemplate, true);
             
             GeneratedFileBounds expected = new GeneratedFileBounds("320.0", "54.0", 1.0);
             expected.setMinPlane(5);
@@ -354,7 +434,7 @@ public class GenerateFileServiceTest
         public void testCalcGeneratedFileBoundsWithPosNoOverlapWithDim() throws IOException
         {
             // Configure a no overlap condition
-            when(jdbcTemplate.queryForObject(anyString(), any(Class.class))).thenReturn("f");
+            stubOverlap(jdbcTemplate, false);
             
             GeneratedFileBounds expected = new GeneratedFileBounds("320.0", "54.0", 1.0);
             expected.setMinPlane(5);
@@ -449,7 +529,7 @@ public class GenerateFileServiceTest
 
         public GetAxisListTest() throws Exception
         {
-            generateFileService = new GenerateFileService("", jdbcTemplate);
+            generateFileService = new GenerateFileService("", jdbcTemplate, mock(ImageFootprintIndex.class));
         }
 
         @Test
@@ -478,6 +558,22 @@ public class GenerateFileServiceTest
             assertThat(axisList.size(), is(2));
         }
 
+        @Test
+        public void testGetAxisListParsedOncePerDimensions() throws IOException
+        {
+            ImageCube image = createImageCubeFromJson("src/test/resources/soda/image_geometry.freq_stokes.json");
+            image.setId(27L);
+
+            List<ImageCubeAxis> axisList = generateFileService.getAxisList(image);
+            assertThat(generateFileService.getAxisList(image), is(sameInstance(axisList)));
+
+            image.setDimensions(FileUtils
+                    .readFileToString(new File("src/test/resources/soda/image_geometry.single_freq.json")));
+            List<ImageCubeAxis> changedAxisList = generateFileService.getAxisList(image);
+            assertThat(changedAxisList, is(not(sameInstance(axisList))));
+            assertThat(changedAxisList.get(0).getSize(), is(1));
+        }
+
     }
 
     /**
@@ -494,7 +590,7 @@ public class GenerateFileServiceTest
 
         public GetDimensionSetsTest() throws Exception
         {
-            generateFileService = new GenerateFileService("", jdbcTemplate);
+            generateFileService = new GenerateFileService("", jdbcTemplate, mock(ImageFootprintIndex.class));
             fourDimImage = new ImageCube();
             String sampleWcsLibOutputJson =
                     FileUtils.readFileToString(new File("src/test/resources/soda/image_geometry.freq_stokes.json"));
@@ -798,7 +894,7 @@ public class GenerateFileServiceTest
         public CalculateAxisOverlapTest() throws Exception
         {
             MockitoAnnotations.initMocks(this);
-            generateFileService = new GenerateFileService("", jdbcTemplate);
+            generateFileService = new GenerateFileService("", jdbcTemplate, mock(ImageFootprintIndex.class));
         }
 
         @Test
@@ -941,7 +1037,7 @@ public class GenerateFileServiceTest
         public BuildParamCombosTest() throws Exception
         {
             MockitoAnnotations.initMocks(this);
-            generateFileService = new GenerateFileService("", jdbcTemplate);
+            generateFileService = new GenerateFileService("", jdbcTemplate, mock(ImageFootprintIndex.class));
         }
 
         @Test
@@ -0,0 +1,157 @@
+package au.csiro.casda.access.soda;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Test cases for ImageFootprintIndex.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class ImageFootprintIndexTest
+{
+    private static final String QUERY = "footprint query";
+
+    private JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+    @Test
+    public void testOverlaps()
+    {
+        ImageFootprintIndex index = new ImageFootprintIndex(QUERY, true, 3600000, jdbcTemplate);
+        assertThat(index.put(12L, footprint(new double[][] { { 9, 19 }, { 11, 19 }, { 11, 21 }, { 9, 21 } })),
+                is(true));
+
+        BitSet overlaps = index.overlaps(12L, radians(10, 9.5, 12, 10, 190), radians(20, 20.9, 20, 22, -20));
+        assertThat(overlaps.get(0), is(true));
+        assertThat(overlaps.get(1), is(true));
+        assertThat(overlaps.get(2), is(false));
+        assertThat(overlaps.get(3), is(false));
+        assertThat(overlaps.get(4), is(false));
+    }
+
+    @Test
+    public void testOverlapsEitherWindingOrder()
+    {
+        ImageFootprintIndex index = new ImageFootprintIndex(QUERY, true, 3600000, jdbcTemplate);
+        index.put(12L, footprint(new double[][] { { 9, 21 }, { 11, 21 }, { 11, 19 }, { 9, 19 } }));
+
+        BitSet overlaps = index.overlaps(12L, radians(10, 12), radians(20, 20));
+        assertThat(overlaps.get(0), is(true));
+        assertThat(overlaps.get(1), is(false));
+    }
+
+    @Test
+    public void testOverlapsAcrossZeroRa()
+    {
+        ImageFootprintIndex index = new ImageFootprintIndex(QUERY, true, 3600000, jdbcTemplate);
+        index.put(12L, footprint(new double[][] { { 359, -1 }, { 1, -1 }, { 1, 1 }, { 359, 1 } }));
+
+        BitSet overlaps = index.overlaps(12L, radians(0.5, 359.5, 180), radians(0, 0.5, 0));
+        assertThat(overlaps.get(0), is(true));
+        assertThat(overlaps.get(1), is(true));
+        assertThat(overlaps.get(2), is(false));
+    }
+
+    @Test
+    public void testUnknownImageCube()
+    {
+        ImageFootprintIndex index = new ImageFootprintIndex(QUERY, true, 3600000, jdbcTemplate);
+        assertThat(index.overlaps(12L, radians(10), radians(20)), is(nullValue()));
+        assertThat(index.overlaps(null, radians(10), radians(20)), is(nullValue()));
+        assertThat(index.put(12L, "not a polygon"), is(false));
+        assertThat(index.overlaps(12L, radians(10), radians(20)), is(nullValue()));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        ImageFootprintIndex index = new ImageFootprintIndex(QUERY, false, 3600000, jdbcTemplate);
+        index.put(12L, footprint(new double[][] { { 9, 19 }, { 11, 19 }, { 11, 21 }, { 9, 21 } }));
+        index.refresh();
+
+        assertThat(index.overlaps(12L, radians(10), radians(20)), is(nullValue()));
+    }
+
+    @Test
+    public void testRefreshLoadsNewImageCubes()
+    {
+        List<Map<String, Object>> firstRows = new ArrayList<>();
+        firstRows.add(row(12L, footprint(new double[][] { { 9, 19 }, { 11, 19 }, { 11, 21 }, { 9, 21 } })));
+        firstRows.add(row(15L, "{(bad)}"));
+        when(jdbcTemplate.queryForList(anyString(), eq(0L))).thenReturn(firstRows);
+        List<Map<String, Object>> secondRows = new ArrayList<>();
+        secondRows.add(row(17L, footprint(new double[][] { { 99, 19 }, { 101, 19 }, { 101, 21 }, { 99, 21 } })));
+        when(jdbcTemplate.queryForList(anyString(), eq(15L))).thenReturn(secondRows);
+
+        ImageFootprintIndex index = new ImageFootprintIndex(QUERY, true, 3600000, jdbcTemplate);
+        index.refresh();
+        assertThat(index.overlaps(12L, radians(10), radians(20)).get(0), is(true));
+        assertThat(index.overlaps(15L, radians(10), radians(20)), is(nullValue()));
+        assertThat(index.overlaps(17L, radians(100), radians(20)), is(nullValue()));
+
+        index.refresh();
+        verify(jdbcTemplate).queryForList(QUERY, 15L);
+        assertThat(index.overlaps(12L, radians(10), radians(20)).get(0), is(true));
+        assertThat(index.overlaps(17L, radians(100), radians(20)).get(0), is(true));
+    }
+
+    private static String footprint(double[][] verticesDeg)
+    {
+        StringBuilder region = new StringBuilder("{");
+        for (double[] vertex : verticesDeg)
+        {
+            if (region.length() > 1)
+            {
+                region.append(",");
+            }
+            region.append("(").append(Math.toRadians(vertex[0])).append(" , ").append(Math.toRadians(vertex[1]))
+                    .append(")");
+        }
+        return region.append("}").toString();
+    }
+
+    private static double[] radians(double... degrees)
+    {
+        double[] radians = new double[degrees.length];
+        for (int i = 0; i < degrees.length; i++)
+        {
+            radians[i] = Math.toRadians(degrees[i]);
+        }
+        return radians;
+    }
+
+    private static Map<String, Object> row(long id, String region)
+    {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("region", region);
+        return row;
+    }
+}
@@ -0,0 +1,149 @@
+package au.csiro.casda.access.util;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test cases for ArchiveStreamWriter.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class ArchiveStreamWriterTest
+{
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testArchiveFormatFromExtension()
+    {
+        assertThat(ArchiveFormat.fromExtension("tar"), is(ArchiveFormat.TAR));
+        assertThat(ArchiveFormat.fromExtension("ZIP"), is(ArchiveFormat.ZIP));
+        assertThat(ArchiveFormat.fromExtension("tgz"), nullValue());
+        assertThat(ArchiveFormat.fromExtension(null), nullValue());
+    }
+
+    @Test
+    public void testTar() throws Exception
+    {
+        File file = tempFolder.newFile("image.fits");
+        FileUtils.writeStringToFile(file, "some image data");
+        File emptyFile = tempFolder.newFile("empty.txt");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ArchiveStreamWriter writer = ArchiveStreamWriter.create(ArchiveFormat.TAR, output);
+        assertThat(writer.addFile("abc/image.fits", file), is(15L));
+        assertThat(writer.addFile("abc/empty.txt", emptyFile), is(0L));
+        writer.finish();
+
+        byte[] tar = output.toByteArray();
+        // header + one block of content, header only, two end blocks
+        assertThat(tar.length, is(512 * 5));
+
+        assertThat(readString(tar, 0, 100), equalTo("abc/image.fits"));
+        assertThat(readString(tar, 124, 12), equalTo("00000000017"));
+        assertThat(tar[156], is((byte) '0'));
+        assertThat(readString(tar, 257, 6), equalTo("ustar"));
+        assertThat(Long.parseLong(readString(tar, 148, 8).trim(), 8), is(calculateChecksum(tar, 0)));
+        assertThat(new String(tar, 512, 15, StandardCharsets.US_ASCII), equalTo("some image data"));
+
+        assertThat(readString(tar, 1024, 100), equalTo("abc/empty.txt"));
+        assertThat(readString(tar, 1024 + 124, 12), equalTo("00000000000"));
+        assertThat(Arrays.equals(Arrays.copyOfRange(tar, 1536, tar.length), new byte[1024]), is(true));
+    }
+
+    @Test
+    public void testTarLongName() throws Exception
+    {
+        File file = tempFolder.newFile("image.fits");
+        FileUtils.writeStringToFile(file, "data");
+        String longName = "abc/" + StringUtils.repeat("x", 120) + ".fits";
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ArchiveStreamWriter writer = ArchiveStreamWriter.create(ArchiveFormat.TAR, output);
+        writer.addFile(longName, file);
+        writer.finish();
+
+        byte[] tar = output.toByteArray();
+        // pax header + pax data, header + content, two end blocks
+        assertThat(tar.length, is(512 * 6));
+        assertThat(tar[156], is((byte) 'x'));
+        String paxRecord = "139 path=" + longName + "\n";
+        assertThat(paxRecord.length(), is(139));
+        assertThat(new String(tar, 512, paxRecord.length(), StandardCharsets.UTF_8), equalTo(paxRecord));
+        assertThat(tar[1024 + 156], is((byte) '0'));
+        assertThat(readString(tar, 1024, 100), equalTo(longName.substring(0, 100)));
+        assertThat(new String(tar, 1536, 4, StandardCharsets.US_ASCII), equalTo("data"));
+    }
+
+    @Test
+    public void testZip() throws Exception
+    {
+        File file = tempFolder.newFile("image.fits");
+        FileUtils.writeStringToFile(file, "some image data");
+        File checksumFile = tempFolder.newFile("image.fits.checksum");
+        FileUtils.writeStringToFile(checksumFile, "1a2b 15 ffee");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ArchiveStreamWriter writer = ArchiveStreamWriter.create(ArchiveFormat.ZIP, output);
+        assertThat(writer.addFile("abc/image.fits", file), is(15L));
+        assertThat(writer.addFile("abc/image.fits.checksum", checksumFile), is(12L));
+        writer.finish();
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray())))
+        {
+            ZipEntry entry = zip.getNextEntry();
+            assertThat(entry.getName(), equalTo("abc/image.fits"));
+            assertThat(entry.getMethod(), is(ZipEntry.STORED));
+            assertThat(entry.getCompressedSize(), is(15L));
+            assertThat(IOUtils.toString(zip, StandardCharsets.US_ASCII), equalTo("some image data"));
+            entry = zip.getNextEntry();
+            assertThat(entry.getName(), equalTo("abc/image.fits.checksum"));
+            assertThat(IOUtils.toString(zip, StandardCharsets.US_ASCII), equalTo("1a2b 15 ffee"));
+            assertThat(zip.getNextEntry(), nullValue());
+        }
+    }
+
+    private String readString(byte[] data, int offset, int length)
+    {
+        return StringUtils.substringBefore(new String(data, offset, length, StandardCharsets.UTF_8), "\0");
+    }
+
+    private long calculateChecksum(byte[] data, int offset)
+    {
+        long checksum = 0;
+        for (int i = offset; i < offset + 512; i++)
+        {
+            checksum += (i >= offset + 148 && i < offset + 156) ? ' ' : data[i] & 0xff;
+        }
+        return checksum;
+    }
+}
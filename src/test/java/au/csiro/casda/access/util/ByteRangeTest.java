@@ -0,0 +1,139 @@
+package au.csiro.casda.access.util;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+/**
+ * Test cases for ByteRange.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class ByteRangeTest
+{
+    @Test
+    public void testParseNoHeader()
+    {
+        assertThat(ByteRange.parse(null, 100), nullValue());
+        assertThat(ByteRange.parse("  ", 100), nullValue());
+    }
+
+    @Test
+    public void testParseInvalidHeaderIsIgnored()
+    {
+        assertThat(ByteRange.parse("items=0-10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=a-10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=10-5", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=0-1,x", 100), nullValue());
+    }
+
+    @Test
+    public void testParseTooManyRangesIsIgnored()
+    {
+        String header = "bytes=" + StringUtils.repeat("0-1", ",", ByteRange.MAX_RANGES + 1);
+        assertThat(ByteRange.parse(header, 100), nullValue());
+    }
+
+    @Test
+    public void testParseSingleRange()
+    {
+        List<ByteRange> ranges = ByteRange.parse("bytes=10-19", 100);
+        assertThat(ranges, hasSize(1));
+        assertThat(ranges.get(0).getStart(), equalTo(10L));
+        assertThat(ranges.get(0).getEnd(), equalTo(19L));
+        assertThat(ranges.get(0).getLength(), equalTo(10L));
+        assertThat(ranges.get(0).toContentRange(100), equalTo("bytes 10-19/100"));
+    }
+
+    @Test
+    public void testParseOpenEndedRange()
+    {
+        List<ByteRange> ranges = ByteRange.parse("bytes=95-", 100);
+        assertThat(ranges, hasSize(1));
+        assertThat(ranges.get(0).toString(), equalTo("95-99"));
+    }
+
+    @Test
+    public void testParseRangeClippedToFileLength()
+    {
+        List<ByteRange> ranges = ByteRange.parse("bytes=90-200", 100);
+        assertThat(ranges, hasSize(1));
+        assertThat(ranges.get(0).toString(), equalTo("90-99"));
+    }
+
+    @Test
+    public void testParseSuffixRange()
+    {
+        List<ByteRange> ranges = ByteRange.parse("bytes=-10", 100);
+        assertThat(ranges, hasSize(1));
+        assertThat(ranges.get(0).toString(), equalTo("90-99"));
+
+        ranges = ByteRange.parse("bytes=-500", 100);
+        assertThat(ranges.get(0).toString(), equalTo("0-99"));
+    }
+
+    @Test
+    public void testParseMultipleRanges()
+    {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-0, 50-59 ,-1", 100);
+        assertThat(ranges, hasSize(3));
+        assertThat(ranges.get(0).toString(), equalTo("0-0"));
+        assertThat(ranges.get(1).toString(), equalTo("50-59"));
+        assertThat(ranges.get(2).toString(), equalTo("99-99"));
+    }
+
+    @Test
+    public void testParseOverlappingAndAdjacentRangesAreMerged()
+    {
+        List<ByteRange> ranges = ByteRange.parse("bytes=50-59,0-4,55-64,5-9,-1", 100);
+        assertThat(ranges, hasSize(3));
+        assertThat(ranges.get(0).toString(), equalTo("0-9"));
+        assertThat(ranges.get(1).toString(), equalTo("50-64"));
+        assertThat(ranges.get(2).toString(), equalTo("99-99"));
+    }
+
+    @Test
+    public void testParseRangesLongerThanFileAreIgnored()
+    {
+        assertThat(ByteRange.parse("bytes=0-59,40-99", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=" + StringUtils.repeat("0-9", ",", 11), 100), nullValue());
+    }
+
+    @Test
+    public void testParseUnsatisfiableRanges()
+    {
+        assertThat(ByteRange.parse("bytes=100-", 100), empty());
+        assertThat(ByteRange.parse("bytes=-0", 100), empty());
+        assertThat(ByteRange.parse("bytes=0-10", 0), empty());
+        assertThat(ByteRange.toUnsatisfiedContentRange(100), equalTo("bytes */100"));
+    }
+
+    @Test
+    public void testParseUnsatisfiableRangesAreDropped()
+    {
+        List<ByteRange> ranges = ByteRange.parse("bytes=200-300,0-4", 100);
+        assertThat(ranges, hasSize(1));
+        assertThat(ranges.get(0).toString(), equalTo("0-4"));
+    }
+}
@@ -0,0 +1,134 @@
+package au.csiro.casda.access.util;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Test cases for HttpValidators.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class HttpValidatorsTest
+{
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testEntityTagFromChecksumFile() throws Exception
+    {
+        File file = tempFolder.newFile("image.fits");
+        FileUtils.writeStringToFile(file, "data");
+        FileUtils.writeStringToFile(new File(file.getPath() + ".checksum"), "1a2b 4 ffee\n");
+
+        assertThat(HttpValidators.createEntityTag(file), equalTo("\"1a2b-4-ffee\""));
+    }
+
+    @Test
+    public void testEntityTagFromFileAttributes() throws Exception
+    {
+        File file = tempFolder.newFile("image.fits");
+        FileUtils.writeStringToFile(file, "data");
+        String entityTag = HttpValidators.createEntityTag(file);
+        assertThat(entityTag.startsWith("\""), is(true));
+        assertThat(entityTag.endsWith("-4-" + Long.toHexString(file.lastModified()) + "\""), is(true));
+
+        FileUtils.writeStringToFile(file, "other data");
+        assertThat(HttpValidators.createEntityTag(file), not(equalTo(entityTag)));
+    }
+
+    @Test
+    public void testEntityTagForMissingFile()
+    {
+        assertThat(HttpValidators.createEntityTag(new File(tempFolder.getRoot(), "missing")), nullValue());
+        assertThat(HttpValidators.createEntityTag(" "), nullValue());
+        assertThat(HttpValidators.createEntityTag("12345"), equalTo("\"12345\""));
+    }
+
+    @Test
+    public void testCheckNotModifiedWithoutConditions()
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(HttpValidators.checkNotModified(request, response, "\"abc\"", 1000000L), is(false));
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getHeader("ETag"), equalTo("\"abc\""));
+        assertThat(response.getHeader("Last-Modified"), not(nullValue()));
+    }
+
+    @Test
+    public void testCheckNotModifiedIfNoneMatch()
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("If-None-Match", "\"xyz\", W/\"abc\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(HttpValidators.checkNotModified(request, response, "\"abc\"", 1000000L), is(true));
+        assertThat(response.getStatus(), is(304));
+
+        request = new MockHttpServletRequest();
+        request.addHeader("If-None-Match", "\"xyz\"");
+        // If-None-Match takes precedence, so a matching If-Modified-Since is ignored
+        request.addHeader("If-Modified-Since", 2000000L);
+        response = new MockHttpServletResponse();
+        assertThat(HttpValidators.checkNotModified(request, response, "\"abc\"", 1000000L), is(false));
+
+        request = new MockHttpServletRequest();
+        request.addHeader("If-None-Match", "*");
+        assertThat(HttpValidators.checkNotModified(request, new MockHttpServletResponse(), "\"abc\"", -1), is(true));
+    }
+
+    @Test
+    public void testCheckNotModifiedIfModifiedSince()
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("If-Modified-Since", 1000000L);
+        assertThat(HttpValidators.checkNotModified(request, new MockHttpServletResponse(), null, 1000999L), is(true));
+        assertThat(HttpValidators.checkNotModified(request, new MockHttpServletResponse(), null, 1001000L),
+                is(false));
+        assertThat(HttpValidators.checkNotModified(request, new MockHttpServletResponse(), null, -1), is(false));
+    }
+
+    @Test
+    public void testIfRange()
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        assertThat(HttpValidators.isIfRangeSatisfied(request, "\"abc\"", 1000000L), is(true));
+
+        request.addHeader("If-Range", "\"abc\"");
+        assertThat(HttpValidators.isIfRangeSatisfied(request, "\"abc\"", 1000000L), is(true));
+        assertThat(HttpValidators.isIfRangeSatisfied(request, "\"def\"", 1000000L), is(false));
+
+        request = new MockHttpServletRequest();
+        request.addHeader("If-Range", "W/\"abc\"");
+        assertThat(HttpValidators.isIfRangeSatisfied(request, "\"abc\"", 1000000L), is(false));
+
+        request = new MockHttpServletRequest();
+        request.addHeader("If-Range", 1000000L);
+        assertThat(HttpValidators.isIfRangeSatisfied(request, "\"abc\"", 1000500L), is(true));
+        assertThat(HttpValidators.isIfRangeSatisfied(request, "\"abc\"", 2000000L), is(false));
+    }
+}
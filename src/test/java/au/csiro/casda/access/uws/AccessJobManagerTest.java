@@ -1,6 +1,7 @@
 package au.csiro.casda.access.uws;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
@@ -26,6 +27,7 @@ import static org.hamcrest.Matchers.sameInstance;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -43,6 +45,7 @@ import org.apache.commons.lang3.RandomUtils;
 import org.apache.logging.log4j.Level;
 import org.hamcrest.Matchers;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -65,6 +68,7 @@ import au.csiro.casda.access.Log4JTestAppender;
 import au.csiro.casda.access.ResourceIllegalStateException;
 import au.csiro.casda.access.ResourceNotFoundException;
 import au.csiro.casda.access.SizeLimitReachedException;
+import au.csiro.casda.access.TestRepositoryUtils;
 import au.csiro.casda.access.cache.CacheManager;
 import au.csiro.casda.access.cache.CacheManagerInterface;
 import au.csiro.casda.access.cache.DownloadManager;
@@ -84,10 +88,15 @@ import au.csiro.casda.access.jpa.MeasurementSetRepository;
 import au.csiro.casda.access.jpa.MomentMapRepository;
 import au.csiro.casda.access.jpa.SpectrumRepository;
 import au.csiro.casda.access.jpa.ThumbnailRepository;
+import au.csiro.casda.access.services.AsyncDownloadStreamer;
 import au.csiro.casda.access.services.CasdaMailService;
 import au.csiro.casda.access.services.DataAccessService;
+import au.csiro.casda.access.services.DownloadGovernor;
+import au.csiro.casda.access.services.NgasLocationCache;
 import au.csiro.casda.access.services.NgasService;
 import au.csiro.casda.access.soda.GenerateFileService;
+import au.csiro.casda.access.soda.GenerateFileServiceTest;
+import au.csiro.casda.access.soda.ImageFootprintIndex;
 import au.csiro.casda.access.uws.AccessJobManager.ScheduleJobException;
 import au.csiro.casda.entity.dataaccess.CachedFile.FileType;
 import au.csiro.casda.entity.dataaccess.CasdaDownloadMode;
@@ -220,7 +229,7 @@ public class AccessJobManagerTest
         {
             MockitoAnnotations.initMocks(this);
             testAppender = Log4JTestAppender.createAppender();
-            cutoutService = new GenerateFileService("", jdbcTemplate);
+            cutoutService = new GenerateFileService("", jdbcTemplate, mock(ImageFootprintIndex.class));
 
             when(emf.createEntityManager()).thenReturn(mock(EntityManager.class));
             Map<FileType, Integer[]> pageDetails = new HashMap<FileType, Integer[]>();
@@ -234,9 +243,13 @@ public class AccessJobManagerTest
                     measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
                     encapsulationFileRepository, evaluationFileRepository, mock(CacheManagerInterface.class),
                     mock(UWSFactory.class), new LocalUWSFileManager(uwsDir.getRoot()), cutoutService, slurmJobManager,
-                    dataAccessService, casdaMailService, "uwsBaseUrl", 1, 1, 2, 3, 100000, "http://localhost:8088/foo",
-                    MYSECRETKEY, 3, 72);
+                    dataAccessService, casdaMailService, new FifoSchedulingPolicy(),
+                    new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1, 1, 2, 3, 100000, "http://localhost:8088/foo",
+                    MYSECRETKEY, 3, 72, 5000);
             manager.init();
+            TestRepositoryUtils.stubFindAll(imageCubeRepository, catalogueRepository, measurementSetRepository,
+                    spectrumRepository, momentMapRepository, cubeletRepository, encapsulationFileRepository,
+                    evaluationFileRepository);
         }
 
         @Test
@@ -296,6 +309,34 @@ public class AccessJobManagerTest
                     eq(CasdaMailService.CREATED_EMAIL_SUBJECT));
         }
 
+        @Test
+        public void testRecordCompletedDataAccessJob() throws Exception
+        {
+            when(dataAccessJobRepository.save((DataAccessJob) any())).then((returnsFirstArg()));
+            when(imageCubeRepository.findOne(2l))
+                    .thenReturn(createImageCube(2l, "image_cube-2.fits", 100l, "ABC123", 123123));
+
+            JobDto jobDto = new JobDto();
+            jobDto.setUserIdent("12345");
+            jobDto.setUserLoginSystem("sysdy");
+            jobDto.setIds(new String[] { "cube-2" });
+            jobDto.setDownloadMode(CasdaDownloadMode.SODA_SYNC_WEB);
+            DateTime expiryTime = DateTime.now(DateTimeZone.UTC).plusMinutes(10);
+
+            DataAccessJob job = manager.recordCompletedDataAccessJob(jobDto, 1000L, expiryTime);
+
+            assertThat(job.getRequestId(), notNullValue());
+            assertThat(job.getStatus(), is(DataAccessJobStatus.READY));
+            assertThat(job.getAvailableTimestamp(), notNullValue());
+            assertThat(job.getExpiredTimestamp(), is(expiryTime));
+            assertThat(job.getImageCubes().size(), is(1));
+            assertThat(job.getSizeKb(), is(100l));
+            assertThat(job.getDownloadMode(), is(CasdaDownloadMode.SODA_SYNC_WEB));
+            verify(dataAccessJobRepository, times(1)).save(any(DataAccessJob.class));
+            verify(casdaMailService, never()).sendEmail(any(DataAccessJob.class), any(String.class),
+                    any(String.class));
+        }
+
         @Test
         public void testCreateDataAccessJobSizeLimitExceeded() throws Exception
         {
@@ -373,6 +414,39 @@ public class AccessJobManagerTest
                     eq(CasdaMailService.CREATED_EMAIL_SUBJECT));
         }
 
+        @Test
+        public void testCreateDataAccessJobLoadsEachProductTypeInOneQuery() throws Exception
+        {
+            when(dataAccessJobRepository.save((DataAccessJob) any())).then((returnsFirstArg()));
+            when(imageCubeRepository.findOne(2l))
+                    .thenReturn(createImageCube(2l, "image_cube-2.fits", 100l, "ABC123", 123123));
+            when(imageCubeRepository.findOne(5l))
+                    .thenReturn(createImageCube(5l, "image_cube-5.fits", 300l, "ABC123", 123123));
+            when(measurementSetRepository.findOne(2l)).thenReturn(createMeasurementSet(2l, 50l, "ABC111", 111111));
+            when(catalogueRepository.findOne(3l)).thenReturn(createCatalogue(3l, 10L));
+
+            JobDto jobDto = new JobDto();
+            jobDto.setUserName("bob");
+            jobDto.setUserIdent("12345");
+            jobDto.setUserLoginSystem("sysdy");
+            jobDto.setUserEmail("bob@bob.com");
+            jobDto.setIds(new String[] { "cube-5", "visibility-2", "cube-2", "catalogue-3", "cube-7" });
+            jobDto.setDownloadMode(CasdaDownloadMode.WEB);
+
+            DataAccessJob job = manager.createDataAccessJob(jobDto);
+
+            verify(imageCubeRepository, times(1)).findAll(Arrays.asList(5l, 2l, 7l));
+            verify(measurementSetRepository, times(1)).findAll(Arrays.asList(2l));
+            verify(catalogueRepository, times(1)).findAll(Arrays.asList(3l));
+            verify(spectrumRepository, never()).findAll(Mockito.<Iterable<Long>> any());
+            assertThat(job.getImageCubes().size(), is(2));
+            assertThat(job.getMeasurementSets().size(), is(1));
+            assertThat(job.getCatalogues().size(), is(1));
+            assertThat(job.getSizeKb(), is(450l));
+            testAppender.verifyLogMessage(Level.ERROR,
+                    CasdaDataAccessEvents.E100.messageBuilder().add("image_cube").add("7").toString());
+        }
+
         @Test
         public void testCreateDataAccessJobMeasurementSet() throws Exception
         {
@@ -610,7 +684,7 @@ public class AccessJobManagerTest
             });
             when(imageCubeRepository.findOne(2l)).thenReturn(imageCube1);
             when(imageCubeRepository.findOne(5l)).thenReturn(imageCube2);
-            when(jdbcTemplate.queryForObject(anyString(), any(Class.class))).thenReturn("t");
+            GenerateFileServiceTest.stubOverlap(jdbcTemplate, true);
 
             JobDto jobDto = new JobDto();
             jobDto.setUserName("bob");
@@ -682,7 +756,7 @@ public class AccessJobManagerTest
 
             });
             when(imageCubeRepository.findOne(2l)).thenReturn(imageCube1);
-            when(jdbcTemplate.queryForObject(anyString(), any(Class.class))).thenReturn("t");
+            GenerateFileServiceTest.stubOverlap(jdbcTemplate, true);
 
             JobDto jobDto = new JobDto();
             jobDto.setUserName("bob");
@@ -736,7 +810,7 @@ public class AccessJobManagerTest
 
             });
             when(imageCubeRepository.findOne(2l)).thenReturn(imageCube1);
-            when(jdbcTemplate.queryForObject(anyString(), any(Class.class))).thenReturn("f");
+            GenerateFileServiceTest.stubOverlap(jdbcTemplate, false);
 
             JobDto jobDto = new JobDto();
             jobDto.setUserName("bob");
@@ -816,8 +890,9 @@ public class AccessJobManagerTest
                     mock(MomentMapRepository.class), mock(CubeletRepository.class),
                     mock(EncapsulationFileRepository.class), mock(EvaluationFileRepository.class), cacheManager,
                     mock(UWSFactory.class), new LocalUWSFileManager(uwsDir.getRoot()), mock(GenerateFileService.class),
-                    slurmJobManager, dataAccessService, casdaMailService, "uwsBaseUrl", 1, 1, 2, 3,
-                    MAX_SMALL_JOB_SIZE_KB, "http://localhost:8088/foo", MYSECRETKEY, 3, 72);
+                    slurmJobManager, dataAccessService, casdaMailService, new FifoSchedulingPolicy(),
+                    new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB,
+                    "http://localhost:8088/foo", MYSECRETKEY, 3, 72, 5000);
             manager.init();
             Map<FileType, Integer[]> pageDetails = new HashMap<FileType, Integer[]>();
             pageDetails.put(FileType.MEASUREMENT_SET, new Integer[] { 1, 25 });
@@ -962,16 +1037,21 @@ public class AccessJobManagerTest
                     encapsulationFileRepository, evaluationFileRepository, thumbnailRepository,
                     mock(CachedFileRepository.class), mock(NgasService.class), cacheDir.getRoot().getAbsolutePath(), 25,
                     1000, "", "", "", mock(ProcessJobFactory.class), cacheManager, dataAccessJdbcRepository,
-                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager);
+                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager,
+                    mock(AsyncDownloadStreamer.class),
+                    new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
             accessUwsFactory = new TestAccessUwsFactory(dataAccessService, packager, 1, 1);
             cacheManager = mock(CacheManagerInterface.class);
             manager = new AccessJobManager(emf, dataAccessJobRepository, imageCubeRepository, catalogueRepository,
                     measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
                     encapsulationFileRepository, evaluationFileRepository, cacheManager, accessUwsFactory,
                     new LocalUWSFileManager(uwsDir.getRoot()), generateFileService, slurmJobManager, dataAccessService,
-                    casdaMailService, "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY,
-                    3, 72);
+                    casdaMailService, new FifoSchedulingPolicy(), new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1,
+                    1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY, 3, 72, 5000);
             manager.init();
+            TestRepositoryUtils.stubFindAll(imageCubeRepository, catalogueRepository, measurementSetRepository,
+                    spectrumRepository, momentMapRepository, cubeletRepository, encapsulationFileRepository,
+                    evaluationFileRepository);
         }
 
         @Test
@@ -1106,16 +1186,21 @@ public class AccessJobManagerTest
                     encapsulationFileRepository, evaluationFileRepository, thumbnailRepository,
                     mock(CachedFileRepository.class), mock(NgasService.class), cacheDir.getRoot().getAbsolutePath(), 25,
                     1000, "", "", "", mock(ProcessJobFactory.class), cacheManager, dataAccessJdbcRepository,
-                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager);
+                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager,
+                    mock(AsyncDownloadStreamer.class),
+                    new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
             accessUwsFactory = new TestAccessUwsFactory(dataAccessService, packager, 1, 1);
             cacheManager = mock(CacheManagerInterface.class);
             manager = new AccessJobManager(emf, dataAccessJobRepository, imageCubeRepository, catalogueRepository,
                     measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
                     encapsulationFileRepository, evaluationFileRepository, cacheManager, accessUwsFactory,
                     new LocalUWSFileManager(uwsDir.getRoot()), generateFileService, slurmJobManager, dataAccessService,
-                    casdaMailService, "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY,
-                    3, 72);
+                    casdaMailService, new FifoSchedulingPolicy(), new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1,
+                    1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY, 3, 72, 5000);
             manager.init();
+            TestRepositoryUtils.stubFindAll(imageCubeRepository, catalogueRepository, measurementSetRepository,
+                    spectrumRepository, momentMapRepository, cubeletRepository, encapsulationFileRepository,
+                    evaluationFileRepository);
             manager.init();
 
             when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(createCount());
@@ -1533,15 +1618,20 @@ public class AccessJobManagerTest
                     mock(CachedFileRepository.class), mock(NgasService.class), cacheDir.getRoot().getAbsolutePath(), 25,
                     1000, "", "", "", mock(ProcessJobFactory.class), mock(CacheManagerInterface.class),
                     dataAccessJdbcRepository, imageCutoutRepository, generatedSpectrumRepository, casdaMailService,
-                    downloadManager);
+                    downloadManager, mock(AsyncDownloadStreamer.class),
+                    new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
             accessUwsFactory = new TestAccessUwsFactory(dataAccessService, packager, 1, 1);
             manager = new AccessJobManager(emf, dataAccessJobRepository, imageCubeRepository, catalogueRepository,
                     measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
                     encapsulationFileRepository, evaluationFileRepository, mock(CacheManagerInterface.class),
                     accessUwsFactory, new LocalUWSFileManager(uwsDir.getRoot()), generateFileService, slurmJobManager,
-                    dataAccessService, casdaMailService, "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB,
-                    fileDownloadBaseUrl, MYSECRETKEY, 3, 72);
+                    dataAccessService, casdaMailService, new FifoSchedulingPolicy(),
+                    new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB,
+                    fileDownloadBaseUrl, MYSECRETKEY, 3, 72, 5000);
             manager.init();
+            TestRepositoryUtils.stubFindAll(imageCubeRepository, catalogueRepository, measurementSetRepository,
+                    spectrumRepository, momentMapRepository, cubeletRepository, encapsulationFileRepository,
+                    evaluationFileRepository);
             when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(createCount());
         }
 
@@ -1937,16 +2027,21 @@ public class AccessJobManagerTest
                     encapsulationFileRepository, evaluationFileRepository, thumbnailRepository,
                     mock(CachedFileRepository.class), mock(NgasService.class), cacheDir.getRoot().getAbsolutePath(), 25,
                     1000, "", "", "", mock(ProcessJobFactory.class), mock(CacheManager.class), dataAccessJdbcRepository,
-                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager);
+                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager,
+                    mock(AsyncDownloadStreamer.class),
+                    new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
             accessUwsFactory = new TestAccessUwsFactory(dataAccessService, packager, 1, 1);
 
             manager = new AccessJobManager(emf, dataAccessJobRepository, imageCubeRepository, catalogueRepository,
                     measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
                     encapsulationFileRepository, evaluationFileRepository, cacheManager, accessUwsFactory,
                     new LocalUWSFileManager(uwsDir.getRoot()), generateFileService, slurmJobManager, dataAccessService,
-                    casdaMailService, "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY,
-                    3, 72);
+                    casdaMailService, new FifoSchedulingPolicy(), new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1,
+                    1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY, 3, 72, 5000);
             manager.init();
+            TestRepositoryUtils.stubFindAll(imageCubeRepository, catalogueRepository, measurementSetRepository,
+                    spectrumRepository, momentMapRepository, cubeletRepository, encapsulationFileRepository,
+                    evaluationFileRepository);
 
             when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(createCount());
         }
@@ -2314,16 +2409,21 @@ public class AccessJobManagerTest
                     encapsulationFileRepository, evaluationFileRepository, thumbnailRepository,
                     mock(CachedFileRepository.class), mock(NgasService.class), cacheDir.getRoot().getAbsolutePath(), 25,
                     1000, "", "", "", mock(ProcessJobFactory.class), cacheManager, dataAccessJdbcRepository,
-                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager);
+                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager,
+                    mock(AsyncDownloadStreamer.class),
+                    new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
             accessUwsFactory = new TestAccessUwsFactory(dataAccessService, packager, 1, 1);
             cacheManager = mock(CacheManagerInterface.class);
             manager = new AccessJobManager(emf, dataAccessJobRepository, imageCubeRepository, catalogueRepository,
                     measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
                     encapsulationFileRepository, evaluationFileRepository, cacheManager, accessUwsFactory,
                     new LocalUWSFileManager(uwsDir.getRoot()), generateFileService, slurmJobManager, dataAccessService,
-                    casdaMailService, "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY,
-                    3, 72);
+                    casdaMailService, new FifoSchedulingPolicy(), new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1,
+                    1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY, 3, 72, 5000);
             manager.init();
+            TestRepositoryUtils.stubFindAll(imageCubeRepository, catalogueRepository, measurementSetRepository,
+                    spectrumRepository, momentMapRepository, cubeletRepository, encapsulationFileRepository,
+                    evaluationFileRepository);
             when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(createCount());
         }
 
@@ -2513,16 +2613,22 @@ public class AccessJobManagerTest
                     encapsulationFileRepository, evaluationFileRepository, thumbnailRepository,
                     mock(CachedFileRepository.class), mock(NgasService.class), cacheDir.getRoot().getAbsolutePath(), 25,
                     1000, "", "", "", mock(ProcessJobFactory.class), cacheManager, dataAccessJdbcRepository,
-                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager);
+                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager,
+                    mock(AsyncDownloadStreamer.class),
+                    new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
             accessUwsFactory = new TestAccessUwsFactory(dataAccessService, packager, 1, 1);
             cacheManager = mock(CacheManagerInterface.class);
             manager = Mockito.spy(new AccessJobManager(emf, dataAccessJobRepository, imageCubeRepository,
                     catalogueRepository, measurementSetRepository, spectrumRepository, momentMapRepository,
                     cubeletRepository, encapsulationFileRepository, evaluationFileRepository, cacheManager,
                     accessUwsFactory, new LocalUWSFileManager(uwsDir.getRoot()), generateFileService, slurmJobManager,
-                    dataAccessService, casdaMailService, "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB,
-                    fileDownloadBaseUrl, MYSECRETKEY, 3, 72));
+                    dataAccessService, casdaMailService, new FifoSchedulingPolicy(),
+                    new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB,
+                    fileDownloadBaseUrl, MYSECRETKEY, 3, 72, 5000));
             manager.init();
+            TestRepositoryUtils.stubFindAll(imageCubeRepository, catalogueRepository, measurementSetRepository,
+                    spectrumRepository, momentMapRepository, cubeletRepository, encapsulationFileRepository,
+                    evaluationFileRepository);
             when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(createCount());
         }
 
@@ -2928,58 +3034,69 @@ public class AccessJobManagerTest
                     encapsulationFileRepository, evaluationFileRepository, thumbnailRepository,
                     mock(CachedFileRepository.class), mock(NgasService.class), cacheDir.getRoot().getAbsolutePath(), 25,
                     1000, "", "", "", mock(ProcessJobFactory.class), cacheManager, dataAccessJdbcRepository,
-                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager);
+                    imageCutoutRepository, generatedSpectrumRepository, casdaMailService, downloadManager,
+                    mock(AsyncDownloadStreamer.class),
+                    new DownloadGovernor(0, 0, 0, 0, 0), new NgasLocationCache(0, 0, 0, 0), false);
             accessUwsFactory = new TestAccessUwsFactory(dataAccessService, packager, 1, 1);
             cacheManager = mock(CacheManagerInterface.class);
             manager = new AccessJobManager(emf, dataAccessJobRepository, imageCubeRepository, catalogueRepository,
                     measurementSetRepository, spectrumRepository, momentMapRepository, cubeletRepository,
                     encapsulationFileRepository, evaluationFileRepository, cacheManager, accessUwsFactory,
                     new LocalUWSFileManager(uwsDir.getRoot()), generateFileService, slurmJobManager, dataAccessService,
-                    casdaMailService, "uwsBaseUrl", 1, 1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY,
-                    3, 72);
+                    casdaMailService, new FifoSchedulingPolicy(), new DataAccessJobJournal("", "", 0), "uwsBaseUrl", 1,
+                    1, 2, 3, MAX_SMALL_JOB_SIZE_KB, fileDownloadBaseUrl, MYSECRETKEY, 3, 72, 5000);
             manager.init();
+            TestRepositoryUtils.stubFindAll(imageCubeRepository, catalogueRepository, measurementSetRepository,
+                    spectrumRepository, momentMapRepository, cubeletRepository, encapsulationFileRepository,
+                    evaluationFileRepository);
             when(dataAccessJdbcRepository.countFilesForJob(any(String.class))).thenReturn(createCount());
         }
 
         @Test
         public void testExpiryNotification()
         {
-            List<DataAccessJob> jobsExpiring = new ArrayList<DataAccessJob>();
-            jobsExpiring.add(createDataAccessJob("goui78gkidjgf498sf"));
-            jobsExpiring.add(createDataAccessJob("b890y4btjsd78bfsdi"));
+            List<Map<String, Object>> jobsExpiring = new ArrayList<>();
+            jobsExpiring.add(createJobRow("goui78gkidjgf498sf"));
+            jobsExpiring.add(createJobRow("b890y4btjsd78bfsdi"));
 
-            List<DataAccessJob> jobsExpired = new ArrayList<DataAccessJob>();
-            DataAccessJob job = createDataAccessJob("98byjk4tbwesfsd89");
-            job.setStatus(DataAccessJobStatus.READY);
-            jobsExpired.add(job);
+            List<Map<String, Object>> jobsExpired = new ArrayList<>();
+            jobsExpired.add(createJobRow("98byjk4tbwesfsd89"));
 
-            when(dataAccessJobRepository.findAllJobsForExpiryNotification(any(DateTime.class), any(DateTime.class)))
+            when(dataAccessJdbcRepository.findJobsForExpiryNotification(any(DateTime.class), any(DateTime.class)))
                     .thenReturn(jobsExpiring);
-
-            when(dataAccessJobRepository.findExpiredJobs()).thenReturn(jobsExpired);
+            when(dataAccessJdbcRepository.expireReadyJobs()).thenReturn(jobsExpired);
+            when(dataAccessJdbcRepository.expirePreparingJobsCreatedBefore(any(DateTime.class)))
+                    .thenReturn(Arrays.asList("yu8fds7gsdf"));
 
             manager.handleStatusAndNotificationsForExpiringJobs();
 
-            verify(casdaMailService, times(2)).sendEmail(any(DataAccessJob.class), eq(CasdaMailService.EXPIRING_EMAIL),
+            ArgumentCaptor<DataAccessJob> expiringJobs = ArgumentCaptor.forClass(DataAccessJob.class);
+            verify(casdaMailService, times(2)).queueEmail(expiringJobs.capture(), eq(CasdaMailService.EXPIRING_EMAIL),
                     eq(CasdaMailService.EXPIRING_EMAIL_SUBJECT));
+            assertEquals("goui78gkidjgf498sf", expiringJobs.getAllValues().get(0).getRequestId());
+            assertEquals("steve@gmail.com", expiringJobs.getAllValues().get(0).getUserEmail());
 
-            verify(casdaMailService, times(1)).sendEmail(any(DataAccessJob.class), eq(CasdaMailService.EXPIRED_EMAIL),
+            ArgumentCaptor<DataAccessJob> expiredJob = ArgumentCaptor.forClass(DataAccessJob.class);
+            verify(casdaMailService, times(1)).queueEmail(expiredJob.capture(), eq(CasdaMailService.EXPIRED_EMAIL),
                     eq(CasdaMailService.EXPIRED_EMAIL_SUBJECT));
+            assertEquals("98byjk4tbwesfsd89", expiredJob.getValue().getRequestId());
+            assertNotNull(expiredJob.getValue().getExpiredTimestamp());
 
-            assertEquals(job.getStatus(), DataAccessJobStatus.EXPIRED);
-            verify(dataAccessJobRepository, times(1)).save(any(DataAccessJob.class));
+            verify(dataAccessJdbcRepository).expirePreparingJobsCreatedBefore(any(DateTime.class));
+            verify(casdaMailService, never()).sendEmail(any(DataAccessJob.class), anyString(), anyString());
+            verify(dataAccessJobRepository, never()).save(any(DataAccessJob.class));
         }
 
-        private DataAccessJob createDataAccessJob(String id)
+        private Map<String, Object> createJobRow(String id)
         {
-            DataAccessJob job = new DataAccessJob();
-            job.setRequestId(id);
-            job.setUserName("steve");
-            job.setUserEmail("steve@gmail.com");
-            job.setExpiredTimestamp(new DateTime().minusDays(2).minusHours(12));
-
-            return job;
+            Map<String, Object> row = new HashMap<>();
+            row.put("request_id", id);
+            row.put("user_name", "steve");
+            row.put("user_email", "steve@gmail.com");
+            row.put("expired_timestamp", new Timestamp(new DateTime().minusDays(2).minusHours(12).getMillis()));
+            return row;
         }
+
     }
 
     /**
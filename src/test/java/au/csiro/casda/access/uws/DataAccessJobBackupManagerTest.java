@@ -2,9 +2,11 @@ package au.csiro.casda.access.uws;
 
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.matchesPattern;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
@@ -14,7 +16,10 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -24,7 +29,9 @@ import java.util.UUID;
 import org.apache.commons.io.Charsets;
 import org.json.JSONObject;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -57,6 +64,8 @@ import uws.service.log.UWSLog;
  */
 public class DataAccessJobBackupManagerTest
 {
+    @Rule
+    public TemporaryFolder uwsDir = new TemporaryFolder();
 
     @Mock
     private UWS uws;
@@ -93,7 +102,8 @@ public class DataAccessJobBackupManagerTest
         doReturn(jobList).when(uws).getJobList(AccessJobManager.CATEGORY_A_JOB_LIST_NAME);
         doReturn(jobListB).when(uws).getJobList(AccessJobManager.CATEGORY_B_JOB_LIST_NAME);
         doReturn(uwsLog).when(uws).getLogger();
-        doReturn(new AccessUwsFactory(mock(DataAccessService.class), mock(Packager.class), 12, 1, "")).when(uws)
+        doReturn(new AccessUwsFactory(mock(DataAccessService.class), mock(Packager.class), 12, 1, "",
+                new JobCompletionNotifier())).when(uws)
                 .getFactory();
     }
 
@@ -203,4 +213,181 @@ public class DataAccessJobBackupManagerTest
             }
         }
     }
+
+    @Test
+    public void testSaveAllTruncatesJournal() throws Exception
+    {
+        DataAccessJobJournal journal = createJournal();
+        DataAccessJobBackupManager journalingBackupManager = new DataAccessJobBackupManager(uws, journal);
+        UWSFileManager mockFileManager = mock(UWSFileManager.class);
+        when(uws.getFileManager()).thenReturn(mockFileManager);
+        when(mockFileManager.getBackupOutput()).thenReturn(new ByteArrayOutputStream());
+
+        journalingBackupManager.jobStarted("a");
+        journalingBackupManager.jobFinished("a", ExecutionPhase.COMPLETED);
+        assertThat(journal.read().size(), is(2));
+        assertThat(journalingBackupManager.compactJournal(), is(true));
+
+        assertThat(journal.read().isEmpty(), is(true));
+        assertThat(journalingBackupManager.compactJournal(), is(false));
+    }
+
+    @Test
+    public void testSaveAllWritesJournaledPhaseOfJobStillExecuting() throws Exception
+    {
+        DataAccessJobJournal journal = createJournal();
+        DataAccessJobBackupManager journalingBackupManager = new DataAccessJobBackupManager(uws, journal);
+        UWSFileManager mockFileManager = mock(UWSFileManager.class);
+        when(uws.getFileManager()).thenReturn(mockFileManager);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mockFileManager.getBackupOutput()).thenReturn(outputStream);
+        UWSJob job = createJob();
+        job.setPhase(ExecutionPhase.EXECUTING, true);
+        when(executionManager.getOrderedJobList()).thenReturn(new ArrayList<>(Arrays.asList(job)));
+
+        journalingBackupManager.jobFinished(job.getJobId(), ExecutionPhase.COMPLETED);
+        journalingBackupManager.saveAll();
+
+        assertThat(outputStream.toString(Charsets.UTF_8.name()),
+                containsString("{\"phase\":\"COMPLETED\",\"jobId\":\"" + job.getJobId() + "\""));
+        assertThat(journal.read().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRestoreFinishedJobFromJournal() throws Exception
+    {
+        DataAccessJobJournal journal = createJournal();
+        DataAccessJobBackupManager journalingBackupManager = new DataAccessJobBackupManager(uws, journal);
+        UWSJob job = createJob();
+        UWSJob abortedJob = createJob();
+        journalingBackupManager.jobQueued(job, AccessJobManager.CATEGORY_A_JOB_LIST_NAME);
+        journalingBackupManager.jobQueued(abortedJob, AccessJobManager.CATEGORY_A_JOB_LIST_NAME);
+        journalingBackupManager.jobStarted(job.getJobId());
+        journalingBackupManager.jobFinished(job.getJobId(), ExecutionPhase.COMPLETED);
+        journalingBackupManager.jobFinished(abortedJob.getJobId(), ExecutionPhase.ABORTED);
+
+        journalingBackupManager.loadJournal();
+
+        assertThat(journalingBackupManager.restoreFromJournal(), is(2));
+        JobList jobList = uws.getJobList(AccessJobManager.CATEGORY_A_JOB_LIST_NAME);
+        assertThat(jobList.getJob(job.getJobId()).getPhase(), is(ExecutionPhase.COMPLETED));
+        assertThat(jobList.getJob(abortedJob.getJobId()).getPhase(), is(ExecutionPhase.ABORTED));
+    }
+
+    @Test
+    public void testRestoreBackedUpJobFinishedSinceBackup() throws Exception
+    {
+        DataAccessJobJournal journal = createJournal();
+        DataAccessJobBackupManager journalingBackupManager = new DataAccessJobBackupManager(uws, journal);
+        String jobId = UUID.randomUUID().toString();
+        journalingBackupManager.jobFinished(jobId, ExecutionPhase.ERROR);
+        journalingBackupManager.loadJournal();
+
+        JSONObject json = new JSONObject("{\"phase\":\"EXECUTING\",\"jobId\":\"" + jobId + "\",\"quote\":-1,"
+                + "\"executionDuration\":0,\"error\":{},\"parameters\":{\"REQUEST_ID\":\"" + jobId + "\"},"
+                + "\"results\":[],\"jobListName\":\"" + AccessJobManager.CATEGORY_A_JOB_LIST_NAME + "\"}");
+
+        assertTrue(journalingBackupManager.restoreJob(json, new HashMap<>()));
+        assertThat(uws.getJobList(AccessJobManager.CATEGORY_A_JOB_LIST_NAME).getJob(jobId).getPhase(),
+                is(ExecutionPhase.ERROR));
+    }
+
+    @Test
+    public void testBackedUpJobQueuedAgainSinceBackupIsRestoredFromJournal() throws Exception
+    {
+        DataAccessJobJournal journal = createJournal();
+        DataAccessJobBackupManager journalingBackupManager = new DataAccessJobBackupManager(uws, journal);
+        UWSJob job = createJob();
+        journalingBackupManager.jobQueued(job, AccessJobManager.CATEGORY_A_JOB_LIST_NAME);
+        journalingBackupManager.loadJournal();
+
+        JSONObject json = new JSONObject("{\"phase\":\"ERROR\",\"jobId\":\"" + job.getJobId() + "\","
+                + "\"quote\":-1,\"executionDuration\":0,\"error\":{},\"parameters\":{\"REQUEST_ID\":\""
+                + job.getJobId() + "\"},\"results\":[],\"jobListName\":\""
+                + AccessJobManager.CATEGORY_A_JOB_LIST_NAME + "\"}");
+
+        assertFalse(journalingBackupManager.restoreJob(json, new HashMap<>()));
+        assertNull(uws.getJobList(AccessJobManager.CATEGORY_A_JOB_LIST_NAME).getJob(job.getJobId()));
+    }
+
+    @Test
+    public void testRestoreAllStreamsBackup() throws Exception
+    {
+        UWSFileManager mockFileManager = mock(UWSFileManager.class);
+        when(uws.getFileManager()).thenReturn(mockFileManager);
+        String backup = "{\"date\":\"Mon Aug 01 10:00:00 AEST 2016\",\"jobs\":["
+                + backedUpJob("a1", AccessJobManager.CATEGORY_A_JOB_LIST_NAME) + ","
+                + backedUpJob("b1", AccessJobManager.CATEGORY_B_JOB_LIST_NAME) + ","
+                + backedUpJob("a2", AccessJobManager.CATEGORY_A_JOB_LIST_NAME) + "]}";
+        when(mockFileManager.getBackupInput()).thenReturn(new ByteArrayInputStream(backup.getBytes(Charsets.UTF_8)));
+
+        int[] report = backupManager.restoreAll();
+
+        assertThat(report[0], is(3));
+        assertThat(report[1], is(3));
+        assertThat(uws.getJobList(AccessJobManager.CATEGORY_A_JOB_LIST_NAME).getNbJobs(), is(2));
+        assertThat(uws.getJobList(AccessJobManager.CATEGORY_B_JOB_LIST_NAME).getJob("b1").getPhase(),
+                is(ExecutionPhase.COMPLETED));
+        assertThat(backupManager.getRestoreProgress().isFinished(), is(true));
+        assertThat(backupManager.getRestoreProgress().getJobsRestored(), is(3));
+    }
+
+    @Test
+    public void testRestoreAllKeepsJobsReadFromTruncatedBackup() throws Exception
+    {
+        UWSFileManager mockFileManager = mock(UWSFileManager.class);
+        when(uws.getFileManager()).thenReturn(mockFileManager);
+        String backup = "{\"date\":\"Mon Aug 01 10:00:00 AEST 2016\",\"jobs\":["
+                + backedUpJob("a1", AccessJobManager.CATEGORY_A_JOB_LIST_NAME) + ",{\"phase\":\"COMPL";
+        when(mockFileManager.getBackupInput()).thenReturn(new ByteArrayInputStream(backup.getBytes(Charsets.UTF_8)));
+
+        int[] report = backupManager.restoreAll();
+
+        assertThat(report[0], is(1));
+        assertThat(uws.getJobList(AccessJobManager.CATEGORY_A_JOB_LIST_NAME).getJob("a1").getPhase(),
+                is(ExecutionPhase.COMPLETED));
+    }
+
+    @Test
+    public void testRestoreAllKeepsTruncatedBackupAndJournal() throws Exception
+    {
+        DataAccessJobJournal journal = createJournal();
+        DataAccessJobBackupManager journalingBackupManager = new DataAccessJobBackupManager(uws, journal);
+        UWSFileManager mockFileManager = mock(UWSFileManager.class);
+        when(uws.getFileManager()).thenReturn(mockFileManager);
+        String backup = "{\"date\":\"Mon Aug 01 10:00:00 AEST 2016\",\"jobs\":["
+                + backedUpJob("a1", AccessJobManager.CATEGORY_A_JOB_LIST_NAME) + ",{\"phase\":\"COMPL";
+        when(mockFileManager.getBackupInput()).thenReturn(new ByteArrayInputStream(backup.getBytes(Charsets.UTF_8)),
+                new ByteArrayInputStream(backup.getBytes(Charsets.UTF_8)));
+        journalingBackupManager.jobStarted("b1");
+
+        journalingBackupManager.restoreAll();
+
+        verify(mockFileManager, never()).getBackupOutput();
+        assertThat(journal.read().size(), is(1));
+        File[] backupCopies = uwsDir.getRoot()
+                .listFiles((dir, name) -> name.startsWith(DataAccessJobJournal.INCOMPLETE_BACKUP_NAME + "."));
+        assertThat(backupCopies.length, is(1));
+        assertEquals(backup, new String(Files.readAllBytes(backupCopies[0].toPath()), Charsets.UTF_8));
+        assertThat(uwsDir.getRoot().listFiles((dir, name) -> name.startsWith("journal.log.")).length, is(1));
+    }
+
+    private String backedUpJob(String jobId, String jobListName)
+    {
+        return "{\"phase\":\"COMPLETED\",\"jobId\":\"" + jobId + "\",\"quote\":-1,\"executionDuration\":0,"
+                + "\"error\":{},\"parameters\":{\"REQUEST_ID\":\"" + jobId + "\"},\"results\":[],"
+                + "\"jobListName\":\"" + jobListName + "\"}";
+    }
+
+    private DataAccessJobJournal createJournal()
+    {
+        return new DataAccessJobJournal(uwsDir.getRoot().getAbsolutePath(), "journal.log", 2);
+    }
+
+    private UWSJob createJob() throws Exception
+    {
+        UWSParameters params = new UWSParameters();
+        params.set(AccessJobManager.REQUEST_ID, UUID.randomUUID().toString());
+        return new CasdaUwsJob(params);
+    }
 }
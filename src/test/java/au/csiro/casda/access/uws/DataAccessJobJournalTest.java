@@ -0,0 +1,112 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import au.csiro.casda.access.uws.DataAccessJobJournal.Operation;
+import uws.job.UWSJob;
+
+/**
+ * Tests the UWS job journal.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class DataAccessJobJournalTest
+{
+    @Rule
+    public TemporaryFolder uwsDir = new TemporaryFolder();
+
+    private DataAccessJobJournal journal;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        journal = new DataAccessJobJournal(uwsDir.getRoot().getAbsolutePath(), "journal.log", 3);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        journal.destroy();
+    }
+
+    @Test
+    public void testAppendAndRead() throws Exception
+    {
+        journal.append(Operation.STARTED, new JSONObject().put(UWSJob.PARAM_JOB_ID, "a"));
+        journal.append(Operation.FINISHED, new JSONObject().put(UWSJob.PARAM_JOB_ID, "a").put("phase", "COMPLETED"));
+
+        List<JSONObject> entries = journal.read();
+
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(0).getString(DataAccessJobJournal.OPERATION), is("STARTED"));
+        assertThat(entries.get(1).getString(DataAccessJobJournal.OPERATION), is("FINISHED"));
+        assertThat(entries.get(1).getString("phase"), is("COMPLETED"));
+    }
+
+    @Test
+    public void testPartlyWrittenEntryIgnored() throws Exception
+    {
+        File file = new File(uwsDir.getRoot(), "journal.log");
+        FileUtils.writeStringToFile(file, "{\"jobId\":\"a\",\"op\":\"STARTED\"}\n{\"jobId\":\"b\",\"o");
+
+        journal.append(Operation.STARTED, new JSONObject().put(UWSJob.PARAM_JOB_ID, "c"));
+        List<JSONObject> entries = journal.read();
+
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(0).getString(UWSJob.PARAM_JOB_ID), is("a"));
+        assertThat(entries.get(1).getString(UWSJob.PARAM_JOB_ID), is("c"));
+    }
+
+    @Test
+    public void testTruncateAndCompaction() throws Exception
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            assertThat(journal.needsCompaction(), is(false));
+            journal.append(Operation.STARTED, new JSONObject().put(UWSJob.PARAM_JOB_ID, "job" + i));
+        }
+        assertThat(journal.needsCompaction(), is(true));
+
+        journal.truncate();
+
+        assertThat(journal.needsCompaction(), is(false));
+        assertThat(journal.read().isEmpty(), is(true));
+        journal.append(Operation.STARTED, new JSONObject().put(UWSJob.PARAM_JOB_ID, "d"));
+        assertThat(journal.read().size(), is(1));
+    }
+
+    @Test
+    public void testDisabled() throws Exception
+    {
+        DataAccessJobJournal disabled = new DataAccessJobJournal(uwsDir.getRoot().getAbsolutePath(), "", 3);
+        disabled.append(Operation.STARTED, new JSONObject().put(UWSJob.PARAM_JOB_ID, "a"));
+
+        assertThat(disabled.isEnabled(), is(false));
+        assertThat(disabled.read().isEmpty(), is(true));
+        assertThat(uwsDir.getRoot().list().length, is(0));
+    }
+}
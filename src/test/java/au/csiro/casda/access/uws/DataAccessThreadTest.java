@@ -109,6 +109,9 @@ public class DataAccessThreadTest
     @Mock
     private Packager packager;
 
+    @Mock
+    private JobCompletionNotifier jobCompletionNotifier;
+
     private Log4JTestAppender testAppender;
 
     /**
@@ -146,11 +149,12 @@ public class DataAccessThreadTest
         UWSParameters params = new UWSParameters();
         params.set(AccessJobManager.REQUEST_ID, requestId);
         UWSJob uwsJob = new CasdaUwsJob(params);
-        DataAccessThread dataAccessThread =
-                new DataAccessThread(uwsJob, dataAccessService, packager, hoursToExpiryDefault, hoursToExpirySync, "");
+        DataAccessThread dataAccessThread = new DataAccessThread(uwsJob, dataAccessService, packager,
+                hoursToExpiryDefault, hoursToExpirySync, "", jobCompletionNotifier);
 
         dataAccessThread.jobWork();
 
+        verify(jobCompletionNotifier, times(1)).jobFinished(requestId);
         verify(dataAccessService, times(1)).getExistingJob(requestId);
         verify(packager, times(1)).pack(dataAccessJob, hoursToExpiryForDownloadMode);
         verify(dataAccessService, times(1)).markRequestCompleted(eq(requestId), any(DateTime.class));
@@ -187,13 +191,14 @@ public class DataAccessThreadTest
 
             approximateErrorDateTime = new DateTime(DateTimeZone.UTC).plusHours(hoursToExpiryForDownloadMode);
             DataAccessThread dataAccessThread = new DataAccessThread(uwsJob, dataAccessService, packager, 
-            		hoursToExpiryDefault, hoursToExpirySync, "");
+            		hoursToExpiryDefault, hoursToExpirySync, "", jobCompletionNotifier);
             dataAccessThread.jobWork();
             fail("jobWork should have failed with a wrapped CacheFullException"); // exception is expected
         }
         catch (UWSException e)
         {
             assertEquals(CacheFullException.class, e.getCause().getClass());
+            verify(jobCompletionNotifier, times(1)).jobFinished(requestId);
 
             String commenceMessage = CasdaDataAccessEvents.E038.messageBuilder().add(requestId).toString();
             testAppender.verifyLogMessage(Level.INFO, commenceMessage);
@@ -237,7 +242,7 @@ public class DataAccessThreadTest
 
             approximateErrorDateTime = new DateTime(DateTimeZone.UTC).plusHours(hoursToExpiryForDownloadMode);
             DataAccessThread dataAccessThread = new DataAccessThread(uwsJob, dataAccessService, packager, 
-            		hoursToExpiryDefault, hoursToExpirySync, "");
+            		hoursToExpiryDefault, hoursToExpirySync, "", jobCompletionNotifier);
             dataAccessThread.jobWork();
             fail("jobWork should have failed with a wrapped CacheException"); // exception is expected
         }
@@ -288,7 +293,7 @@ public class DataAccessThreadTest
 
             approximateErrorDateTime = new DateTime(DateTimeZone.UTC).plusHours(hoursToExpiryForDownloadMode);
             DataAccessThread dataAccessThread = new DataAccessThread(uwsJob, dataAccessService, packager, 
-            		hoursToExpiryDefault, hoursToExpirySync, "");
+            		hoursToExpiryDefault, hoursToExpirySync, "", jobCompletionNotifier);
             dataAccessThread.jobWork();
             fail("jobWork should have failed with a wrapped CatalogueRetrievalException"); // exception is expected
         }
@@ -340,7 +345,7 @@ public class DataAccessThreadTest
 
             approximateErrorDateTime = new DateTime(DateTimeZone.UTC).plusHours(hoursToExpiryForDownloadMode);
             DataAccessThread dataAccessThread = new DataAccessThread(uwsJob, dataAccessService, packager, 
-            		hoursToExpiryDefault, hoursToExpirySync, "");
+            		hoursToExpiryDefault, hoursToExpirySync, "", jobCompletionNotifier);
             dataAccessThread.jobWork();
             fail("jobWork should have failed with a wrapped CatalogueRetrievalException"); // exception is expected
         }
@@ -383,7 +388,7 @@ public class DataAccessThreadTest
             UWSJob uwsJob = new CasdaUwsJob(params);
 
             DataAccessThread dataAccessThread = new DataAccessThread(uwsJob, dataAccessService, packager, 
-            		hoursToExpiryDefault, hoursToExpirySync, "");
+            		hoursToExpiryDefault, hoursToExpirySync, "", jobCompletionNotifier);
             dataAccessThread.jobWork();
             fail("jobWork should have failed with a wrapped IllegalArgumentException"); // exception is expected
         }
@@ -427,7 +432,7 @@ public class DataAccessThreadTest
 
             approximateErrorDateTime = new DateTime(DateTimeZone.UTC).plusHours(hoursToExpiryForDownloadMode);
             DataAccessThread dataAccessThread = new DataAccessThread(uwsJob, dataAccessService, packager, 
-            		hoursToExpiryDefault, hoursToExpirySync, "");
+            		hoursToExpiryDefault, hoursToExpirySync, "", jobCompletionNotifier);
             dataAccessThread.jobWork();
             fail("jobWork should have failed with a wrapped IllegalStateException"); // exception is expected
         }
@@ -481,7 +486,7 @@ public class DataAccessThreadTest
 
             approximateErrorDateTime = new DateTime(DateTimeZone.UTC).plusHours(hoursToExpiryForDownloadMode);
             DataAccessThread dataAccessThread = new DataAccessThread(uwsJob, dataAccessService, packager, 
-            		hoursToExpiryDefault, hoursToExpirySync, "");
+            		hoursToExpiryDefault, hoursToExpirySync, "", jobCompletionNotifier);
             dataAccessThread.jobWork();
             if (this.casdaDownloadMode == CasdaDownloadMode.SODA_ASYNC_WEB)
             {
@@ -0,0 +1,255 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uws.UWSException;
+import uws.job.UWSJob;
+import uws.job.parameters.UWSParameters;
+
+/**
+ * Tests the fair share scheduling policy.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class FairShareSchedulingPolicyTest
+{
+    private static final Logger logger = LoggerFactory.getLogger(FairShareSchedulingPolicyTest.class);
+
+    private static final long NOW = 1000000000000L;
+
+    private static final long ONE_HOUR_MILLIS = 3600000L;
+
+    private FairShareSchedulingPolicy policy = new FairShareSchedulingPolicy(1.0, 0.5, 1.0, 0.9, 2.0);
+
+    private Map<String, JobSchedulingDetails> details = new HashMap<>();
+
+    @Test
+    public void testSharesQueueBetweenUsers() throws Exception
+    {
+        UWSJob a1 = createJob("a1", "userA", 1, 0, NOW);
+        UWSJob a2 = createJob("a2", "userA", 1, 0, NOW);
+        UWSJob a3 = createJob("a3", "userA", 1, 0, NOW);
+        UWSJob b1 = createJob("b1", "userB", 1, 0, NOW);
+        UWSJob c1 = createJob("c1", "userC", 1, 0, NOW);
+
+        assertThat(policy.order(Arrays.asList(a1, a2, a3, b1, c1), Collections.emptyList(), details, NOW),
+                contains(a1, b1, c1, a2, a3));
+    }
+
+    @Test
+    public void testCountsRunningJobs() throws Exception
+    {
+        UWSJob running = createJob("running", "userA", 1, 0, NOW);
+        UWSJob a1 = createJob("a1", "userA", 1, 0, NOW);
+        UWSJob b1 = createJob("b1", "userB", 1, 0, NOW);
+
+        assertThat(policy.order(Arrays.asList(a1, b1), Arrays.asList(running), details, NOW), contains(b1, a1));
+    }
+
+    @Test
+    public void testSmallerJobsFirst() throws Exception
+    {
+        UWSJob large = createJob("large", "userA", 500 * FileUtils.ONE_MB, 0, NOW);
+        UWSJob small = createJob("small", "userB", FileUtils.ONE_MB, 0, NOW);
+
+        assertThat(policy.order(Arrays.asList(large, small), Collections.emptyList(), details, NOW),
+                contains(small, large));
+    }
+
+    @Test
+    public void testCachedDataIsNotCounted() throws Exception
+    {
+        UWSJob uncached = createJob("uncached", "userA", 100 * FileUtils.ONE_MB, 0, NOW);
+        UWSJob cached = createJob("cached", "userB", 500 * FileUtils.ONE_MB, 0.999, NOW);
+
+        assertThat(policy.order(Arrays.asList(uncached, cached), Collections.emptyList(), details, NOW),
+                contains(cached, uncached));
+    }
+
+    @Test
+    public void testMostlyResidentJobsBoosted() throws Exception
+    {
+        UWSJob resident = createJob("resident", "userA", 100 * FileUtils.ONE_MB, 0.9, NOW);
+        UWSJob partlyResident = createJob("partlyResident", "userB", 100 * FileUtils.ONE_MB, 0.8, NOW);
+        UWSJob small = createJob("small", "userC", FileUtils.ONE_MB, 0, NOW);
+
+        assertThat(policy.order(Arrays.asList(small, partlyResident, resident), Collections.emptyList(), details, NOW),
+                contains(resident, small, partlyResident));
+    }
+
+    @Test
+    public void testWaitingJobsAge() throws Exception
+    {
+        UWSJob large = createJob("large", "userA", 500 * FileUtils.ONE_MB, 0, NOW - 10 * ONE_HOUR_MILLIS);
+        UWSJob small = createJob("small", "userB", FileUtils.ONE_MB, 0, NOW);
+
+        assertThat(policy.order(Arrays.asList(large, small), Collections.emptyList(), details, NOW),
+                contains(large, small));
+    }
+
+    @Test
+    public void testTiesKeepQueueOrder() throws Exception
+    {
+        UWSJob one = createJob("one", null, 0, 0, NOW);
+        UWSJob two = createJob("two", null, 0, 0, NOW);
+        // as for jobs restored from a backup, which have no details
+        details.clear();
+        UWSJob three = createJob("three", "userB", 0, 0, NOW);
+
+        assertThat(policy.order(Arrays.asList(one, two, three), Collections.emptyList(), details, NOW),
+                contains(one, three, two));
+        assertThat(new FairShareSchedulingPolicy(0, 0, 0, 1, 0).order(Arrays.asList(three, two, one),
+                Collections.emptyList(), details, NOW), contains(three, two, one));
+    }
+
+    /**
+     * Replays a trace of one user requesting many large jobs just before other users request small ones, on a queue
+     * which can run two jobs at once, and compares how long the other users wait with and without fair share.
+     */
+    @Test
+    public void testTraceReplay() throws Exception
+    {
+        List<TraceEntry> trace = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+        {
+            trace.add(new TraceEntry("bulk" + i, "bulkUser", i * 1000L, 200 * FileUtils.ONE_MB));
+        }
+        for (int i = 0; i < 20; i++)
+        {
+            trace.add(new TraceEntry("small" + i, "user" + (i % 5), 300000L + i * 600000L, FileUtils.ONE_MB));
+        }
+
+        Map<String, Long> fifoWaits = replay(trace, new FifoSchedulingPolicy());
+        Map<String, Long> fairShareWaits = replay(trace, policy);
+
+        long fifoSmallWait = meanWait(fifoWaits, "small");
+        long fairShareSmallWait = meanWait(fairShareWaits, "small");
+        logger.info("Mean wait for small jobs: fifo {} s, fair share {} s", fifoSmallWait / 1000,
+                fairShareSmallWait / 1000);
+        logger.info("Mean wait for bulk jobs: fifo {} s, fair share {} s", meanWait(fifoWaits, "bulk") / 1000,
+                meanWait(fairShareWaits, "bulk") / 1000);
+
+        assertThat(fairShareWaits.size(), is(trace.size()));
+        assertThat(fairShareSmallWait * 10, lessThan(fifoSmallWait));
+    }
+
+    private Map<String, Long> replay(List<TraceEntry> trace, JobSchedulingPolicy schedulingPolicy) throws Exception
+    {
+        int slots = 2;
+        Map<String, JobSchedulingDetails> traceDetails = new HashMap<>();
+        Map<String, TraceEntry> entries = new HashMap<>();
+        Map<String, Long> waits = new HashMap<>();
+        List<UWSJob> queued = new ArrayList<>();
+        Map<UWSJob, Long> running = new HashMap<>();
+        int nextArrival = 0;
+        long now = 0;
+        while (waits.size() < trace.size())
+        {
+            long nextFinish = Long.MAX_VALUE;
+            for (Long finish : running.values())
+            {
+                nextFinish = Math.min(nextFinish, finish);
+            }
+            long arrival = nextArrival < trace.size() ? trace.get(nextArrival).submitMillis : Long.MAX_VALUE;
+            now = Math.min(nextFinish, arrival);
+            if (arrival == now)
+            {
+                TraceEntry entry = trace.get(nextArrival++);
+                UWSParameters params = new UWSParameters();
+                params.set(AccessJobManager.REQUEST_ID, entry.requestId);
+                queued.add(new CasdaUwsJob(params));
+                entries.put(entry.requestId, entry);
+                traceDetails.put(entry.requestId, new JobSchedulingDetails(entry.user, entry.sizeKb, 0, now));
+            }
+            else
+            {
+                final long finishTime = now;
+                running.values().removeIf(finish -> finish == finishTime);
+            }
+            queued = schedulingPolicy.order(queued, running.keySet(), traceDetails, now);
+            while (running.size() < slots && !queued.isEmpty())
+            {
+                UWSJob job = queued.remove(0);
+                TraceEntry entry = entries.get(job.getJobId());
+                waits.put(entry.requestId, now - entry.submitMillis);
+                // Allow a minute to start a job plus a minute per GB retrieved
+                running.put(job, now + 60000L + 60000L * entry.sizeKb / FileUtils.ONE_MB);
+            }
+        }
+        return waits;
+    }
+
+    private static long meanWait(Map<String, Long> waits, String prefix)
+    {
+        long total = 0;
+        int count = 0;
+        for (Map.Entry<String, Long> wait : waits.entrySet())
+        {
+            if (wait.getKey().startsWith(prefix))
+            {
+                total += wait.getValue();
+                count++;
+            }
+        }
+        return total / count;
+    }
+
+    private UWSJob createJob(String requestId, String user, long sizeKb, double cachedFraction, long queuedMillis)
+            throws UWSException
+    {
+        UWSParameters params = new UWSParameters();
+        params.set(AccessJobManager.REQUEST_ID, requestId);
+        UWSJob job = new CasdaUwsJob(params);
+        details.put(job.getJobId(), new JobSchedulingDetails(user, sizeKb, cachedFraction, queuedMillis));
+        return job;
+    }
+
+    /**
+     * A job request in a trace.
+     */
+    private static class TraceEntry
+    {
+        private final String requestId;
+
+        private final String user;
+
+        private final long submitMillis;
+
+        private final long sizeKb;
+
+        TraceEntry(String requestId, String user, long submitMillis, long sizeKb)
+        {
+            this.requestId = requestId;
+            this.user = user;
+            this.submitMillis = submitMillis;
+            this.sizeKb = sizeKb;
+        }
+    }
+}
@@ -19,9 +19,18 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -61,35 +70,35 @@ public class PriorityQueueExecutionManagerTest
                 jobTwo.getParameter(AccessJobManager.REQUEST_ID), jobThree.getParameter(AccessJobManager.REQUEST_ID));
         logger.info("{} {} {}", jobOne.getJobId(), jobTwo.getJobId(), jobThree.getJobId());
 
-        executionManager.sendToPosition(jobOne, 0, false);
+        executionManager.sendToPosition(jobOne, 0);
         assertEquals(1, executionManager.getNbQueuedJobs());
         assertEquals(jobOne, executionManager.getQueuedJobs().next());
 
-        executionManager.sendToPosition(jobOne, 0, false);
+        executionManager.sendToPosition(jobOne, 0);
         assertEquals(1, executionManager.getNbQueuedJobs());
         assertEquals(jobOne, executionManager.getQueuedJobs().next());
 
-        executionManager.sendToPosition(jobTwo, 0, false);
+        executionManager.sendToPosition(jobTwo, 0);
         assertEquals(2, executionManager.getNbQueuedJobs());
         Iterator<UWSJob> jobsIt = executionManager.getQueuedJobs();
         assertEquals(jobTwo, jobsIt.next());
         assertEquals(jobOne, jobsIt.next());
 
-        assertTrue(executionManager.sendToPosition(jobThree, 10, false));
+        assertTrue(executionManager.sendToPosition(jobThree, 10));
         assertEquals(3, executionManager.getNbQueuedJobs());
         jobsIt = executionManager.getQueuedJobs();
         assertEquals(jobTwo, jobsIt.next());
         assertEquals(jobOne, jobsIt.next());
         assertEquals(jobThree, jobsIt.next());
 
-        executionManager.sendToPosition(jobThree, 0, false);
+        executionManager.sendToPosition(jobThree, 0);
         assertEquals(3, executionManager.getNbQueuedJobs());
         jobsIt = executionManager.getQueuedJobs();
         assertEquals(jobThree, jobsIt.next());
         assertEquals(jobTwo, jobsIt.next());
         assertEquals(jobOne, jobsIt.next());
 
-        executionManager.sendToPosition(jobTwo, 2, false);
+        executionManager.sendToPosition(jobTwo, 2);
         assertEquals(3, executionManager.getNbQueuedJobs());
         jobsIt = executionManager.getQueuedJobs();
         assertEquals(jobThree, jobsIt.next());
@@ -112,9 +121,9 @@ public class PriorityQueueExecutionManagerTest
         paramsThree.set(AccessJobManager.REQUEST_ID, UUID.randomUUID().toString());
         UWSJob jobThree = new CasdaUwsJob(paramsThree);
 
-        executionManager.sendToPosition(jobOne, 0, false);
-        executionManager.sendToPosition(jobTwo, 1, false);
-        executionManager.sendToPosition(jobThree, 2, false);
+        executionManager.sendToPosition(jobOne, 0);
+        executionManager.sendToPosition(jobTwo, 1);
+        executionManager.sendToPosition(jobThree, 2);
 
         assertEquals(3, executionManager.getNbQueuedJobs());
         Iterator<UWSJob> jobsIt = executionManager.getQueuedJobs();
@@ -123,7 +132,7 @@ public class PriorityQueueExecutionManagerTest
         assertEquals(jobThree, jobsIt.next());
 
         executionManager.sendToPosition(jobOne.getJobId(), 12);
-        verify(executionManager).sendToPosition(jobOne, 12, true);
+        verify(executionManager).sendToPosition(jobOne, 12);
         assertEquals(3, executionManager.getNbQueuedJobs());
         jobsIt = executionManager.getQueuedJobs();
         assertEquals(jobTwo, jobsIt.next());
@@ -131,6 +140,34 @@ public class PriorityQueueExecutionManagerTest
         assertEquals(jobOne, jobsIt.next());
     }
 
+    @Test
+    public void testGetQueuePosition() throws Exception
+    {
+        PriorityQueueExecutionManager executionManager = new PriorityQueueExecutionManager(mock(UWSLog.class), 1);
+        UWSJob jobOne = new UWSJob("one", new DefaultJobOwner("name"), new UWSParameters(), 1, -1, -1, null, null);
+        UWSJob jobTwo = new UWSJob("two", new DefaultJobOwner("name"), new UWSParameters(), 1, -1, -1, null, null);
+        UWSJob jobThree =
+                new UWSJob("three", new DefaultJobOwner("name"), new UWSParameters(), 1, -1, -1, null, null);
+        UWSJob notQueued =
+                new UWSJob("four", new DefaultJobOwner("name"), new UWSParameters(), 1, -1, -1, null, null);
+
+        executionManager.addQueuedJob(jobOne);
+        executionManager.addQueuedJob(jobTwo);
+        assertEquals(1, executionManager.getQueuePosition(jobOne));
+        assertEquals(2, executionManager.getQueuePosition(jobTwo));
+        assertEquals(3, executionManager.getQueuePosition(notQueued));
+
+        // a newly queued job is seen straight away
+        executionManager.addQueuedJob(jobThree);
+        assertEquals(3, executionManager.getQueuePosition(jobThree));
+
+        // as is a reprioritised job
+        executionManager.sendToPosition(jobThree, 0);
+        assertEquals(1, executionManager.getQueuePosition(jobThree));
+        assertEquals(2, executionManager.getQueuePosition(jobOne));
+        assertEquals(3, executionManager.getQueuePosition(jobTwo));
+    }
+
     @Test
     public void testGetOrderedJobList() throws Exception
     {
@@ -153,9 +190,9 @@ public class PriorityQueueExecutionManagerTest
         executionManager.addRunningJob(jobTwo);
         executionManager.addRunningJob(jobThree);
 
-        executionManager.sendToPosition(jobFour, 0, false);
-        executionManager.sendToPosition(jobFive, 1, false);
-        executionManager.sendToPosition(jobSix, 2, false);
+        executionManager.sendToPosition(jobFour, 0);
+        executionManager.sendToPosition(jobFive, 1);
+        executionManager.sendToPosition(jobSix, 2);
 
         List<UWSJob> orderedJobs = executionManager.getOrderedJobList();
         assertEquals(6, orderedJobs.size());
@@ -178,6 +215,23 @@ public class PriorityQueueExecutionManagerTest
         assertFalse(executionManager.isQueuePaused());
     }
 
+    @Test
+    public void testResize() throws Exception
+    {
+        PriorityQueueExecutionManager executionManager = new PriorityQueueExecutionManager(mock(UWSLog.class), 2);
+        assertTrue(executionManager.resize(3));
+        assertEquals(3, executionManager.getMaxRunningJobs());
+        assertFalse(executionManager.resize(0));
+        assertEquals(3, executionManager.getMaxRunningJobs());
+
+        executionManager.pauseQueue();
+        assertFalse(executionManager.resize(5));
+        assertEquals(3, executionManager.getMaxRunningJobs());
+        executionManager.unpauseQueue();
+        assertTrue(executionManager.resize(1));
+        assertEquals(1, executionManager.getMaxRunningJobs());
+    }
+
     @Test
     public void testPauseQueue() throws Exception
     {
@@ -225,4 +279,137 @@ public class PriorityQueueExecutionManagerTest
         assertEquals(1, executionManager.getNbRunningJobs());
         assertEquals(jobOne.getJobId(), executionManager.getRunningJobs().next().getJobId());
     }
+
+    @Test(timeout = 30000)
+    public void testConcurrentReprioritiseAndDispatch() throws Exception
+    {
+        final int numJobs = 50;
+        PriorityQueueExecutionManager executionManager = new PriorityQueueExecutionManager(mock(UWSLog.class), 1);
+        List<String> requestIds = new ArrayList<>();
+        for (int i = 0; i < numJobs; i++)
+        {
+            UWSParameters params = new UWSParameters();
+            params.set(AccessJobManager.REQUEST_ID, UUID.randomUUID().toString());
+            UWSJob job = new CasdaUwsJob(params);
+            requestIds.add((String) job.getParameter(AccessJobManager.REQUEST_ID));
+            executionManager.addQueuedJob(job);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger emptyQueueSeen = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        // admin threads moving jobs around the queue
+        for (int t = 0; t < 4; t++)
+        {
+            final int seed = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                Random random = new Random(seed);
+                for (int i = 0; i < 2000; i++)
+                {
+                    String requestId = requestIds.get(random.nextInt(numJobs));
+                    assertTrue(executionManager.sendToPosition(requestId, random.nextInt(numJobs + 5)));
+                }
+                return null;
+            }));
+        }
+        // dispatch and monitoring threads reading the queue while it is being reordered
+        for (int t = 0; t < 4; t++)
+        {
+            futures.add(executor.submit(() -> {
+                start.await();
+                while (running.get())
+                {
+                    if (!executionManager.hasQueue())
+                    {
+                        emptyQueueSeen.incrementAndGet();
+                    }
+                    List<UWSJob> jobs = executionManager.getOrderedJobList();
+                    assertEquals(numJobs, jobs.size());
+                    assertEquals(numJobs, new HashSet<>(jobs).size());
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (int i = 0; i < 4; i++)
+        {
+            futures.get(i).get();
+        }
+        running.set(false);
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(0, emptyQueueSeen.get());
+        assertEquals(numJobs, executionManager.getNbQueuedJobs());
+    }
+
+    @Test(timeout = 10000)
+    public void testReprioritiseWaitsForQueue() throws Exception
+    {
+        PriorityQueueExecutionManager executionManager = new PriorityQueueExecutionManager(mock(UWSLog.class), 1);
+        UWSParameters paramsOne = new UWSParameters();
+        paramsOne.set(AccessJobManager.REQUEST_ID, UUID.randomUUID().toString());
+        UWSJob jobOne = new CasdaUwsJob(paramsOne);
+        UWSParameters paramsTwo = new UWSParameters();
+        paramsTwo.set(AccessJobManager.REQUEST_ID, UUID.randomUUID().toString());
+        UWSJob jobTwo = new CasdaUwsJob(paramsTwo);
+        executionManager.addQueuedJob(jobOne);
+        executionManager.addQueuedJob(jobTwo);
+
+        CountDownLatch moving = new CountDownLatch(1);
+        Thread admin;
+        // Hold the execution manager's monitor, as the UWS library does while dispatching a job
+        synchronized (executionManager)
+        {
+            admin = new Thread(() -> {
+                moving.countDown();
+                executionManager.sendToPosition((String) jobTwo.getParameter(AccessJobManager.REQUEST_ID), 0);
+            });
+            admin.start();
+            moving.await();
+            Thread.sleep(100);
+            assertEquals(Thread.State.BLOCKED, admin.getState());
+            assertEquals(jobOne, executionManager.getQueuedJobs().next());
+        }
+        admin.join();
+        assertEquals(jobTwo, executionManager.getQueuedJobs().next());
+    }
+
+    @Test
+    public void testApplySchedulingPolicyLeavesPrioritisedJobs() throws Exception
+    {
+        PriorityQueueExecutionManager executionManager = new PriorityQueueExecutionManager(mock(UWSLog.class), 1,
+                new FairShareSchedulingPolicy(1.0, 0.5, 1.0, 0.9, 2.0));
+        long now = System.currentTimeMillis();
+        List<UWSJob> jobs = new ArrayList<>();
+        for (String requestId : new String[] { "a1", "a2", "b1", "a3" })
+        {
+            UWSParameters params = new UWSParameters();
+            params.set(AccessJobManager.REQUEST_ID, requestId);
+            UWSJob job = new CasdaUwsJob(params);
+            executionManager.putSchedulingDetails(job.getJobId(),
+                    new JobSchedulingDetails(requestId.substring(0, 1), 100, 0, now));
+            jobs.add(job);
+        }
+        executionManager.addQueuedJob(jobs.get(0));
+        executionManager.addQueuedJob(jobs.get(1));
+        executionManager.addQueuedJob(jobs.get(2));
+        executionManager.sendToPosition(jobs.get(3), 0);
+
+        executionManager.applySchedulingPolicy();
+
+        Iterator<UWSJob> jobsIt = executionManager.getQueuedJobs();
+        assertEquals(jobs.get(3), jobsIt.next());
+        assertEquals(jobs.get(0), jobsIt.next());
+        assertEquals(jobs.get(2), jobsIt.next());
+        assertEquals(jobs.get(1), jobsIt.next());
+        assertEquals(2, executionManager.getQueuePosition(jobs.get(0)));
+    }
 }
@@ -0,0 +1,283 @@
+package au.csiro.casda.access.uws;
+
+/*
+ * #%L
+ * CSIRO ASKAP Science Data Archive
+ * %%
+ * Copyright (C) 2015 Commonwealth Scientific and Industrial Research Organisation (CSIRO) ABN 41 687 119 230.
+ * %%
+ * Licensed under the CSIRO Open Source License Agreement (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License in the LICENSE file.
+ * #L%
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import au.csiro.casda.access.jpa.CachedFileRepository;
+import au.csiro.casda.access.security.BackendResilience;
+import au.csiro.casda.access.security.BackendResilience.Guard;
+import au.csiro.casda.entity.dataaccess.CachedFile;
+import uws.job.UWSJob;
+import uws.job.parameters.UWSParameters;
+import uws.service.log.UWSLog;
+
+/**
+ * Tests the running jobs governor.
+ * <p>
+ * Copyright 2016, CSIRO Australia. All rights reserved.
+ */
+public class RunningJobsGovernorTest
+{
+    private static final long INTERVAL_MILLIS = 60000L;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private AccessJobManager accessJobManager;
+
+    private JobCompletionNotifier jobCompletionNotifier;
+
+    private BackendResilience backendResilience;
+
+    private Guard ngasGuard;
+
+    private CachedFileRepository cachedFileRepository;
+
+    private File cpuStatFile;
+
+    private PriorityQueueExecutionManager categoryA;
+
+    private PriorityQueueExecutionManager categoryB;
+
+    private long now;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        accessJobManager = mock(AccessJobManager.class);
+        jobCompletionNotifier = new JobCompletionNotifier();
+        backendResilience = mock(BackendResilience.class);
+        ngasGuard = mock(Guard.class);
+        when(backendResilience.getGuard(anyString())).thenReturn(ngasGuard);
+        cachedFileRepository = mock(CachedFileRepository.class);
+        setRecallBacklog(0);
+        cpuStatFile = tempFolder.newFile("stat");
+        writeCpuTimes("cpu  1000 0 1000 8000 0 0 0 0 0 0");
+
+        categoryA = createExecutionManager(AccessJobManager.CATEGORY_A_JOB_LIST_NAME, 4);
+        categoryB = createExecutionManager(AccessJobManager.CATEGORY_B_JOB_LIST_NAME, 2);
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void testRaisesLimitOfBusyQueue() throws Exception
+    {
+        RunningJobsGovernor governor = createGovernor(true);
+        fill(categoryA, 4, 1);
+        fill(categoryB, 1, 0);
+
+        governor.adjust(now += INTERVAL_MILLIS);
+
+        verify(categoryA).resize(5);
+        verify(categoryB, never()).resize(anyInt());
+    }
+
+    @Test
+    public void testStaysWithinBounds() throws Exception
+    {
+        RunningJobsGovernor governor = createGovernor(true);
+        fill(categoryB, 2, 5);
+
+        governor.adjust(now += INTERVAL_MILLIS);
+        verify(categoryB, never()).resize(anyInt());
+
+        when(ngasGuard.getLatencyRatio()).thenReturn(2.0);
+        governor.adjust(now += INTERVAL_MILLIS);
+        verify(categoryB).resize(1);
+    }
+
+    @Test
+    public void testCutsLimitsWhenNgasIsSlow() throws Exception
+    {
+        RunningJobsGovernor governor = createGovernor(true);
+        fill(categoryA, 4, 3);
+        when(ngasGuard.getLatencyRatio()).thenReturn(1.5);
+
+        governor.adjust(now += INTERVAL_MILLIS);
+
+        verify(categoryA).resize(3);
+        verify(categoryB).resize(1);
+    }
+
+    @Test
+    public void testCutsLimitsWhenRecallBacklogIsHigh() throws Exception
+    {
+        RunningJobsGovernor governor = createGovernor(true);
+        fill(categoryA, 4, 3);
+        setRecallBacklog(501);
+
+        governor.adjust(now += INTERVAL_MILLIS);
+
+        verify(categoryA).resize(3);
+    }
+
+    @Test
+    public void testCutsLimitsWhenIoWaitIsHigh() throws Exception
+    {
+        RunningJobsGovernor governor = createGovernor(true);
+        fill(categoryA, 4, 3);
+        writeCpuTimes("cpu  1100 0 1100 8400 400 0 0 0 0 0");
+
+        governor.adjust(now += INTERVAL_MILLIS);
+
+        verify(categoryA).resize(3);
+        assertThat(governor.getDetails().get("ioWait"), is(0.4));
+    }
+
+    @Test
+    public void testTakesBackSlotWhichSlowedPackaging() throws Exception
+    {
+        RunningJobsGovernor governor = createGovernor(true);
+        fill(categoryA, 4, 3);
+
+        jobCompletionNotifier.jobPackaged(600000);
+        governor.adjust(now += INTERVAL_MILLIS);
+        verify(categoryA).resize(5);
+
+        jobCompletionNotifier.jobPackaged(300000);
+        governor.adjust(now += INTERVAL_MILLIS);
+        verify(categoryA).resize(3);
+    }
+
+    @Test
+    public void testKeepsSlotUntilAJobFinishes() throws Exception
+    {
+        RunningJobsGovernor governor = createGovernor(true);
+        fill(categoryA, 4, 3);
+
+        jobCompletionNotifier.jobPackaged(600000);
+        governor.adjust(now += INTERVAL_MILLIS);
+        verify(categoryA).resize(5);
+
+        // no job finished in this interval
+        governor.adjust(now += INTERVAL_MILLIS);
+        verify(categoryA, never()).resize(3);
+        verify(categoryA, times(1)).resize(5);
+
+        // the same amount packaged over both intervals is a drop in the rate
+        jobCompletionNotifier.jobPackaged(600000);
+        governor.adjust(now += INTERVAL_MILLIS);
+        verify(categoryA).resize(3);
+    }
+
+    @Test
+    public void testOverride() throws Exception
+    {
+        RunningJobsGovernor governor = createGovernor(true);
+        fill(categoryA, 4, 3);
+
+        assertThat(governor.overrideMaxRunningJobs(AccessJobManager.CATEGORY_A_JOB_LIST_NAME, 10), is(true));
+        verify(categoryA).resize(10);
+        assertThat(governor.overrideMaxRunningJobs(AccessJobManager.CATEGORY_A_JOB_LIST_NAME, 0), is(false));
+        assertThat(governor.overrideMaxRunningJobs("Unknown", 3), is(false));
+
+        when(ngasGuard.getLatencyRatio()).thenReturn(1.5);
+        governor.adjust(now += INTERVAL_MILLIS);
+        verify(categoryA, never()).resize(3);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> details =
+                (Map<String, Object>) governor.getDetails().get(AccessJobManager.CATEGORY_A_JOB_LIST_NAME);
+        assertThat(details.get("override"), is(10));
+
+        assertThat(governor.clearOverride(AccessJobManager.CATEGORY_A_JOB_LIST_NAME), is(true));
+        assertThat(governor.clearOverride("Unknown"), is(false));
+        governor.adjust(now += INTERVAL_MILLIS);
+        verify(categoryA).resize(3);
+    }
+
+    @Test
+    public void testDisabled() throws Exception
+    {
+        RunningJobsGovernor governor = createGovernor(false);
+        fill(categoryA, 4, 3);
+        when(ngasGuard.getLatencyRatio()).thenReturn(1.5);
+
+        governor.adjust(now += INTERVAL_MILLIS);
+
+        verify(categoryA, never()).resize(anyInt());
+        verify(categoryB, never()).resize(anyInt());
+        assertThat(governor.getDetails().get("adaptive"), is(false));
+    }
+
+    private RunningJobsGovernor createGovernor(boolean enabled)
+    {
+        return new RunningJobsGovernor(accessJobManager, jobCompletionNotifier, backendResilience,
+                cachedFileRepository, enabled, 4, 1, 8, 2, 1, 2, 0.3, 500, 2, cpuStatFile.getAbsolutePath());
+    }
+
+    private PriorityQueueExecutionManager createExecutionManager(String queue, int maxRunningJobs) throws Exception
+    {
+        // jobs aren't really started, the governor's decisions are checked through the calls to resize
+        PriorityQueueExecutionManager executionManager =
+                spy(new PriorityQueueExecutionManager(mock(UWSLog.class), maxRunningJobs));
+        doReturn(true).when(executionManager).resize(anyInt());
+        when(accessJobManager.getQueueExecutionManager(queue)).thenReturn(executionManager);
+        return executionManager;
+    }
+
+    private void fill(PriorityQueueExecutionManager executionManager, int running, int queued) throws Exception
+    {
+        for (int i = 0; i < running + queued; i++)
+        {
+            UWSParameters params = new UWSParameters();
+            params.set(AccessJobManager.REQUEST_ID, UUID.randomUUID().toString());
+            UWSJob job = new CasdaUwsJob(params);
+            if (i < running)
+            {
+                executionManager.addRunningJob(job);
+            }
+            else
+            {
+                executionManager.addQueuedJob(job);
+            }
+        }
+    }
+
+    private void setRecallBacklog(long files)
+    {
+        when(cachedFileRepository.findDownloadingCachedFiles(eq(2), any(Pageable.class))).thenReturn(
+                new PageImpl<CachedFile>(Collections.emptyList(), new PageRequest(0, 1), files));
+    }
+
+    private void writeCpuTimes(String line) throws Exception
+    {
+        FileUtils.writeStringToFile(cpuStatFile, line + "\ncpu0 0 0 0 0 0 0 0 0 0 0\n");
+    }
+}
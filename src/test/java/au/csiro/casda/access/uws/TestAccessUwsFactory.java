@@ -36,9 +36,11 @@ public class TestAccessUwsFactory extends AccessUwsFactory
         private Semaphore jobEnded = new Semaphore(0);
 
         private NotifyingDataAccessThread(UWSJob uwsJob, DataAccessService dataAccessService, Packager packager,
-                int hoursToExpiryDefault, int hoursToExpirySodaSync) throws UWSException
+                int hoursToExpiryDefault, int hoursToExpirySodaSync, JobCompletionNotifier jobCompletionNotifier)
+                throws UWSException
         {
-            super(uwsJob, dataAccessService, packager, hoursToExpiryDefault, hoursToExpirySodaSync, "");
+            super(uwsJob, dataAccessService, packager, hoursToExpiryDefault, hoursToExpirySodaSync, "",
+                    jobCompletionNotifier);
         }
 
         @Override
@@ -123,7 +125,27 @@ public class TestAccessUwsFactory extends AccessUwsFactory
     public TestAccessUwsFactory(DataAccessService dataAccessService, Packager packager, int hoursToExpiryDefault,
             int hoursToExpirySodaSync)
     {
-        super(dataAccessService, packager, hoursToExpiryDefault, hoursToExpirySodaSync, "");
+        this(dataAccessService, packager, hoursToExpiryDefault, hoursToExpirySodaSync, new JobCompletionNotifier());
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param dataAccessService
+     *            The service instance managing data access objects for the job.
+     * @param packager
+     *            The packager instance which will be doing the work for each job.
+     * @param hoursToExpiryDefault
+     *            the default number of hours until a job will expire
+     * @param hoursToExpirySodaSync
+     *            the number of hours to expiry for a SIAP sync job
+     * @param jobCompletionNotifier
+     *            notified when each job thread has finished
+     */
+    public TestAccessUwsFactory(DataAccessService dataAccessService, Packager packager, int hoursToExpiryDefault,
+            int hoursToExpirySodaSync, JobCompletionNotifier jobCompletionNotifier)
+    {
+        super(dataAccessService, packager, hoursToExpiryDefault, hoursToExpirySodaSync, "", jobCompletionNotifier);
     }
 
     private ArrayList<TestAccessUwsFactory.NotifyingDataAccessThread> jobThreads = new ArrayList<>();
@@ -132,7 +154,8 @@ public class TestAccessUwsFactory extends AccessUwsFactory
     public JobThread createJobThread(UWSJob jobDescription) throws UWSException
     {
         TestAccessUwsFactory.NotifyingDataAccessThread myJobThread = new NotifyingDataAccessThread(jobDescription,
-                this.dataAccessService, this.packager, this.hoursToExpiryDefault, this.hoursToExpirySodaSync);
+                this.dataAccessService, this.packager, this.hoursToExpiryDefault, this.hoursToExpirySodaSync,
+                this.jobCompletionNotifier);
         jobThreads.add(myJobThread);
         return myJobThread;
     }
@@ -28,6 +28,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -71,6 +72,9 @@ public class UwsAdminControllerTest
     @Mock
     private DataAccessJobRepository dataAccessJobRepository;
 
+    @Mock
+    private RunningJobsGovernor runningJobsGovernor;
+
     @InjectMocks
     private UwsAdminController controller;
 
@@ -252,6 +256,60 @@ public class UwsAdminControllerTest
         result.andExpect(jsonPath("$.messageCode").value(MessageCode.FAILURE.toString()));
     }
 
+    @Test
+    public void testViewConcurrency() throws Exception
+    {
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("adaptive", true);
+        details.put("recallBacklog", 12);
+        when(runningJobsGovernor.getDetails()).thenReturn(details);
+
+        ResultActions result = this.mockMvc.perform(get("/queues/concurrency").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        result.andExpect(jsonPath("$.adaptive").value(true));
+        result.andExpect(jsonPath("$.recallBacklog").value(12));
+    }
+
+    @Test
+    public void testOverrideConcurrencySuccess() throws Exception
+    {
+        when(runningJobsGovernor.overrideMaxRunningJobs("queuename", 6)).thenReturn(true);
+
+        ResultActions result = this.mockMvc
+                .perform(put("/queues/queuename/concurrency").param("maxRunningJobs", "6")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        result.andExpect(jsonPath("$.messageCode").value(MessageCode.SUCCESS.toString()));
+        result.andExpect(jsonPath("$.message").value(containsString("Queue queuename maximum running jobs set to 6")));
+    }
+
+    @Test
+    public void testOverrideConcurrencyFailure() throws Exception
+    {
+        when(runningJobsGovernor.overrideMaxRunningJobs("queuename", 0)).thenReturn(false);
+
+        ResultActions result = this.mockMvc
+                .perform(put("/queues/queuename/concurrency").param("maxRunningJobs", "0")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+
+        result.andExpect(jsonPath("$.messageCode").value(MessageCode.FAILURE.toString()));
+    }
+
+    @Test
+    public void testAdaptiveConcurrency() throws Exception
+    {
+        when(runningJobsGovernor.clearOverride("queuename")).thenReturn(true);
+
+        this.mockMvc.perform(put("/queues/queuename/concurrency/adaptive").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messageCode").value(MessageCode.SUCCESS.toString()));
+        this.mockMvc.perform(put("/queues/othername/concurrency/adaptive").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     public void testResumeJobSuccess() throws Exception
     {